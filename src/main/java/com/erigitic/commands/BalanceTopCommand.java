@@ -26,8 +26,9 @@
 package com.erigitic.commands;
 
 import com.erigitic.config.AccountManager;
-import com.erigitic.config.TEAccount;
+import com.erigitic.config.AccountSnapshot;
 import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.SqlManager;
 import com.erigitic.util.MessageManager;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandException;
@@ -90,12 +91,14 @@ public class BalanceTopCommand implements CommandExecutor {
 
         if (totalEconomy.isDatabaseEnabled()) {
             accountBalances.clear();
+            SqlManager sqlManager = totalEconomy.getSqlManager();
+
             try (
-                 Connection connection = totalEconomy.getSqlManager().dataSource.getConnection();
+                 Connection connection = sqlManager.getReadDataSource().getConnection();
                  Statement statement = connection.createStatement()
             ) {
                 String currencyColumn = currency.getName() + "_balance";
-                statement.execute("SELECT * FROM accounts ORDER BY `" + currencyColumn + "` DESC LIMIT 10");
+                statement.execute("SELECT * FROM accounts ORDER BY " + sqlManager.getDialect().quote(currencyColumn) + " DESC" + sqlManager.getDialect().limit(10, 0));
 
                 try (ResultSet set = statement.getResultSet()) {
                     while (set.next()) {
@@ -147,19 +150,22 @@ public class BalanceTopCommand implements CommandExecutor {
         if (src != null) src.sendMessage(messageManager.getMessage("command.balance.top.calculate"));
         accountBalances.clear();
         accountBalancesMap.clear();
-        accountManager.getAccountConfig().getChildrenMap().keySet().forEach(accountUUID -> {
-            UUID uuid;
-            // Check if the account is virtual or not. If virtual, skip the rest of the execution and move on to next account.
-            try {
-                uuid = UUID.fromString(accountUUID.toString());
-            } catch (IllegalArgumentException e) {
-                return;
-            }
+        // Read from a snapshot, as the main thread keeps changing the accounts configuration while this runs
+        try (AccountSnapshot snapshot = accountManager.getAccountRecords().get().openSnapshot()) {
+            snapshot.forEach(record -> {
+                // Virtual accounts aren't ranked
+                if (record.isVirtual()) {
+                    return;
+                }
 
-            TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(uuid).get();
-            Text playerName = playerAccount.getDisplayName();
-            accountBalancesMap.put(playerName.toPlain(), playerAccount.getBalance(fCurrency));
-        });
+                Optional<BigDecimal> balanceOpt = record.getBalance(fCurrency);
+
+                if (balanceOpt.isPresent()) {
+                    Optional<User> optUser = totalEconomy.getUserStorageService().get(UUID.fromString(record.getIdentifier()));
+                    accountBalancesMap.put(optUser.map(User::getName).orElse("PLAYER NAME"), balanceOpt.get());
+                }
+            });
+        }
 
         boolean[] firstAchieved = new boolean[1];
         firstAchieved[0] = false;
@@ -66,7 +66,7 @@ public class JobCommand implements CommandExecutor {
         Set jobSetCommand = new Set(totalEconomy, jobManager, messageManager);
         Info jobInfoCommand = new Info(totalEconomy, jobManager);
         Reload jobReloadCommand = new Reload(jobManager);
-        Toggle jobToggleCommand = new Toggle(accountManager);
+        Toggle jobToggleCommand = new Toggle(accountManager, jobManager);
 
         return CommandSpec.builder()
                 .child(jobSetCommand.commandSpec(), "set", "s")
@@ -307,11 +307,14 @@ public class JobCommand implements CommandExecutor {
 
         @Override
         public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
-            if (jobManager.reloadJobsAndSets()) {
-                src.sendMessage(Text.of(TextColors.GRAY, "[TE] Sets and jobs reloaded."));
-            } else {
-                throw new CommandException(Text.of(TextColors.RED, "[TE] Failed to reload sets and/or jobs!"));
-            }
+            // Parsing happens off the main thread, the future completes on the main thread once the new jobs have been published
+            jobManager.reloadJobsAndSets().thenAccept(success -> {
+                if (success) {
+                    src.sendMessage(Text.of(TextColors.GRAY, "[TE] Sets and jobs reloaded."));
+                } else {
+                    src.sendMessage(Text.of(TextColors.RED, "[TE] Failed to reload sets and/or jobs!"));
+                }
+            });
 
             return CommandResult.success();
         }
@@ -319,13 +322,12 @@ public class JobCommand implements CommandExecutor {
 
     private class Toggle implements CommandExecutor {
 
-        private final String[] TOGGLE_PLAYER_OPTIONS = {"block-break-info", "block-place-info", "entity-kill-info", "entity-fish-info"};
-        private final List<String> TOGGLE_PLAYER_OPTIONS_LIST = Arrays.asList(TOGGLE_PLAYER_OPTIONS);
-
         private AccountManager accountManager;
+        private JobManager jobManager;
 
-        public Toggle(AccountManager accountManager) {
+        public Toggle(AccountManager accountManager, JobManager jobManager) {
             this.accountManager = accountManager;
+            this.jobManager = jobManager;
         }
 
         public CommandSpec commandSpec() {
@@ -354,17 +356,13 @@ public class JobCommand implements CommandExecutor {
 
                     return CommandResult.success();
                 } else {
-                    String option = optionOpt.get();
-                    int i = TOGGLE_PLAYER_OPTIONS_LIST.indexOf(option);
+                    Optional<JobDebugOption> option = JobDebugOption.fromId(optionOpt.get());
 
-                    if (i < 0) {
-                        throw new CommandException(Text.of("[TE] Unknown option: ", option));
+                    if (!option.isPresent()) {
+                        throw new CommandException(Text.of("[TE] Unknown option: ", optionOpt.get()));
                     }
 
-                    String value = accountManager.getUserOption("totaleconomy:" + option, sender).orElse("0");
-                    value = value.equals("0") ? "1" : "0";
-
-                    accountManager.setUserOption("totaleconomy:" + option, sender, value);
+                    jobManager.getDebugOptions().toggle(sender, option.get());
 
                     src.sendMessage(messageManager.getMessage("jobs.toggle"));
 
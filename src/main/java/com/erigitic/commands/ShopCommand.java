@@ -30,12 +30,14 @@ import com.erigitic.config.TEAccount;
 import com.erigitic.main.TotalEconomy;
 import com.erigitic.shops.Shop;
 import com.erigitic.shops.ShopItem;
+import com.erigitic.shops.ShopListing;
 import com.erigitic.shops.ShopManager;
 import com.erigitic.shops.data.ShopData;
 import com.erigitic.shops.data.ShopItemData;
 import com.erigitic.shops.data.ShopKeys;
 import com.erigitic.util.InventoryUtils;
 import com.erigitic.util.MessageManager;
+import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.block.BlockType;
 import org.spongepowered.api.block.BlockTypes;
@@ -53,6 +55,7 @@ import org.spongepowered.api.data.type.HandTypes;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.event.cause.EventContext;
+import org.spongepowered.api.item.ItemType;
 import org.spongepowered.api.item.inventory.Inventory;
 import org.spongepowered.api.item.inventory.ItemStack;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
@@ -61,6 +64,7 @@ import org.spongepowered.api.service.economy.transaction.TransactionResult;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
 import org.spongepowered.api.text.format.TextStyles;
+import org.spongepowered.api.world.World;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -82,10 +86,12 @@ public class ShopCommand implements CommandExecutor {
     public CommandSpec getCommandSpec() {
         Stock shopStockCommand = new Stock();
         Buy shopBuyCommand = new Buy();
+        Find shopFindCommand = new Find();
 
         return CommandSpec.builder()
                 .child(shopStockCommand.getCommandSpec(), "stock", "s")
                 .child(shopBuyCommand.getCommandSpec(), "buy", "b")
+                .child(shopFindCommand.getCommandSpec(), "find", "f")
                 .permission("totaleconomy.command.shop")
                 .executor(this)
                 .build();
@@ -162,6 +168,8 @@ public class ShopCommand implements CommandExecutor {
                                 if (rejectedItems.size() <= 0) {
                                     InventoryUtils.removeItem(playerInventory, itemInHand, quantity);
 
+                                    shopManager.getShopIndex().addStock(chest.getLocation(), shopOwner, player.getName(), itemInHand, price, quantity);
+
                                     Map<String, String> messageValues = new HashMap<>();
                                     messageValues.put("quantity", String.valueOf(quantity));
                                     messageValues.put("item", preparedItem.get(Keys.DISPLAY_NAME).orElse(Text.of(preparedItem.getTranslation())).toPlain());
@@ -313,4 +321,58 @@ public class ShopCommand implements CommandExecutor {
             return shop;
         }
     }
+
+    private class Find implements CommandExecutor {
+
+        private static final int RESULT_LIMIT = 10;
+
+        public Find() {
+
+        }
+
+        public CommandSpec getCommandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("Find the cheapest shops selling an item"))
+                    .permission("totaleconomy.command.shop.find")
+                    .executor(this)
+                    .arguments(
+                            GenericArguments.catalogedElement(Text.of("item"), ItemType.class),
+                            GenericArguments.optional(GenericArguments.doubleNum(Text.of("maxPrice")))
+                    )
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            ItemType itemType = args.<ItemType>getOne(Text.of("item")).get();
+            double maxPrice = args.<Double>getOne(Text.of("maxPrice")).orElse(Double.MAX_VALUE);
+
+            List<ShopListing> listings = shopManager.getShopIndex().find(itemType, maxPrice, RESULT_LIMIT);
+
+            if (listings.isEmpty()) {
+                throw new CommandException(messageManager.getMessage("command.shop.find.none"));
+            }
+
+            Map<String, String> headerValues = new HashMap<>();
+            headerValues.put("item", itemType.getTranslation().get());
+
+            src.sendMessage(messageManager.getMessage("command.shop.find.header", headerValues));
+
+            for (ShopListing listing : listings) {
+                Map<String, String> messageValues = new HashMap<>();
+                messageValues.put("quantity", String.valueOf(listing.getQuantity()));
+                messageValues.put("item", listing.getItemName());
+                messageValues.put("price", totalEconomy.getDefaultCurrency().format(BigDecimal.valueOf(listing.getPrice()), 2).toPlain());
+                messageValues.put("x", String.valueOf(listing.getX()));
+                messageValues.put("y", String.valueOf(listing.getY()));
+                messageValues.put("z", String.valueOf(listing.getZ()));
+                messageValues.put("world", Sponge.getServer().getWorld(listing.getWorldUniqueId()).map(World::getName).orElse("?"));
+                messageValues.put("owner", listing.getOwnerName());
+
+                src.sendMessage(messageManager.getMessage("command.shop.find.entry", messageValues));
+            }
+
+            return CommandResult.success();
+        }
+    }
 }
@@ -0,0 +1,389 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.commands;
+
+import com.erigitic.config.AccountCache;
+import com.erigitic.config.TECurrency;
+import com.erigitic.config.VirtualAccountStore;
+import com.erigitic.ledger.LedgerEntry;
+import com.erigitic.ledger.TransactionLedger;
+import com.erigitic.main.MaintenanceScheduler;
+import com.erigitic.main.TotalEconomy;
+import com.erigitic.stats.CurrencyStats;
+import com.erigitic.stats.EconomyStats;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.command.args.GenericArguments;
+import org.spongepowered.api.command.spec.CommandExecutor;
+import org.spongepowered.api.command.spec.CommandSpec;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.account.Account;
+import org.spongepowered.api.service.pagination.PaginationService;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+public class TECommand implements CommandExecutor {
+
+    private TotalEconomy totalEconomy;
+
+    public TECommand(TotalEconomy totalEconomy) {
+        this.totalEconomy = totalEconomy;
+    }
+
+    public CommandSpec commandSpec() {
+        CommandSpec.Builder builder = CommandSpec.builder()
+                .description(Text.of("Total Economy administration"))
+                .permission("totaleconomy.command.te")
+                .arguments(GenericArguments.none())
+                .executor(this);
+
+        // Registered while the storage is still loading, the children look up what they use when they're executed
+        builder.child(new History(totalEconomy).commandSpec(), "history", "h");
+        builder.child(new Cache().commandSpec(), "cache");
+        builder.child(new Stats(totalEconomy).commandSpec(), "stats");
+        builder.child(new Accounts(totalEconomy).commandSpec(), "accounts");
+        builder.child(new Maintenance(totalEconomy.getMaintenanceScheduler()).commandSpec(), "maintenance");
+
+        return builder.build();
+    }
+
+    /**
+     * Make sure the storage has finished loading before a command uses it, without waiting for it on the main thread.
+     *
+     * @throws CommandException If the storage is still loading
+     */
+    private void checkStorageReady() throws CommandException {
+        if (!totalEconomy.getStorageWarmup().isReady()) {
+            throw new CommandException(Text.of("The storage is still loading, try again shortly."));
+        }
+    }
+
+    @Override
+    public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+        src.sendMessage(Text.of(TextColors.GRAY, "Total Economy ", TextColors.GOLD, totalEconomy.getPluginContainer().getVersion().orElse("")));
+
+        boolean storageReady = totalEconomy.getStorageWarmup().isReady();
+
+        if (!storageReady || totalEconomy.getTransactionLedger().isPresent()) {
+            src.sendMessage(Text.of(TextColors.GRAY, "/te history <player> [page]", TextColors.GOLD, " - Show the transaction history of a player"));
+        }
+
+        src.sendMessage(Text.of(TextColors.GRAY, "/te stats [currency]", TextColors.GOLD, " - Show economy wide balance statistics"));
+        src.sendMessage(Text.of(TextColors.GRAY, "/te accounts <prefix> [page]", TextColors.GOLD, " - List the virtual accounts starting with a prefix"));
+        src.sendMessage(Text.of(TextColors.GRAY, "/te maintenance", TextColors.GOLD, " - Show the queued maintenance work"));
+
+        if (!storageReady || totalEconomy.getAccountManager().getAccountCache().isPresent()) {
+            src.sendMessage(Text.of(TextColors.GRAY, "/te cache", TextColors.GOLD, " - Show the usage of the account cache"));
+        }
+
+        return CommandResult.success();
+    }
+
+    private class Cache implements CommandExecutor {
+
+        public CommandSpec commandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("Show the usage of the account cache"))
+                    .permission("totaleconomy.command.te.cache")
+                    .arguments(GenericArguments.none())
+                    .executor(this)
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            checkStorageReady();
+
+            Optional<AccountCache> cacheOpt = totalEconomy.getAccountManager().getAccountCache();
+
+            if (!cacheOpt.isPresent()) {
+                throw new CommandException(Text.of("The account cache is disabled."));
+            }
+
+            AccountCache cache = cacheOpt.get();
+
+            src.sendMessage(Text.of(TextColors.GRAY, "Cached accounts: ", TextColors.GOLD, cache.getResidentCount(),
+                    TextColors.GRAY, " (", cache.getPinnedCount(), " online)"));
+            src.sendMessage(Text.of(TextColors.GRAY, "Estimated size: ", TextColors.GOLD, cache.getEstimatedBytes() / 1024, " KiB"));
+            src.sendMessage(Text.of(TextColors.GRAY, "Evicted accounts: ", TextColors.GOLD, cache.getEvictionCount()));
+
+            return CommandResult.success();
+        }
+    }
+
+    private class Maintenance implements CommandExecutor {
+
+        private MaintenanceScheduler scheduler;
+
+        public Maintenance(MaintenanceScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public CommandSpec commandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("Show the queued maintenance work"))
+                    .permission("totaleconomy.command.te.maintenance")
+                    .arguments(GenericArguments.none())
+                    .executor(this)
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            src.sendMessage(Text.of(TextColors.GRAY, "Tick budget: ", TextColors.GOLD, String.format("%.2f", scheduler.getEffectiveBudget()), "ms"));
+            src.sendMessage(Text.of(TextColors.GRAY, "Behind by: ", TextColors.GOLD, scheduler.getLag(), "ms",
+                    TextColors.GRAY, " (", scheduler.getSkippedCount(), " runs skipped)"));
+
+            for (Map.Entry<String, Long> run : scheduler.getQueuedRuns().entrySet()) {
+                src.sendMessage(Text.of(TextColors.GRAY, run.getKey(), ": ", TextColors.GOLD, "waiting ", run.getValue(), "ms"));
+            }
+
+            return CommandResult.success();
+        }
+    }
+
+    private class Stats implements CommandExecutor {
+
+        private TotalEconomy totalEconomy;
+
+        public Stats(TotalEconomy totalEconomy) {
+            this.totalEconomy = totalEconomy;
+        }
+
+        public CommandSpec commandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("Show economy wide balance statistics"))
+                    .permission("totaleconomy.command.te.stats")
+                    .arguments(GenericArguments.optional(GenericArguments.catalogedElement(Text.of("currency"), Currency.class)))
+                    .executor(this)
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            checkStorageReady();
+
+            Currency currency = args.<Currency>getOne("currency").orElse(totalEconomy.getDefaultCurrency());
+            EconomyStats economyStats = totalEconomy.getAccountManager().getEconomyStats();
+            Optional<CurrencyStats> statsOpt = economyStats.getStats(currency);
+
+            if (!statsOpt.isPresent()) {
+                throw new CommandException(Text.of("The economy statistics are still being built, try again shortly."));
+            }
+
+            CurrencyStats stats = statsOpt.get();
+
+            src.sendMessage(Text.of(TextColors.GOLD, "Statistics of ", currency.getPluralDisplayName()));
+            src.sendMessage(Text.of(TextColors.GRAY, "Money supply: ", TextColors.GOLD, currency.format(stats.getTotal())));
+            src.sendMessage(Text.of(TextColors.GRAY, "Accounts: ", TextColors.GOLD, stats.getAccountCount()));
+            src.sendMessage(Text.of(TextColors.GRAY, "Mean balance: ", TextColors.GOLD, currency.format(stats.getMean())));
+            src.sendMessage(Text.of(TextColors.GRAY, "Median balance: ", TextColors.GOLD, currency.format(BigDecimal.valueOf(stats.getMedian()).setScale(2, BigDecimal.ROUND_HALF_UP))));
+            src.sendMessage(Text.of(TextColors.GRAY, "90th percentile: ", TextColors.GOLD, currency.format(BigDecimal.valueOf(economyStats.getQuantile(currency, 0.9).orElse(0.0)).setScale(2, BigDecimal.ROUND_HALF_UP))));
+            src.sendMessage(Text.of(TextColors.GRAY, "Gini coefficient: ", TextColors.GOLD, String.format("%.3f", stats.getGini())));
+
+            return CommandResult.success();
+        }
+    }
+
+    private class Accounts implements CommandExecutor {
+
+        private static final int PAGE_SIZE = 10;
+
+        private TotalEconomy totalEconomy;
+
+        public Accounts(TotalEconomy totalEconomy) {
+            this.totalEconomy = totalEconomy;
+        }
+
+        public CommandSpec commandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("List the virtual accounts starting with a prefix"))
+                    .permission("totaleconomy.command.te.accounts")
+                    .arguments(
+                            GenericArguments.string(Text.of("prefix")),
+                            GenericArguments.optional(GenericArguments.integer(Text.of("page")))
+                    )
+                    .executor(this)
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            checkStorageReady();
+
+            String prefix = args.<String>getOne("prefix").get();
+            int page = Math.max(args.<Integer>getOne("page").orElse(1), 1);
+            Currency currency = totalEconomy.getDefaultCurrency();
+            VirtualAccountStore store = totalEconomy.getAccountManager().getVirtualAccountStore();
+
+            // Listing a namespace may read from the database, which must not happen on the main thread
+            Task.builder().execute(() -> {
+                List<String> identifiers;
+                int count;
+                BigDecimal total;
+
+                try {
+                    identifiers = store.getIdentifiers(prefix, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+                    count = store.count(prefix);
+                    total = store.getTotalBalance(prefix, (TECurrency) currency);
+                } catch (SQLException e) {
+                    src.sendMessage(Text.of(TextColors.RED, "[TE] Failed to read the virtual accounts!"));
+                    return;
+                }
+
+                List<Text> lines = new ArrayList<>(identifiers.size() + 1);
+                lines.add(Text.of(TextColors.GRAY, "Accounts: ", TextColors.GOLD, count, TextColors.GRAY, " Total: ", TextColors.GOLD, currency.format(total)));
+
+                for (String identifier : identifiers) {
+                    Optional<Account> accountOpt = totalEconomy.getAccountManager().getOrCreateAccount(identifier);
+                    Text balanceText = accountOpt.isPresent() ? currency.format(accountOpt.get().getBalance(currency)) : Text.EMPTY;
+
+                    lines.add(Text.of(TextColors.GRAY, identifier, ": ", TextColors.GOLD, balanceText));
+                }
+
+                Sponge.getServiceManager().provideUnchecked(PaginationService.class).builder()
+                        .title(Text.of(TextColors.GOLD, "Virtual accounts ", prefix, "* (page ", page, ")"))
+                        .contents(lines)
+                        .sendTo(src);
+            }).async().name("Total Economy - Accounts Command").submit(totalEconomy);
+
+            return CommandResult.success();
+        }
+    }
+
+    private class History implements CommandExecutor {
+
+        private static final int PAGE_SIZE = 10;
+
+        private TotalEconomy totalEconomy;
+
+        public History(TotalEconomy totalEconomy) {
+            this.totalEconomy = totalEconomy;
+        }
+
+        public CommandSpec commandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("Show the transaction history of a player"))
+                    .permission("totaleconomy.command.te.history")
+                    .arguments(
+                            GenericArguments.user(Text.of("player")),
+                            GenericArguments.optional(GenericArguments.integer(Text.of("page")))
+                    )
+                    .executor(this)
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            checkStorageReady();
+
+            Optional<TransactionLedger> ledgerOpt = totalEconomy.getTransactionLedger();
+
+            if (!ledgerOpt.isPresent()) {
+                throw new CommandException(Text.of("The transaction ledger is disabled."));
+            }
+
+            TransactionLedger ledger = ledgerOpt.get();
+            User user = args.<User>getOne("player").get();
+            int page = Math.max(args.<Integer>getOne("page").orElse(1), 1);
+
+            // The history is read from the database, which must not happen on the main thread
+            Task.builder().execute(() -> {
+                List<LedgerEntry> entries;
+
+                try {
+                    entries = ledger.getHistory(user.getUniqueId().toString(), (page - 1) * PAGE_SIZE, PAGE_SIZE);
+                } catch (SQLException e) {
+                    src.sendMessage(Text.of(TextColors.RED, "[TE] Failed to read the transaction history!"));
+                    return;
+                }
+
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                List<Text> lines = new ArrayList<>(entries.size());
+
+                for (LedgerEntry entry : entries) {
+                    lines.add(formatEntry(entry, user.getUniqueId().toString(), dateFormat));
+                }
+
+                if (lines.isEmpty()) {
+                    lines.add(Text.of(TextColors.GRAY, "No transactions found."));
+                }
+
+                Sponge.getServiceManager().provideUnchecked(PaginationService.class).builder()
+                        .title(Text.of(TextColors.GOLD, "History of ", user.getName(), " (page ", page, ")"))
+                        .contents(lines)
+                        .sendTo(src);
+            }).async().name("Total Economy - History Command").submit(totalEconomy);
+
+            return CommandResult.success();
+        }
+
+        private Text formatEntry(LedgerEntry entry, String account, SimpleDateFormat dateFormat) {
+            Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById(entry.getCurrency());
+            Text amountText = currencyOpt.isPresent() ? currencyOpt.get().format(entry.getAmount()) : Text.of(entry.getAmount().toPlainString(), " ", entry.getCurrency());
+            Text otherText = Text.EMPTY;
+
+            if (account.equals(entry.getOtherAccount())) {
+                otherText = Text.of(TextColors.GRAY, " from ", TextColors.GOLD, getAccountName(entry.getAccount()));
+            } else if (entry.getOtherAccount() != null) {
+                otherText = Text.of(TextColors.GRAY, " to ", TextColors.GOLD, getAccountName(entry.getOtherAccount()));
+            }
+
+            return Text.of(TextColors.GRAY, dateFormat.format(new Date(entry.getTime())), " ",
+                    TextColors.GOLD, entry.getType(), " ", amountText, otherText,
+                    entry.getResult().equals("SUCCESS") ? Text.EMPTY : Text.of(TextColors.RED, " (", entry.getResult(), ")"));
+        }
+
+        private String getAccountName(String identifier) {
+            try {
+                Optional<User> userOpt = totalEconomy.getUserStorageService().get(UUID.fromString(identifier));
+
+                if (userOpt.isPresent()) {
+                    return userOpt.get().getName();
+                }
+            } catch (IllegalArgumentException e) {
+                // Virtual accounts aren't identified by a UUID
+            }
+
+            return identifier;
+        }
+    }
+}
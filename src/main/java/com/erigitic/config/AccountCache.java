@@ -0,0 +1,561 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import com.erigitic.sql.SqlManager;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.Task;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches account balances when the database is enabled, so reading a balance doesn't require a query every time.
+ *
+ * <p>Accounts of online players are pinned and stay cached until the player leaves. Other accounts are kept in a least
+ * recently used cache that is bounded in size and drops accounts that haven't been used for a while. Only balances
+ * that were already submitted to the sql writer are cached, so evicting an account never loses a change.</p>
+ *
+ * <p>Several servers may share one database. Every balance change is therefore appended to the "account_changes" table,
+ * which holds an ever increasing sequence number, the changed account and the server that changed it. Each server polls
+ * the table for changes made by the other servers and drops the cached balances of those accounts, so a cached balance
+ * is never stale for longer than the poll interval. Deposits and withdrawals are written as amounts added to the balance
+ * in the database instead of the new balance, so two servers changing the same balance at once don't overwrite each
+ * other's change.</p>
+ *
+ * <p>Sequence numbers are assigned when a change is inserted, but the change only becomes visible once its transaction
+ * commits, so a change can show up after changes with higher sequence numbers were already read. Each poll therefore
+ * reads the changes of the last 30 seconds again and skips the ones it already handled.</p>
+ */
+public class AccountCache {
+
+    // How long entries of the change log are kept before being removed, in milliseconds
+    private static final long CHANGE_RETENTION = TimeUnit.MINUTES.toMillis(10);
+
+    // Time after which a change can't appear below sequence numbers that were already read anymore, in milliseconds
+    private static final long SETTLE_TIME = TimeUnit.SECONDS.toMillis(30);
+
+    // Rough heap usage of a cached account without balances and of a single cached balance, in bytes
+    private static final long ACCOUNT_BYTES = 200;
+    private static final long BALANCE_BYTES = 120;
+
+    private final SqlManager sqlManager;
+    private final Logger logger;
+    private final String serverId;
+    private final long pollInterval;
+    private final int maxOfflineAccounts;
+    private final long idleExpiry;
+
+    // Accounts of online players
+    private final Map<String, CachedAccount> pinned = new ConcurrentHashMap<>();
+
+    // Other accounts in access order, guarded by itself
+    private final LinkedHashMap<String, CachedAccount> offline = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Incremented whenever cached balances are invalidated by another server. Balances read from the database are only
+    // cached if no invalidation happened while they were being read, otherwise they might already be stale.
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Every change up to this sequence number was handled, only accessed by the poll task
+    private long settledSeq = 0;
+
+    // Sequence numbers above the settled one that were already handled
+    private final Set<Long> handledSeqs = new HashSet<>();
+
+    // Time and highest read sequence number of the polls within the settle time, oldest first
+    private final Deque<long[]> recentPolls = new ArrayDeque<>();
+
+    private long lastCleanup = 0;
+
+    private Task pollTask;
+
+    /**
+     * @param sqlManager The sql manager of the shared database
+     * @param logger Logger used to report errors while polling
+     * @param serverId Identifier of this server, unique between all servers sharing the database
+     * @param pollInterval Interval between polls of the change log in milliseconds
+     * @param maxOfflineAccounts Maximum amount of cached accounts of offline players
+     * @param idleExpiry Time after which unused accounts of offline players are evicted in milliseconds
+     */
+    public AccountCache(SqlManager sqlManager, Logger logger, String serverId, long pollInterval, int maxOfflineAccounts, long idleExpiry) {
+        this.sqlManager = sqlManager;
+        this.logger = logger;
+        this.serverId = serverId;
+        this.pollInterval = pollInterval;
+        this.maxOfflineAccounts = maxOfflineAccounts;
+        this.idleExpiry = idleExpiry;
+    }
+
+    /**
+     * Create the change log table if necessary and start polling it.
+     *
+     * @param plugin The plugin the poll task is registered for
+     */
+    public void start(Object plugin) {
+        createChangeLog();
+
+        pollTask = Sponge.getScheduler().createTaskBuilder()
+                .async()
+                .interval(pollInterval, TimeUnit.MILLISECONDS)
+                .execute(() -> {
+                    poll();
+                    evictIdle();
+                })
+                .name("Total Economy - Account Change Poller")
+                .submit(plugin);
+    }
+
+    /**
+     * Create the change log table if necessary and skip the changes that were made before this server started, they are
+     * irrelevant since nothing is cached yet.
+     */
+    void createChangeLog() {
+        sqlManager.createTable("account_changes", "seq " + sqlManager.getDialect().autoIncrementType() + ","
+                + "uid varchar(60) NOT NULL,"
+                + "server_id varchar(36) NOT NULL,"
+                + "changed_at bigint NOT NULL,"
+                + "PRIMARY KEY (seq)"
+        );
+
+        try (
+                Connection connection = sqlManager.dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement("SELECT MAX(seq) FROM account_changes");
+                ResultSet set = statement.executeQuery()
+        ) {
+            if (set.next()) {
+                settledSeq = set.getLong(1);
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while reading the account change log!");
+        }
+    }
+
+    /**
+     * Stop polling the change log and drop all cached balances.
+     */
+    public void stop() {
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+
+        pinned.clear();
+
+        synchronized (offline) {
+            offline.clear();
+        }
+    }
+
+    /**
+     * Pin the account of a player that joined, so it stays cached while they are online.
+     *
+     * @param identifier Identifier of the account
+     */
+    public void pin(String identifier) {
+        CachedAccount account;
+
+        synchronized (offline) {
+            account = offline.remove(identifier);
+        }
+
+        pinned.putIfAbsent(identifier, account != null ? account : new CachedAccount());
+    }
+
+    /**
+     * Unpin the account of a player that left. The account stays cached until it's evicted.
+     *
+     * @param identifier Identifier of the account
+     */
+    public void unpin(String identifier) {
+        CachedAccount account = pinned.remove(identifier);
+
+        if (account != null) {
+            account.touch();
+
+            synchronized (offline) {
+                offline.put(identifier, account);
+                evictOverflow();
+            }
+        }
+    }
+
+    /**
+     * Get the current invalidation stamp. Must be taken before reading a balance from the database and passed to
+     * {@link #put(String, String, BigDecimal, long)} afterwards.
+     *
+     * @return long The invalidation stamp
+     */
+    public long getStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Get a cached balance.
+     *
+     * @param identifier Identifier of the account
+     * @param currencyName Lowercase name of the currency
+     * @return BigDecimal The cached balance, or null if it isn't cached
+     */
+    public BigDecimal get(String identifier, String currencyName) {
+        CachedAccount account = pinned.get(identifier);
+
+        if (account == null) {
+            synchronized (offline) {
+                account = offline.get(identifier);
+            }
+
+            if (account == null) {
+                return null;
+            }
+
+            account.touch();
+        }
+
+        return account.balances.get(currencyName);
+    }
+
+    /**
+     * Cache a balance that was read from the database.
+     *
+     * @param identifier Identifier of the account
+     * @param currencyName Lowercase name of the currency
+     * @param balance The balance read from the database
+     * @param stamp The invalidation stamp taken before the balance was read
+     */
+    public void put(String identifier, String currencyName, BigDecimal balance, long stamp) {
+        CachedAccount account = getOrCreate(identifier);
+        account.balances.put(currencyName, balance);
+
+        // Another server changed balances while this one was being read, so it can't be trusted
+        if (invalidations.get() != stamp) {
+            account.balances.remove(currencyName);
+        }
+    }
+
+    /**
+     * Load all balances of an account into the cache with a single query.
+     *
+     * @param identifier Identifier of the account
+     * @param currencyNames Lowercase names of the currencies to load
+     */
+    public void load(String identifier, Collection<String> currencyNames) {
+        long stamp = getStamp();
+
+        try (
+                Connection connection = sqlManager.dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement("SELECT * FROM accounts WHERE uid = ?")
+        ) {
+            statement.setString(1, identifier);
+
+            try (ResultSet set = statement.executeQuery()) {
+                if (set.next()) {
+                    for (String currencyName : currencyNames) {
+                        BigDecimal balance = set.getBigDecimal(currencyName + "_balance");
+
+                        if (balance != null) {
+                            put(identifier, currencyName, balance, stamp);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while loading the balances of " + identifier + "!");
+        }
+    }
+
+    /**
+     * Record a balance change made by this server that was already submitted to the sql writer. The change is appended
+     * to the change log so the other servers drop their cached balances of the account.
+     *
+     * @param identifier Identifier of the account
+     * @param currencyName Lowercase name of the currency
+     * @param balance The new balance
+     */
+    public void update(String identifier, String currencyName, BigDecimal balance) {
+        recordChange(identifier);
+
+        getOrCreate(identifier).balances.put(currencyName, balance);
+    }
+
+    /**
+     * Record a change of a balance by an amount made by this server that was already submitted to the sql writer. The
+     * change is appended to the change log, and a cached balance is changed by the same amount.
+     *
+     * @param identifier Identifier of the account
+     * @param currencyName Lowercase name of the currency
+     * @param amount The amount the balance was changed by
+     */
+    public void change(String identifier, String currencyName, BigDecimal amount) {
+        recordChange(identifier);
+
+        if (getOrCreate(identifier).balances.computeIfPresent(currencyName, (name, balance) -> balance.add(amount)) == null) {
+            // A balance that's being read right now may miss the change, so it must not be cached
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop all cached balances of an account.
+     *
+     * @param identifier Identifier of the account
+     */
+    public void invalidate(String identifier) {
+        invalidations.incrementAndGet();
+
+        CachedAccount account = pinned.get(identifier);
+
+        if (account == null) {
+            synchronized (offline) {
+                account = offline.remove(identifier);
+            }
+        }
+
+        if (account != null) {
+            account.balances.clear();
+        }
+    }
+
+    /**
+     * Record balances changed in bulk by a set based statement in the change log, so the other servers drop their
+     * cached balances of the accounts. Runs in the transaction changing the balances, so both are committed together.
+     *
+     * @param connection The connection of the transaction changing the balances
+     * @param identifiers Identifiers of the changed accounts
+     * @throws SQLException Error writing to the change log
+     */
+    public void recordChanges(Connection connection, Collection<String> identifiers) throws SQLException {
+        long now = System.currentTimeMillis();
+
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO account_changes (uid, server_id, changed_at) VALUES (?, ?, ?)")) {
+            for (String identifier : identifiers) {
+                statement.setString(1, identifier);
+                statement.setString(2, serverId);
+                statement.setLong(3, now);
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Get the amount of cached accounts.
+     *
+     * @return int The amount of cached accounts
+     */
+    public int getResidentCount() {
+        synchronized (offline) {
+            return pinned.size() + offline.size();
+        }
+    }
+
+    /**
+     * Get the amount of cached accounts of online players.
+     *
+     * @return int The amount of pinned accounts
+     */
+    public int getPinnedCount() {
+        return pinned.size();
+    }
+
+    /**
+     * Get a rough estimate of the heap used by the cached accounts.
+     *
+     * @return long The estimated size in bytes
+     */
+    public long getEstimatedBytes() {
+        long bytes = 0;
+
+        for (CachedAccount account : pinned.values()) {
+            bytes += ACCOUNT_BYTES + account.balances.size() * BALANCE_BYTES;
+        }
+
+        synchronized (offline) {
+            for (CachedAccount account : offline.values()) {
+                bytes += ACCOUNT_BYTES + account.balances.size() * BALANCE_BYTES;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Get the amount of accounts evicted since the server started.
+     *
+     * @return long The amount of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private CachedAccount getOrCreate(String identifier) {
+        CachedAccount account = pinned.get(identifier);
+
+        if (account != null) {
+            return account;
+        }
+
+        synchronized (offline) {
+            account = offline.get(identifier);
+
+            if (account != null) {
+                account.touch();
+
+                return account;
+            }
+
+            account = new CachedAccount();
+            offline.put(identifier, account);
+            evictOverflow();
+        }
+
+        return account;
+    }
+
+    /**
+     * Remove the least recently used accounts until the offline cache is within its bound. Must hold the lock of the
+     * offline cache.
+     */
+    private void evictOverflow() {
+        Iterator<CachedAccount> iterator = offline.values().iterator();
+
+        while (offline.size() > maxOfflineAccounts && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Evict accounts of offline players that haven't been used within the idle expiry.
+     */
+    private void evictIdle() {
+        long expiredBefore = System.currentTimeMillis() - idleExpiry;
+
+        synchronized (offline) {
+            Iterator<CachedAccount> iterator = offline.values().iterator();
+
+            // Iteration is in access order, so the first account that was used recently ends the search
+            while (iterator.hasNext()) {
+                CachedAccount account = iterator.next();
+
+                if (account.lastAccess >= expiredBefore) {
+                    break;
+                }
+
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Append a change to the change log. It's committed together with the balances changed before it, so other servers
+     * never read the balances before they're written.
+     *
+     * @param identifier Identifier of the changed account
+     */
+    private void recordChange(String identifier) {
+        sqlManager.getWriter().append("account_changes", new String[] {"uid", "server_id", "changed_at"}, identifier, serverId, System.currentTimeMillis());
+    }
+
+    /**
+     * Read the changes made by other servers since the last poll and invalidate the affected accounts.
+     */
+    void poll() {
+        long now = System.currentTimeMillis();
+
+        // Changes below the sequence numbers read by a poll that's older than the settle time have all been committed
+        while (!recentPolls.isEmpty() && recentPolls.peekFirst()[0] <= now - SETTLE_TIME) {
+            settledSeq = Math.max(settledSeq, recentPolls.pollFirst()[1]);
+        }
+
+        handledSeqs.removeIf(seq -> seq <= settledSeq);
+
+        try (Connection connection = sqlManager.dataSource.getConnection()) {
+            Set<String> changed = new HashSet<>();
+            long maxSeq = settledSeq;
+
+            try (PreparedStatement statement = connection.prepareStatement("SELECT seq, uid, server_id FROM account_changes WHERE seq > ? ORDER BY seq")) {
+                statement.setLong(1, settledSeq);
+
+                try (ResultSet set = statement.executeQuery()) {
+                    while (set.next()) {
+                        long seq = set.getLong("seq");
+
+                        maxSeq = Math.max(maxSeq, seq);
+
+                        if (handledSeqs.add(seq) && !serverId.equals(set.getString("server_id"))) {
+                            changed.add(set.getString("uid"));
+                        }
+                    }
+                }
+            }
+
+            recentPolls.addLast(new long[] {now, maxSeq});
+
+            changed.forEach(this::invalidate);
+
+            if (now - lastCleanup >= CHANGE_RETENTION) {
+                try (PreparedStatement statement = connection.prepareStatement("DELETE FROM account_changes WHERE changed_at < ?")) {
+                    statement.setLong(1, now - CHANGE_RETENTION);
+                    statement.executeUpdate();
+                }
+
+                lastCleanup = now;
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while polling the account change log!");
+        }
+    }
+
+    private static class CachedAccount {
+        private final Map<String, BigDecimal> balances = new ConcurrentHashMap<>();
+
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -25,48 +25,77 @@
 
 package com.erigitic.config;
 
+import com.erigitic.main.MaintenanceScheduler;
+import com.erigitic.main.StorageWarmup;
 import com.erigitic.main.TotalEconomy;
 import com.erigitic.sql.SqlManager;
-import com.erigitic.sql.SqlQuery;
+import com.erigitic.stats.EconomyStats;
+import com.erigitic.storage.AccountStorage;
+import com.erigitic.storage.ConfigAccountStorage;
+import com.erigitic.storage.SqlAccountStorage;
 import com.erigitic.util.MessageManager;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
-import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.scheduler.SpongeExecutorService;
 import org.spongepowered.api.service.context.ContextCalculator;
 import org.spongepowered.api.service.economy.Currency;
 import org.spongepowered.api.service.economy.EconomyService;
 import org.spongepowered.api.service.economy.account.Account;
 import org.spongepowered.api.service.economy.account.UniqueAccount;
+import org.spongepowered.api.service.economy.transaction.ResultType;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
 
-import java.io.File;
-import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class AccountManager implements EconomyService {
     private TotalEconomy totalEconomy;
     private MessageManager messageManager;
     private Logger logger;
-    private ConfigurationLoader<CommentedConfigurationNode> loader;
-    private ConfigurationNode accountConfig;
 
-    private SqlManager sqlManager;
+    private AccountStorage storage;
+
+    // The storage if accounts are stored in the configuration files, null otherwise
+    private ConfigAccountStorage configStorage;
+
+    private AccountCache accountCache;
+    private EconomyStats economyStats;
+    private VirtualAccountStore virtualAccountStore;
+    private AccountRecords accountRecords;
 
     private boolean databaseActive;
 
-    private boolean confSaveRequested = false;
+    // Economy calls wait for the storage to be initialized by the warmup
+    private StorageWarmup warmup;
+
+    // Shared by balance changes between reading and writing a balance, exclusive while a balance policy changes balances
+    // in bulk, so neither overwrites the other
+    private final ReadWriteLock balanceLock = new ReentrantReadWriteLock();
 
     public static final int CONTENT_VERSION = 1;
 
+    // Accounts being preloaded for players that are logging in
+    private final Map<UUID, CompletableFuture<Void>> preloads = new ConcurrentHashMap<>();
+    private SpongeExecutorService preloadExecutor;
+
     /**
      * Constructor for the AccountManager class. Handles the initialization of necessary variables, setup of the database
      * or configuration files depending on main configuration value, and starts save script if setup.
@@ -79,125 +108,165 @@ public class AccountManager implements EconomyService {
         this.logger = logger;
 
         databaseActive = totalEconomy.isDatabaseEnabled();
+        warmup = totalEconomy.getStorageWarmup();
 
         if (databaseActive) {
-            sqlManager = totalEconomy.getSqlManager();
+            SqlManager sqlManager = totalEconomy.getSqlManager();
+
+            virtualAccountStore = new VirtualAccountStore(sqlManager, logger);
+            preloadExecutor = Sponge.getScheduler().createAsyncExecutor(totalEconomy);
 
-            setupDatabase();
+            if (totalEconomy.isDatabaseCacheEnabled()) {
+                accountCache = new AccountCache(sqlManager, logger, totalEconomy.getDatabaseServerId(), totalEconomy.getDatabasePollInterval(),
+                        totalEconomy.getDatabaseCacheMaxOfflineAccounts(), totalEconomy.getDatabaseCacheIdleExpiry());
+            }
+
+            storage = new SqlAccountStorage(sqlManager, accountCache, getStartingBalances(), totalEconomy.isJobNotificationEnabled(), totalEconomy, logger);
         } else {
-            setupConfig();
+            accountRecords = new AccountRecords();
+            virtualAccountStore = new VirtualAccountStore(totalEconomy.getConfigDir(), accountRecords, logger);
+
+            configStorage = new ConfigAccountStorage(totalEconomy.getConfigDir(), virtualAccountStore, accountRecords,
+                    totalEconomy.isJobNotificationEnabled(), totalEconomy.getSaveInterval() > 0, logger);
+            storage = configStorage;
 
             if (totalEconomy.getSaveInterval() > 0) {
                 setupAutosave();
             }
         }
+
+        economyStats = new EconomyStats(totalEconomy, this, logger);
     }
 
     /**
-     * Setup the config file that will contain the user accounts.
+     * Create the database tables or load the accounts configuration, running its migration if necessary. Runs during
+     * the storage warmup.
      */
-    private void setupConfig() {
-        File accountsFile = new File(totalEconomy.getConfigDir(), "accounts.conf");
-        loader = HoconConfigurationLoader.builder().setFile(accountsFile).build();
+    public void loadStorage() {
+        storage.load();
+    }
 
-        try {
-            accountConfig = loader.load();
+    /**
+     * Rebuild the economy statistics from the loaded accounts. Runs during the storage warmup.
+     */
+    public void loadStatistics() {
+        economyStats.rebuild();
+    }
 
-            if (!accountsFile.exists()) {
-                loader.save(accountConfig);
-            } else {
-                if (accountConfig.getNode("version").getInt(0) != CONTENT_VERSION) {
-                    accountConfig.getChildrenMap().entrySet().parallelStream().forEach(nodeEntry -> {
-                        ConfigurationNode accountNode = nodeEntry.getValue();
+    /**
+     * Schedule the saving of the account configuration file as maintenance work. The accounts are copied a slice per
+     * step on the main thread, the files are then written asynchronously.
+     */
+    private void setupAutosave() {
+        totalEconomy.getMaintenanceScheduler().schedule("autosave", MaintenanceScheduler.Priority.NORMAL, totalEconomy.getSaveInterval(), TimeUnit.SECONDS, () -> {
+            Optional<ConfigAccountStorage.SlicedSave> saveOpt = warmup.isReady() ? configStorage.startSave() : Optional.empty();
 
-                        accountNode.getNode("jobstats").getChildrenMap().entrySet().parallelStream().forEach(jobNodeEntry -> {
-                            ConfigurationNode jobNode = jobNodeEntry.getValue();
-                            ConfigurationNode expNode = jobNode.getNode("exp");
+            if (!saveOpt.isPresent()) {
+                return () -> true;
+            }
 
-                            int exp = expNode.getInt(0);
-                            int level = jobNode.getNode("level").getInt(0);
+            ConfigAccountStorage.SlicedSave save = saveOpt.get();
 
-                            expNode.setValue((int) (exp + (((Math.pow(level, 2) + level) / 2) * 100 - (level * 100))));
+            return () -> {
+                if (!save.copySlice()) {
+                    return false;
+                }
 
-                            try {
-                                loader.save(accountConfig);
-                            } catch (IOException e) {
-                                logger.warn("Error migrating account experience values!");
-                            }
-                        });
-                    });
+                Sponge.getScheduler().createTaskBuilder()
+                        .async()
+                        .execute(save::write)
+                        .name("Total Economy - Autosave")
+                        .submit(totalEconomy);
 
-                    accountConfig.getNode("version").setValue(CONTENT_VERSION);
-                }
-            }
-        } catch (IOException e) {
-            logger.warn("Error creating accounts configuration file!");
-        }
+                return true;
+            };
+        });
     }
 
     /**
-     * Setup the database that will contain the user accounts.
+     * Reload the account config and rebuild the economy statistics.
      */
-    public void setupDatabase() {
-        String currencyCols = "";
+    public void reloadConfig() {
+        warmup.awaitReady();
 
-        for (Currency currency : getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
+        storage.reload();
+        economyStats.rebuild();
+    }
 
-            currencyCols += teCurrency.getName().toLowerCase() + "_balance decimal(19,2) NOT NULL DEFAULT '" + teCurrency.getStartingBalance() + "',";
+    /**
+     * Start loading the account of a player that is logging in, creating it if necessary. Only does something when
+     * the database is enabled, as the accounts configuration is always loaded.
+     *
+     * @param uuid {@link UUID} of the player logging in
+     */
+    public void preloadAccount(UUID uuid) {
+        if (!databaseActive) {
+            return;
         }
 
-        sqlManager.createTable("accounts", "uid varchar(60) NOT NULL,"
-                + currencyCols
-                + "job varchar(50) NOT NULL DEFAULT 'Unemployed',"
-                + "job_notifications boolean NOT NULL DEFAULT TRUE,"
-                + "PRIMARY KEY (uid)"
-        );
+        // Queued behind the storage warmup when a player logs in before it has finished
+        CompletableFuture<Void> preload = warmup.whenReady().thenRunAsync(() -> {
+            getOrCreateAccount(uuid);
 
-        sqlManager.createTable("virtual_accounts", "uid varchar(60) NOT NULL,"
-                + currencyCols
-                + "PRIMARY KEY (uid)"
-        );
+            if (accountCache != null) {
+                List<String> currencyNames = new ArrayList<>();
 
-        sqlManager.createTable("levels", "uid varchar(60),"
-                + "miner int(10) unsigned NOT NULL DEFAULT '1',"
-                + "lumberjack int(10) unsigned NOT NULL DEFAULT '1',"
-                + "warrior int(10) unsigned NOT NULL DEFAULT '1',"
-                + "fisherman int(10) unsigned NOT NULL DEFAULT '1',"
-                + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE"
-        );
+                for (Currency currency : getCurrencies()) {
+                    currencyNames.add(TECurrency.getStorageName(currency));
+                }
+
+                accountCache.load(uuid.toString(), currencyNames);
+            }
+        }, preloadExecutor);
 
-        sqlManager.createTable("experience", "uid varchar(60),"
-                + "miner int(10) unsigned NOT NULL DEFAULT '0',"
-                + "lumberjack int(10) unsigned NOT NULL DEFAULT '0',"
-                + "warrior int(10) unsigned NOT NULL DEFAULT '0',"
-                + "fisherman int(10) unsigned NOT NULL DEFAULT '0',"
-                + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE"
-        );
+        preloads.put(uuid, preload);
+
+        // The player might never join, for example when the login is denied by another plugin
+        Sponge.getScheduler().createTaskBuilder()
+                .delay(1, TimeUnit.MINUTES)
+                .execute(() -> preloads.remove(uuid, preload))
+                .submit(totalEconomy);
     }
 
     /**
-     * Setup a scheduler that handles the saving of the account configuration file.
+     * Make sure the account of a joining player is loaded without waiting for it on the main thread. A preload that
+     * isn't done yet finishes in the background, otherwise the account is loaded in the background. Economy calls made
+     * for the player in the meantime load the account on demand. The cached balances of the account are kept until the
+     * player leaves.
+     *
+     * @param uuid {@link UUID} of the joining player
      */
-    private void setupAutosave() {
-        Sponge.getScheduler().createTaskBuilder().interval(totalEconomy.getSaveInterval(), TimeUnit.SECONDS)
-                .execute(() -> {
-                    if (confSaveRequested) {
-                        saveConfiguration();
-                        confSaveRequested = false;
-                    }
-                }).submit(totalEconomy);
+    public void completeAccountLoad(UUID uuid) {
+        if (accountCache != null) {
+            accountCache.pin(uuid.toString());
+        }
+
+        CompletableFuture<Void> preload = preloads.remove(uuid);
+
+        if (preload != null) {
+            // Retried once if the preload failed
+            preload.whenCompleteAsync((result, e) -> {
+                if (e != null) {
+                    getOrCreateAccount(uuid);
+                }
+            }, preloadExecutor);
+        } else if (databaseActive) {
+            warmup.whenReady().thenRunAsync(() -> getOrCreateAccount(uuid), preloadExecutor);
+        } else {
+            // The accounts configuration is in memory, so the account is created by the warmup thread if it's still
+            // running and right away otherwise
+            warmup.whenReady().thenRun(() -> getOrCreateAccount(uuid));
+        }
     }
 
     /**
-     * Reload the account config.
+     * Release the account of a player that left, so its cached balances can be evicted once it's no longer used.
+     *
+     * @param uuid {@link UUID} of the leaving player
      */
-    public void reloadConfig() {
-        try {
-            accountConfig = loader.load();
-            logger.info("Reloading account configuration file.");
-        } catch (IOException e) {
-            logger.warn("An error occurred while reloading the account configuration file!");
+    public void releaseAccount(UUID uuid) {
+        if (accountCache != null) {
+            accountCache.unpin(uuid.toString());
         }
     }
 
@@ -209,21 +278,17 @@ public class AccountManager implements EconomyService {
      */
     @Override
     public Optional<UniqueAccount> getOrCreateAccount(UUID uuid) {
+        warmup.awaitReady();
+
         TEAccount playerAccount = new TEAccount(totalEconomy, this, uuid);
-        boolean hasAccount = hasAccount(uuid);
-
-        try {
-            if (!hasAccount) {
-                if (databaseActive) {
-                    createAccountInDatabase(playerAccount);
-                } else {
-                    createAccountInConfig(playerAccount);
-                }
-            } else if (hasAccount && !databaseActive) {
-                addNewCurrenciesToAccount(playerAccount);
+        Map<String, BigDecimal> balances = getStartingBalances();
+
+        if (!storage.hasAccount(uuid.toString(), false)) {
+            if (storage.createAccount(uuid.toString(), false, balances)) {
+                recordAccount(balances);
             }
-        } catch (IOException e) {
-            logger.warn("An error occurred while creating a new account!");
+        } else {
+            recordAccount(storage.addMissingBalances(uuid.toString(), false, balances));
         }
 
         return Optional.of(playerAccount);
@@ -237,21 +302,17 @@ public class AccountManager implements EconomyService {
      */
     @Override
     public Optional<Account> getOrCreateAccount(String identifier) {
+        warmup.awaitReady();
+
         TEVirtualAccount virtualAccount = new TEVirtualAccount(totalEconomy, this, identifier);
-        boolean hasAccount = hasAccount(identifier);
-
-        try {
-            if (!hasAccount) {
-                if (databaseActive) {
-                    createAccountInDatabase(virtualAccount);
-                } else {
-                    createAccountInConfig(virtualAccount);
-                }
-            } else if (hasAccount && !databaseActive) {
-                addNewCurrenciesToAccount(virtualAccount);
+        Map<String, BigDecimal> balances = getStartingBalances();
+
+        if (!storage.hasAccount(identifier, true)) {
+            if (storage.createAccount(identifier, true, balances)) {
+                recordAccount(balances);
             }
-        } catch (IOException e) {
-            logger.warn("An error occurred while creating a new virtual account!");
+        } else {
+            recordAccount(storage.addMissingBalances(identifier, true, balances));
         }
 
         return Optional.of(virtualAccount);
@@ -265,18 +326,9 @@ public class AccountManager implements EconomyService {
      */
     @Override
     public boolean hasAccount(UUID uuid) {
-        if (databaseActive) {
-            SqlQuery query = SqlQuery.builder(sqlManager.dataSource)
-                    .select("uid")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
-
-            return query.recordExists();
-        } else {
-            return accountConfig.getNode(uuid.toString()).getValue() != null;
-        }
+        warmup.awaitReady();
+
+        return storage.hasAccount(uuid.toString(), false);
     }
 
     /**
@@ -287,18 +339,9 @@ public class AccountManager implements EconomyService {
      */
     @Override
     public boolean hasAccount(String identifier) {
-        if (databaseActive) {
-            SqlQuery query = SqlQuery.builder(sqlManager.dataSource)
-                    .select("uid")
-                    .from("virtual_accounts")
-                    .where("uid")
-                    .equals(identifier)
-                    .build();
-
-            return query.recordExists();
-        } else {
-            return accountConfig.getNode(identifier).getValue() != null;
-        }
+        warmup.awaitReady();
+
+        return storage.hasAccount(identifier, true);
     }
 
     /**
@@ -327,253 +370,246 @@ public class AccountManager implements EconomyService {
     }
 
     /**
-     * Creates a new unique account in the database.
+     * Get the starting balance of each currency.
      *
-     * @param playerAccount A player's account
-     * @throws IOException Test
-     */
-    private void createAccountInDatabase(TEAccount playerAccount) {
-        UUID uuid = playerAccount.getUniqueId();
-
-        SqlQuery.builder(sqlManager.dataSource).insert("accounts")
-                .columns("uid", "job", "job_notifications")
-                .values(uuid.toString(), "unemployed", String.valueOf(totalEconomy.isJobNotificationEnabled()))
-                .build();
-
-        SqlQuery.builder(sqlManager.dataSource).insert("levels")
-                .columns("uid")
-                .values(uuid.toString())
-                .build();
-
-        SqlQuery.builder(sqlManager.dataSource).insert("experience")
-                .columns("uid")
-                .values(uuid.toString())
-                .build();
-
-        for (Currency currency : totalEconomy.getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
-
-            SqlQuery.builder(sqlManager.dataSource).update("accounts")
-                    .set(teCurrency.getName().toLowerCase() + "_balance")
-                    .equals(playerAccount.getDefaultBalance(teCurrency).toString())
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
+     * @return Map The starting balances, keyed by the storage name of the currency
+     */
+    public Map<String, BigDecimal> getStartingBalances() {
+        Map<String, BigDecimal> balances = new LinkedHashMap<>();
+
+        for (Currency currency : getCurrencies()) {
+            balances.put(TECurrency.getStorageName(currency), ((TECurrency) currency).getStartingBalance());
         }
+
+        return balances;
     }
 
     /**
-     * Creates a new virtual account in the database.
+     * Add the balances of a new account, or the new balances of an existing one, to the economy statistics.
      *
-     * @param virtualAccount A virtual account
+     * @param balances The balances, keyed by the storage name of the currency
      */
-    private void createAccountInDatabase(TEVirtualAccount virtualAccount) {
-        String identifier = virtualAccount.getIdentifier();
+    private void recordAccount(Map<String, BigDecimal> balances) {
+        if (balances.isEmpty()) {
+            return;
+        }
 
-        for (Currency currency : totalEconomy.getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
+        for (Currency currency : getCurrencies()) {
+            BigDecimal balance = balances.get(TECurrency.getStorageName(currency));
 
-            SqlQuery.builder(sqlManager.dataSource).insert("virtual_accounts")
-                    .columns(teCurrency.getName().toLowerCase() + "_balance")
-                    .values(virtualAccount.getDefaultBalance(teCurrency).toString())
-                    .where("uid")
-                    .equals(identifier)
-                    .build();
+            if (balance != null) {
+                economyStats.recordAccount(currency, balance);
+            }
         }
     }
 
     /**
-     * Creates a new unique account in the accounts configuration file.
+     * Gets the passed in player's notification state, the configured default if the player has none.
      *
-     * @param playerAccount A player's account
-     * @throws IOException Error saving the accounts configuration file
+     * @param player The {@link Player} who's notification state to get
+     * @return boolean The notification state
      */
-    private void createAccountInConfig(TEAccount playerAccount) throws IOException {
-        UUID uuid = playerAccount.getUniqueId();
-
-        for (Currency currency : totalEconomy.getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
-
-            accountConfig.getNode(uuid.toString(), teCurrency.getName().toLowerCase() + "-balance").setValue(playerAccount.getDefaultBalance(teCurrency));
-        }
+    public boolean getJobNotificationState(Player player) {
+        warmup.awaitReady();
 
-        accountConfig.getNode(uuid.toString(), "job").setValue("unemployed");
-        accountConfig.getNode(uuid.toString(), "jobnotifications").setValue(totalEconomy.isJobNotificationEnabled());
-        loader.save(accountConfig);
+        return storage.getJobNotifications(player.getUniqueId().toString()).orElse(totalEconomy.isJobNotificationEnabled());
     }
 
     /**
-     * Creates a new virtual account in the accounts configuration file.
+     * Toggle a player's exp/money notifications for jobs.
      *
-     * @param virtualAccount A virtual account
-     * @throws IOException Error saving the accounts configuration file
+     * @param player Player toggling notifications
      */
-    private void createAccountInConfig(TEVirtualAccount virtualAccount) throws IOException {
-        String identifier = virtualAccount.getIdentifier();
+    public void toggleNotifications(Player player) {
+        boolean jobNotifications = !getJobNotificationState(player);
+        CompletableFuture<Void> write = storage.setJobNotifications(player.getUniqueId().toString(), jobNotifications);
+
+        if (write.isCompletedExceptionally()) {
+            player.sendMessage(Text.of(TextColors.RED, "Error toggling notifications! Try again. If this keeps showing up, notify the server owner or plugin developer."));
+            logger.warn("An error occurred while updating the notification state!");
+        }
 
-        for (Currency currency : totalEconomy.getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
+        write.exceptionally(e -> {
+            logger.warn("An error occurred while saving the notification state of " + player.getUniqueId() + "!");
 
-            accountConfig.getNode(identifier, teCurrency.getName().toLowerCase() + "-balance").setValue(virtualAccount.getDefaultBalance(teCurrency));
+            return null;
+        });
+
+        if (jobNotifications) {
+            player.sendMessage(messageManager.getMessage("notifications.on"));
+        } else {
+            player.sendMessage(messageManager.getMessage("notifications.off"));
         }
+    }
 
-        loader.save(accountConfig);
+    /**
+     * Get a persisted user option, such as the job debug options toggled by administrators.
+     *
+     * @param option Key of the option
+     * @param user The user the option belongs to
+     * @return Optional The value of the option
+     */
+    public Optional<String> getUserOption(String option, User user) {
+        warmup.awaitReady();
+
+        return storage.getUserOption(user.getUniqueId().toString(), option);
     }
 
     /**
-     * Checks if a unique account has a balance for each currency. If one doesn't exist, a new balance for that currency will be
-     * added and set to that currencies starting balance.
+     * Persist a user option.
      *
-     * @param playerAccount The unique account to add the balance to
-     * @throws IOException Error saving the accounts configuration file
+     * @param option Key of the option
+     * @param user The user the option belongs to
+     * @param value The new value of the option
+     * @return CompletableFuture Completed when the option is durable, or exceptionally if saving it failed
      */
-    private void addNewCurrenciesToAccount(TEAccount playerAccount) throws IOException {
-        UUID uuid = playerAccount.getUniqueId();
+    public CompletableFuture<Void> setUserOption(String option, User user, String value) {
+        warmup.awaitReady();
 
-        for (Currency currency : totalEconomy.getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
+        CompletableFuture<Void> write = storage.setUserOption(user.getUniqueId().toString(), option, value);
 
-            if (!playerAccount.hasBalance(teCurrency)) {
-                accountConfig.getNode(uuid.toString(), teCurrency.getName().toLowerCase() + "-balance").setValue(playerAccount.getDefaultBalance(teCurrency));
-            }
-        }
+        write.exceptionally(e -> {
+            logger.warn("An error occurred while saving the option " + option + " of " + user.getUniqueId() + "!");
 
-        loader.save(accountConfig);
+            return null;
+        });
+
+        return write;
     }
 
     /**
-     * Checks if a virtual account has a balance for each currency. If one doesn't exist, a new balance for that currency will be
-     * added and set to that currencies starting balance.
+     * Get the storage the accounts are kept in.
      *
-     * @param virtualAccount The virtual account to add the balance to
-     * @throws IOException Error saving the accounts configuration file
+     * @return AccountStorage The account storage
      */
-    private void addNewCurrenciesToAccount(TEVirtualAccount virtualAccount) throws IOException {
-        String identifier = virtualAccount.getIdentifier();
-
-        for (Currency currency : totalEconomy.getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
+    public AccountStorage getStorage() {
+        warmup.awaitReady();
 
-            if (!virtualAccount.hasBalance(teCurrency)) {
-                accountConfig.getNode(identifier, teCurrency.getName().toLowerCase() + "-balance").setValue(virtualAccount.getDefaultBalance(teCurrency));
-            }
-        }
+        return storage;
+    }
 
-        loader.save(accountConfig);
+    /**
+     * Get the cache of account balances.
+     *
+     * @return Optional The account cache, empty if the database or the cache is disabled
+     */
+    public Optional<AccountCache> getAccountCache() {
+        return Optional.ofNullable(accountCache);
     }
 
     /**
-     * Gets the passed in player's notification state.
+     * Get the lock guarding balance changes against balance policies. Changes of single balances hold the read lock
+     * from reading the balance until the new one was handed to the storage, bulk changes hold the write lock.
      *
-     * @param player The {@link Player} who's notification state to get
-     * @return boolean The notification state
+     * @return ReadWriteLock The balance lock
      */
-    public boolean getJobNotificationState(Player player) {
-        UUID playerUniqueId = player.getUniqueId();
+    public ReadWriteLock getBalanceLock() {
+        return balanceLock;
+    }
 
-        if (databaseActive) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource).select("job_notifications")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(playerUniqueId.toString())
-                    .build();
+    /**
+     * Get the versioned account records that async readers take snapshots of.
+     *
+     * @return Optional The account records, empty if the database is enabled
+     */
+    public Optional<AccountRecords> getAccountRecords() {
+        warmup.awaitReady();
 
-            return sqlQuery.getBoolean(true);
-        } else {
-            return accountConfig.getNode(player.getUniqueId().toString(), "jobnotifications").getBoolean(true);
-        }
+        return Optional.ofNullable(accountRecords);
     }
 
     /**
-     * Toggle a player's exp/money notifications for jobs.
+     * Get the storage of the accounts configuration file.
      *
-     * @param player Player toggling notifications
+     * @return Optional The configuration storage, empty if the database is enabled
      */
-    public void toggleNotifications(Player player) {
-        boolean jobNotifications = !getJobNotificationState(player);
-        UUID playerUniqueId = player.getUniqueId();
+    public Optional<ConfigAccountStorage> getConfigStorage() {
+        warmup.awaitReady();
 
-        if (databaseActive) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource).update("accounts")
-                    .set("job_notifications")
-                    .equals(jobNotifications ? "1" : "0")
-                    .where("uid")
-                    .equals(playerUniqueId.toString())
-                    .build();
-
-            if (sqlQuery.getRowsAffected() <= 0) {
-                player.sendMessage(Text.of(TextColors.RED, "Error toggling notifications! Try again. If this keeps showing up, notify the server owner or plugin developer."));
-                logger.warn("An error occurred while updating the notification state in the database!");
-            }
-        } else {
-            accountConfig.getNode(player.getUniqueId().toString(), "jobnotifications").setValue(jobNotifications);
+        return Optional.ofNullable(configStorage);
+    }
 
-            try {
-                loader.save(accountConfig);
-            } catch (IOException e) {
-                player.sendMessage(Text.of(TextColors.RED, "Error toggling notifications! Try again. If this keeps showing up, notify the server owner or plugin developer."));
-                logger.warn("An error occurred while updating the notification state!");
-            }
-        }
+    /**
+     * Get the economy wide balance aggregates.
+     *
+     * @return EconomyStats The economy statistics
+     */
+    public EconomyStats getEconomyStats() {
+        warmup.awaitReady();
 
-        if (jobNotifications) {
-            player.sendMessage(messageManager.getMessage("notifications.on"));
-        } else {
-            player.sendMessage(messageManager.getMessage("notifications.off"));
-        }
+        return economyStats;
     }
 
     /**
-     * Used for the debugging information provided by the listeners in the JobManager.
-     * Exists to allow administrators to retrieve the necessary information from mods in order to integrate them into jobs.
+     * Watch the write of a balance change that was already reported as successful. The database writer retries failed
+     * writes, but if one is lost anyway the change is taken out of the economy stats again and a failed transaction is
+     * posted on the main thread, so listeners like the transaction ledger record the correction.
+     *
+     * @param write The pending write of the new balance
+     * @param result The successful result of the transaction
+     * @param oldBalance The balance before the change
+     * @param newBalance The balance after the change
      */
-    public Optional<String> getUserOption(String option, User user) {
-        // Currently no db support for this - Shouldn't be that necessary anyways
-        if (databaseActive) {
-            return Optional.empty();
+    void watchBalanceWrite(CompletableFuture<Void> write, TransactionResult result, BigDecimal oldBalance, BigDecimal newBalance) {
+        // Writes to the configuration files are done right away
+        if (write.isDone() && !write.isCompletedExceptionally()) {
+            return;
         }
 
-        return Optional.ofNullable(accountConfig.getNode(user.getUniqueId().toString(), "options", option).getString(null));
+        write.exceptionally(e -> {
+            logger.warn("An error occurred while saving the balance of " + result.getAccount().getIdentifier() + ", the change was lost!");
+
+            economyStats.recordChange(result.getCurrency(), newBalance, oldBalance);
+
+            TransactionResult failedResult = new TETransactionResult(result.getAccount(), result.getCurrency(), result.getAmount(),
+                    result.getContexts(), ResultType.FAILED, result.getType());
+
+            Sponge.getScheduler().createTaskBuilder()
+                    .execute(() -> totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(failedResult)))
+                    .submit(totalEconomy);
+
+            return null;
+        });
     }
 
-    public void setUserOption(String option, User user, String value) {
-        // Currently no db support for this - Shouldn't be that necessary anyways
-        if (databaseActive) {
-            return;
-        }
+    /**
+     * Get the store of virtual accounts.
+     *
+     * @return VirtualAccountStore The virtual account store
+     */
+    public VirtualAccountStore getVirtualAccountStore() {
+        warmup.awaitReady();
 
-        accountConfig.getNode(user.getUniqueId().toString(), "options", option).setValue(value);
+        return virtualAccountStore;
     }
 
     /**
      * Request for the account configuration file to be saved.
      */
     public void requestConfigurationSave() {
-        if (totalEconomy.getSaveInterval() > 0) {
-            confSaveRequested = true;
-        } else {
-            saveConfiguration();
+        if (configStorage != null) {
+            configStorage.requestSave();
         }
     }
 
     /**
-     * Save the account configuration file.
+     * Save the account and virtual account configuration files.
      */
     public void saveConfiguration() {
-        try {
-            loader.save(accountConfig);
-        } catch (IOException e) {
-            logger.error("An error occurred while saving the account configuration file!");
-        }
+        warmup.awaitReady();
+
+        storage.save();
     }
 
     /**
-     * Get the account configuration file.
+     * Get the values of the account configuration file that aren't accounts, such as the progress of balance policies.
      *
-     * @return ConfigurationNode the account configuration
+     * @return ConfigurationNode the values, null if the database is enabled
      */
     public ConfigurationNode getAccountConfig() {
-        return accountConfig;
+        warmup.awaitReady();
+
+        return configStorage != null ? configStorage.getAccountConfig() : null;
     }
 
     /**
@@ -582,7 +618,7 @@ public class AccountManager implements EconomyService {
      * @return ConfigurationLoader The configuration loader for the account config
      */
     public ConfigurationLoader<CommentedConfigurationNode> getConfigManager() {
-        return loader;
+        return configStorage != null ? configStorage.getLoader() : null;
     }
 
 }
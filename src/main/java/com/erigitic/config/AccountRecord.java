@@ -0,0 +1,119 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import org.spongepowered.api.service.economy.Currency;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An immutable version of an account's balances and job, created while a snapshot reads the account or when the account
+ * is changed while a snapshot may still need the version it replaces.
+ */
+public final class AccountRecord {
+
+    private final String identifier;
+    private final boolean virtual;
+    private final Map<String, BigDecimal> balances;
+    private final String job;
+    private final long version;
+
+    // The version this one replaced, dropped once no open snapshot can need it anymore
+    volatile AccountRecord previous;
+
+    /**
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is virtual
+     * @param balances The balances, keyed by the lowercase currency name
+     * @param job The job, null for virtual accounts
+     * @param version The version of the account
+     */
+    public AccountRecord(String identifier, boolean virtual, Map<String, BigDecimal> balances, String job, long version) {
+        this.identifier = identifier;
+        this.virtual = virtual;
+        this.balances = balances;
+        this.job = job;
+        this.version = version;
+    }
+
+    /**
+     * Get the identifier of the account, which is the UUID of the player for unique accounts.
+     *
+     * @return String The identifier
+     */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Determines if this is a virtual account.
+     *
+     * @return boolean Whether or not the account is virtual
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Get the balance of a currency.
+     *
+     * @param currency The currency
+     * @return Optional The balance, empty if the account has no balance for the currency
+     */
+    public Optional<BigDecimal> getBalance(Currency currency) {
+        return Optional.ofNullable(balances.get(TECurrency.getStorageName(currency)));
+    }
+
+    /**
+     * Get every balance of the account.
+     *
+     * @return Map The balances, keyed by the lowercase currency name
+     */
+    public Map<String, BigDecimal> getBalances() {
+        return Collections.unmodifiableMap(balances);
+    }
+
+    /**
+     * Get the job of the account.
+     *
+     * @return Optional The job, empty for virtual accounts
+     */
+    public Optional<String> getJob() {
+        return Optional.ofNullable(job);
+    }
+
+    /**
+     * Get the version of the account, which is the epoch in which it was last changed.
+     *
+     * @return long The version
+     */
+    public long getVersion() {
+        return version;
+    }
+}
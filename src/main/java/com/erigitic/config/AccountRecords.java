@@ -0,0 +1,162 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions the accounts stored in the configuration files so that they can be read from other threads while the main
+ * thread keeps changing them.
+ *
+ * <p>The accounts themselves are their latest version, an {@link AccountSnapshot} creates records of them while it's
+ * read. Every change tags the account with the next epoch. Readers open a snapshot, which remembers the current epoch and
+ * ignores newer versions. The version an account had before a change is only kept while a snapshot is open that may need
+ * it, so opening a snapshot copies nothing, writers never wait for readers and the accounts aren't held twice.</p>
+ */
+public class AccountRecords {
+
+    private static final Source NO_ACCOUNTS = new Source() {
+        @Override
+        public Map<String, ? extends VersionedAccount> getAccounts(boolean virtual) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public AccountRecord createRecord(String identifier, boolean virtual, VersionedAccount account) {
+            throw new IllegalStateException("No accounts");
+        }
+    };
+
+    private final AtomicLong epoch = new AtomicLong();
+    private final Set<AccountSnapshot> openSnapshots = ConcurrentHashMap.newKeySet();
+
+    private volatile Source source = NO_ACCOUNTS;
+
+    /**
+     * Set the storage of the accounts.
+     *
+     * @param source The storage
+     */
+    public void setSource(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Tag a new account with the next epoch, so snapshots opened before it was created don't see it. Must be called
+     * before the account is added to the storage.
+     *
+     * @param account The account
+     */
+    public void register(VersionedAccount account) {
+        account.version = epoch.incrementAndGet();
+    }
+
+    /**
+     * Tag an account with the next epoch before its balances or job are changed, keeping the version it had for as long
+     * as an open snapshot may need it. Must be called while the account is locked.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is virtual
+     * @param account The account
+     */
+    public void change(String identifier, boolean virtual, VersionedAccount account) {
+        // Taken before looking for open snapshots, so a snapshot opened in between already sees this change
+        long version = epoch.incrementAndGet();
+        long oldestEpoch = Long.MAX_VALUE;
+
+        for (AccountSnapshot snapshot : openSnapshots) {
+            oldestEpoch = Math.min(oldestEpoch, snapshot.getRegisteredEpoch());
+        }
+
+        if (oldestEpoch == Long.MAX_VALUE) {
+            account.previous = null;
+        } else {
+            AccountRecord record = source.createRecord(identifier, virtual, account);
+            record.previous = account.previous;
+
+            // Drop the versions that no open snapshot can need anymore
+            AccountRecord oldest = record;
+
+            while (oldest.getVersion() > oldestEpoch && oldest.previous != null) {
+                oldest = oldest.previous;
+            }
+
+            oldest.previous = null;
+            account.previous = record;
+        }
+
+        account.version = version;
+    }
+
+    /**
+     * Open a snapshot of every account. The snapshot must be closed once read.
+     *
+     * @return AccountSnapshot The snapshot
+     */
+    public AccountSnapshot openSnapshot() {
+        Source current = source;
+
+        // Registered before taking the epoch, so a writer can't drop a version the snapshot needs in between
+        AccountSnapshot snapshot = new AccountSnapshot(this, current, current.getAccounts(false), current.getAccounts(true), epoch.get());
+        openSnapshots.add(snapshot);
+        snapshot.setEpoch(epoch.get());
+
+        return snapshot;
+    }
+
+    void release(AccountSnapshot snapshot) {
+        openSnapshots.remove(snapshot);
+    }
+
+    /**
+     * The storage of the accounts read by snapshots.
+     */
+    public interface Source {
+
+        /**
+         * Get the unique or virtual accounts. Snapshots keep reading the returned map, so a reload should replace it
+         * instead of clearing it.
+         *
+         * @param virtual Whether to get the virtual accounts or the unique accounts
+         * @return Map The accounts by identifier
+         */
+        Map<String, ? extends VersionedAccount> getAccounts(boolean virtual);
+
+        /**
+         * Create a record of an account as it is now. Called while the account is locked.
+         *
+         * @param identifier The identifier of the account
+         * @param virtual Whether or not the account is virtual
+         * @param account The account
+         * @return AccountRecord The record
+         */
+        AccountRecord createRecord(String identifier, boolean virtual, VersionedAccount account);
+    }
+}
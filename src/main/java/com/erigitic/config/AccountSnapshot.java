@@ -0,0 +1,133 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A consistent view of every account as it was when the snapshot was opened. Changes made afterwards aren't visible.
+ * Reading a snapshot only locks one account at a time, while its record is created, so it never holds up the threads
+ * changing accounts for long. Snapshots must be closed once read, as the versions they need are kept until then.
+ */
+public final class AccountSnapshot implements AutoCloseable {
+
+    private final AccountRecords owner;
+    private final AccountRecords.Source source;
+    private final Map<String, ? extends VersionedAccount> accounts;
+    private final Map<String, ? extends VersionedAccount> virtualAccounts;
+    private final long registeredEpoch;
+    private long epoch;
+
+    AccountSnapshot(AccountRecords owner, AccountRecords.Source source, Map<String, ? extends VersionedAccount> accounts,
+                    Map<String, ? extends VersionedAccount> virtualAccounts, long registeredEpoch) {
+        this.owner = owner;
+        this.source = source;
+        this.accounts = accounts;
+        this.virtualAccounts = virtualAccounts;
+        this.registeredEpoch = registeredEpoch;
+    }
+
+    void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    long getRegisteredEpoch() {
+        return registeredEpoch;
+    }
+
+    /**
+     * Get the epoch of the snapshot. Only versions up to this epoch are visible.
+     *
+     * @return long The epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get an account as it was when the snapshot was opened.
+     *
+     * @param identifier The identifier of the account
+     * @return Optional The account, empty if it didn't exist yet
+     */
+    public Optional<AccountRecord> get(String identifier) {
+        VersionedAccount account = accounts.get(identifier);
+
+        if (account != null) {
+            return Optional.ofNullable(resolve(identifier, false, account));
+        }
+
+        account = virtualAccounts.get(identifier);
+
+        return account != null ? Optional.ofNullable(resolve(identifier, true, account)) : Optional.empty();
+    }
+
+    /**
+     * Pass every account that existed when the snapshot was opened to a consumer.
+     *
+     * @param consumer The consumer
+     */
+    public void forEach(Consumer<AccountRecord> consumer) {
+        forEach(accounts, false, consumer);
+        forEach(virtualAccounts, true, consumer);
+    }
+
+    /**
+     * Close the snapshot, allowing the versions only it needed to be dropped.
+     */
+    @Override
+    public void close() {
+        owner.release(this);
+    }
+
+    private void forEach(Map<String, ? extends VersionedAccount> accounts, boolean virtual, Consumer<AccountRecord> consumer) {
+        for (Map.Entry<String, ? extends VersionedAccount> entry : accounts.entrySet()) {
+            AccountRecord record = resolve(entry.getKey(), virtual, entry.getValue());
+
+            if (record != null) {
+                consumer.accept(record);
+            }
+        }
+    }
+
+    private AccountRecord resolve(String identifier, boolean virtual, VersionedAccount account) {
+        synchronized (account) {
+            if (account.version <= epoch) {
+                return source.createRecord(identifier, virtual, account);
+            }
+
+            AccountRecord record = account.previous;
+
+            while (record != null && record.getVersion() > epoch) {
+                record = record.previous;
+            }
+
+            return record;
+        }
+    }
+}
@@ -26,8 +26,6 @@
 package com.erigitic.config;
 
 import com.erigitic.main.TotalEconomy;
-import com.erigitic.sql.SqlManager;
-import com.erigitic.sql.SqlQuery;
 import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.economy.Currency;
@@ -38,15 +36,18 @@ import org.spongepowered.api.text.Text;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 public class TEAccount implements UniqueAccount {
 
     private TotalEconomy totalEconomy;
     private AccountManager accountManager;
     private UUID uuid;
-    private SqlManager sqlManager;
 
-    private boolean databaseActive;
+    // The identifier is the key of every storage call, so it's only converted once
+    private String identifier;
 
     /**
      * Constructor for the TEAccount class. Manages a unique account, identified by a {@link UUID}, that contains balances for each {@link Currency}.
@@ -60,11 +61,7 @@ public class TEAccount implements UniqueAccount {
         this.accountManager = accountManager;
         this.uuid = uuid;
 
-        databaseActive = totalEconomy.isDatabaseEnabled();
-
-        if (databaseActive) {
-            sqlManager = totalEconomy.getSqlManager();
-        }
+        identifier = uuid.toString();
     }
 
     /**
@@ -95,20 +92,7 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public boolean hasBalance(Currency currency, Set<Context> contexts) {
-        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
-
-        if (databaseActive) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .select(currencyName + "_balance")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
-
-            return sqlQuery.recordExists();
-        } else {
-            return accountManager.getAccountConfig().getNode(uuid.toString(), currencyName + "-balance").getValue() != null;
-        }
+        return accountManager.getStorage().hasBalance(identifier, false, TECurrency.getStorageName(currency));
     }
 
     /**
@@ -120,26 +104,7 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public BigDecimal getBalance(Currency currency, Set<Context> contexts) {
-        if (hasBalance(currency, contexts)) {
-            String currencyName = currency.getDisplayName().toPlain().toLowerCase();
-
-            if (databaseActive) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .select(currencyName + "_balance")
-                        .from("accounts")
-                        .where("uid")
-                        .equals(uuid.toString())
-                        .build();
-
-                return sqlQuery.getBigDecimal(BigDecimal.ZERO);
-            } else {
-                BigDecimal balance = new BigDecimal(accountManager.getAccountConfig().getNode(uuid.toString(), currencyName + "-balance").getString());
-
-                return balance;
-            }
-        }
-
-        return BigDecimal.ZERO;
+        return accountManager.getStorage().getBalance(identifier, false, TECurrency.getStorageName(currency)).orElse(BigDecimal.ZERO);
     }
 
     /**
@@ -170,42 +135,52 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public TransactionResult setBalance(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        TransactionResult transactionResult;
-        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        return withBalanceLock(() -> post(changeBalance(currency, amount, false, contexts)));
+    }
 
-        // If the amount is greater then the money cap, set the amount to the money cap
-        amount = amount.min(totalEconomy.getMoneyCap());
+    /**
+     * Set the balance of a {@link Currency} without posting an event, for transactions that are reported as a part of
+     * another one. The caller must hold the read lock of the balance lock.
+     *
+     * @param currency Currency to set the balance of
+     * @param amount Amount to set the balance to, or to change it by if the change is relative
+     * @param relative Whether or not the amount is added to the balance, a relative change is written as such so changes
+     *                 made by other servers sharing the database in the meantime aren't overwritten
+     * @param contexts The contexts that the check occurred in
+     * @return TransactionResult Result of the transaction
+     */
+    private TransactionResult changeBalance(Currency currency, BigDecimal amount, boolean relative, Set<Context> contexts) {
+        TransactionResult transactionResult;
+        String currencyName = TECurrency.getStorageName(currency);
 
         if (hasBalance(currency, contexts)) {
-            BigDecimal delta = amount.subtract(getBalance(currency));
+            BigDecimal oldBalance = getBalance(currency);
+
+            // If the amount is greater then the money cap, set the amount to the money cap
+            amount = (relative ? oldBalance.add(amount) : amount).min(totalEconomy.getMoneyCap());
+
+            BigDecimal delta = amount.subtract(oldBalance);
             TransactionType transactionType = delta.compareTo(BigDecimal.ZERO) >= 0 ? TransactionTypes.DEPOSIT : TransactionTypes.WITHDRAW;
 
-            if (databaseActive) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .update("accounts")
-                        .set(currencyName + "_balance")
-                        .equals(amount.setScale(2, BigDecimal.ROUND_DOWN).toPlainString())
-                        .where("uid")
-                        .equals(uuid.toString())
-                        .build();
-
-                if (sqlQuery.getRowsAffected() > 0) {
-                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
-                } else {
-                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
-                }
-            } else {
-                accountManager.getAccountConfig().getNode(uuid.toString(), currencyName + "-balance").setValue(amount.setScale(2, BigDecimal.ROUND_DOWN));
-                accountManager.requestConfigurationSave();
+            BigDecimal newBalance = amount.setScale(2, BigDecimal.ROUND_DOWN);
+            CompletableFuture<Void> write = relative
+                    ? accountManager.getStorage().addBalance(identifier, false, currencyName, newBalance.subtract(oldBalance))
+                    : accountManager.getStorage().setBalance(identifier, false, currencyName, newBalance);
+
+            if (!write.isCompletedExceptionally()) {
+                accountManager.getEconomyStats().recordChange(currency, oldBalance, newBalance);
 
                 transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
+
+                // The write may still be lost after the transaction was reported
+                accountManager.watchBalanceWrite(write, transactionResult, oldBalance, newBalance);
+            } else {
+                transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
             }
         } else {
             transactionResult = new TETransactionResult(this, currency, BigDecimal.ZERO, contexts, ResultType.FAILED, TransactionTypes.DEPOSIT);
         }
 
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transactionResult));
-
         return transactionResult;
     }
 
@@ -251,10 +226,19 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public TransactionResult deposit(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal curBalance = getBalance(currency, contexts);
-        BigDecimal newBalance = curBalance.add(amount);
+        return post(depositWithoutEvent(currency, amount, contexts));
+    }
 
-        return setBalance(currency, newBalance, cause);
+    /**
+     * Add money to a balance without posting an event, for the deposit of a transfer.
+     *
+     * @param currency The balance to deposit money into
+     * @param amount Amount to deposit
+     * @param contexts The contexts that the check occurred in
+     * @return TransactionResult Result of the deposit
+     */
+    TransactionResult depositWithoutEvent(Currency currency, BigDecimal amount, Set<Context> contexts) {
+        return withBalanceLock(() -> changeBalance(currency, amount, true, contexts));
     }
 
     /**
@@ -268,14 +252,60 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public TransactionResult withdraw(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal curBalance =  getBalance(currency, contexts);
-        BigDecimal newBalance = curBalance.subtract(amount);
+        return withBalanceLock(() -> {
+            BigDecimal curBalance = getBalance(currency, contexts);
+            BigDecimal newBalance = curBalance.subtract(amount);
+
+            if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
+                return post(changeBalance(currency, amount.negate(), true, contexts));
+            }
+
+            return new TETransactionResult(this, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.WITHDRAW);
+        });
+    }
+
+    /**
+     * Read and change a balance without a balance policy changing it in between, which the change would overwrite.
+     *
+     * @param change Reads the balance and hands the new one to the storage
+     * @return TransactionResult Result of the change
+     */
+    private <T extends TransactionResult> T withBalanceLock(Supplier<T> change) {
+        Lock lock = accountManager.getBalanceLock().readLock();
+        lock.lock();
+
+        try {
+            return change.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T extends TransactionResult> T post(T transactionResult) {
+        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transactionResult));
+
+        return transactionResult;
+    }
 
-        if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
-            return setBalance(currency, newBalance, cause);
+    /**
+     * Deposit the money of a transfer into the receiving account. Accounts of this plugin don't post an event for the
+     * deposit, the transfer is recorded once by the event of the transfer itself.
+     *
+     * @param to The receiving account
+     * @param currency Currency of the transfer
+     * @param amount Amount of the transfer
+     * @param cause The cause of the transfer
+     * @param contexts The contexts of the transfer
+     * @return TransactionResult Result of the deposit
+     */
+    static TransactionResult depositTransfer(Account to, Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
+        if (to instanceof TEAccount) {
+            return ((TEAccount) to).depositWithoutEvent(currency, amount, contexts);
+        } else if (to instanceof TEVirtualAccount) {
+            return ((TEVirtualAccount) to).depositWithoutEvent(currency, amount, contexts);
         }
 
-        return new TETransactionResult(this, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.WITHDRAW);
+        return to.deposit(currency, amount, cause, contexts);
     }
 
     /**
@@ -290,40 +320,31 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public TransferResult transfer(Account to, Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        TransferResult transferResult;
-
-        if (hasBalance(currency, contexts)) {
-            BigDecimal curBalance = getBalance(currency, contexts);
-            BigDecimal newBalance = curBalance.subtract(amount);
-
-            if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
-                withdraw(currency, amount, cause, contexts);
+        return post(withBalanceLock(() -> {
+            if (!hasBalance(currency, contexts) || !to.hasBalance(currency, contexts)) {
+                return new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
+            }
 
-                if (to.hasBalance(currency)) {
-                    to.deposit(currency, amount, cause, contexts);
+            BigDecimal newBalance = getBalance(currency, contexts).subtract(amount);
 
-                    transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.SUCCESS, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+            if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+                return new TETransferResult(this, to, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.TRANSFER);
+            }
 
-                    return transferResult;
-                } else {
-                    transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+            // The withdrawal and the deposit are a part of the transfer, only the transfer is posted
+            if (changeBalance(currency, amount.negate(), true, contexts).getResult() != ResultType.SUCCESS) {
+                return new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
+            }
 
-                    return transferResult;
-                }
-            } else {
-                transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.TRANSFER);
-                totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+            if (depositTransfer(to, currency, amount, cause, contexts).getResult() != ResultType.SUCCESS) {
+                // Give the money back rather than losing it
+                changeBalance(currency, amount, true, contexts);
 
-                return transferResult;
+                return new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
             }
-        }
-
-        transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
 
-        return transferResult;
+            return new TETransferResult(this, to, currency, amount, contexts, ResultType.SUCCESS, TransactionTypes.TRANSFER);
+        }));
     }
 
     /**
@@ -333,7 +354,7 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public String getIdentifier() {
-        return uuid.toString();
+        return identifier;
     }
 
     /**
@@ -348,6 +369,7 @@ public class TEAccount implements UniqueAccount {
 
     @Override
     public Set<Context> getActiveContexts() {
-        return new HashSet<>();
+        // Accounts don't use contexts, so every call can share the same immutable empty set
+        return Collections.emptySet();
     }
 }
@@ -41,6 +41,12 @@ public class TECurrency implements Currency {
     boolean isTransferable;
     private BigDecimal startBalance;
 
+    // Lowercase name used to store balances, computed once since it's needed for every balance operation
+    private final String storageName;
+
+    // Id of the currency, also computed once since the economy statistics look up every balance change by it
+    private final String id;
+
     public TECurrency(Text singular, Text plural, Text symbol, int numFractionDigits, boolean defaultCurrency, boolean prefixSymbol, boolean isTransferable, BigDecimal startBalance) {
         this.singular = singular;
         this.plural = plural;
@@ -50,6 +56,23 @@ public class TECurrency implements Currency {
         this.prefixSymbol = prefixSymbol;
         this.isTransferable = isTransferable;
         this.startBalance = startBalance;
+
+        storageName = singular.toPlain().toLowerCase();
+        id = "totaleconomy:" + storageName;
+    }
+
+    /**
+     * Get the lowercase name a currency's balances are stored under.
+     *
+     * @param currency The currency
+     * @return String The lowercase name of the currency
+     */
+    public static String getStorageName(Currency currency) {
+        if (currency instanceof TECurrency) {
+            return ((TECurrency) currency).storageName;
+        }
+
+        return currency.getDisplayName().toPlain().toLowerCase();
     }
 
     @Override
@@ -59,7 +82,7 @@ public class TECurrency implements Currency {
 
     @Override
     public String getId() {
-        return "totaleconomy:" + singular.toPlain().toLowerCase();
+        return id;
     }
 
     @Override
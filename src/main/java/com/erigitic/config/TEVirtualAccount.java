@@ -26,9 +26,6 @@
 package com.erigitic.config;
 
 import com.erigitic.main.TotalEconomy;
-import com.erigitic.sql.SqlManager;
-import com.erigitic.sql.SqlQuery;
-import ninja.leaping.configurate.ConfigurationNode;
 import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.economy.Currency;
@@ -38,33 +35,22 @@ import org.spongepowered.api.service.economy.transaction.*;
 import org.spongepowered.api.text.Text;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class TEVirtualAccount implements VirtualAccount {
 
     private TotalEconomy totalEconomy;
     private AccountManager accountManager;
     private String identifier;
-    private SqlManager sqlManager;
-
-    private ConfigurationNode accountConfig;
-
-    private boolean databaseActive;
 
     public TEVirtualAccount(TotalEconomy totalEconomy, AccountManager accountManager, String identifier) {
         this.totalEconomy = totalEconomy;
         this.accountManager = accountManager;
         this.identifier = identifier;
-
-        accountConfig = accountManager.getAccountConfig();
-        databaseActive = totalEconomy.isDatabaseEnabled();
-
-        if (databaseActive) {
-            sqlManager = totalEconomy.getSqlManager();
-        }
     }
 
     @Override
@@ -79,44 +65,12 @@ public class TEVirtualAccount implements VirtualAccount {
 
     @Override
     public boolean hasBalance(Currency currency, Set<Context> contexts) {
-        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
-
-        if (databaseActive) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .select(currencyName + "_balance")
-                    .from("virtual_accounts")
-                    .where("uid")
-                    .equals(identifier)
-                    .build();
-
-            return sqlQuery.recordExists();
-        } else {
-            return accountConfig.getNode(identifier, currencyName + "-balance").getValue() != null;
-        }
+        return accountManager.getStorage().hasBalance(identifier, true, TECurrency.getStorageName(currency));
     }
 
     @Override
     public BigDecimal getBalance(Currency currency, Set<Context> contexts) {
-        if (hasBalance(currency, contexts)) {
-            String currencyName = currency.getDisplayName().toPlain().toLowerCase();
-
-            if (databaseActive) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .select(currencyName + "_balance")
-                        .from("virtual_accounts")
-                        .where("uid")
-                        .equals(identifier)
-                        .build();
-
-                return sqlQuery.getBigDecimal(BigDecimal.ZERO);
-            } else {
-                BigDecimal balance = new BigDecimal(accountConfig.getNode(identifier, currencyName + "-balance").getString());
-
-                return balance;
-            }
-        }
-
-        return BigDecimal.ZERO;
+        return accountManager.getStorage().getBalance(identifier, true, TECurrency.getStorageName(currency)).orElse(BigDecimal.ZERO);
     }
 
     @Override
@@ -126,39 +80,44 @@ public class TEVirtualAccount implements VirtualAccount {
 
     @Override
     public TransactionResult setBalance(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
+        return post(changeBalance(currency, amount, false, contexts));
+    }
+
+    // A relative change adds the amount to the balance and is written as such, so changes made by other servers sharing
+    // the database in the meantime aren't overwritten
+    private TransactionResult changeBalance(Currency currency, BigDecimal amount, boolean relative, Set<Context> contexts) {
         TransactionResult transactionResult;
-        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        String currencyName = TECurrency.getStorageName(currency);
 
         if (hasBalance(currency, contexts)) {
-            BigDecimal delta = amount.subtract(getBalance(currency));
+            BigDecimal oldBalance = getBalance(currency);
+
+            if (relative) {
+                amount = oldBalance.add(amount);
+            }
+
+            BigDecimal delta = amount.subtract(oldBalance);
             TransactionType transactionType = delta.compareTo(BigDecimal.ZERO) >= 0 ? TransactionTypes.DEPOSIT : TransactionTypes.WITHDRAW;
 
-            if (databaseActive) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .update("virtual_accounts")
-                        .set(currencyName + "_balance")
-                        .equals(amount.setScale(2, BigDecimal.ROUND_DOWN).toPlainString())
-                        .where("uid")
-                        .equals(identifier)
-                        .build();
-
-                if (sqlQuery.getRowsAffected() > 0) {
-                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
-                } else {
-                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
-                }
-            } else {
-                accountConfig.getNode(identifier, currencyName + "-balance").setValue(amount.setScale(2, BigDecimal.ROUND_DOWN));
-                accountManager.requestConfigurationSave();
+            BigDecimal newBalance = amount.setScale(2, BigDecimal.ROUND_DOWN);
+            CompletableFuture<Void> write = relative
+                    ? accountManager.getStorage().addBalance(identifier, true, currencyName, newBalance.subtract(oldBalance))
+                    : accountManager.getStorage().setBalance(identifier, true, currencyName, newBalance);
+
+            if (!write.isCompletedExceptionally()) {
+                accountManager.getEconomyStats().recordChange(currency, oldBalance, newBalance);
 
                 transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
+
+                // The write may still be lost after the transaction was reported
+                accountManager.watchBalanceWrite(write, transactionResult, oldBalance, newBalance);
+            } else {
+                transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
             }
         } else {
             transactionResult = new TETransactionResult(this, currency, BigDecimal.ZERO, contexts, ResultType.FAILED, TransactionTypes.DEPOSIT);
         }
 
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transactionResult));
-
         return transactionResult;
     }
 
@@ -180,10 +139,12 @@ public class TEVirtualAccount implements VirtualAccount {
 
     @Override
     public TransactionResult deposit(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal curBalance = getBalance(currency, contexts);
-        BigDecimal newBalance = curBalance.add(amount);
+        return post(depositWithoutEvent(currency, amount, contexts));
+    }
 
-        return setBalance(currency, newBalance, cause);
+    // The deposit of a transfer, which is only posted as a part of the transfer
+    TransactionResult depositWithoutEvent(Currency currency, BigDecimal amount, Set<Context> contexts) {
+        return changeBalance(currency, amount, true, contexts);
     }
 
     @Override
@@ -192,7 +153,7 @@ public class TEVirtualAccount implements VirtualAccount {
         BigDecimal newBalance = curBalance.subtract(amount);
 
         if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
-            return setBalance(currency, newBalance, cause);
+            return post(changeBalance(currency, amount.negate(), true, contexts));
         }
 
         return new TETransactionResult(this, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.WITHDRAW);
@@ -200,40 +161,29 @@ public class TEVirtualAccount implements VirtualAccount {
 
     @Override
     public TransferResult transfer(Account to, Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        TransferResult transferResult;
-
-        if (hasBalance(currency, contexts)) {
-            BigDecimal curBalance = getBalance(currency, contexts);
-            BigDecimal newBalance = curBalance.subtract(amount);
-
-            if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
-                withdraw(currency, amount, cause, contexts);
+        if (!hasBalance(currency, contexts) || !to.hasBalance(currency, contexts)) {
+            return post(new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER));
+        }
 
-                if (to.hasBalance(currency)) {
-                    to.deposit(currency, amount, cause, contexts);
+        BigDecimal newBalance = getBalance(currency, contexts).subtract(amount);
 
-                    transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.SUCCESS, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+        if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+            return post(new TETransferResult(this, to, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.TRANSFER));
+        }
 
-                    return transferResult;
-                } else {
-                    transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+        // The withdrawal and the deposit are a part of the transfer, only the transfer is posted
+        if (changeBalance(currency, amount.negate(), true, contexts).getResult() != ResultType.SUCCESS) {
+            return post(new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER));
+        }
 
-                    return transferResult;
-                }
-            } else {
-                transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.TRANSFER);
-                totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+        if (TEAccount.depositTransfer(to, currency, amount, cause, contexts).getResult() != ResultType.SUCCESS) {
+            // Give the money back rather than losing it
+            changeBalance(currency, amount, true, contexts);
 
-                return transferResult;
-            }
+            return post(new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER));
         }
 
-        transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
-
-        return transferResult;
+        return post(new TETransferResult(this, to, currency, amount, contexts, ResultType.SUCCESS, TransactionTypes.TRANSFER));
     }
 
     @Override
@@ -241,8 +191,15 @@ public class TEVirtualAccount implements VirtualAccount {
         return identifier;
     }
 
+    private <T extends TransactionResult> T post(T transactionResult) {
+        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transactionResult));
+
+        return transactionResult;
+    }
+
     @Override
     public Set<Context> getActiveContexts() {
-        return new HashSet<>();
+        // Accounts don't use contexts, so every call can share the same immutable empty set
+        return Collections.emptySet();
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+/**
+ * An account that {@link AccountSnapshot}s can read. The account itself is its latest version, the versions it replaced
+ * are only kept as {@link AccountRecord}s while an open snapshot may still need them.
+ *
+ * <p>The version is only read and changed while the account is locked, see {@link AccountRecords#change(String, boolean,
+ * VersionedAccount)}.</p>
+ */
+public abstract class VersionedAccount {
+
+    // The epoch in which the account was last changed
+    long version;
+
+    // The version this one replaced, dropped once no open snapshot can need it anymore
+    AccountRecord previous;
+
+    /**
+     * Get the version of the account, which is the epoch in which its balances or job were last changed.
+     *
+     * @return long The version
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import com.erigitic.sql.SqlManager;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
+import ninja.leaping.configurate.loader.ConfigurationLoader;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Stores the virtual accounts created by other plugins, such as town, faction or bank accounts, apart from the accounts
+ * of players.
+ *
+ * <p>Virtual accounts are usually namespaced by their creator (e.g. "town:ironforge"), so the store is indexed by the
+ * prefix of their identifier. When the database is enabled the primary key of the "virtual_accounts" table serves as the
+ * index. Otherwise the accounts are kept in their own configuration file, virtual_accounts.conf, and a sorted set of
+ * their identifiers is kept in memory. Their balances are then held by the account storage, the store only reads and
+ * writes the file.</p>
+ */
+public class VirtualAccountStore {
+
+    // Escape character used in LIKE patterns
+    private static final char LIKE_ESCAPE = '!';
+
+    private final SqlManager sqlManager;
+    private final AccountRecords accountRecords;
+    private final Logger logger;
+
+    private ConfigurationLoader<CommentedConfigurationNode> loader;
+
+    // Identifiers of the accounts in the configuration file, sorted so that a prefix maps to a contiguous range
+    private final NavigableSet<String> identifiers = new ConcurrentSkipListSet<>();
+
+    /**
+     * Constructor for a store that keeps the virtual accounts in the database.
+     *
+     * @param sqlManager The sql manager
+     * @param logger The logger
+     */
+    public VirtualAccountStore(SqlManager sqlManager, Logger logger) {
+        this.sqlManager = sqlManager;
+        this.accountRecords = null;
+        this.logger = logger;
+    }
+
+    /**
+     * Constructor for a store that keeps the virtual accounts in a configuration file.
+     *
+     * @param configDir The directory of the configuration files
+     * @param accountRecords The account records, used to sum balances
+     * @param logger The logger
+     */
+    public VirtualAccountStore(File configDir, AccountRecords accountRecords, Logger logger) {
+        this.sqlManager = null;
+        this.accountRecords = accountRecords;
+        this.logger = logger;
+
+        loader = HoconConfigurationLoader.builder().setFile(new File(configDir, "virtual_accounts.conf")).build();
+    }
+
+    /**
+     * Load the configuration file and move the virtual accounts still stored amongst the player accounts into it.
+     *
+     * @param accountConfig The account configuration
+     * @return ConfigurationNode The virtual account configuration, including the moved accounts
+     */
+    public ConfigurationNode load(ConfigurationNode accountConfig) {
+        ConfigurationNode virtualConfig = reload();
+
+        List<Object> moved = new ArrayList<>();
+
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : accountConfig.getChildrenMap().entrySet()) {
+            if (isVirtualAccountNode(entry.getKey().toString(), entry.getValue())) {
+                virtualConfig.getNode(entry.getKey()).setValue(entry.getValue().getValue());
+                moved.add(entry.getKey());
+            }
+        }
+
+        if (moved.isEmpty()) {
+            return virtualConfig;
+        }
+
+        for (Object key : moved) {
+            accountConfig.removeChild(key);
+            identifiers.add(key.toString());
+        }
+
+        save(virtualConfig);
+        logger.info("Moved " + moved.size() + " virtual accounts to virtual_accounts.conf.");
+
+        return virtualConfig;
+    }
+
+    /**
+     * Reload the configuration file and rebuild the prefix index.
+     *
+     * @return ConfigurationNode The virtual account configuration, null if the database is enabled
+     */
+    public ConfigurationNode reload() {
+        if (loader == null) {
+            return null;
+        }
+
+        ConfigurationNode virtualConfig;
+
+        try {
+            virtualConfig = loader.load();
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading the virtual account configuration file!");
+            virtualConfig = loader.createEmptyNode();
+        }
+
+        identifiers.clear();
+
+        for (Object key : virtualConfig.getChildrenMap().keySet()) {
+            identifiers.add(key.toString());
+        }
+
+        return virtualConfig;
+    }
+
+    /**
+     * Create an empty virtual account configuration to write the accounts to.
+     *
+     * @return ConfigurationNode The empty configuration
+     */
+    public ConfigurationNode createConfig() {
+        return loader.createEmptyNode();
+    }
+
+    /**
+     * Save the configuration file.
+     *
+     * @param virtualConfig The virtual account configuration
+     */
+    public void save(ConfigurationNode virtualConfig) {
+        if (loader == null) {
+            return;
+        }
+
+        try {
+            loader.save(virtualConfig);
+        } catch (IOException e) {
+            logger.warn("An error occurred while saving the virtual account configuration file!");
+        }
+    }
+
+    /**
+     * Add a new account to the prefix index.
+     *
+     * @param identifier The identifier of the account
+     */
+    public void register(String identifier) {
+        identifiers.add(identifier);
+    }
+
+    /**
+     * Remove a deleted account from the prefix index.
+     *
+     * @param identifier The identifier of the account
+     */
+    public void unregister(String identifier) {
+        identifiers.remove(identifier);
+    }
+
+    /**
+     * Determines if an account with the passed in identifier is in the prefix index.
+     *
+     * @param identifier The identifier of the account
+     * @return boolean Whether or not the account exists
+     */
+    public boolean contains(String identifier) {
+        return identifiers.contains(identifier);
+    }
+
+    /**
+     * Get a page of the identifiers starting with a prefix, in alphabetical order.
+     *
+     * @param prefix The prefix, empty for every account
+     * @param offset The amount of identifiers to skip
+     * @param limit The maximum amount of identifiers
+     * @return List The identifiers
+     * @throws SQLException Error reading the identifiers from the database
+     */
+    public List<String> getIdentifiers(String prefix, int offset, int limit) throws SQLException {
+        List<String> page = new ArrayList<>(Math.min(limit, 100));
+
+        if (sqlManager == null) {
+            for (String identifier : getRange(prefix)) {
+                if (page.size() >= limit) {
+                    break;
+                }
+
+                if (offset > 0) {
+                    offset--;
+                } else {
+                    page.add(identifier);
+                }
+            }
+
+            return page;
+        }
+
+        String query = "SELECT uid FROM virtual_accounts WHERE uid LIKE ? ESCAPE '" + LIKE_ESCAPE + "' ORDER BY uid"
+                + sqlManager.getDialect().limit(limit, offset);
+
+        try (Connection connection = sqlManager.getReadDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, toLikePattern(prefix));
+
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    page.add(set.getString(1));
+                }
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Get the amount of accounts whose identifier starts with a prefix.
+     *
+     * @param prefix The prefix, empty for every account
+     * @return int The amount of accounts
+     * @throws SQLException Error counting the accounts in the database
+     */
+    public int count(String prefix) throws SQLException {
+        if (sqlManager == null) {
+            return getRange(prefix).size();
+        }
+
+        String query = "SELECT COUNT(*) FROM virtual_accounts WHERE uid LIKE ? ESCAPE '" + LIKE_ESCAPE + "'";
+
+        try (Connection connection = sqlManager.getReadDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, toLikePattern(prefix));
+
+            try (ResultSet set = statement.executeQuery()) {
+                return set.next() ? set.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Get the sum of the balances of the accounts whose identifier starts with a prefix.
+     *
+     * @param prefix The prefix, empty for every account
+     * @param currency The currency of the balances
+     * @return BigDecimal The sum of the balances
+     * @throws SQLException Error reading the balances from the database
+     */
+    public BigDecimal getTotalBalance(String prefix, TECurrency currency) throws SQLException {
+        if (sqlManager == null) {
+            BigDecimal total = BigDecimal.ZERO;
+
+            try (AccountSnapshot snapshot = accountRecords.openSnapshot()) {
+                for (String identifier : getRange(prefix)) {
+                    Optional<BigDecimal> balanceOpt = snapshot.get(identifier).flatMap(record -> record.getBalance(currency));
+
+                    if (balanceOpt.isPresent()) {
+                        total = total.add(balanceOpt.get());
+                    }
+                }
+            }
+
+            return total;
+        }
+
+        String query = "SELECT SUM(" + currency.getName().toLowerCase() + "_balance) FROM virtual_accounts WHERE uid LIKE ? ESCAPE '" + LIKE_ESCAPE + "'";
+
+        try (Connection connection = sqlManager.getReadDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, toLikePattern(prefix));
+
+            try (ResultSet set = statement.executeQuery()) {
+                BigDecimal total = set.next() ? set.getBigDecimal(1) : null;
+
+                return total != null ? total : BigDecimal.ZERO;
+            }
+        }
+    }
+
+    private NavigableSet<String> getRange(String prefix) {
+        if (prefix.isEmpty()) {
+            return identifiers;
+        }
+
+        return identifiers.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Determines if a node of the account configuration holds a virtual account. Player accounts are keyed by a UUID and
+     * other nodes, such as the content version, don't hold balances.
+     *
+     * @param key The key of the node
+     * @param node The node
+     * @return boolean Whether or not the node holds a virtual account
+     */
+    private static boolean isVirtualAccountNode(String key, ConfigurationNode node) {
+        try {
+            UUID.fromString(key);
+            return false;
+        } catch (IllegalArgumentException e) {
+            // Not a player account
+        }
+
+        for (Object childKey : node.getChildrenMap().keySet()) {
+            if (childKey.toString().endsWith("-balance")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String toLikePattern(String prefix) {
+        StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+
+        for (char c : prefix.toCharArray()) {
+            if (c == LIKE_ESCAPE || c == '%' || c == '_') {
+                pattern.append(LIKE_ESCAPE);
+            }
+
+            pattern.append(c);
+        }
+
+        return pattern.append('%').toString();
+    }
+}
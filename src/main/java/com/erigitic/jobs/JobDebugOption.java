@@ -0,0 +1,80 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import java.util.Optional;
+
+/**
+ * Debug information an administrator can toggle with "/job toggle &lt;option&gt;". Each option displays information about
+ * the target of a job action, which is needed to add blocks, entities or fish of other mods to the job sets.
+ */
+public enum JobDebugOption {
+    BLOCK_BREAK_INFO("block-break-info"),
+    BLOCK_PLACE_INFO("block-place-info"),
+    ENTITY_KILL_INFO("entity-kill-info"),
+    ENTITY_FISH_INFO("entity-fish-info");
+
+    private final String id;
+    private final int mask;
+
+    JobDebugOption(String id) {
+        this.id = id;
+        this.mask = 1 << ordinal();
+    }
+
+    /**
+     * Get an option by the id used in commands.
+     *
+     * @param id Id of the option
+     * @return Optional The option
+     */
+    public static Optional<JobDebugOption> fromId(String id) {
+        for (JobDebugOption option : values()) {
+            if (option.id.equals(id)) {
+                return Optional.of(option);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the key the option is persisted under in the user options.
+     *
+     * @return String The option key
+     */
+    public String getOptionKey() {
+        return "totaleconomy:" + id;
+    }
+
+    public int getMask() {
+        return mask;
+    }
+}
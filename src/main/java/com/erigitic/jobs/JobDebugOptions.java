@@ -0,0 +1,189 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import com.erigitic.config.AccountManager;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.filter.Getter;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
+import org.spongepowered.api.scheduler.SpongeExecutorService;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the {@link JobDebugOption}s of online players as a bitset per player session, so the job listeners only have
+ * to check a flag. Options are loaded from the user options when a player joins and dropped again when they leave.
+ * If persistence is disabled options only last until the player disconnects.
+ */
+public class JobDebugOptions {
+
+    private final AccountManager accountManager;
+    private final SpongeExecutorService asyncExecutor;
+    private final boolean persist;
+
+    // Only sessions with at least one option enabled are present
+    private final Map<UUID, Integer> sessionFlags = new ConcurrentHashMap<>();
+
+    // Options each online player toggled since joining, which the options loaded on join must not overwrite
+    private final Map<UUID, Integer> sessionToggles = new ConcurrentHashMap<>();
+
+    // Lets the listeners skip the map lookup while nobody has an option enabled, which is the usual case
+    private final AtomicInteger activeSessions = new AtomicInteger();
+
+    // Run when the first session enables an option or the last one disables all of them
+    private final Runnable activityListener;
+
+    public JobDebugOptions(AccountManager accountManager, SpongeExecutorService asyncExecutor, boolean persist, Runnable activityListener) {
+        this.accountManager = accountManager;
+        this.asyncExecutor = asyncExecutor;
+        this.persist = persist;
+        this.activityListener = activityListener;
+    }
+
+    /**
+     * Check if any online player has a debug option enabled.
+     *
+     * @return boolean Whether or not any debug option is enabled
+     */
+    public boolean hasActiveSessions() {
+        return activeSessions.get() > 0;
+    }
+
+    /**
+     * Check if a player has a debug option enabled.
+     *
+     * @param uuid The unique id of the player
+     * @param option The option to check
+     * @return boolean Whether or not the option is enabled
+     */
+    public boolean isEnabled(UUID uuid, JobDebugOption option) {
+        if (activeSessions.get() == 0) {
+            return false;
+        }
+
+        Integer flags = sessionFlags.get(uuid);
+
+        return flags != null && (flags & option.getMask()) != 0;
+    }
+
+    /**
+     * Toggle a debug option of a player and persist the new state if enabled.
+     *
+     * @param user The user toggling the option
+     * @param option The option to toggle
+     * @return boolean Whether or not the option is now enabled
+     */
+    public boolean toggle(User user, JobDebugOption option) {
+        UUID uuid = user.getUniqueId();
+        boolean enabled;
+
+        synchronized (this) {
+            enabled = !isEnabled(uuid, option);
+
+            sessionToggles.merge(uuid, option.getMask(), (a, b) -> a | b);
+            updateFlags(uuid, option.getMask(), enabled ? option.getMask() : 0);
+        }
+
+        if (persist) {
+            accountManager.setUserOption(option.getOptionKey(), user, enabled ? "1" : "0");
+        }
+
+        return enabled;
+    }
+
+    @Listener
+    public void onPlayerJoin(ClientConnectionEvent.Join event, @Getter("getTargetEntity") Player player) {
+        if (!persist) {
+            return;
+        }
+
+        UUID uuid = player.getUniqueId();
+
+        sessionToggles.remove(uuid);
+
+        asyncExecutor.execute(() -> {
+            int flags = 0;
+
+            for (JobDebugOption option : JobDebugOption.values()) {
+                if (accountManager.getUserOption(option.getOptionKey(), player).orElse("0").equals("1")) {
+                    flags |= option.getMask();
+                }
+            }
+
+            synchronized (this) {
+                // The player may have left again or toggled an option while the options were loading
+                int toggled = sessionToggles.getOrDefault(uuid, 0);
+
+                if ((flags & ~toggled) != 0 && Sponge.getServer().getPlayer(uuid).isPresent()) {
+                    updateFlags(uuid, ~toggled, flags);
+                }
+            }
+        });
+    }
+
+    @Listener
+    public void onPlayerDisconnect(ClientConnectionEvent.Disconnect event, @Getter("getTargetEntity") Player player) {
+        sessionToggles.remove(player.getUniqueId());
+
+        if (sessionFlags.remove(player.getUniqueId()) != null && activeSessions.decrementAndGet() == 0) {
+            activityListener.run();
+        }
+    }
+
+    /**
+     * Set the options of a player that are in a mask.
+     *
+     * @param uuid The unique id of the player
+     * @param mask The options to set
+     * @param flags The new state of the options, bits outside of the mask are ignored
+     */
+    private void updateFlags(UUID uuid, int mask, int flags) {
+        int[] sessions = {-1};
+
+        sessionFlags.compute(uuid, (key, current) -> {
+            int oldFlags = current != null ? current : 0;
+            int newFlags = (oldFlags & ~mask) | (flags & mask);
+
+            if (oldFlags == 0 && newFlags != 0) {
+                sessions[0] = activeSessions.incrementAndGet();
+            } else if (oldFlags != 0 && newFlags == 0) {
+                sessions[0] = activeSessions.decrementAndGet();
+            }
+
+            return newFlags != 0 ? newFlags : null;
+        });
+
+        if (sessions[0] == 0 || ((flags & mask) != 0 && sessions[0] == 1)) {
+            activityListener.run();
+        }
+    }
+}
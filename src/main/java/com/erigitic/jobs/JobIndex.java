@@ -0,0 +1,320 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import org.slf4j.Logger;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.block.BlockType;
+import org.spongepowered.api.service.economy.Currency;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * An immutable view of the loaded jobs, job sets and the rewards each job pays out. A new index is built every time the
+ * job configuration files are (re)loaded and is then published by the {@link JobManager} as a whole, so listeners never
+ * observe a partially loaded configuration.
+ *
+ * <p>Rewards for blocks are precomputed for every {@link BlockState} of the targeted block types, with id and growth
+ * traits already applied and the currency resolved, so evaluating a block event is a single identity map lookup.</p>
+ */
+public final class JobIndex {
+
+    /**
+     * Index used before the configuration files have been loaded for the first time.
+     */
+    public static final JobIndex EMPTY = new JobIndex(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashSet<>(), new HashSet<>(), 0);
+
+    private final Map<String, TEJob> jobs;
+    private final Map<String, TEJobSet> jobSets;
+    private final Map<String, JobRewards> jobRewards;
+
+    // Ids of block types that only pay out when broken if they weren't placed by a player
+    private final Set<String> placementTrackedBlocks;
+
+    // Types of the actions rewarded by at least one job, such as "break" or "kill"
+    private final Set<String> actionTypes;
+
+    private final int salaryDelay;
+
+    private JobIndex(Map<String, TEJob> jobs, Map<String, TEJobSet> jobSets, Map<String, JobRewards> jobRewards, Set<String> placementTrackedBlocks, Set<String> actionTypes, int salaryDelay) {
+        this.jobs = Collections.unmodifiableMap(jobs);
+        this.jobSets = Collections.unmodifiableMap(jobSets);
+        this.jobRewards = Collections.unmodifiableMap(jobRewards);
+        this.placementTrackedBlocks = Collections.unmodifiableSet(placementTrackedBlocks);
+        this.actionTypes = Collections.unmodifiableSet(actionTypes);
+        this.salaryDelay = salaryDelay;
+    }
+
+    /**
+     * Parse and validate the jobs and job sets configuration and build a new index from them.
+     *
+     * @param jobsConfig The root node of the jobs configuration file
+     * @param jobSetsConfig The root node of the job sets configuration file
+     * @param currencyResolver Resolves the currency id of a reward, which may be null, to the currency it pays out in
+     * @param blockTypeResolver Resolves the id of a targeted block to its block type
+     * @param logger Logger used to report configuration problems
+     * @return JobIndex The new index
+     * @throws IllegalArgumentException If a job or job set could not be parsed
+     */
+    public static JobIndex build(ConfigurationNode jobsConfig, ConfigurationNode jobSetsConfig, Function<String, Currency> currencyResolver,
+                                 Function<String, Optional<BlockType>> blockTypeResolver, Logger logger) {
+        Map<String, TEJobSet> jobSets = new HashMap<>();
+        Map<String, TEJob> jobs = new HashMap<>();
+        Map<String, JobRewards> jobRewards = new HashMap<>();
+        Set<String> placementTrackedBlocks = new HashSet<>();
+        Set<String> actionTypes = new HashSet<>();
+
+        jobSetsConfig.getNode("sets").getChildrenMap().forEach((setName, setNode) -> {
+            if (setNode != null) {
+                TEJobSet jobSet = new TEJobSet(setNode);
+
+                for (TEAction action : jobSet.getActions()) {
+                    if (action.getAction().equals("break") && !action.isGrowing()) {
+                        placementTrackedBlocks.add(action.getTargetId());
+                    }
+                }
+
+                jobSets.put((String) setName, jobSet);
+            }
+        });
+
+        // Resolved rewards are shared between all states and jobs that use the same configured reward
+        Map<TEActionReward, TEActionReward> resolvedRewards = new IdentityHashMap<>();
+        Function<TEActionReward, TEActionReward> resolver = reward -> resolvedRewards.computeIfAbsent(reward,
+                r -> r.withCurrency(currencyResolver.apply(r.getCurrencyId())));
+
+        jobsConfig.getNode("jobs").getChildrenMap().forEach((jobName, jobNode) -> {
+            if (jobNode == null) {
+                return;
+            }
+
+            TEJob job;
+
+            try {
+                job = new TEJob(jobNode);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid job \"" + jobName + "\"", e);
+            }
+
+            if (!job.isValid()) {
+                return;
+            }
+
+            JobRewards rewards = new JobRewards();
+
+            for (String setName : job.getSets()) {
+                TEJobSet jobSet = jobSets.get(setName);
+
+                if (jobSet == null) {
+                    logger.warn("Job " + job.getName() + " has the nonexistent set \"" + setName + "\"");
+                    continue;
+                }
+
+                for (TEAction action : jobSet.getActions()) {
+                    rewards.add(action, resolver, blockTypeResolver, logger);
+                    actionTypes.add(action.getAction());
+                }
+            }
+
+            jobs.put(job.getName(), job);
+            jobRewards.put(job.getName(), rewards);
+        });
+
+        return new JobIndex(jobs, jobSets, jobRewards, placementTrackedBlocks, actionTypes, jobsConfig.getNode("salarydelay").getInt());
+    }
+
+    /**
+     * Get a job by its name.
+     *
+     * @param jobName Name of the job
+     * @param tryUnemployed Whether or not to return the unemployed job when the job wasn't found
+     * @return Optional The job
+     */
+    public Optional<TEJob> getJob(String jobName, boolean tryUnemployed) {
+        TEJob job = jobs.get(jobName);
+
+        if (job == null && tryUnemployed) {
+            job = jobs.get("unemployed");
+        }
+
+        return Optional.ofNullable(job);
+    }
+
+    /**
+     * Get a job set by its name.
+     *
+     * @param setName Name of the job set
+     * @return Optional The job set
+     */
+    public Optional<TEJobSet> getJobSet(String setName) {
+        return Optional.ofNullable(jobSets.get(setName));
+    }
+
+    /**
+     * Get the reward a job pays out for breaking a block.
+     *
+     * @param jobName Name of the job
+     * @param state The state of the broken block
+     * @param playerPlaced Whether or not the block was placed by a player
+     * @return Optional The reward
+     */
+    public Optional<TEActionReward> getBreakReward(String jobName, BlockState state, boolean playerPlaced) {
+        JobRewards rewards = jobRewards.get(jobName);
+
+        if (rewards == null) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(playerPlaced ? rewards.placedBreakRewards.get(state) : rewards.breakRewards.get(state));
+    }
+
+    /**
+     * Get the reward a job pays out for placing a block.
+     *
+     * @param jobName Name of the job
+     * @param state The state of the placed block
+     * @return Optional The reward
+     */
+    public Optional<TEActionReward> getPlaceReward(String jobName, BlockState state) {
+        JobRewards rewards = jobRewards.get(jobName);
+
+        return rewards == null ? Optional.empty() : Optional.ofNullable(rewards.placeRewards.get(state));
+    }
+
+    /**
+     * Get the reward a job pays out for killing an entity.
+     *
+     * @param jobName Name of the job
+     * @param entityId The id of the killed entity's type
+     * @return Optional The reward
+     */
+    public Optional<TEActionReward> getKillReward(String jobName, String entityId) {
+        JobRewards rewards = jobRewards.get(jobName);
+
+        return rewards == null ? Optional.empty() : Optional.ofNullable(rewards.killRewards.get(entityId));
+    }
+
+    /**
+     * Get the reward a job pays out for catching a fish.
+     *
+     * @param jobName Name of the job
+     * @param fishId The id of the caught fish
+     * @return Optional The reward
+     */
+    public Optional<TEActionReward> getCatchReward(String jobName, String fishId) {
+        JobRewards rewards = jobRewards.get(jobName);
+
+        return rewards == null ? Optional.empty() : Optional.ofNullable(rewards.catchRewards.get(fishId));
+    }
+
+    /**
+     * Check if blocks of a type need to be tracked when placed by a player.
+     *
+     * @param blockTypeId Id of the block type
+     * @return boolean Whether or not placements of the block type should be tracked
+     */
+    public boolean isPlacementTracked(String blockTypeId) {
+        return placementTrackedBlocks.contains(blockTypeId);
+    }
+
+    /**
+     * Check if any job rewards actions of a type.
+     *
+     * @param actionType The type of action, such as "break" or "kill"
+     * @return boolean Whether or not at least one job rewards the action type
+     */
+    public boolean hasActionType(String actionType) {
+        return actionTypes.contains(actionType);
+    }
+
+    public Map<String, TEJob> getJobs() {
+        return jobs;
+    }
+
+    public int getSalaryDelay() {
+        return salaryDelay;
+    }
+
+    /**
+     * The final rewards of a single job. When multiple sets of a job reward the same target, the reward giving the most
+     * exp is used.
+     */
+    private static class JobRewards {
+        private final Map<BlockState, TEActionReward> breakRewards = new IdentityHashMap<>();
+        private final Map<BlockState, TEActionReward> placedBreakRewards = new IdentityHashMap<>();
+        private final Map<BlockState, TEActionReward> placeRewards = new IdentityHashMap<>();
+        private final Map<String, TEActionReward> killRewards = new HashMap<>();
+        private final Map<String, TEActionReward> catchRewards = new HashMap<>();
+
+        private void add(TEAction action, Function<TEActionReward, TEActionReward> resolver, Function<String, Optional<BlockType>> blockTypeResolver, Logger logger) {
+            switch (action.getAction()) {
+                case "break":
+                case "place":
+                    Optional<BlockType> blockTypeOpt = blockTypeResolver.apply(action.getTargetId());
+
+                    if (!blockTypeOpt.isPresent()) {
+                        logger.warn("Unknown block \"" + action.getTargetId() + "\" in " + action.getAction() + " action");
+                        return;
+                    }
+
+                    for (BlockState state : blockTypeOpt.get().getAllBlockStates()) {
+                        if (action.getAction().equals("break")) {
+                            action.evaluateBreak(logger, state, false).ifPresent(reward -> putBest(breakRewards, state, resolver.apply(reward)));
+                            action.evaluateBreak(logger, state, true).ifPresent(reward -> putBest(placedBreakRewards, state, resolver.apply(reward)));
+                        } else {
+                            action.evaluatePlace(logger, state).ifPresent(reward -> putBest(placeRewards, state, resolver.apply(reward)));
+                        }
+                    }
+                    break;
+                case "kill":
+                    action.getReward().ifPresent(reward -> putBest(killRewards, action.getTargetId(), resolver.apply(reward)));
+                    break;
+                case "catch":
+                    action.getReward().ifPresent(reward -> putBest(catchRewards, action.getTargetId(), resolver.apply(reward)));
+                    break;
+                default:
+                    logger.warn("Unknown job action \"" + action.getAction() + "\"");
+            }
+        }
+
+        private static <K> void putBest(Map<K, TEActionReward> rewards, K key, TEActionReward reward) {
+            TEActionReward current = rewards.get(key);
+
+            // Use the one giving higher exp in case of duplicates
+            if (current == null || reward.getExpReward() > current.getExpReward()) {
+                rewards.put(key, reward);
+            }
+        }
+    }
+}
@@ -27,9 +27,9 @@ package com.erigitic.jobs;
 
 import com.erigitic.config.AccountManager;
 import com.erigitic.config.TEAccount;
+import com.erigitic.main.MaintenanceScheduler;
 import com.erigitic.main.TotalEconomy;
-import com.erigitic.sql.SqlManager;
-import com.erigitic.sql.SqlQuery;
+import com.erigitic.storage.AccountStorage;
 import com.erigitic.util.MessageManager;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
@@ -37,7 +37,9 @@ import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.block.BlockType;
 import org.spongepowered.api.block.tileentity.Sign;
 import org.spongepowered.api.block.tileentity.TileEntity;
 import org.spongepowered.api.block.trait.BlockTrait;
@@ -47,6 +49,7 @@ import org.spongepowered.api.data.manipulator.mutable.tileentity.SignData;
 import org.spongepowered.api.entity.Entity;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.event.EventManager;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.action.FishingEvent;
 import org.spongepowered.api.event.block.ChangeBlockEvent;
@@ -57,10 +60,10 @@ import org.spongepowered.api.event.cause.EventContext;
 import org.spongepowered.api.event.cause.EventContextKeys;
 import org.spongepowered.api.event.cause.entity.damage.source.EntityDamageSource;
 import org.spongepowered.api.event.entity.DestructEntityEvent;
+import org.spongepowered.api.event.filter.cause.First;
 import org.spongepowered.api.item.inventory.ItemStack;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
-import org.spongepowered.api.scheduler.Scheduler;
-import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.scheduler.SpongeExecutorService;
 import org.spongepowered.api.service.economy.Currency;
 import org.spongepowered.api.service.economy.transaction.ResultType;
 import org.spongepowered.api.service.economy.transaction.TransactionResult;
@@ -68,33 +71,42 @@ import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.action.TextActions;
 import org.spongepowered.api.text.format.TextColors;
 import org.spongepowered.api.text.format.TextStyles;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
 
 import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public class JobManager {
 
+    private static final String SALARY_TASK = "pay day";
+
     private TotalEconomy totalEconomy;
     private AccountManager accountManager;
     private MessageManager messageManager;
     private Logger logger;
-    private SqlManager sqlManager;
-
 
     private File jobSetsFile;
     private ConfigurationLoader<CommentedConfigurationNode> jobSetsLoader;
-    private ConfigurationNode jobSetsConfig;
-    private Map<String, TEJobSet> jobSets;
 
     private File jobsFile;
     private ConfigurationLoader<CommentedConfigurationNode> jobsLoader;
-    private ConfigurationNode jobsConfig;
-    private Map<String, TEJob> jobsMap;
 
-    private boolean databaseEnabled;
+    private volatile JobIndex jobIndex = JobIndex.EMPTY;
+    private SpongeExecutorService asyncExecutor;
+    private SpongeExecutorService syncExecutor;
+
+    private PlacedBlockTracker placedBlockTracker;
+    private JobSignRegistry jobSignRegistry;
+
+    // Listeners of each job action type, only registered while they are needed
+    private final Map<String, Object> actionListeners = new LinkedHashMap<>();
+    private final Set<Object> registeredActionListeners = new HashSet<>();
+    private JobDebugOptions debugOptions;
 
     public JobManager(TotalEconomy totalEconomy, AccountManager accountManager, MessageManager messageManager, Logger logger) {
         this.totalEconomy = totalEconomy;
@@ -102,63 +114,93 @@ public class JobManager {
         this.messageManager = messageManager;
         this.logger = logger;
 
-        databaseEnabled = totalEconomy.isDatabaseEnabled();
+        asyncExecutor = totalEconomy.getGame().getScheduler().createAsyncExecutor(totalEconomy);
+        syncExecutor = totalEconomy.getGame().getScheduler().createSyncExecutor(totalEconomy);
 
-        if (databaseEnabled) {
-            sqlManager = totalEconomy.getSqlManager();
-        }
+        debugOptions = new JobDebugOptions(accountManager, asyncExecutor, totalEconomy.isJobDebugOptionPersistenceEnabled(), this::updateActionListeners);
 
-        setupConfig();
+        actionListeners.put("break", new BreakListener());
+        actionListeners.put("place", new PlaceListener());
+        actionListeners.put("kill", new KillListener());
+        actionListeners.put("catch", new CatchListener());
 
-        if (totalEconomy.isJobSalaryEnabled()) {
-            startSalaryTask();
+        jobSignRegistry = new JobSignRegistry(asyncExecutor, totalEconomy.getConfigDir(), logger);
+
+        if (totalEconomy.isPlacedBlockTrackingEnabled()) {
+            placedBlockTracker = new PlacedBlockTracker(this, asyncExecutor, totalEconomy.getConfigDir(), logger);
         }
+
+        setupConfig();
     }
 
     /**
-     * Start the timer that pays out the salary to each player after a specified time in seconds.
+     * Schedule paying out the salary to each online player every salary delay of the current jobs, replacing the task
+     * of a previous load. Each player is paid in a separate step of the maintenance work. Without a positive delay, for
+     * example when the jobs failed to load, no salary is paid.
      */
     private void startSalaryTask() {
-        Scheduler scheduler = totalEconomy.getGame().getScheduler();
-        Task.Builder payTask = scheduler.createTaskBuilder();
+        MaintenanceScheduler scheduler = totalEconomy.getMaintenanceScheduler();
+        int salaryDelay = jobIndex.getSalaryDelay();
+
+        scheduler.unschedule(SALARY_TASK);
 
-        payTask.execute(() -> {
-            if (totalEconomy.getGame().isServerAvailable()) {
-                for (Player player : totalEconomy.getServer().getOnlinePlayers()) {
-                    Optional<TEJob> optJob = getJob(getPlayerJob(player), true);
+        if (salaryDelay <= 0) {
+            logger.warn("No salary is paid, the salary delay must be greater than 0!");
+
+            return;
+        }
 
-                    if (!optJob.isPresent()) {
-                        player.sendMessage(Text.of(TextColors.RED, "[TE] Cannot pay your salary! Contact your administrator!"));
+        scheduler.schedule(SALARY_TASK, MaintenanceScheduler.Priority.NORMAL, salaryDelay, TimeUnit.SECONDS, () -> {
+            Iterator<Player> players = new ArrayList<>(totalEconomy.getServer().getOnlinePlayers()).iterator();
 
-                        return;
+            return () -> {
+                if (players.hasNext()) {
+                    Player player = players.next();
+
+                    if (player.isOnline()) {
+                        paySalary(player);
                     }
+                }
+
+                return !players.hasNext();
+            };
+        });
+    }
 
-                    if (optJob.get().salaryEnabled()) {
-                        BigDecimal salary = optJob.get().getSalary();
-                        TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
+    /**
+     * Pay out the salary of a player's job.
+     *
+     * @param player The player being paid
+     */
+    private void paySalary(Player player) {
+        Optional<TEJob> optJob = getJob(getPlayerJob(player), true);
 
-                        EventContext eventContext = EventContext.builder()
-                                .add(EventContextKeys.PLAYER, player)
-                                .build();
+        if (!optJob.isPresent()) {
+            player.sendMessage(Text.of(TextColors.RED, "[TE] Cannot pay your salary! Contact your administrator!"));
 
-                        Cause cause = Cause.builder()
-                                .append(totalEconomy.getPluginContainer())
-                                .build(eventContext);
+            return;
+        }
 
-                        TransactionResult result = playerAccount.deposit(totalEconomy.getDefaultCurrency(), salary, cause);
+        if (optJob.get().salaryEnabled()) {
+            BigDecimal salary = optJob.get().getSalary();
+            TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
 
-                        if (result.getResult() == ResultType.SUCCESS) {
-                            Map<String, String> messageValues = new HashMap<>();
-                            messageValues.put("amount", totalEconomy.getDefaultCurrency().format(salary).toPlain());
+            EventContext eventContext = EventContext.builder()
+                    .add(EventContextKeys.PLAYER, player)
+                    .build();
 
-                            player.sendMessage(messageManager.getMessage("jobs.salary", messageValues));
-                        } else {
-                            player.sendMessage(Text.of(TextColors.RED, "[TE] Failed to pay your salary! You may want to contact your admin - TransactionResult: ", result.getResult().toString()));
-                        }
-                    }
-                }
+            Cause cause = Cause.builder()
+                    .append(totalEconomy.getPluginContainer())
+                    .build(eventContext);
+
+            TransactionResult result = playerAccount.deposit(totalEconomy.getDefaultCurrency(), salary, cause);
+
+            if (result.getResult() == ResultType.SUCCESS) {
+                player.sendMessage(messageManager.getMessage("jobs.salary", Collections.singletonMap("amount", totalEconomy.getDefaultCurrency().format(salary).toPlain())));
+            } else {
+                player.sendMessage(Text.of(TextColors.RED, "[TE] Failed to pay your salary! You may want to contact your admin - TransactionResult: ", result.getResult().toString()));
             }
-        }).delay(jobsConfig.getNode("salarydelay").getInt(), TimeUnit.SECONDS).interval(jobsConfig.getNode("salarydelay").getInt(), TimeUnit.SECONDS).name("Pay Day").submit(totalEconomy);
+        }
     }
 
     /**
@@ -167,235 +209,291 @@ public class JobManager {
     public void setupConfig() {
         jobSetsFile = new File(totalEconomy.getConfigDir(), "jobsets.conf");
         jobSetsLoader = HoconConfigurationLoader.builder().setFile(jobSetsFile).build();
-        jobSets = new HashMap();
-        reloadJobSetConfig();
 
         jobsFile = new File(totalEconomy.getConfigDir(), "jobs.conf");
         jobsLoader = HoconConfigurationLoader.builder().setFile(jobsFile).build();
-        jobsMap = new HashMap();
-        reloadJobsConfig();
     }
 
     /**
-     * Reload the jobSet config.
+     * Load the jobs once the server has started, register the listeners they need and start paying salaries. Mods may
+     * register their blocks after the plugin was constructed, so rewards for modded blocks can't be resolved earlier.
      */
-    public boolean reloadJobSetConfig() {
+    public void loadJobs() {
         try {
-            if (!jobSetsFile.exists()) {
-                totalEconomy.getPluginContainer().getAsset("jobsets.conf").get().copyToFile(jobSetsFile.toPath());
-            }
-
-            jobSetsConfig = jobSetsLoader.load();
-            ConfigurationNode sets = jobSetsConfig.getNode("sets");
+            jobIndex = loadJobIndex();
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("An error occurred while creating/loading the jobs configuration files!", e);
+        }
 
-            sets.getChildrenMap().forEach((setName, setNode) -> {
-                if (setNode != null) {
-                    TEJobSet jobSet = new TEJobSet(setNode);
+        updateActionListeners();
 
-                    jobSets.put((String) setName, jobSet);
-                }
-            });
+        if (totalEconomy.isJobSalaryEnabled()) {
+            startSalaryTask();
+        }
+    }
 
-            return true;
-        } catch (IOException e) {
-            logger.warn("An error occurred while creating/loading the jobSets configuration file!");
+    /**
+     * Load the jobs and job sets configuration files, creating them if necessary, and build a new {@link JobIndex}
+     * from them. The currently published index is left untouched.
+     *
+     * @return JobIndex The newly built index
+     * @throws IOException Error creating or loading one of the configuration files
+     */
+    private JobIndex loadJobIndex() throws IOException {
+        if (!jobSetsFile.exists()) {
+            totalEconomy.getPluginContainer().getAsset("jobsets.conf").get().copyToFile(jobSetsFile.toPath());
+        }
 
-            return false;
+        if (!jobsFile.exists()) {
+            totalEconomy.getPluginContainer().getAsset("jobs.conf").get().copyToFile(jobsFile.toPath());
         }
+
+        ConfigurationNode jobSetsConfig = jobSetsLoader.load();
+        ConfigurationNode jobsConfig = jobsLoader.load();
+
+        return JobIndex.build(jobsConfig, jobSetsConfig, this::resolveCurrency, id -> Sponge.getRegistry().getType(BlockType.class, id), logger);
     }
 
     /**
-     * Reloads the job configuration file. Can be used for initial creation of the configuration file
-     * or for simply reloading it.
+     * Reload all job configs (jobs + sets). The files are parsed and validated on a background thread, then the
+     * resulting index replaces the current one in a single step on the main thread, where the listeners are updated.
+     * If anything fails the current index is kept.
      *
-     * @return boolean Was the reload successful?
+     * @return CompletableFuture Completes on the main thread with whether or not the reload was successful
      */
-    public boolean reloadJobsConfig() {
-        try {
-            if (!jobsFile.exists()) {
-                totalEconomy.getPluginContainer().getAsset("jobs.conf").get().copyToFile(jobsFile.toPath());
+    public CompletableFuture<Boolean> reloadJobsAndSets() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Optional.of(loadJobIndex());
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warn("An error occurred while reloading the jobs configuration files!", e);
+
+                return Optional.<JobIndex>empty();
+            }
+        }, asyncExecutor).thenApplyAsync(newIndex -> {
+            if (!newIndex.isPresent()) {
+                return false;
             }
 
-            jobsConfig = jobsLoader.load();
-            ConfigurationNode jobsNode = jobsConfig.getNode("jobs");
+            jobIndex = newIndex.get();
+            updateActionListeners();
 
-            // Loop through each job node in the configuration file, create a TEJob object from it, and store in a HashMap
-            jobsNode.getChildrenMap().forEach((k, jobNode) -> {
-                if (jobNode != null) {
-                    TEJob job = new TEJob(jobNode);
+            if (totalEconomy.isJobSalaryEnabled()) {
+                startSalaryTask();
+            }
 
-                    if (job.isValid()) {
-                        jobsMap.put(job.getName(), job);
-                    }
-                }
-            });
+            logger.info("Loaded " + newIndex.get().getJobs().size() + " jobs.");
 
             return true;
-        } catch (IOException e) {
-            logger.warn("An error occurred while creating/loading the jobs configuration file!");
+        }, syncExecutor);
+    }
 
-            return false;
+    /**
+     * Register the listeners of the job action types rewarded by the current jobs and unregister the others, so events
+     * no job rewards aren't dispatched to the plugin at all. While a debug option is enabled every listener is
+     * registered, as the debug options show information about actions that aren't rewarded yet.
+     */
+    public synchronized void updateActionListeners() {
+        JobIndex index = jobIndex;
+        boolean debugging = debugOptions.hasActiveSessions();
+        EventManager eventManager = totalEconomy.getGame().getEventManager();
+
+        for (Map.Entry<String, Object> entry : actionListeners.entrySet()) {
+            Object listener = entry.getValue();
+            boolean needed = debugging || index.hasActionType(entry.getKey());
+
+            if (needed && registeredActionListeners.add(listener)) {
+                eventManager.registerListeners(totalEconomy, listener);
+            } else if (!needed && registeredActionListeners.remove(listener)) {
+                eventManager.unregisterListeners(listener);
+            }
         }
     }
 
     /**
-     * Reload all job configs (jobs + sets).
+     * Check if blocks of a type need to be tracked when placed by a player.
+     *
+     * @param blockTypeId Id of the block type
+     * @return boolean Whether or not placements of the block type should be tracked
      */
-    public boolean reloadJobsAndSets() {
-        return reloadJobsConfig() && reloadJobSetConfig();
+    public boolean isPlacementTracked(String blockTypeId) {
+        return jobIndex.isPlacementTracked(blockTypeId);
     }
 
     /**
-     * Add exp to player's current job.
+     * Checks the jobs config for the jobName.
      *
-     * @param player The player to operation experience to
-     * @param expAmount The amount of experience to add
+     * @param jobName name of the job
+     * @return boolean if the job exists or not
      */
-    public void addExp(Player player, int expAmount) {
-        String jobName = getPlayerJob(player);
-        UUID playerUniqueId = player.getUniqueId();
-        boolean jobNotifications = accountManager.getJobNotificationState(player);
+    public boolean jobExists(String jobName) {
+        return jobIndex.getJob(jobName.toLowerCase(), false).isPresent();
+    }
 
-        Map<String, String> messageValues = new HashMap<>();
+    /**
+     * Convert strings to titles (title -> Title).
+     *
+     * @param input the string to be titleized
+     * @return String the titileized version of the input
+     */
+    public String titleize(String input) {
+        return input.substring(0, 1).toUpperCase() + input.substring(1).toLowerCase();
+    }
+
+    /**
+     * Notifies a player when they are rewarded for completing a job action.
+     *
+     * @param amount The amount rewarded by the job action
+     */
+    private void notifyPlayerOfJobReward(Player player, BigDecimal amount, Currency currency) {
+        Text amountText = currency.format(amount, currency.getDefaultFractionDigits());
+
+        player.sendMessage(messageManager.getMessage("jobs.notify", Collections.singletonMap("amount", amountText.toPlain())));
+    }
+
+    /**
+     * Notifies a player when they gain exp in their current job.
+     *
+     * @param player The player gaining exp
+     * @param jobName Name of the job
+     * @param expAmount The amount of exp gained
+     */
+    private void notifyPlayerOfExp(Player player, String jobName, int expAmount) {
+        Map<String, String> messageValues = new HashMap<>(4);
         messageValues.put("job", titleize(jobName));
         messageValues.put("exp", String.valueOf(expAmount));
 
-        if (databaseEnabled) {
-            int newExp = getJobExp(jobName, player) + expAmount;
+        player.sendMessage(messageManager.getMessage("jobs.addexp", messageValues));
+    }
 
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .update("experience")
-                    .set(jobName)
-                    .equals(String.valueOf(newExp))
-                    .where("uid")
-                    .equals(playerUniqueId.toString())
-                    .build();
+    /**
+     * Pay out a job reward to a player and add the reward's exp to their current job.
+     *
+     * @param player The player being rewarded
+     * @param job The job the reward was found for
+     * @param reward The reward of the completed job action
+     * @param notify Whether or not the player is notified of the reward
+     * @param cause The cause of the job action
+     */
+    private void payReward(Player player, TEJob job, TEActionReward reward, boolean notify, Cause cause) {
+        payRewards(player, job, Collections.singletonList(reward), notify, cause);
+    }
 
-            if (sqlQuery.getRowsAffected() > 0) {
-                if (jobNotifications) {
-                    player.sendMessage(messageManager.getMessage("jobs.addexp", messageValues));
-                }
-            } else {
-                logger.warn("An error occurred while updating job experience in the database!");
-                player.sendMessage(Text.of(TextColors.RED, "[TE] Error adding experience! Consult an administrator!"));
-            }
-        } else {
-            ConfigurationNode accountConfig = accountManager.getAccountConfig();
+    /**
+     * Pay out the rewards of several job actions completed at once, such as every block of a single break event. The
+     * money is deposited once per currency and the exp is added once.
+     *
+     * @param player The player being rewarded
+     * @param job The job the rewards were found for
+     * @param rewards The rewards of the completed job actions
+     * @param notify Whether or not the player is notified of the rewards
+     * @param cause The cause of the job actions
+     */
+    private void payRewards(Player player, TEJob job, List<TEActionReward> rewards, boolean notify, Cause cause) {
+        Map<Currency, BigDecimal> payAmounts;
+        int expAmount = 0;
 
-            int curExp = accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").getInt();
+        if (rewards.size() == 1) {
+            TEActionReward reward = rewards.get(0);
 
-            accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").setValue(curExp + expAmount);
+            payAmounts = Collections.singletonMap(reward.getCurrency(), reward.getMoneyAmount());
+            expAmount = reward.getExpReward();
+        } else {
+            payAmounts = new LinkedHashMap<>();
 
-            if (jobNotifications) {
-                player.sendMessage(messageManager.getMessage("jobs.addexp", messageValues));
+            for (TEActionReward reward : rewards) {
+                payAmounts.merge(reward.getCurrency(), reward.getMoneyAmount(), BigDecimal::add);
+                expAmount += reward.getExpReward();
             }
+        }
 
-            try {
-                accountManager.getConfigManager().save(accountConfig);
-            } catch (IOException e) {
-                logger.warn("An error occurred while saving the account configuration file!");
+        TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
+
+        for (Map.Entry<Currency, BigDecimal> payAmount : payAmounts.entrySet()) {
+            if (notify) {
+                notifyPlayerOfJobReward(player, payAmount.getValue(), payAmount.getKey());
             }
+
+            playerAccount.deposit(payAmount.getKey(), payAmount.getValue(), cause);
         }
+
+        // Each action could level the player up once, as it would if the actions were rewarded one by one
+        addExpAndLevel(player, job.getName(), expAmount, rewards.size(), notify);
     }
 
     /**
-     * Checks if the player has enough exp to level up. If they do they will gain a level and their current exp will be
-     * reset.
+     * Add exp to a player's current job and level the player up as often as the new exp allows. The exp and the level
+     * are read and written once, however many levels are gained.
      *
-     * @param player player object
+     * @param player The player gaining exp
+     * @param jobName Name of the job gaining the exp
+     * @param expAmount The amount of exp to add
+     * @param maxLevelUps The maximum number of levels to gain
+     * @param notify Whether or not the player is notified of the exp
      */
-    public void checkForLevel(Player player) {
+    private void addExpAndLevel(Player player, String jobName, int expAmount, int maxLevelUps, boolean notify) {
         UUID playerUniqueId = player.getUniqueId();
-        String jobName = getPlayerJob(player);
-        int playerLevel = getJobLevel(jobName, player);
-        int playerCurExp = getJobExp(jobName, player);
-        int expToLevel = getExpToLevel(player);
-
-        if (playerCurExp >= expToLevel) {
-            playerLevel += 1;
-
-            Map<String, String> messageValues = new HashMap<>();
-            messageValues.put("job", titleize(jobName));
-            messageValues.put("level", String.valueOf(playerLevel));
-
-            if (databaseEnabled) {
-                SqlQuery.builder(sqlManager.dataSource)
-                        .update("levels")
-                        .set(jobName)
-                        .equals(String.valueOf(playerLevel))
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-
-                SqlQuery.builder(sqlManager.dataSource)
-                        .update("experience")
-                        .set(jobName)
-                        .equals(String.valueOf(playerCurExp))
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-            } else {
-                ConfigurationNode accountConfig = accountManager.getAccountConfig();
+        int newExp = getJobExp(jobName, player) + expAmount;
+        int level = getJobLevel(jobName, player);
+        int newLevel = level;
 
-                accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "level").setValue(playerLevel);
-                accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").setValue(playerCurExp);
+        // The unemployed don't level up
+        if (!jobName.equals("unemployed")) {
+            while (newLevel - level < maxLevelUps && newExp >= getExpToLevel(newLevel)) {
+                newLevel++;
             }
+        }
+
+        AccountStorage storage = accountManager.getStorage();
+        CompletableFuture<Void> write = storage.setJobExp(playerUniqueId.toString(), jobName, newExp);
 
-            player.sendMessage(messageManager.getMessage("jobs.levelup", messageValues));
+        if (write.isCompletedExceptionally()) {
+            logger.warn("An error occurred while updating job experience!");
+            player.sendMessage(Text.of(TextColors.RED, "[TE] Error adding experience! Consult an administrator!"));
+
+            return;
         }
-    }
 
-    /**
-     * Checks the jobs config for the jobName.
-     *
-     * @param jobName name of the job
-     * @return boolean if the job exists or not
-     */
-    public boolean jobExists(String jobName) {
-        if (jobsConfig.getNode("jobs", jobName.toLowerCase()).getValue() != null) {
-            return true;
+        if (notify) {
+            notifyPlayerOfExp(player, jobName, expAmount);
         }
 
-        return false;
-    }
+        write.exceptionally(e -> {
+            logger.warn("An error occurred while saving the job experience of " + playerUniqueId + ", " + expAmount + " experience was lost!");
 
-    /**
-     * Convert strings to titles (title -> Title).
-     *
-     * @param input the string to be titleized
-     * @return String the titileized version of the input
-     */
-    public String titleize(String input) {
-        return input.substring(0, 1).toUpperCase() + input.substring(1).toLowerCase();
-    }
+            return null;
+        });
 
-    private boolean getNotificationState(UUID uuid) {
-        if (databaseEnabled) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .select("job_notifications")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
+        if (newLevel > level) {
+            storage.setJobLevel(playerUniqueId.toString(), jobName, newLevel);
 
-            return sqlQuery.getBoolean(totalEconomy.isJobNotificationEnabled());
-        }
+            for (int gainedLevel = level + 1; gainedLevel <= newLevel; gainedLevel++) {
+                Map<String, String> messageValues = new HashMap<>();
+                messageValues.put("job", titleize(jobName));
+                messageValues.put("level", String.valueOf(gainedLevel));
 
-        return accountManager.getAccountConfig().getNode(uuid.toString(), "jobnotifications").getBoolean();
+                player.sendMessage(messageManager.getMessage("jobs.levelup", messageValues));
+            }
+        }
     }
 
     /**
-     * Notifies a player when they are rewarded for completing a job action.
+     * Resolve the currency a job reward pays out in. Rewards without a currency, or with an unknown one, pay out in the
+     * default currency.
      *
-     * @param amount The amount rewarded by the job action
+     * @param currencyId Id of the currency without the plugin prefix, may be null
+     * @return Currency The resolved currency
      */
-    private void notifyPlayerOfJobReward(Player player, BigDecimal amount, Currency currency) {
-        Text amountText = currency.format(amount, currency.getDefaultFractionDigits());
+    private Currency resolveCurrency(String currencyId) {
+        if (currencyId != null) {
+            Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + currencyId);
 
-        Map<String, String> messageValues = new HashMap<>();
-        messageValues.put("amount", amountText.toPlain());
+            if (currencyOpt.isPresent()) {
+                return currencyOpt.get();
+            }
+        }
 
-        player.sendMessage(messageManager.getMessage("jobs.notify", messageValues));
+        return totalEconomy.getDefaultCurrency();
     }
 
     /**
@@ -410,41 +508,22 @@ public class JobManager {
         // Just in case the job name was not passed in as lowercase, make it lowercase
         jobName = jobName.toLowerCase();
 
-        if (databaseEnabled) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .update("accounts")
-                    .set("job")
-                    .equals(jobName)
-                    .where("uid")
-                    .equals(userUniqueId.toString())
-                    .build();
+        CompletableFuture<Void> write = accountManager.getStorage().setJob(userUniqueId.toString(), jobName);
 
-            if (sqlQuery.getRowsAffected() > 0) {
-                return true;
-            } else {
-                logger.warn("An error occurred while changing the job of " + user.getUniqueId() + "/" + user.getName() + "!");
-                return false;
-            }
-        } else {
-            ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-            accountConfig.getNode(userUniqueId.toString(), "job").setValue(jobName);
-
-            accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "level").setValue(
-                    accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "level").getInt(1));
+        if (write.isCompletedExceptionally()) {
+            logger.warn("An error occurred while changing the job of " + user.getUniqueId() + "/" + user.getName() + "!");
+            return false;
+        }
 
-            accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "exp").setValue(
-                    accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "exp").getInt(0));
+        String name = jobName;
 
-            try {
-                accountManager.getConfigManager().save(accountConfig);
-            } catch (IOException e) {
-                logger.warn("An error occurred while changing the job of " + user.getUniqueId() + "/" + user.getName() + "!");
-            }
+        write.exceptionally(e -> {
+            logger.warn("An error occurred while saving the job " + name + " of " + userUniqueId + ", the change was lost!");
 
-            return true;
-        }
+            return null;
+        });
 
+        return true;
     }
 
     /**
@@ -453,7 +532,29 @@ public class JobManager {
      * @return Optional
      */
     public Optional<TEJobSet> getJobSet(String name) {
-        return Optional.ofNullable(jobSets.getOrDefault(name, null));
+        return jobIndex.getJobSet(name);
+    }
+
+    public JobDebugOptions getDebugOptions() {
+        return debugOptions;
+    }
+
+    /**
+     * Get the tracker for player placed blocks.
+     *
+     * @return Optional The tracker, empty when placed blocks are tracked by Sponge
+     */
+    public Optional<PlacedBlockTracker> getPlacedBlockTracker() {
+        return Optional.ofNullable(placedBlockTracker);
+    }
+
+    /**
+     * Get the registry of job sign locations.
+     *
+     * @return JobSignRegistry The job sign registry
+     */
+    public JobSignRegistry getJobSignRegistry() {
+        return jobSignRegistry;
     }
 
     /**
@@ -463,22 +564,8 @@ public class JobManager {
      * @return String the job the user currently has
      */
     public String getPlayerJob(User user) {
-        UUID uuid = user.getUniqueId();
-
-        if (databaseEnabled) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .select("job")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
-
-            return sqlQuery.getString("unemployed").toLowerCase();
-        } else {
-            ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-            return accountConfig.getNode(user.getUniqueId().toString(), "job").getString("unemployed").toLowerCase();
-        }
+        // Online players must see their own writes, so only lookups of offline users may be served by a read replica
+        return accountManager.getStorage().getJob(user.getUniqueId().toString(), user.isOnline()).orElse("unemployed").toLowerCase();
     }
 
     /**
@@ -489,13 +576,7 @@ public class JobManager {
      * @return {@link TEJob} the job; {@code null} for not found
      */
     public Optional<TEJob> getJob(String jobName, boolean tryUnemployed) {
-        TEJob job = jobsMap.getOrDefault(jobName, null);
-
-        if (job != null || !tryUnemployed) {
-            return Optional.ofNullable(job);
-        }
-
-        return getJob("unemployed", false);
+        return jobIndex.getJob(jobName, tryUnemployed);
     }
 
     /**
@@ -512,20 +593,7 @@ public class JobManager {
         jobName = jobName.toLowerCase();
 
         if (!jobName.equals("unemployed")) {
-            if (databaseEnabled) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .select(jobName)
-                        .from("levels")
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-
-                return sqlQuery.getInt(1);
-            } else {
-                ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-                return accountConfig.getNode(user.getUniqueId().toString(), "jobstats", jobName, "level").getInt(1);
-            }
+            return accountManager.getStorage().getJobLevel(playerUniqueId.toString(), jobName, user.isOnline()).orElse(1);
         }
 
         return 1;
@@ -545,20 +613,7 @@ public class JobManager {
         jobName = jobName.toLowerCase();
 
         if (!jobName.equals("unemployed")) {
-            if (databaseEnabled) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .select(jobName)
-                        .from("experience")
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-
-                return sqlQuery.getInt(0);
-            } else {
-                ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-                return accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").getInt(0);
-            }
+            return accountManager.getStorage().getJobExp(playerUniqueId.toString(), jobName, user.isOnline()).orElse(0);
         }
 
         return 0;
@@ -571,9 +626,16 @@ public class JobManager {
      * @return int the amount of exp needed to level
      */
     public int getExpToLevel(User user) {
-        String jobName = getPlayerJob(user);
-        int playerLevel = getJobLevel(jobName, user);
+        return getExpToLevel(getJobLevel(getPlayerJob(user), user));
+    }
 
+    /**
+     * Get the exp required to level from a level.
+     *
+     * @param playerLevel The current level
+     * @return int the amount of exp needed to level
+     */
+    private int getExpToLevel(int playerLevel) {
         int nextLevel = playerLevel + 1;
         int expToLevel = (int) ((Math.pow(nextLevel, 2) + nextLevel) / 2) * 100 - (nextLevel * 100);
 
@@ -589,7 +651,7 @@ public class JobManager {
     public Text getJobList() {
         List<Text> texts = new ArrayList<>();
 
-        jobsMap.forEach((jobName, jobObject) -> texts.add(Text.of(
+        jobIndex.getJobs().forEach((jobName, jobObject) -> texts.add(Text.of(
                 TextActions.runCommand("/job set " + jobName),
                 TextActions.showText(Text.of("Click to change job")),
                 jobName))
@@ -611,7 +673,7 @@ public class JobManager {
         String lineOnePlain = lineOne.toPlain();
         String lineTwoPlain = lineTwo.toPlain();
 
-        if (lineOnePlain.equals("[TEJobs]")) {
+        if (lineOnePlain.equals(JobSignRegistry.SIGN_HEADER)) {
             lineOne = lineOne.toBuilder().style(TextStyles.BOLD).color(TextColors.DARK_BLUE).build();
 
             String jobName = titleize(lineTwoPlain);
@@ -625,6 +687,11 @@ public class JobManager {
             data.set(data.lines().set(1, lineTwo));
             data.set(data.lines().set(2, Text.of()));
             data.set(data.lines().set(3, Text.of()));
+
+            jobSignRegistry.register(event.getTargetTile().getLocation());
+        } else {
+            Location<World> location = event.getTargetTile().getLocation();
+            jobSignRegistry.unregister(location.getExtent().getUniqueId(), location.getBlockPosition());
         }
     }
 
@@ -636,273 +703,225 @@ public class JobManager {
      */
     @Listener
     public void onSignInteract(InteractBlockEvent.Secondary event) {
-        if (event.getCause().first(Player.class).isPresent()) {
-            Player player = event.getCause().first(Player.class).get();
-
-            if (event.getTargetBlock().getLocation().isPresent()) {
-                Optional<TileEntity> tileEntityOpt = event.getTargetBlock().getLocation().get().getTileEntity();
-
-                if (tileEntityOpt.isPresent()) {
-                    TileEntity tileEntity = tileEntityOpt.get();
-
-                    if (tileEntity instanceof Sign) {
-                        Sign sign = (Sign) tileEntity;
-                        Optional<SignData> data = sign.getOrCreate(SignData.class);
-
-                        if (data.isPresent()) {
-                            SignData signData = data.get();
-                            Text lineOneText = signData.lines().get(0);
-                            Text lineTwoText = signData.lines().get(1);
-                            String lineOne = lineOneText.toPlain();
-                            String jobName = lineTwoText.toPlain().toLowerCase();
-
-                            if (lineOne.equals("[TEJobs]")) {
-                                Map<String, String> messageValues = new HashMap<>();
-                                messageValues.put("job", titleize(jobName));
-                                
-                                Optional<TEJob> optJob = getJob(jobName, false);
-
-                                if (optJob.isPresent()) {
-                                    Optional<JobBasedRequirement> optRequire = optJob.get().getRequirement();
-
-                                    if (optRequire.isPresent()) {
-                                        String reqJob = optRequire.get().getRequiredJob();
-                                        Integer reqLevel = optRequire.get().getRequiredJobLevel();
-                                        String reqPerm = optRequire.get().getRequiredPermission();
-
-                                        int currentReqJobLevel = getJobLevel(reqJob, player);
-                                        if (reqJob != null && reqLevel > currentReqJobLevel) {
-                                            messageValues.put("job", titleize(reqJob));
-                                            messageValues.put("level", reqLevel.toString());
-                                            player.sendMessage(messageManager.getMessage("jobs.unmet.level", messageValues));
-                                            return;
-                                        }
-
-                                        if (reqPerm != null && !player.hasPermission(reqPerm)) {
-                                            player.sendMessage(messageManager.getMessage("jobs.unmet.permission", messageValues));
-                                            return;
-                                        }
-                                    }
-
-                                    if (setJob(player, jobName)) {
-                                        player.sendMessage(messageManager.getMessage("jobs.sign", messageValues));
-                                    } else {
-                                        player.sendMessage(messageManager.getMessage("jobs.setfailed"));
-                                    }
-                                } else {
-                                    player.sendMessage(messageManager.getMessage("jobs.notfound"));
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-    }
+        BlockSnapshot target = event.getTargetBlock();
 
-    /**
-     * Used for the break option in jobs. Will check if the job has the break node and if it does it will check if the
-     * block that was broken is present in the config of the player's job. If it is, it will grab the job exp reward as
-     * well as the pay.
-     *
-     * @param event ChangeBlockEvent.Break
-     */
-    @Listener
-    public void onPlayerBlockBreak(ChangeBlockEvent.Break event) {
-        if (event.getCause().first(Player.class).isPresent()) {
-            Player player = event.getCause().first(Player.class).get();
-            UUID playerUniqueId = player.getUniqueId();
-
-            String playerJob = getPlayerJob(player);
-            Optional<TEJob> optPlayerJob = getJob(playerJob, true);
+        // Rejects clicks on anything but a job sign before touching the tile entity
+        if (!jobSignRegistry.contains(target)) {
+            return;
+        }
 
-            BlockState state = event.getTransactions().get(0).getOriginal().getState();
-            String blockName = state.getType().getName();
-            Optional<UUID> blockCreator = event.getTransactions().get(0).getOriginal().getCreator();
+        Optional<Player> playerOpt = event.getCause().first(Player.class);
+        Optional<TileEntity> tileEntityOpt = target.getLocation().flatMap(Location::getTileEntity);
 
-            // Enable admins to determine block information by displaying it to them - WHEN they have the flag enabled
-            if (accountManager.getUserOption("totaleconomy:block-break-info", player).orElse("0").equals("1")) {
-                List<BlockTrait<?>> traits = new ArrayList<>(state.getTraits());
-                int count = traits.size();
-                List<Text> traitTexts = new ArrayList<>(count);
+        if (!playerOpt.isPresent() || !tileEntityOpt.isPresent()) {
+            return;
+        }
 
-                for (int i = 0; i < count; i++) {
-                    Object traitValue = state.getTraitValue(traits.get(i)).orElse(null);
-                    traitTexts.add(i, Text.of(traits.get(i).getName(), '=', traitValue != null ? traitValue.toString() : "null"));
-                }
+        Player player = playerOpt.get();
+        TileEntity tileEntity = tileEntityOpt.get();
+        Optional<SignData> data = tileEntity instanceof Sign ? tileEntity.get(SignData.class) : Optional.empty();
 
-                Text t = Text.of(TextColors.GRAY, "TRAITS:\n    ", Text.joinWith(Text.of(",\n    "), traitTexts.toArray(new Text[traits.size()])));
-                player.sendMessage(Text.of("Block-Name: ", blockName));
-                player.sendMessage(t);
-            }
+        if (!data.isPresent() || !JobSignRegistry.isJobSign(data.get().lines().get())) {
+            // The sign was replaced without being broken
+            jobSignRegistry.unregister(target.getWorldUniqueId(), target.getPosition());
+            return;
+        }
 
-            if (optPlayerJob.isPresent()) {
-                Optional<TEActionReward> reward = Optional.empty();
-                List<String> sets = optPlayerJob.get().getSets();
-
-                for (String s : sets) {
-                    Optional<TEJobSet> optSet = getJobSet(s);
-                    if (!optSet.isPresent()) {
-                        logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                        continue;
-                    }
+        String jobName = data.get().lines().get(1).toPlain().toLowerCase();
+        Map<String, String> messageValues = new HashMap<>();
+        messageValues.put("job", titleize(jobName));
 
-                    Optional<TEAction> action = optSet.get().getActionFor("break", blockName);
-                    if (!action.isPresent()) {
-                        continue;
-                    }
+        Optional<TEJob> optJob = getJob(jobName, false);
 
-                    Optional<TEActionReward> currentReward = action.get().evaluateBreak(logger, state, blockCreator.orElse(null));
-                    if (!reward.isPresent()) {
-                        reward = currentReward;
-                        continue;
-                    }
+        if (optJob.isPresent()) {
+            Optional<JobBasedRequirement> optRequire = optJob.get().getRequirement();
 
-                    if (!currentReward.isPresent()) {
-                        continue;
-                    }
+            if (optRequire.isPresent()) {
+                String reqJob = optRequire.get().getRequiredJob();
+                Integer reqLevel = optRequire.get().getRequiredJobLevel();
+                String reqPerm = optRequire.get().getRequiredPermission();
 
-                    // Use the one giving higher exp in case of duplicates
-                    if (currentReward.get().getExpReward() > reward.get().getExpReward()) {
-                        reward = currentReward;
-                    }
+                int currentReqJobLevel = getJobLevel(reqJob, player);
+                if (reqJob != null && reqLevel > currentReqJobLevel) {
+                    messageValues.put("job", titleize(reqJob));
+                    messageValues.put("level", reqLevel.toString());
+                    player.sendMessage(messageManager.getMessage("jobs.unmet.level", messageValues));
+                    return;
                 }
 
-                if (reward.isPresent()) {
-                    BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                    Currency currency = totalEconomy.getDefaultCurrency();
-
-                    if (reward.get().getCurrencyId() != null) {
-                        Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                        if (currencyOpt.isPresent()) {
-                            currency = currencyOpt.get();
-                        }
-                    }
-
-                    boolean notify = getNotificationState(playerUniqueId);
-                    if (notify) {
-                        notifyPlayerOfJobReward(player, payAmount, currency);
-                    }
-
-                    TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                    playerAccount.deposit(currency, payAmount, event.getCause());
-
-                    int expAmount = reward.get().getExpReward();
-                    addExp(player, expAmount);
-                    checkForLevel(player);
+                if (reqPerm != null && !player.hasPermission(reqPerm)) {
+                    player.sendMessage(messageManager.getMessage("jobs.unmet.permission", messageValues));
+                    return;
                 }
             }
+
+            if (setJob(player, jobName)) {
+                player.sendMessage(messageManager.getMessage("jobs.sign", messageValues));
+            } else {
+                player.sendMessage(messageManager.getMessage("jobs.setfailed"));
+            }
+        } else {
+            player.sendMessage(messageManager.getMessage("jobs.notfound"));
         }
     }
 
     /**
-     * Used for the place option in jobs. Will check if the job has the place node and if it does it will check if the
-     * block that was placed is present in the config of the player's job. If it is, it will grab the job exp reward as
-     * well as the pay.
+     * Add a reward to the rewards of an event. Most events change a single block, so the list is only allocated once a
+     * second reward is added.
      *
-     * @param event ChangeBlockEvent.Place
+     * @param rewards The rewards so far
+     * @param reward The reward to add
+     * @return List The rewards including the added one
      */
-    @Listener
-    public void onPlayerPlaceBlock(ChangeBlockEvent.Place event) {
-        if (event.getCause().first(Player.class).isPresent()) {
-            Player player = event.getCause().first(Player.class).get();
-            UUID playerUniqueId = player.getUniqueId();
+    private List<TEActionReward> addReward(List<TEActionReward> rewards, TEActionReward reward) {
+        if (rewards.isEmpty()) {
+            return Collections.singletonList(reward);
+        }
 
-            String playerJob = getPlayerJob(player);
-            Optional<TEJob> optPlayerJob = getJob(playerJob, true);
+        if (rewards.size() == 1) {
+            List<TEActionReward> combined = new ArrayList<>();
+            combined.add(rewards.get(0));
+            rewards = combined;
+        }
 
-            BlockState state = event.getTransactions().get(0).getFinal().getState();
-            String blockName = state.getType().getName();
+        rewards.add(reward);
 
-            // Enable admins to determine block information by displaying it to them - WHEN they have the flag enabled
-            if (accountManager.getUserOption("totaleconomy:block-place-info", player).orElse("0").equals("1")) {
-                List<BlockTrait<?>> traits = new ArrayList<>(state.getTraits());
-                int count = traits.size();
-                List<Text> traitTexts = new ArrayList<>(count);
+        return rewards;
+    }
 
-                for (int i = 0; i < count; i++) {
-                    Object traitValue = state.getTraitValue(traits.get(i)).orElse(null);
-                    traitTexts.add(i, Text.of(traits.get(i).getName(), '=', traitValue != null ? traitValue.toString() : "null"));
-                }
+    /**
+     * Send the name and traits of a block to a player.
+     *
+     * @param player The player to send the information to
+     * @param state The block
+     */
+    private void sendBlockInfo(Player player, BlockState state) {
+        List<BlockTrait<?>> traits = new ArrayList<>(state.getTraits());
+        int count = traits.size();
+        List<Text> traitTexts = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            Object traitValue = state.getTraitValue(traits.get(i)).orElse(null);
+            traitTexts.add(i, Text.of(traits.get(i).getName(), '=', traitValue != null ? traitValue.toString() : "null"));
+        }
 
-                Text t = Text.of(TextColors.GRAY, "TRAITS:\n    ", Text.joinWith(Text.of(",\n    "), traitTexts.toArray(new Text[traits.size()])));
-                player.sendMessage(Text.of("Block-Name: ", blockName));
-                player.sendMessage(t);
-            }
+        Text t = Text.of(TextColors.GRAY, "TRAITS:\n    ", Text.joinWith(Text.of(",\n    "), traitTexts.toArray(new Text[traits.size()])));
+        player.sendMessage(Text.of("Block-Name: ", state.getType().getName()));
+        player.sendMessage(t);
+    }
 
-            if (optPlayerJob.isPresent()) {
-                Optional<TEActionReward> reward = Optional.empty();
-                List<String> sets = optPlayerJob.get().getSets();
-
-                for (String s : sets) {
-                    Optional<TEJobSet> optSet = getJobSet(s);
-                    if (!optSet.isPresent()) {
-                        logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                        continue;
-                    }
+    /**
+     * Rewards players for breaking blocks. Only registered while a job rewards break actions.
+     */
+    private class BreakListener {
+
+        /**
+         * Used for the break option in jobs. Will check if the job has the break node and if it does it will check if the
+         * blocks that were broken are present in the config of the player's job. If they are, the exp rewards as well as
+         * the pay of every block are combined and paid out at once.
+         *
+         * @param event ChangeBlockEvent.Break
+         * @param player The player breaking the blocks
+         */
+        @Listener
+        public void onPlayerBlockBreak(ChangeBlockEvent.Break event, @First Player player) {
+            JobIndex index = jobIndex;
+            Optional<TEJob> optPlayerJob = index.getJob(getPlayerJob(player), true);
+            boolean showBlockInfo = debugOptions.isEnabled(player.getUniqueId(), JobDebugOption.BLOCK_BREAK_INFO);
+            List<TEActionReward> rewards = Collections.emptyList();
+
+            for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+                if (!transaction.isValid()) {
+                    continue;
+                }
 
-                    Optional<TEAction> action = optSet.get().getActionFor("place", blockName);
-                    if (!action.isPresent()) {
-                        continue;
-                    }
+                BlockSnapshot original = transaction.getOriginal();
+                BlockState state = original.getState();
 
-                    Optional<TEActionReward> currentReward = action.get().evaluatePlace(logger, state);
-                    if (!reward.isPresent()) {
-                        reward = currentReward;
-                        continue;
-                    }
+                // Enable admins to determine block information by displaying it to them - WHEN they have the flag enabled
+                if (showBlockInfo) {
+                    sendBlockInfo(player, state);
+                }
 
-                    if (!currentReward.isPresent()) {
-                        continue;
-                    }
+                if (optPlayerJob.isPresent()) {
+                    // Prefer our own placement tracking, which allows Sponge's block owner tracking to be turned off
+                    boolean playerPlaced = placedBlockTracker != null ? placedBlockTracker.isPlayerPlaced(original) : original.getCreator().isPresent();
+                    Optional<TEActionReward> reward = index.getBreakReward(optPlayerJob.get().getName(), state, playerPlaced);
 
-                    // Use the one giving higher exp in case of duplicates
-                    if (currentReward.get().getExpReward() > reward.get().getExpReward()) {
-                        reward = currentReward;
+                    if (reward.isPresent()) {
+                        rewards = addReward(rewards, reward.get());
                     }
                 }
+            }
 
-                if (reward.isPresent()) {
-                    boolean notify = getNotificationState(playerUniqueId);
-                    BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                    Currency currency = totalEconomy.getDefaultCurrency();
+            if (!rewards.isEmpty()) {
+                payRewards(player, optPlayerJob.get(), rewards, accountManager.getJobNotificationState(player), event.getCause());
+            }
+        }
+    }
 
-                    if (reward.get().getCurrencyId() != null) {
-                        Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                        if (currencyOpt.isPresent()) {
-                            currency = currencyOpt.get();
-                        }
-                    }
+    /**
+     * Rewards players for placing blocks. Only registered while a job rewards place actions.
+     */
+    private class PlaceListener {
+
+        /**
+         * Used for the place option in jobs. Will check if the job has the place node and if it does it will check if the
+         * blocks that were placed are present in the config of the player's job. If they are, the exp rewards as well as
+         * the pay of every block are combined and paid out at once.
+         *
+         * @param event ChangeBlockEvent.Place
+         * @param player The player placing the blocks
+         */
+        @Listener
+        public void onPlayerPlaceBlock(ChangeBlockEvent.Place event, @First Player player) {
+            JobIndex index = jobIndex;
+            Optional<TEJob> optPlayerJob = index.getJob(getPlayerJob(player), true);
+            boolean showBlockInfo = debugOptions.isEnabled(player.getUniqueId(), JobDebugOption.BLOCK_PLACE_INFO);
+            List<TEActionReward> rewards = Collections.emptyList();
+
+            for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+                if (!transaction.isValid()) {
+                    continue;
+                }
 
-                    if (notify) {
-                        notifyPlayerOfJobReward(player, payAmount, currency);
-                    }
+                BlockState state = transaction.getFinal().getState();
 
-                    TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                    playerAccount.deposit(currency, payAmount, event.getCause());
+                // Enable admins to determine block information by displaying it to them - WHEN they have the flag enabled
+                if (showBlockInfo) {
+                    sendBlockInfo(player, state);
+                }
 
-                    int expAmount = reward.get().getExpReward();
-                    addExp(player, expAmount);
+                if (optPlayerJob.isPresent()) {
+                    Optional<TEActionReward> reward = index.getPlaceReward(optPlayerJob.get().getName(), state);
 
-                    checkForLevel(player);
+                    if (reward.isPresent()) {
+                        rewards = addReward(rewards, reward.get());
+                    }
                 }
             }
+
+            if (!rewards.isEmpty()) {
+                payRewards(player, optPlayerJob.get(), rewards, accountManager.getJobNotificationState(player), event.getCause());
+            }
         }
     }
 
     /**
-     * Used for the break option in jobs. Will check if the job has the break node and if it does it will check if the
-     * block that was broken is present in the config of the player's job. If it is, it will grab the job exp reward as
-     * well as the pay.
-     *
-     * @param event DestructEntityEvent.Death
+     * Rewards players for killing entities. Only registered while a job rewards kill actions.
      */
-    @Listener
-    public void onPlayerKillEntity(DestructEntityEvent.Death event) {
-        Optional<EntityDamageSource> optDamageSource = event.getCause().first(EntityDamageSource.class);
-
-        if (optDamageSource.isPresent()) {
-            EntityDamageSource damageSource = optDamageSource.get();
+    private class KillListener {
+
+        /**
+         * Used for the kill option in jobs. Will check if the job has the kill node and if it does it will check if the
+         * entity that was killed is present in the config of the player's job. If it is, it will grab the job exp reward
+         * as well as the pay.
+         *
+         * @param event DestructEntityEvent.Death
+         * @param damageSource The source of the damage that killed the entity
+         */
+        @Listener
+        public void onPlayerKillEntity(DestructEntityEvent.Death event, @First EntityDamageSource damageSource) {
             Entity killer = damageSource.getSource();
             Entity victim = event.getTargetEntity();
 
@@ -911,78 +930,28 @@ public class JobManager {
                 Optional<UUID> damageCreator = damageSource.getSource().getCreator();
 
                 if (damageCreator.isPresent()) {
-                    killer = Sponge.getServer().getPlayer(damageCreator.get()).get();
+                    killer = Sponge.getServer().getPlayer(damageCreator.get()).orElse(null);
                 }
             }
 
             if (killer instanceof Player) {
                 Player player = (Player) killer;
-                UUID playerUniqueId = player.getUniqueId();
                 String victimName = victim.getType().getName();
 
+                JobIndex index = jobIndex;
                 String playerJob = getPlayerJob(player);
-                Optional<TEJob> optPlayerJob = getJob(playerJob, true);
+                Optional<TEJob> optPlayerJob = index.getJob(playerJob, true);
 
                 // Enable admins to determine victim information by displaying it to them - WHEN they have the flag enabled
-                if (accountManager.getUserOption("totaleconomy:entity-kill-info", player).orElse("0").equals("1")) {
+                if (debugOptions.isEnabled(player.getUniqueId(), JobDebugOption.ENTITY_KILL_INFO)) {
                     player.sendMessage(Text.of("Victim-Name: ", victimName));
                 }
 
                 if (optPlayerJob.isPresent()) {
-                    Optional<TEActionReward> reward = Optional.empty();
-                    List<String> sets = optPlayerJob.get().getSets();
-
-                    for (String s : sets) {
-                        Optional<TEJobSet> optSet = getJobSet(s);
-                        if (!optSet.isPresent()) {
-                            logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                            continue;
-                        }
-
-                        Optional<TEAction> action = optSet.get().getActionFor("kill", victimName);
-                        if (!action.isPresent()) {
-                            continue;
-                        }
-
-                        Optional<TEActionReward> currentReward = action.get().getReward();
-                        if (!reward.isPresent()) {
-                            reward = currentReward;
-                            continue;
-                        }
-
-                        if (!currentReward.isPresent()) {
-                            continue;
-                        }
-
-                        // Use the one giving higher exp in case of duplicates
-                        if (currentReward.get().getExpReward() > reward.get().getExpReward()) {
-                            reward = currentReward;
-                        }
-                    }
+                    Optional<TEActionReward> reward = index.getKillReward(optPlayerJob.get().getName(), victimName);
 
                     if (reward.isPresent()) {
-                        boolean notify = getNotificationState(playerUniqueId);
-                        BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                        Currency currency = totalEconomy.getDefaultCurrency();
-
-                        if (reward.get().getCurrencyId() != null) {
-                            Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                            if (currencyOpt.isPresent()) {
-                                currency = currencyOpt.get();
-                            }
-                        }
-
-                        if (notify) {
-                            notifyPlayerOfJobReward(player, payAmount, currency);
-                        }
-
-                        TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                        playerAccount.deposit(currency, payAmount, event.getCause());
-
-                        int expAmount = reward.get().getExpReward();
-                        addExp(player, expAmount);
-
-                        checkForLevel(player);
+                        payReward(player, optPlayerJob.get(), reward.get(), accountManager.getJobNotificationState(player), event.getCause());
                     }
                 }
             }
@@ -990,15 +959,20 @@ public class JobManager {
     }
 
     /**
-     * Used for the catch option in jobs. Will check if the job has the catch node and if it does it will check if the
-     * item that was caught is present in the config of the player's job. If it is, it will grab the job exp reward as
-     * well as the pay.
-     *
-     * @param event FishingEvent.Stop
+     * Rewards players for catching fish. Only registered while a job rewards catch actions.
      */
-    @Listener
-    public void onPlayerFish(FishingEvent.Stop event) {
-        if (event.getCause().first(Player.class).isPresent()) {
+    private class CatchListener {
+
+        /**
+         * Used for the catch option in jobs. Will check if the job has the catch node and if it does it will check if the
+         * item that was caught is present in the config of the player's job. If it is, it will grab the job exp reward as
+         * well as the pay.
+         *
+         * @param event FishingEvent.Stop
+         * @param player The player fishing
+         */
+        @Listener
+        public void onPlayerFish(FishingEvent.Stop event, @First Player player) {
             // No transaction, so execution can stop
             if (event.getTransactions().size() == 0) {
                 return;
@@ -1006,11 +980,10 @@ public class JobManager {
 
             Transaction<ItemStackSnapshot> itemTransaction = event.getTransactions().get(0);
             ItemStack itemStack = itemTransaction.getFinal().createStack();
-            Player player = event.getCause().first(Player.class).get();
-            UUID playerUniqueId = player.getUniqueId();
 
+            JobIndex index = jobIndex;
             String playerJob = getPlayerJob(player);
-            Optional<TEJob> optPlayerJob = getJob(playerJob, true);
+            Optional<TEJob> optPlayerJob = index.getJob(playerJob, true);
 
             if (optPlayerJob.isPresent()) {
                 if (itemStack.get(FishData.class).isPresent()) {
@@ -1018,65 +991,14 @@ public class JobManager {
                     String fishName = fishData.type().get().getName();
 
                     // Enable admins to determine fish information by displaying it to them - WHEN they have the flag enabled
-                    if (accountManager.getUserOption("totaleconomy:entity-fish-info", player).orElse("0").equals("1")) {
+                    if (debugOptions.isEnabled(player.getUniqueId(), JobDebugOption.ENTITY_FISH_INFO)) {
                         player.sendMessage(Text.of("Fish-Name: ", fishName));
                     }
 
-                    Optional<TEActionReward> reward = Optional.empty();
-                    List<String> sets = optPlayerJob.get().getSets();
-
-                    for (String s : sets) {
-                        Optional<TEJobSet> optSet = getJobSet(s);
-
-                        if (!optSet.isPresent()) {
-                            logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                            continue;
-                        }
-
-                        Optional<TEAction> action = optSet.get().getActionFor("catch", fishName);
-                        if (!action.isPresent()) {
-                            continue;
-                        }
-
-                        Optional<TEActionReward> currentReward = action.get().getReward();
-                        if (!reward.isPresent()) {
-                            reward = currentReward;
-                            continue;
-                        }
-
-                        if (!currentReward.isPresent()) {
-                            continue;
-                        }
-
-                        // Use the one giving higher exp in case of duplicates
-                        if (currentReward.get().getExpReward() > reward.get().getExpReward()) {
-                            reward = currentReward;
-                        }
-                    }
+                    Optional<TEActionReward> reward = index.getCatchReward(optPlayerJob.get().getName(), fishName);
 
                     if (reward.isPresent()) {
-                        boolean notify = getNotificationState(playerUniqueId);
-                        BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                        Currency currency = totalEconomy.getDefaultCurrency();
-
-                        if (reward.get().getCurrencyId() != null) {
-                            Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                            if (currencyOpt.isPresent()) {
-                                currency = currencyOpt.get();
-                            }
-                        }
-
-                        if (notify) {
-                            notifyPlayerOfJobReward(player, payAmount, currency);
-                        }
-
-                        TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                        playerAccount.deposit(currency, payAmount, event.getCause());
-
-                        int expAmount = reward.get().getExpReward();
-                        addExp(player, expAmount);
-
-                        checkForLevel(player);
+                        payReward(player, optPlayerJob.get(), reward.get(), accountManager.getJobNotificationState(player), event.getCause());
                     }
                 }
             }
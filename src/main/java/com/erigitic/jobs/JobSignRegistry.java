@@ -0,0 +1,325 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import com.flowpowered.math.vector.Vector3i;
+import org.slf4j.Logger;
+import org.spongepowered.api.block.BlockSnapshot;
+import org.spongepowered.api.block.tileentity.Sign;
+import org.spongepowered.api.block.tileentity.TileEntity;
+import org.spongepowered.api.data.Transaction;
+import org.spongepowered.api.data.key.Keys;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.block.ChangeBlockEvent;
+import org.spongepowered.api.event.world.SaveWorldEvent;
+import org.spongepowered.api.event.world.chunk.LoadChunkEvent;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.world.Chunk;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps track of the locations of "Job Changing" signs, so clicks on any other block can be ignored with a single lookup
+ * instead of reading the tile entity of every clicked block.
+ *
+ * <p>Signs are registered when they are written and unregistered when they are broken. Signs that were created before
+ * the registry existed are registered when their chunk is loaded for the first time, the chunks that were searched are
+ * remembered so each chunk is only searched once. The registry is stored in jobsigns.dat, which is written on the async
+ * executor when the worlds are saved.</p>
+ *
+ * <p>All methods are expected to be called from the main server thread.</p>
+ */
+public class JobSignRegistry {
+
+    public static final String SIGN_HEADER = "[TEJobs]";
+
+    private static final int FILE_MAGIC = 0x5445534A;
+    private static final int FILE_VERSION = 2;
+
+    private final Executor asyncExecutor;
+    private final Logger logger;
+    private final File file;
+
+    private final Map<UUID, Set<Long>> worldSigns = new HashMap<>();
+
+    // World -> chunks that were searched for job signs
+    private final Map<UUID, Set<Long>> scannedChunks = new HashMap<>();
+
+    private boolean dirty = false;
+
+    // The last write of the file, the next one starts after it
+    private CompletableFuture<Void> pendingSave = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param asyncExecutor Executor the file is written on
+     * @param configDir The directory the file is stored in
+     * @param logger Logger used to report errors while reading or writing the file
+     */
+    public JobSignRegistry(Executor asyncExecutor, File configDir, Logger logger) {
+        this.asyncExecutor = asyncExecutor;
+        this.logger = logger;
+
+        file = new File(configDir, "jobsigns.dat");
+        load();
+    }
+
+    /**
+     * Check if a job sign is registered at a block.
+     *
+     * @param snapshot The block to check
+     * @return boolean Whether or not a job sign is registered at the block
+     */
+    public boolean contains(BlockSnapshot snapshot) {
+        Set<Long> signs = worldSigns.get(snapshot.getWorldUniqueId());
+
+        return signs != null && signs.contains(key(snapshot.getPosition()));
+    }
+
+    /**
+     * Register a job sign.
+     *
+     * @param location The location of the sign
+     */
+    public void register(Location<World> location) {
+        if (worldSigns.computeIfAbsent(location.getExtent().getUniqueId(), k -> new HashSet<>()).add(key(location.getBlockPosition()))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Unregister a job sign.
+     *
+     * @param worldUniqueId The {@link UUID} of the world of the sign
+     * @param position The position of the sign
+     */
+    public void unregister(UUID worldUniqueId, Vector3i position) {
+        Set<Long> signs = worldSigns.get(worldUniqueId);
+
+        if (signs != null && signs.remove(key(position))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Determines if the lines of a sign make it a job sign.
+     *
+     * @param lines The lines of the sign
+     * @return boolean Whether or not the sign is a job sign
+     */
+    public static boolean isJobSign(List<Text> lines) {
+        return !lines.isEmpty() && lines.get(0).toPlain().equals(SIGN_HEADER);
+    }
+
+    /**
+     * Unregister broken job signs, no matter what broke them.
+     *
+     * @param event ChangeBlockEvent.Break
+     */
+    @Listener(order = Order.POST)
+    public void onBlockBreak(ChangeBlockEvent.Break event) {
+        for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+            BlockSnapshot original = transaction.getOriginal();
+
+            if (transaction.isValid() && contains(original)) {
+                unregister(original.getWorldUniqueId(), original.getPosition());
+            }
+        }
+    }
+
+    /**
+     * Register the job signs of a chunk that is loaded for the first time since the registry exists.
+     *
+     * @param event LoadChunkEvent
+     */
+    @Listener
+    public void onChunkLoad(LoadChunkEvent event) {
+        Chunk chunk = event.getTargetChunk();
+        Vector3i position = chunk.getPosition();
+
+        if (!scannedChunks.computeIfAbsent(chunk.getWorld().getUniqueId(), k -> new HashSet<>()).add(chunkKey(position.getX(), position.getZ()))) {
+            return;
+        }
+
+        dirty = true;
+
+        for (TileEntity tileEntity : chunk.getTileEntities(tileEntity -> tileEntity instanceof Sign)) {
+            if (tileEntity.get(Keys.SIGN_LINES).map(JobSignRegistry::isJobSign).orElse(false)) {
+                register(tileEntity.getLocation());
+            }
+        }
+    }
+
+    /**
+     * Write the registry with the worlds if it changed.
+     *
+     * @param event SaveWorldEvent.Post
+     */
+    @Listener
+    public void onWorldSave(SaveWorldEvent.Post event) {
+        save();
+    }
+
+    /**
+     * Copy the registry if it changed since it was last saved and write it on the async executor, after the previous
+     * write.
+     */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+
+        dirty = false;
+
+        Map<UUID, long[]> signs = copy(worldSigns);
+        Map<UUID, long[]> chunks = copy(scannedChunks);
+
+        pendingSave = pendingSave.exceptionally(e -> null).thenRunAsync(() -> write(signs, chunks), asyncExecutor);
+    }
+
+    /**
+     * Write the registry if it changed, on the calling thread once the write that is still running finished. Used when
+     * the server stops.
+     */
+    public void saveNow() {
+        pendingSave.exceptionally(e -> null).join();
+
+        if (dirty) {
+            dirty = false;
+            write(copy(worldSigns), copy(scannedChunks));
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            int version = in.readInt() == FILE_MAGIC ? in.readUnsignedByte() : -1;
+
+            if (version < 1 || version > FILE_VERSION) {
+                logger.warn("Ignoring unknown job sign file " + file.getName());
+                return;
+            }
+
+            read(in, worldSigns);
+
+            // The first version didn't remember the searched chunks, so every chunk is searched again once
+            if (version >= 2) {
+                read(in, scannedChunks);
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading the job sign file " + file.getName() + "!", e);
+        }
+    }
+
+    private static void read(DataInputStream in, Map<UUID, Set<Long>> worldKeys) throws IOException {
+        int worldCount = in.readInt();
+
+        for (int i = 0; i < worldCount; i++) {
+            UUID worldUniqueId = new UUID(in.readLong(), in.readLong());
+            int keyCount = in.readInt();
+            Set<Long> keys = new HashSet<>(keyCount * 2);
+
+            for (int j = 0; j < keyCount; j++) {
+                keys.add(in.readLong());
+            }
+
+            worldKeys.put(worldUniqueId, keys);
+        }
+    }
+
+    private void write(Map<UUID, long[]> signs, Map<UUID, long[]> chunks) {
+        // Write to a temporary file first so a crash never leaves a truncated file behind
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeByte(FILE_VERSION);
+
+                write(out, signs);
+                write(out, chunks);
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("An error occurred while saving the job sign file " + file.getName() + "!", e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Map<UUID, long[]> worldKeys) throws IOException {
+        out.writeInt(worldKeys.size());
+
+        for (Map.Entry<UUID, long[]> entry : worldKeys.entrySet()) {
+            out.writeLong(entry.getKey().getMostSignificantBits());
+            out.writeLong(entry.getKey().getLeastSignificantBits());
+            out.writeInt(entry.getValue().length);
+
+            for (long key : entry.getValue()) {
+                out.writeLong(key);
+            }
+        }
+    }
+
+    private static Map<UUID, long[]> copy(Map<UUID, Set<Long>> worldKeys) {
+        Map<UUID, long[]> copy = new HashMap<>(worldKeys.size() * 2);
+
+        worldKeys.forEach((worldUniqueId, keys) -> copy.put(worldUniqueId, keys.stream().mapToLong(Long::longValue).toArray()));
+
+        return copy;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static long key(Vector3i position) {
+        return ((long) (position.getX() & 0x3FFFFFF) << 38) | ((long) (position.getZ() & 0x3FFFFFF) << 12) | (position.getY() & 0xFFF);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact record of which blocks in a single chunk were placed by a player. Each 16x16x16 section is stored as a
+ * 4096 bit bitset that is only allocated once a block inside of it is flagged.
+ */
+class PlacedBlockChunk {
+
+    private static final int SECTION_COUNT = 16;
+    private static final int WORDS_PER_SECTION = 64;
+
+    private final long[][] sections = new long[SECTION_COUNT][];
+
+    /**
+     * Check if the block at the chunk relative position was placed by a player.
+     *
+     * @param x Block x coordinate
+     * @param y Block y coordinate
+     * @param z Block z coordinate
+     * @return boolean Whether or not the block is flagged as player placed
+     */
+    boolean isPlaced(int x, int y, int z) {
+        if (y < 0 || y >= SECTION_COUNT * 16) {
+            return false;
+        }
+
+        long[] section = sections[y >> 4];
+
+        if (section == null) {
+            return false;
+        }
+
+        int index = index(x, y, z);
+
+        return (section[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Flag or un-flag the block at the chunk relative position as player placed.
+     *
+     * @param x Block x coordinate
+     * @param y Block y coordinate
+     * @param z Block z coordinate
+     * @param placed Whether or not the block was placed by a player
+     * @return boolean Whether or not the stored value changed
+     */
+    boolean setPlaced(int x, int y, int z, boolean placed) {
+        if (y < 0 || y >= SECTION_COUNT * 16) {
+            return false;
+        }
+
+        int sectionIndex = y >> 4;
+        long[] section = sections[sectionIndex];
+        int index = index(x, y, z);
+        long mask = 1L << index;
+
+        if (placed) {
+            if (section == null) {
+                section = new long[WORDS_PER_SECTION];
+                sections[sectionIndex] = section;
+            }
+
+            if ((section[index >>> 6] & mask) != 0) {
+                return false;
+            }
+
+            section[index >>> 6] |= mask;
+        } else {
+            if (section == null || (section[index >>> 6] & mask) == 0) {
+                return false;
+            }
+
+            section[index >>> 6] &= ~mask;
+
+            // Release sections once the last flagged block in them is gone
+            if (section[index >>> 6] == 0 && isSectionEmpty(section)) {
+                sections[sectionIndex] = null;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copy the flags of the chunk, so they can be written while the chunk keeps changing.
+     *
+     * @return PlacedBlockChunk The copy
+     */
+    PlacedBlockChunk copy() {
+        PlacedBlockChunk copy = new PlacedBlockChunk();
+
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            if (sections[i] != null) {
+                copy.sections[i] = sections[i].clone();
+            }
+        }
+
+        return copy;
+    }
+
+    boolean isEmpty() {
+        for (long[] section : sections) {
+            if (section != null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the chunk as a section bitmask followed by the words of each allocated section.
+     *
+     * @param out The output to write to
+     * @throws IOException Error writing the chunk
+     */
+    void write(DataOutput out) throws IOException {
+        int sectionMask = 0;
+
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            if (sections[i] != null) {
+                sectionMask |= 1 << i;
+            }
+        }
+
+        out.writeShort(sectionMask);
+
+        for (long[] section : sections) {
+            if (section != null) {
+                for (long word : section) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a chunk previously written with {@link #write(DataOutput)}.
+     *
+     * @param in The input to read from
+     * @return PlacedBlockChunk The chunk
+     * @throws IOException Error reading the chunk
+     */
+    static PlacedBlockChunk read(DataInput in) throws IOException {
+        PlacedBlockChunk chunk = new PlacedBlockChunk();
+        int sectionMask = in.readUnsignedShort();
+
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            if ((sectionMask & (1 << i)) != 0) {
+                long[] section = new long[WORDS_PER_SECTION];
+
+                for (int j = 0; j < WORDS_PER_SECTION; j++) {
+                    section[j] = in.readLong();
+                }
+
+                chunk.sections[i] = section;
+            }
+        }
+
+        return chunk;
+    }
+
+    private static int index(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private static boolean isSectionEmpty(long[] section) {
+        for (long word : section) {
+            if (word != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
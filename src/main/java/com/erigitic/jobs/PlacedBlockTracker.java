@@ -0,0 +1,415 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import com.flowpowered.math.vector.Vector3i;
+import org.slf4j.Logger;
+import org.spongepowered.api.block.BlockSnapshot;
+import org.spongepowered.api.data.Transaction;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.block.ChangeBlockEvent;
+import org.spongepowered.api.event.filter.cause.First;
+import org.spongepowered.api.event.world.SaveWorldEvent;
+import org.spongepowered.api.event.world.chunk.LoadChunkEvent;
+import org.spongepowered.api.event.world.chunk.UnloadChunkEvent;
+import org.spongepowered.api.world.Chunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps track of which blocks were placed by players so break rewards can't be farmed by placing and breaking the
+ * same block, without relying on Sponge's block owner tracking. Only block types that are the target of a non growing
+ * break action are tracked. Flags are kept per chunk and stored in region files of 32x32 chunks that are loaded and
+ * saved alongside the chunks themselves.
+ *
+ * <p>All methods are expected to be called from the main server thread. The region files are read and written on an
+ * async executor: a region is read as soon as one of its chunks loads, so block events only wait for it if the read
+ * hasn't finished yet, and saving a region only copies its flags on the main thread.</p>
+ */
+public class PlacedBlockTracker {
+
+    private static final int REGION_FILE_MAGIC = 0x54455042;
+    private static final int REGION_FILE_VERSION = 1;
+
+    private static final CompletableFuture<Void> NO_SAVE = CompletableFuture.completedFuture(null);
+
+    private final JobManager jobManager;
+    private final Executor asyncExecutor;
+    private final Logger logger;
+    private final File dataDir;
+
+    private final Map<UUID, Map<Long, Region>> worldRegions = new HashMap<>();
+
+    // Writes that haven't finished yet, so a region is never read or written again before its last write is done
+    private final Map<File, CompletableFuture<Void>> pendingSaves = new ConcurrentHashMap<>();
+
+    public PlacedBlockTracker(JobManager jobManager, Executor asyncExecutor, File configDir, Logger logger) {
+        this.jobManager = jobManager;
+        this.asyncExecutor = asyncExecutor;
+        this.logger = logger;
+
+        dataDir = new File(configDir, "placedblocks");
+    }
+
+    /**
+     * Check if the block of a snapshot was placed by a player.
+     *
+     * @param snapshot The block to check
+     * @return boolean Whether or not the block was placed by a player
+     */
+    public boolean isPlayerPlaced(BlockSnapshot snapshot) {
+        Vector3i position = snapshot.getPosition();
+        PlacedBlockChunk chunk = getChunk(snapshot.getWorldUniqueId(), position.getX() >> 4, position.getZ() >> 4, false);
+
+        return chunk != null && chunk.isPlaced(position.getX(), position.getY(), position.getZ());
+    }
+
+    /**
+     * Flag blocks placed by a player. Runs after all other listeners so cancelled placements are ignored.
+     *
+     * @param event ChangeBlockEvent.Place
+     * @param player The player placing the blocks
+     */
+    @Listener(order = Order.POST)
+    public void onBlockPlace(ChangeBlockEvent.Place event, @First Player player) {
+        for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+            BlockSnapshot placed = transaction.getFinal();
+
+            if (transaction.isValid() && jobManager.isPlacementTracked(placed.getState().getType().getId())) {
+                setPlayerPlaced(placed, true);
+            }
+        }
+    }
+
+    /**
+     * Clear the flag of broken blocks, no matter what broke them. Runs after the job listeners have read the flags.
+     *
+     * @param event ChangeBlockEvent.Break
+     */
+    @Listener(order = Order.POST)
+    public void onBlockBreak(ChangeBlockEvent.Break event) {
+        for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+            if (transaction.isValid()) {
+                setPlayerPlaced(transaction.getOriginal(), false);
+            }
+        }
+    }
+
+    /**
+     * Start reading the region of a loaded chunk, so it's ready once blocks in the chunk are placed or broken.
+     *
+     * @param event LoadChunkEvent
+     */
+    @Listener
+    public void onChunkLoad(LoadChunkEvent event) {
+        Chunk chunk = event.getTargetChunk();
+        Vector3i position = chunk.getPosition();
+
+        getRegion(chunk.getWorld().getUniqueId(), position.getX(), position.getZ());
+    }
+
+    @Listener
+    public void onChunkUnload(UnloadChunkEvent event) {
+        Chunk chunk = event.getTargetChunk();
+        Vector3i position = chunk.getPosition();
+        UUID worldUniqueId = chunk.getWorld().getUniqueId();
+        Map<Long, Region> regions = worldRegions.get(worldUniqueId);
+
+        if (regions == null) {
+            return;
+        }
+
+        long regionKey = key(position.getX() >> 5, position.getZ() >> 5);
+        Region region = regions.get(regionKey);
+
+        if (region == null) {
+            return;
+        }
+
+        region.loadedChunks.clear(index(position.getX(), position.getZ()));
+
+        if (region.loadedChunks.isEmpty()) {
+            saveRegion(region);
+            regions.remove(regionKey);
+        }
+    }
+
+    @Listener
+    public void onWorldSave(SaveWorldEvent.Post event) {
+        Map<Long, Region> regions = worldRegions.get(event.getTargetWorld().getUniqueId());
+
+        if (regions != null) {
+            regions.values().forEach(this::saveRegion);
+        }
+    }
+
+    /**
+     * Save every region with unsaved changes and release all regions. Used when the server stops, so the regions are
+     * written on the calling thread once the writes still running have finished.
+     */
+    public void saveAll() {
+        pendingSaves.values().forEach(save -> save.exceptionally(e -> null).join());
+
+        for (Map<Long, Region> regions : worldRegions.values()) {
+            Iterator<Region> iterator = regions.values().iterator();
+
+            while (iterator.hasNext()) {
+                Region region = iterator.next();
+
+                if (region.dirty) {
+                    region.dirty = false;
+                    writeRegion(region.file, copyChunks(region));
+                }
+
+                iterator.remove();
+            }
+        }
+    }
+
+    private void setPlayerPlaced(BlockSnapshot snapshot, boolean placed) {
+        Vector3i position = snapshot.getPosition();
+        UUID worldUniqueId = snapshot.getWorldUniqueId();
+        int chunkX = position.getX() >> 4;
+        int chunkZ = position.getZ() >> 4;
+        Region region = getRegion(worldUniqueId, chunkX, chunkZ);
+        PlacedBlockChunk chunk = getChunk(region, chunkX, chunkZ, placed);
+
+        if (chunk != null && chunk.setPlaced(position.getX(), position.getY(), position.getZ(), placed)) {
+            region.dirty = true;
+        }
+    }
+
+    private PlacedBlockChunk getChunk(UUID worldUniqueId, int chunkX, int chunkZ, boolean create) {
+        return getChunk(getRegion(worldUniqueId, chunkX, chunkZ), chunkX, chunkZ, create);
+    }
+
+    private PlacedBlockChunk getChunk(Region region, int chunkX, int chunkZ, boolean create) {
+        PlacedBlockChunk[] chunks = region.getChunks();
+        int index = index(chunkX, chunkZ);
+        PlacedBlockChunk chunk = chunks[index];
+
+        if (chunk == null && create) {
+            chunk = new PlacedBlockChunk();
+            chunks[index] = chunk;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Get the region of a chunk, starting to read it if it isn't loaded yet, and count the chunk as loaded. Blocks are
+     * only placed and broken in loaded chunks, which may have been loaded before the tracker was listening.
+     *
+     * @param worldUniqueId The unique id of the world
+     * @param chunkX The x coordinate of the chunk
+     * @param chunkZ The z coordinate of the chunk
+     * @return Region The region
+     */
+    private Region getRegion(UUID worldUniqueId, int chunkX, int chunkZ) {
+        Map<Long, Region> regions = worldRegions.computeIfAbsent(worldUniqueId, k -> new HashMap<>());
+        int regionX = chunkX >> 5;
+        int regionZ = chunkZ >> 5;
+        long regionKey = key(regionX, regionZ);
+        Region region = regions.get(regionKey);
+
+        if (region == null) {
+            File file = new File(new File(dataDir, worldUniqueId.toString()), "r." + regionX + "." + regionZ + ".dat");
+
+            region = new Region(file, pendingSaves.getOrDefault(file, NO_SAVE).exceptionally(e -> null).thenApplyAsync(v -> readRegion(file), asyncExecutor));
+            regions.put(regionKey, region);
+        }
+
+        region.loadedChunks.set(index(chunkX, chunkZ));
+
+        return region;
+    }
+
+    private PlacedBlockChunk[] readRegion(File file) {
+        PlacedBlockChunk[] chunks = new PlacedBlockChunk[1024];
+
+        if (!file.exists()) {
+            return chunks;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != REGION_FILE_MAGIC || in.readUnsignedByte() != REGION_FILE_VERSION) {
+                logger.warn("Ignoring unknown placed block region file " + file.getName());
+
+                return chunks;
+            }
+
+            int chunkCount = in.readUnsignedShort();
+
+            for (int i = 0; i < chunkCount; i++) {
+                int index = in.readUnsignedShort();
+                chunks[index & 1023] = PlacedBlockChunk.read(in);
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading the placed block region file " + file.getName() + "!", e);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Copy the flags of a region with unsaved changes and write them on the async executor, after the previous write of
+     * the region.
+     *
+     * @param region The region
+     */
+    private void saveRegion(Region region) {
+        if (!region.dirty) {
+            return;
+        }
+
+        region.dirty = false;
+
+        File file = region.file;
+        PlacedBlockChunk[] chunks = copyChunks(region);
+        CompletableFuture<Void> save = pendingSaves.getOrDefault(file, NO_SAVE).exceptionally(e -> null).thenRunAsync(() -> writeRegion(file, chunks), asyncExecutor);
+
+        pendingSaves.put(file, save);
+        save.whenComplete((result, e) -> pendingSaves.remove(file, save));
+    }
+
+    private PlacedBlockChunk[] copyChunks(Region region) {
+        PlacedBlockChunk[] chunks = region.getChunks();
+        PlacedBlockChunk[] copy = new PlacedBlockChunk[chunks.length];
+
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null && !chunks[i].isEmpty()) {
+                copy[i] = chunks[i].copy();
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Write the flags of a region to its file, deleting the file if no block is flagged. If writing fails the changes
+     * are written again with the next change of the region.
+     *
+     * @param file The region file
+     * @param chunks The copied chunks of the region
+     */
+    private void writeRegion(File file, PlacedBlockChunk[] chunks) {
+        int chunkCount = 0;
+
+        for (PlacedBlockChunk chunk : chunks) {
+            if (chunk != null) {
+                chunkCount++;
+            }
+        }
+
+        try {
+            if (chunkCount == 0) {
+                Files.deleteIfExists(file.toPath());
+            } else {
+                file.getParentFile().mkdirs();
+
+                // Write to a temporary file first so a crash never leaves a truncated region behind
+                File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+                    out.writeInt(REGION_FILE_MAGIC);
+                    out.writeByte(REGION_FILE_VERSION);
+                    out.writeShort(chunkCount);
+
+                    for (int i = 0; i < chunks.length; i++) {
+                        PlacedBlockChunk chunk = chunks[i];
+
+                        if (chunk != null) {
+                            out.writeShort(i);
+                            chunk.write(out);
+                        }
+                    }
+                }
+
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while saving the placed block region file " + file.getName() + "!", e);
+        }
+    }
+
+    private static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static int index(int chunkX, int chunkZ) {
+        return ((chunkZ & 31) << 5) | (chunkX & 31);
+    }
+
+    /**
+     * A 32x32 chunk area that is stored in a single file.
+     */
+    private static class Region {
+        private final File file;
+        private final CompletableFuture<PlacedBlockChunk[]> reading;
+        private final BitSet loadedChunks = new BitSet(1024);
+        private PlacedBlockChunk[] chunks;
+        private boolean dirty;
+
+        private Region(File file, CompletableFuture<PlacedBlockChunk[]> reading) {
+            this.file = file;
+            this.reading = reading;
+        }
+
+        /**
+         * Get the chunks of the region, waiting for them if the region file is still being read.
+         *
+         * @return PlacedBlockChunk[] The chunks, indexed by their position in the region
+         */
+        private PlacedBlockChunk[] getChunks() {
+            if (chunks == null) {
+                chunks = reading.join();
+            }
+
+            return chunks;
+        }
+    }
+}
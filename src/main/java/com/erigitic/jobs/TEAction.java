@@ -50,8 +50,7 @@ public class TEAction {
         if (idTraitNode.isVirtual()) {
             this.action = action;
             this.targetId = node.getKey().toString();
-            this.reward = new TEActionReward();
-            this.reward.loadConfigNode(node);
+            this.reward = TEActionReward.fromConfigNode(node);
             this.growthTrait = growthTraitNode.getString(null);
             return;
         }
@@ -67,9 +66,7 @@ public class TEAction {
                     return;
                 }
 
-                TEActionReward reward = new TEActionReward();
-                reward.loadConfigNode(v);
-                rewards.put(((String) k), reward);
+                rewards.put(((String) k), TEActionReward.fromConfigNode(v));
             });
         }
 
@@ -79,14 +76,14 @@ public class TEAction {
         this.growthTrait = growthTraitNode.getString(null);
     }
 
-    public Optional<TEActionReward> evaluateBreak(Logger logger, BlockState state, UUID blockCreator) {
+    public Optional<TEActionReward> evaluateBreak(Logger logger, BlockState state, boolean playerPlaced) {
         // Disqualifying checks first for performance
         if (!state.getType().getId().equals(this.targetId)) {
             return Optional.empty();
         }
 
         // A player placed the block and it doesn't indicate growth. Do not pay to prevent exploits
-        if (growthTrait == null && blockCreator != null) {
+        if (growthTrait == null && playerPlaced) {
             return Optional.empty();
         }
 
@@ -124,7 +121,7 @@ public class TEAction {
                     Optional<?> traitVal = state.getTraitValue(trait.get());
 
                     if (traitVal.isPresent()) {
-                        reward = generateReward((Integer) traitVal.get(), (Collection<Integer>) trait.get().getPossibleValues());
+                        reward = scaleReward(reward, (Integer) traitVal.get(), (Collection<Integer>) trait.get().getPossibleValues());
                     } else {
                         logger.warn("Growth trait \"" + growthTrait + "\" has missing value during action: " + action + ':' + targetId);
                     }
@@ -139,15 +136,30 @@ public class TEAction {
         return Optional.ofNullable(reward);
     }
 
-    private TEActionReward generateReward(Integer traitValue, Collection<Integer> possibleValues) {
-        int max = possibleValues.stream().max(Comparator.comparingInt(Integer::intValue)).orElse(0);
-        int min = possibleValues.stream().min(Comparator.comparingInt(Integer::intValue)).orElse(0);
-        double percent = (double) (traitValue - min) / (double) (max - min);
+    /**
+     * Scale a reward by how far a growth trait has progressed. Fully grown blocks pay the whole reward.
+     *
+     * @param baseReward The reward of a fully grown block
+     * @param traitValue The current value of the growth trait
+     * @param possibleValues All values the growth trait can take
+     * @return TEActionReward The scaled reward
+     */
+    private TEActionReward scaleReward(TEActionReward baseReward, int traitValue, Collection<Integer> possibleValues) {
+        int max = Integer.MIN_VALUE;
+        int min = Integer.MAX_VALUE;
+
+        for (int value : possibleValues) {
+            max = Math.max(max, value);
+            min = Math.min(min, value);
+        }
 
-        reward = new TEActionReward();
-        reward.setValues((int) (reward.getExpReward() * percent), reward.getMoneyReward() * percent, reward.getCurrencyId());
+        if (max <= min) {
+            return baseReward;
+        }
+
+        double percent = (double) (traitValue - min) / (double) (max - min);
 
-        return reward;
+        return baseReward.scale(percent);
     }
 
     public Optional<TEActionReward> evaluatePlace(Logger logger, BlockState state) {
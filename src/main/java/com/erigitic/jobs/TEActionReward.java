@@ -26,34 +26,92 @@
 package com.erigitic.jobs;
 
 import ninja.leaping.configurate.ConfigurationNode;
+import org.spongepowered.api.service.economy.Currency;
 
-public class TEActionReward {
+import java.math.BigDecimal;
 
-    private int expReward;
-    private double moneyReward;
-    private String currencyId;
+/**
+ * The immutable exp and money reward of a job action. Rewards stored in a {@link JobIndex} have their currency
+ * resolved up front, so paying them out doesn't require any further lookups.
+ */
+public final class TEActionReward {
+
+    private final int expReward;
+    private final double moneyReward;
+    private final String currencyId;
 
-    public void loadConfigNode(ConfigurationNode node) {
-        this.expReward = node.getNode("exp").getInt(0);
-        this.moneyReward = node.getNode("money").getDouble(0.00d);
-        this.currencyId = node.getNode("currency").getString(null);
+    private final Currency currency;
+    private final BigDecimal moneyAmount;
+
+    public TEActionReward(int expReward, double moneyReward, String currencyId) {
+        this(expReward, moneyReward, currencyId, null);
     }
 
-    public void setValues(Integer expReward, Double moneyReward, String currencyID) {
+    private TEActionReward(int expReward, double moneyReward, String currencyId, Currency currency) {
         this.expReward = expReward;
         this.moneyReward = moneyReward;
-        this.currencyId = currencyID;
+        this.currencyId = currencyId;
+        this.currency = currency;
+
+        moneyAmount = BigDecimal.valueOf(moneyReward);
+    }
+
+    /**
+     * Create a reward from the exp, money and currency nodes of an action.
+     *
+     * @param node The action's configuration node
+     * @return TEActionReward The reward
+     */
+    public static TEActionReward fromConfigNode(ConfigurationNode node) {
+        return new TEActionReward(
+                node.getNode("exp").getInt(0),
+                node.getNode("money").getDouble(0.00d),
+                node.getNode("currency").getString(null)
+        );
+    }
+
+    /**
+     * Get a copy of this reward with the exp and money multiplied by a factor.
+     *
+     * @param factor The factor to multiply by
+     * @return TEActionReward The scaled reward
+     */
+    public TEActionReward scale(double factor) {
+        return new TEActionReward((int) (expReward * factor), moneyReward * factor, currencyId, currency);
+    }
+
+    /**
+     * Get a copy of this reward that pays out in the passed in currency.
+     *
+     * @param currency The resolved currency of this reward
+     * @return TEActionReward The resolved reward
+     */
+    public TEActionReward withCurrency(Currency currency) {
+        return new TEActionReward(expReward, moneyReward, currencyId, currency);
     }
 
-    public Integer getExpReward() {
+    public int getExpReward() {
         return expReward;
     }
 
-    public Double getMoneyReward() {
+    public double getMoneyReward() {
         return moneyReward;
     }
 
     public String getCurrencyId() {
         return currencyId;
     }
+
+    /**
+     * Get the currency the reward is paid out in.
+     *
+     * @return Currency The currency, null if the reward has not been resolved by a {@link JobIndex}
+     */
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public BigDecimal getMoneyAmount() {
+        return moneyAmount;
+    }
 }
@@ -28,13 +28,16 @@ package com.erigitic.jobs;
 import ninja.leaping.configurate.ConfigurationNode;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 public class TEJobSet {
-    private List<TEAction> actions = new ArrayList();
+    private final List<TEAction> actions;
 
     public TEJobSet(ConfigurationNode node) {
+        List<TEAction> actions = new ArrayList<>();
+
         node.getChildrenMap().forEach((actionStr, targetNode) -> {
             if ((actionStr instanceof String) &&  targetNode != null) {
                 targetNode.getChildrenMap().forEach((targetID, actionNode) -> {
@@ -49,6 +52,8 @@ public class TEJobSet {
                 });
             }
         });
+
+        this.actions = Collections.unmodifiableList(actions);
     }
 
     public Optional<TEAction> getActionFor(String action, String targetID) {
@@ -0,0 +1,117 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.ledger;
+
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+import org.spongepowered.api.service.economy.transaction.TransferResult;
+
+import java.math.BigDecimal;
+
+/**
+ * A single transaction recorded in the {@link TransactionLedger}.
+ */
+public final class LedgerEntry {
+
+    private final long time;
+    private final String account;
+    private final String otherAccount;
+    private final String currency;
+    private final BigDecimal amount;
+    private final String type;
+    private final String result;
+
+    /**
+     * @param time Time of the transaction in milliseconds since the epoch
+     * @param account Identifier of the account the transaction was made on
+     * @param otherAccount Identifier of the receiving account of a transfer, null for other transactions
+     * @param currency Id of the currency
+     * @param amount The amount of the transaction
+     * @param type Id of the transaction type
+     * @param result Name of the result type
+     */
+    public LedgerEntry(long time, String account, String otherAccount, String currency, BigDecimal amount, String type, String result) {
+        this.time = time;
+        this.account = account;
+        this.otherAccount = otherAccount;
+        this.currency = currency;
+        this.amount = amount;
+        this.type = type;
+        this.result = result;
+    }
+
+    /**
+     * Create an entry from the result of a transaction.
+     *
+     * @param transactionResult The result of the transaction
+     * @param time Time of the transaction in milliseconds since the epoch
+     * @return LedgerEntry The entry
+     */
+    public static LedgerEntry of(TransactionResult transactionResult, long time) {
+        String otherAccount = null;
+
+        if (transactionResult instanceof TransferResult) {
+            otherAccount = ((TransferResult) transactionResult).getAccountTo().getIdentifier();
+        }
+
+        return new LedgerEntry(
+                time,
+                transactionResult.getAccount().getIdentifier(),
+                otherAccount,
+                transactionResult.getCurrency().getId(),
+                transactionResult.getAmount(),
+                transactionResult.getType().getId(),
+                transactionResult.getResult().name()
+        );
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getOtherAccount() {
+        return otherAccount;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.ledger;
+
+import com.erigitic.sql.SqlDialect;
+import org.slf4j.Logger;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.economy.EconomyTransactionEvent;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Records every economy transaction in the "transactions" table, indexed by account and time.
+ *
+ * <p>Transactions are only put into a bounded queue by the thread making them. A background thread drains the queue and
+ * writes the entries with JDBC batch inserts, so no thread ever waits on the database for a transaction to be recorded.
+ * If the queue is full, entries are dropped and counted rather than blocking the server.</p>
+ */
+public class TransactionLedger {
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 512;
+
+    private final DataSource dataSource;
+    private final Supplier<DataSource> readDataSource;
+    private final SqlDialect dialect;
+    private final Logger logger;
+
+    private final BlockingQueue<LedgerEntry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedEntries = new AtomicLong();
+
+    private volatile boolean running = false;
+    private Thread writerThread;
+
+    /**
+     * @param dataSource The data source entries are written to
+     * @param readDataSource Supplies the data source history is read from, such as a read replica
+     * @param dialect The dialect of the database
+     * @param logger Logger used to report errors
+     */
+    public TransactionLedger(DataSource dataSource, Supplier<DataSource> readDataSource, SqlDialect dialect, Logger logger) {
+        this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+        this.dialect = dialect;
+        this.logger = logger;
+    }
+
+    /**
+     * Create the ledger table if necessary and start the writer thread.
+     */
+    public void start() {
+        try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS transactions ("
+                    + "id " + dialect.autoIncrementType() + ","
+                    + "account varchar(60) NOT NULL,"
+                    + "other_account varchar(60),"
+                    + "currency varchar(60) NOT NULL,"
+                    + "amount decimal(19,2) NOT NULL,"
+                    + "type varchar(30) NOT NULL,"
+                    + "result varchar(30) NOT NULL,"
+                    + "created_at bigint NOT NULL,"
+                    + "PRIMARY KEY (id))"
+            );
+
+            createIndex(statement, "transactions_account_time", "account");
+
+            // A transfer is recorded once, on the sending account, the receiving one finds it through this index
+            createIndex(statement, "transactions_other_time", "other_account");
+        } catch (SQLException e) {
+            logger.warn("An error occurred while creating the transaction ledger table!");
+            return;
+        }
+
+        running = true;
+
+        writerThread = new Thread(this::writeEntries, "Total Economy - Ledger Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stop the writer thread after writing the entries that are still queued.
+     */
+    public void stop() {
+        running = false;
+
+        if (writerThread != null) {
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void createIndex(Statement statement, String name, String column) throws SQLException {
+        try {
+            statement.execute(dialect.createIndex(name, "transactions", column, "created_at"));
+        } catch (SQLException e) {
+            // MySQL can't skip creating an index that already exists
+            if (!dialect.isDuplicateIndexError(e)) {
+                throw e;
+            }
+        }
+    }
+
+    @Listener(order = Order.POST)
+    public void onTransaction(EconomyTransactionEvent event) {
+        record(LedgerEntry.of(event.getTransactionResult(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Queue an entry to be written to the ledger. Never blocks.
+     *
+     * @param entry The entry
+     * @return boolean Whether or not the entry was queued, false if the queue was full
+     */
+    public boolean record(LedgerEntry entry) {
+        if (queue.offer(entry)) {
+            return true;
+        }
+
+        if (droppedEntries.getAndIncrement() % 1000 == 0) {
+            logger.warn("The transaction ledger can't keep up! " + droppedEntries.get() + " entries have been dropped so far.");
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the most recent transactions of an account, newest first, including the transfers it received. Queries the
+     * database, so it should not be called on the main thread.
+     *
+     * @param account Identifier of the account
+     * @param offset The amount of entries to skip
+     * @param limit The maximum amount of entries to return
+     * @return List The entries
+     * @throws SQLException Error reading from the database
+     */
+    public List<LedgerEntry> getHistory(String account, int offset, int limit) throws SQLException {
+        List<LedgerEntry> entries = new ArrayList<>(limit);
+
+        try (
+                Connection conn = readDataSource.get().getConnection();
+                PreparedStatement statement = conn.prepareStatement("SELECT * FROM ("
+                        + "SELECT id, account, other_account, currency, amount, type, result, created_at FROM transactions WHERE account = ?"
+                        + " UNION ALL SELECT id, account, other_account, currency, amount, type, result, created_at FROM transactions WHERE other_account = ?"
+                        + ") history ORDER BY created_at DESC, id DESC" + dialect.limit(limit, offset))
+        ) {
+            statement.setString(1, account);
+            statement.setString(2, account);
+
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    entries.add(new LedgerEntry(
+                            set.getLong("created_at"),
+                            set.getString("account"),
+                            set.getString("other_account"),
+                            set.getString("currency"),
+                            set.getBigDecimal("amount"),
+                            set.getString("type"),
+                            set.getString("result")
+                    ));
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Get the amount of entries that were dropped because the queue was full.
+     *
+     * @return long The amount of dropped entries
+     */
+    public long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+    private void writeEntries() {
+        List<LedgerEntry> batch = new ArrayList<>(BATCH_SIZE);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                LedgerEntry first = queue.poll(1, TimeUnit.SECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+            } catch (InterruptedException e) {
+                running = false;
+                continue;
+            }
+
+            queue.drainTo(batch, BATCH_SIZE - 1);
+
+            try {
+                writeBatch(batch);
+            } catch (SQLException e) {
+                logger.warn("An error occurred while writing " + batch.size() + " entries to the transaction ledger!");
+            }
+
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<LedgerEntry> batch) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement statement = conn.prepareStatement("INSERT INTO transactions"
+                    + " (account, other_account, currency, amount, type, result, created_at) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                for (LedgerEntry entry : batch) {
+                    statement.setString(1, entry.getAccount());
+
+                    if (entry.getOtherAccount() != null) {
+                        statement.setString(2, entry.getOtherAccount());
+                    } else {
+                        statement.setNull(2, Types.VARCHAR);
+                    }
+
+                    statement.setString(3, entry.getCurrency());
+                    statement.setBigDecimal(4, entry.getAmount().setScale(2, BigDecimal.ROUND_DOWN));
+                    statement.setString(5, entry.getType());
+                    statement.setString(6, entry.getResult());
+                    statement.setLong(7, entry.getTime());
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+}
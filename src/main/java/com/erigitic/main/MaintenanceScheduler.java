@@ -0,0 +1,351 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.main;
+
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.Task;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs periodic maintenance work, such as autosaves and salaries, on the main thread within a time budget per tick.
+ *
+ * <p>Work is split into small steps. Every tick the scheduler runs steps of the queued work in order of priority until
+ * the budget is used up, so a large piece of work is spread over several ticks instead of stalling one of them. The
+ * budget shrinks while the server is lagging, and low priority work is paused until it recovers.</p>
+ */
+public class MaintenanceScheduler {
+
+    private static final long TICK_MILLIS = 50;
+
+    // Below full speed the budget shrinks linearly until it reaches its minimum at MIN_TPS
+    private static final double FULL_SPEED_TPS = 19.5;
+    private static final double MIN_TPS = 15;
+    private static final double MIN_BUDGET_FACTOR = 0.1;
+    private static final double LOW_PRIORITY_TPS = 18;
+
+    /**
+     * Order in which queued work is run. Work of the same priority runs in the order it was queued.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    /**
+     * Maintenance work that is split into small steps.
+     */
+    public interface Work {
+
+        /**
+         * Run the next step of the work. A step should take well below a millisecond.
+         *
+         * @return boolean Whether or not the work is finished
+         */
+        boolean step();
+    }
+
+    private final TotalEconomy totalEconomy;
+    private final Logger logger;
+    private final long budgetNanos;
+
+    // Guarded by itself
+    private final PriorityQueue<Run> queue = new PriorityQueue<>();
+    private final List<Periodic> periodics = new CopyOnWriteArrayList<>();
+
+    private Task task;
+    private long currentTick = 0;
+    private long sequence = 0;
+    private volatile long skippedCount = 0;
+    private volatile double lastTps = 20;
+
+    /**
+     * @param totalEconomy Main plugin class
+     * @param logger Logger used to report failing work
+     * @param budgetMillis Time the work may take per tick, in milliseconds
+     */
+    public MaintenanceScheduler(TotalEconomy totalEconomy, Logger logger, double budgetMillis) {
+        this.totalEconomy = totalEconomy;
+        this.logger = logger;
+        this.budgetNanos = (long) (budgetMillis * 1_000_000);
+    }
+
+    /**
+     * Start running the queued work.
+     */
+    public void start() {
+        task = Sponge.getScheduler().createTaskBuilder()
+                .intervalTicks(1)
+                .execute(this::tick)
+                .name("Total Economy - Maintenance")
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Stop running the queued work. Work that is still queued isn't run, callers save their data themselves when the
+     * server stops.
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Queue work to run once.
+     *
+     * @param name Name of the work, used in reports
+     * @param priority Priority of the work
+     * @param work The work
+     */
+    public void submit(String name, Priority priority, Work work) {
+        enqueue(name, priority, work);
+    }
+
+    /**
+     * Queue new work every interval, starting one interval from now. When the work of the previous interval hasn't
+     * finished yet, the interval is skipped.
+     *
+     * @param name Name of the work, used in reports
+     * @param priority Priority of the work
+     * @param interval Time between two runs
+     * @param unit Unit of the interval
+     * @param workSupplier Supplies the work of a run, called on the main thread when the run is queued
+     */
+    public void schedule(String name, Priority priority, long interval, TimeUnit unit, Supplier<Work> workSupplier) {
+        long intervalTicks = Math.max(unit.toMillis(interval) / TICK_MILLIS, 1);
+
+        periodics.add(new Periodic(name, priority, intervalTicks, currentTick + intervalTicks, workSupplier));
+    }
+
+    /**
+     * Stop queueing the work scheduled under a name. A run that is already queued still finishes.
+     *
+     * @param name Name the work was scheduled under
+     */
+    public void unschedule(String name) {
+        periodics.removeIf(periodic -> periodic.name.equals(name));
+    }
+
+    /**
+     * Get the amount of runs waiting to be finished.
+     *
+     * @return int The amount of queued runs
+     */
+    public int getQueuedCount() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Get how long each queued run has been waiting, in the order they will run.
+     *
+     * @return Map Name of the work to the time it has been waiting, in milliseconds
+     */
+    public Map<String, Long> getQueuedRuns() {
+        List<Run> runs;
+
+        synchronized (queue) {
+            runs = new ArrayList<>(queue);
+        }
+
+        runs.sort(null);
+
+        Map<String, Long> queuedRuns = new LinkedHashMap<>();
+        long now = System.nanoTime();
+
+        for (Run run : runs) {
+            queuedRuns.put(run.name, TimeUnit.NANOSECONDS.toMillis(now - run.queuedAt));
+        }
+
+        return queuedRuns;
+    }
+
+    /**
+     * Get how far the scheduler is behind: the time the oldest queued run has been waiting.
+     *
+     * @return long The time in milliseconds, 0 if nothing is queued
+     */
+    public long getLag() {
+        long oldest = Long.MAX_VALUE;
+
+        synchronized (queue) {
+            for (Run run : queue) {
+                oldest = Math.min(oldest, run.queuedAt);
+            }
+        }
+
+        return oldest == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    /**
+     * Get the amount of periodic runs that were skipped because the previous run hadn't finished yet.
+     *
+     * @return long The amount of skipped runs
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Get the budget of the last tick, which is reduced while the server is lagging.
+     *
+     * @return double The budget in milliseconds
+     */
+    public double getEffectiveBudget() {
+        return getBudget(lastTps) / 1_000_000D;
+    }
+
+    private void tick() {
+        currentTick++;
+
+        for (Periodic periodic : periodics) {
+            if (currentTick < periodic.nextTick) {
+                continue;
+            }
+
+            periodic.nextTick = currentTick + periodic.intervalTicks;
+
+            if (periodic.current != null && !periodic.current.finished) {
+                skippedCount++;
+                continue;
+            }
+
+            periodic.current = enqueue(periodic.name, periodic.priority, periodic.workSupplier.get());
+        }
+
+        double tps = Sponge.getServer().getTicksPerSecond();
+        long start = System.nanoTime();
+        long deadline = start + getBudget(tps);
+
+        lastTps = tps;
+
+        // At least one step runs every tick, so work keeps progressing however small the budget gets
+        do {
+            Run run;
+
+            synchronized (queue) {
+                run = queue.peek();
+            }
+
+            if (run == null || (run.priority == Priority.LOW && tps < LOW_PRIORITY_TPS)) {
+                break;
+            }
+
+            boolean finished;
+
+            try {
+                finished = run.work.step();
+            } catch (RuntimeException e) {
+                logger.warn("An error occurred while running maintenance work (" + run.name + ")!");
+                e.printStackTrace();
+
+                finished = true;
+            }
+
+            if (finished) {
+                synchronized (queue) {
+                    queue.remove(run);
+                }
+
+                run.finished = true;
+            }
+        } while (System.nanoTime() < deadline);
+    }
+
+    private long getBudget(double tps) {
+        if (tps >= FULL_SPEED_TPS) {
+            return budgetNanos;
+        }
+
+        double factor = Math.max((tps - MIN_TPS) / (FULL_SPEED_TPS - MIN_TPS), MIN_BUDGET_FACTOR);
+
+        return (long) (budgetNanos * factor);
+    }
+
+    private Run enqueue(String name, Priority priority, Work work) {
+        synchronized (queue) {
+            Run run = new Run(name, priority, work, sequence++);
+
+            queue.add(run);
+
+            return run;
+        }
+    }
+
+    private static class Run implements Comparable<Run> {
+        private final String name;
+        private final Priority priority;
+        private final Work work;
+        private final long sequence;
+        private final long queuedAt = System.nanoTime();
+
+        private volatile boolean finished = false;
+
+        private Run(String name, Priority priority, Work work, long sequence) {
+            this.name = name;
+            this.priority = priority;
+            this.work = work;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            int result = priority.compareTo(other.priority);
+
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class Periodic {
+        private final String name;
+        private final Priority priority;
+        private final long intervalTicks;
+        private final Supplier<Work> workSupplier;
+
+        private long nextTick;
+        private Run current;
+
+        private Periodic(String name, Priority priority, long intervalTicks, long nextTick, Supplier<Work> workSupplier) {
+            this.name = name;
+            this.priority = priority;
+            this.intervalTicks = intervalTicks;
+            this.nextTick = nextTick;
+            this.workSupplier = workSupplier;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.main;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Initializes the storage on a background thread, so a slow database or a large accounts file doesn't delay the server
+ * boot.
+ *
+ * <p>The warmup runs a list of phases in order and logs how long each of them took. Economy calls made before it has
+ * finished wait for it through {@link #awaitReady()}, asynchronous work can be queued with {@link #whenReady()}. The
+ * wait is bounded, so a database that doesn't answer fails the economy calls instead of freezing the server.</p>
+ */
+public class StorageWarmup {
+
+    // Seconds a call waits for the warmup before it gives up
+    public static final long WAIT_TIMEOUT = 30;
+
+    private final Logger logger;
+    private final List<Phase> phases = new ArrayList<>();
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final AtomicBoolean waitReported = new AtomicBoolean();
+
+    private Thread thread;
+    private volatile String currentPhase = "first";
+
+    /**
+     * @param logger Logger used to report the timing of the phases
+     */
+    public StorageWarmup(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Add a phase to run after the phases added before it. Must be called before the warmup is started.
+     *
+     * @param name Name of the phase used in the log
+     * @param task The task of the phase
+     * @return StorageWarmup This warmup
+     */
+    public StorageWarmup phase(String name, Runnable task) {
+        phases.add(new Phase(name, task));
+
+        return this;
+    }
+
+    /**
+     * Start running the phases on the warmup thread.
+     */
+    public void start() {
+        thread = new Thread(this::run, "Total Economy - Storage Warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Whether or not the warmup has finished.
+     *
+     * @return boolean If the storage is ready
+     */
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    /**
+     * Get a future that completes once the warmup has finished. A failed phase doesn't fail the future, the storage is
+     * used the same way it would've been used if it was initialized on the main thread.
+     *
+     * @return CompletableFuture The future
+     */
+    public CompletableFuture<Void> whenReady() {
+        return ready;
+    }
+
+    /**
+     * Wait until the warmup has finished, for at most {@link #WAIT_TIMEOUT} seconds. Returns immediately if it has
+     * finished already, or if called by one of the phases themselves.
+     *
+     * @throws IllegalStateException If the warmup didn't finish in time
+     */
+    public void awaitReady() {
+        if (!awaitReady(WAIT_TIMEOUT, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("The storage is still loading!");
+        }
+    }
+
+    /**
+     * Wait until the warmup has finished. Returns immediately if it has finished already, or if called by one of the
+     * phases themselves.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return boolean Whether or not the storage is ready
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) {
+        if (ready.isDone() || Thread.currentThread() == thread) {
+            return true;
+        }
+
+        if (waitReported.compareAndSet(false, true)) {
+            logger.info("Waiting for the storage warmup to finish.");
+        }
+
+        try {
+            ready.get(timeout, unit);
+
+            return true;
+        } catch (TimeoutException e) {
+            logger.warn("An error occurred while waiting for the storage warmup, the " + currentPhase + " phase is still running!");
+
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        } catch (ExecutionException e) {
+            // The future is never completed exceptionally
+            return true;
+        }
+    }
+
+    private void run() {
+        long warmupStart = System.nanoTime();
+
+        for (Phase phase : phases) {
+            long start = System.nanoTime();
+
+            currentPhase = phase.name;
+
+            try {
+                phase.task.run();
+            } catch (RuntimeException e) {
+                logger.warn("An error occurred while warming up the storage (" + phase.name + ")!");
+                e.printStackTrace();
+            }
+
+            logger.info("Storage warmup: " + phase.name + " took " + elapsedMillis(start) + "ms.");
+        }
+
+        logger.info("Storage warmup finished in " + elapsedMillis(warmupStart) + "ms.");
+
+        ready.complete(null);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static class Phase {
+        private final String name;
+        private final Runnable task;
+
+        private Phase(String name, Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+    }
+}
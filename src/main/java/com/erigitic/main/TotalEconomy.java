@@ -26,15 +26,20 @@
 package com.erigitic.main;
 
 import com.erigitic.commands.*;
+import com.erigitic.config.AccountCache;
 import com.erigitic.config.AccountManager;
 import com.erigitic.config.TECurrency;
 import com.erigitic.config.TECurrencyRegistryModule;
 import com.erigitic.jobs.JobManager;
+import com.erigitic.jobs.PlacedBlockTracker;
+import com.erigitic.ledger.TransactionLedger;
+import com.erigitic.policy.BalancePolicyEngine;
 import com.erigitic.shops.PlayerShopInfo;
 import com.erigitic.shops.Shop;
 import com.erigitic.shops.ShopItem;
 import com.erigitic.shops.ShopManager;
 import com.erigitic.shops.data.*;
+import com.erigitic.sql.SqlDialect;
 import com.erigitic.sql.SqlManager;
 import com.erigitic.util.MessageManager;
 import com.google.inject.Inject;
@@ -62,15 +67,22 @@ import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.plugin.PluginContainer;
 import org.spongepowered.api.service.economy.Currency;
 import org.spongepowered.api.service.economy.EconomyService;
+import org.spongepowered.api.service.sql.SqlService;
 import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.text.Text;
 
+import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Plugin(id = "totaleconomy", name = "Total Economy", version = "1.8.2", description = "All in one economy plugin for Minecraft/Sponge")
 public class TotalEconomy {
@@ -102,6 +114,8 @@ public class TotalEconomy {
 
     private TECurrency defaultCurrency;
     private SqlManager sqlManager;
+    private StorageWarmup storageWarmup;
+    private MaintenanceScheduler maintenanceScheduler;
     private AccountManager accountManager;
     private JobManager jobManager;
     private MessageManager messageManager;
@@ -119,22 +133,45 @@ public class TotalEconomy {
     private boolean jobFeatureEnabled = true;
     private boolean jobNotificationEnabled = true;
     private boolean jobSalaryEnabled = true;
+    private boolean placedBlockTrackingEnabled = false;
+    private boolean jobDebugOptionPersistenceEnabled = true;
+
+    // Ledger Variables
+    private boolean ledgerEnabled = true;
+    // Set by the storage warmup
+    private volatile TransactionLedger transactionLedger;
+    private boolean balancePolicyEnabled = false;
+    private BalancePolicyEngine balancePolicyEngine;
 
     // Shop Variables
     private boolean chestShopEnabled = true;
 
     // Database Variables
     private boolean databaseEnabled = false;
+    private String databaseType;
     private String databaseUrl;
     private String databaseUser;
     private String databasePassword;
+    private boolean databaseCacheEnabled = true;
+    private String databaseServerId;
+    private long databasePollInterval;
+    private int databaseCacheMaxOfflineAccounts;
+    private long databaseCacheIdleExpiry;
+    private List<String> databaseReplicaUrls = new ArrayList<>();
+    private String databaseReplicaSelection;
+    private long databaseCommitWindow;
 
     // Money Cap Variables
     private boolean moneyCapEnabled = false;
     private BigDecimal moneyCap;
 
+    // Cap used while the money cap is disabled, every balance change is checked against it
+    private static final BigDecimal UNLIMITED_MONEY_CAP = new BigDecimal(Double.MAX_VALUE);
+
     @Listener
     public void preInit(GamePreInitializationEvent event) {
+        long preInitStart = System.nanoTime();
+
         loadConfig();
 
         loadCurrencies();
@@ -145,19 +182,60 @@ public class TotalEconomy {
 
         saveInterval = config.getNode("save-interval").getInt(30);
 
+        maintenanceScheduler = new MaintenanceScheduler(this, logger, Math.max(config.getNode("maintenance", "tick-budget").getDouble(2), 0.1));
+
         if (databaseEnabled) {
+            databaseType = config.getNode("database", "type").getString("");
             databaseUrl = config.getNode("database", "url").getString();
             databaseUser = config.getNode("database", "user").getString();
             databasePassword = config.getNode("database", "password").getString();
+            databaseCacheEnabled = config.getNode("database", "cache", "enable").getBoolean(true);
+            databaseServerId = config.getNode("database", "cache", "server-id").getString("");
+            databasePollInterval = Math.max(config.getNode("database", "cache", "poll-interval").getLong(1000), 100);
+            databaseCacheMaxOfflineAccounts = Math.max(config.getNode("database", "cache", "max-offline-accounts").getInt(10000), 0);
+            databaseCacheIdleExpiry = TimeUnit.SECONDS.toMillis(Math.max(config.getNode("database", "cache", "idle-expiry").getLong(600), 1));
+
+            databaseReplicaSelection = config.getNode("database", "replica-selection").getString("round-robin");
+            databaseCommitWindow = Math.max(config.getNode("database", "commit-window").getLong(5), 0);
+
+            for (ConfigurationNode replicaNode : config.getNode("database", "replicas").getChildrenList()) {
+                String replicaUrl = replicaNode.getString("");
+
+                if (!replicaUrl.isEmpty()) {
+                    databaseReplicaUrls.add(replicaUrl);
+                }
+            }
+
+            // Without a configured id a new one is used every start, which is fine since nothing is cached yet
+            if (databaseServerId.isEmpty()) {
+                databaseServerId = UUID.randomUUID().toString();
+            }
 
             sqlManager = new SqlManager(this, logger);
         }
 
+        storageWarmup = new StorageWarmup(logger);
+
         messageManager = new MessageManager(this, logger, Locale.forLanguageTag(languageTag));
         accountManager = new AccountManager(this, messageManager, logger);
 
         teCurrencyRegistryModule = new TECurrencyRegistryModule(this);
 
+        // Connecting to the database and loading the accounts happens in the background, economy calls wait for it
+        if (databaseEnabled) {
+            storageWarmup.phase("database connection", sqlManager::connect);
+        }
+
+        storageWarmup.phase("account storage", accountManager::loadStorage);
+        storageWarmup.phase("economy statistics", accountManager::loadStatistics);
+
+        if (ledgerEnabled) {
+            storageWarmup.phase("transaction ledger", this::setupTransactionLedger);
+        }
+
+        storageWarmup.start();
+        maintenanceScheduler.start();
+
         game.getServiceManager().setProvider(this, EconomyService.class, accountManager);
 
         // Only create JobManager
@@ -170,11 +248,13 @@ public class TotalEconomy {
         }
 
         if (chestShopEnabled) {
-            shopManager = new ShopManager(this, accountManager, messageManager);
+            shopManager = new ShopManager(this, accountManager, messageManager, logger);
         }
 
         // Allows for retrieving of all/individual currencies in Total Economy by other plugins
         game.getRegistry().registerModule(Currency.class, teCurrencyRegistryModule);
+
+        logger.info("Pre-initialization took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - preInitStart) + "ms, the storage is warming up in the background.");
     }
 
     @Listener
@@ -188,6 +268,15 @@ public class TotalEconomy {
     public void onServerStart(GameStartedServerEvent event) {
         userStorageService = game.getServiceManager().provideUnchecked(UserStorageService.class);
 
+        if (jobFeatureEnabled) {
+            jobManager.loadJobs();
+        }
+
+        if (balancePolicyEnabled) {
+            balancePolicyEngine = new BalancePolicyEngine(this, accountManager, getBalancePolicyNode(), logger);
+            balancePolicyEngine.start();
+        }
+
         logger.info("Total Economy Started");
     }
 
@@ -195,8 +284,35 @@ public class TotalEconomy {
     public void onServerStopping(GameStoppingServerEvent event) {
         logger.info("Total Economy Stopping");
 
-        if (!databaseEnabled) {
+        // Saving storage that didn't finish loading would overwrite the accounts with the part that was loaded
+        boolean storageReady = storageWarmup.awaitReady(StorageWarmup.WAIT_TIMEOUT, TimeUnit.SECONDS);
+
+        maintenanceScheduler.stop();
+
+        if (balancePolicyEngine != null) {
+            balancePolicyEngine.stop();
+        }
+
+        if (!storageReady) {
+            logger.warn("An error occurred while saving the accounts, the storage didn't finish loading!");
+        } else if (!databaseEnabled) {
             accountManager.saveConfiguration();
+        } else {
+            accountManager.getAccountCache().ifPresent(AccountCache::stop);
+            sqlManager.getWriter().stop();
+        }
+
+        if (jobFeatureEnabled) {
+            jobManager.getPlacedBlockTracker().ifPresent(PlacedBlockTracker::saveAll);
+            jobManager.getJobSignRegistry().saveNow();
+        }
+
+        if (transactionLedger != null) {
+            transactionLedger.stop();
+        }
+
+        if (chestShopEnabled) {
+            shopManager.getShopIndex().save();
         }
 
         // Remove PlayerShopInfoData from all online users
@@ -210,15 +326,30 @@ public class TotalEconomy {
         logger.info("Total Economy Stopped");
     }
 
+    /**
+     * Start loading the account of a player while they are logging in. Fired off the main thread.
+     *
+     * @param event ClientConnectionEvent.Auth
+     */
+    @Listener(order = Order.POST)
+    public void onPlayerAuth(ClientConnectionEvent.Auth event) {
+        accountManager.preloadAccount(event.getProfile().getUniqueId());
+    }
+
     @Listener
     public void onPlayerJoin(ClientConnectionEvent.Join event) {
         Player player = event.getTargetEntity();
 
-        accountManager.getOrCreateAccount(player.getUniqueId());
+        accountManager.completeAccountLoad(player.getUniqueId());
 
         checkForAndRemovePlayerShopInfoData(player);
     }
 
+    @Listener
+    public void onPlayerDisconnect(ClientConnectionEvent.Disconnect event) {
+        accountManager.releaseAccount(event.getTargetEntity().getUniqueId());
+    }
+
     /**
      * Reloads configuration files.
      *
@@ -287,6 +418,30 @@ public class TotalEconomy {
         Object unused = ShopKeys.PLAYER_SHOP_INFO;
     }
 
+    /**
+     * Setup the transaction ledger. Transactions are recorded in the database if enabled, otherwise in an embedded
+     * database in the config directory.
+     */
+    private void setupTransactionLedger() {
+        if (databaseEnabled) {
+            transactionLedger = new TransactionLedger(sqlManager.dataSource, sqlManager::getReadDataSource, sqlManager.getDialect(), logger);
+        } else {
+            try {
+                DataSource dataSource = game.getServiceManager().provideUnchecked(SqlService.class)
+                        .getDataSource("jdbc:h2:" + new File(configDir, "ledger").getAbsolutePath());
+
+                transactionLedger = new TransactionLedger(dataSource, () -> dataSource, SqlDialect.H2, logger);
+            } catch (SQLException e) {
+                logger.warn("An error occurred while opening the transaction ledger!");
+                return;
+            }
+        }
+
+        transactionLedger.start();
+
+        game.getEventManager().registerListeners(this, transactionLedger);
+    }
+
     /**
      * Create commands and registers them with the CommandManager.
      */
@@ -309,7 +464,6 @@ public class TotalEconomy {
                 .build();
         game.getCommandManager().register(this, balanceCommand, "balance", "bal", "money");
 
-
         CommandSpec economyCommand = CommandSpec.builder()
                 .description(Text.of("Comando facil de economia, 3 em 1!"))
                 .arguments(GenericArguments.none(),
@@ -318,9 +472,6 @@ public class TotalEconomy {
                 .build();
         game.getCommandManager().register(this, economyCommand, "economy", "eco");
 
-
-
-
         CommandSpec balanceTopCommand = BalanceTopCommand.commandSpec(this);
         game.getCommandManager().register(this, balanceTopCommand, "balancetop", "baltop");
 
@@ -353,6 +504,8 @@ public class TotalEconomy {
                 .build();
         game.getCommandManager().register(this, viewBalanceCommand, "viewbalance", "vbal");
 
+        game.getCommandManager().register(this, new TECommand(this).commandSpec(), "te", "totaleconomy");
+
         if (jobFeatureEnabled) {
             game.getCommandManager().register(this, new JobCommand(this, accountManager, jobManager, messageManager).commandSpec(), "job");
         }
@@ -405,11 +558,16 @@ public class TotalEconomy {
 
         if (jobFeatureEnabled) {
             eventManager.registerListeners(this, jobManager);
+            jobManager.updateActionListeners();
+            eventManager.registerListeners(this, jobManager.getDebugOptions());
+            eventManager.registerListeners(this, jobManager.getJobSignRegistry());
+            jobManager.getPlacedBlockTracker().ifPresent(tracker -> eventManager.registerListeners(this, tracker));
         }
 
         if (chestShopEnabled) {
             eventManager.registerListeners(this, shopManager);
         }
+
     }
 
     /**
@@ -419,6 +577,10 @@ public class TotalEconomy {
         jobFeatureEnabled = config.getNode("features", "jobs", "enable").getBoolean(true);
         jobNotificationEnabled = config.getNode("features", "jobs", "notifications").getBoolean(true);
         jobSalaryEnabled = config.getNode("features", "jobs", "salary").getBoolean(true);
+        placedBlockTrackingEnabled = config.getNode("features", "jobs", "track-placed-blocks").getBoolean(false);
+        ledgerEnabled = config.getNode("features", "ledger", "enable").getBoolean(true);
+        balancePolicyEnabled = config.getNode("features", "balance-policies", "enable").getBoolean(false);
+        jobDebugOptionPersistenceEnabled = config.getNode("features", "jobs", "persist-debug-options").getBoolean(true);
         databaseEnabled = config.getNode("database", "enable").getBoolean(false);
         moneyCapEnabled = config.getNode("features", "moneycap", "enable").getBoolean(true);
         chestShopEnabled = config.getNode("features", "shops", "chestshop", "enable").getBoolean(true);
@@ -436,6 +598,10 @@ public class TotalEconomy {
         return config.getNode("features", "shops");
     }
 
+    public ConfigurationNode getBalancePolicyNode() {
+        return config.getNode("features", "balance-policies");
+    }
+
     public HashSet<Currency> getCurrencies() {
         return currencies;
     }
@@ -476,10 +642,27 @@ public class TotalEconomy {
         return jobSalaryEnabled;
     }
 
+    /**
+     * Get the ledger all transactions are recorded in.
+     *
+     * @return Optional The transaction ledger, empty if disabled
+     */
+    public Optional<TransactionLedger> getTransactionLedger() {
+        return Optional.ofNullable(transactionLedger);
+    }
+
     public boolean isDatabaseEnabled() {
         return databaseEnabled;
     }
 
+    public boolean isPlacedBlockTrackingEnabled() {
+        return placedBlockTrackingEnabled;
+    }
+
+    public boolean isJobDebugOptionPersistenceEnabled() {
+        return jobDebugOptionPersistenceEnabled;
+    }
+
     public boolean isJobNotificationEnabled() {
         return jobNotificationEnabled;
     }
@@ -488,14 +671,22 @@ public class TotalEconomy {
         return saveInterval;
     }
 
+    public boolean isMoneyCapEnabled() {
+        return moneyCapEnabled;
+    }
+
     public BigDecimal getMoneyCap() {
-        return moneyCapEnabled ? moneyCap : new BigDecimal(Double.MAX_VALUE);
+        return moneyCapEnabled ? moneyCap : UNLIMITED_MONEY_CAP;
     }
 
     public UserStorageService getUserStorageService() {
         return userStorageService;
     }
 
+    public String getDatabaseType() {
+        return databaseType;
+    }
+
     public String getDatabaseUrl() {
         return databaseUrl;
     }
@@ -508,10 +699,50 @@ public class TotalEconomy {
         return databasePassword;
     }
 
+    public boolean isDatabaseCacheEnabled() {
+        return databaseCacheEnabled;
+    }
+
+    public String getDatabaseServerId() {
+        return databaseServerId;
+    }
+
+    public long getDatabasePollInterval() {
+        return databasePollInterval;
+    }
+
+    public int getDatabaseCacheMaxOfflineAccounts() {
+        return databaseCacheMaxOfflineAccounts;
+    }
+
+    public long getDatabaseCacheIdleExpiry() {
+        return databaseCacheIdleExpiry;
+    }
+
+    public List<String> getDatabaseReplicaUrls() {
+        return databaseReplicaUrls;
+    }
+
+    public String getDatabaseReplicaSelection() {
+        return databaseReplicaSelection;
+    }
+
+    public long getDatabaseCommitWindow() {
+        return databaseCommitWindow;
+    }
+
     public SqlManager getSqlManager() {
         return sqlManager;
     }
 
+    public StorageWarmup getStorageWarmup() {
+        return storageWarmup;
+    }
+
+    public MaintenanceScheduler getMaintenanceScheduler() {
+        return maintenanceScheduler;
+    }
+
     public MessageManager getMessageManager(){
         return messageManager;
     }
@@ -0,0 +1,172 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.policy;
+
+import com.erigitic.config.TECurrency;
+import com.erigitic.sql.SqlDialect;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A change applied periodically to the balances of every player account, either paying interest on the part of a
+ * balance above a threshold or taxing it.
+ */
+public class BalancePolicy {
+
+    public enum Type {
+        INTEREST,
+        TAX
+    }
+
+    private final String id;
+    private final Type type;
+    private final TECurrency currency;
+    private final BigDecimal rate;
+    private final BigDecimal threshold;
+    private final long interval;
+
+    /**
+     * @param id Unique id of the policy
+     * @param type Whether the policy pays interest or taxes
+     * @param currency The currency whose balances are changed
+     * @param rate Fraction of the balance above the threshold that is paid or taxed, for example 0.01 for one percent
+     * @param threshold Balances at or below the threshold are left untouched
+     * @param interval Time between two runs in seconds
+     */
+    public BalancePolicy(String id, Type type, TECurrency currency, BigDecimal rate, BigDecimal threshold, long interval) {
+        this.id = id;
+        this.type = type;
+        this.currency = currency;
+        this.rate = rate;
+        this.threshold = threshold;
+        this.interval = interval;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public TECurrency getCurrency() {
+        return currency;
+    }
+
+    public BigDecimal getRate() {
+        return rate;
+    }
+
+    public BigDecimal getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Get the time between two runs.
+     *
+     * @return long The interval in milliseconds
+     */
+    public long getInterval() {
+        return TimeUnit.SECONDS.toMillis(interval);
+    }
+
+    /**
+     * Apply the policy to a balance.
+     *
+     * @param balance The current balance
+     * @param moneyCap The money cap, or null if there is none
+     * @return BigDecimal The new balance, or null if the balance isn't changed
+     */
+    public BigDecimal apply(BigDecimal balance, BigDecimal moneyCap) {
+        if (balance.compareTo(threshold) <= 0) {
+            return null;
+        }
+
+        BigDecimal change = balance.subtract(threshold).multiply(rate);
+        BigDecimal newBalance;
+
+        if (type == Type.INTEREST) {
+            if (moneyCap != null && balance.compareTo(moneyCap) >= 0) {
+                return null;
+            }
+
+            newBalance = balance.add(change);
+
+            if (moneyCap != null) {
+                newBalance = newBalance.min(moneyCap);
+            }
+        } else {
+            newBalance = balance.subtract(change);
+        }
+
+        newBalance = newBalance.setScale(2, BigDecimal.ROUND_DOWN);
+
+        return newBalance.compareTo(balance) != 0 ? newBalance : null;
+    }
+
+    /**
+     * Get the SQL condition matching the balances the policy changes.
+     *
+     * @param column The balance column
+     * @param moneyCap The money cap, or null if there is none
+     * @return String The condition
+     */
+    public String getConditionSql(String column, BigDecimal moneyCap) {
+        String condition = column + " > " + threshold.toPlainString();
+
+        if (type == Type.INTEREST && moneyCap != null) {
+            condition += " AND " + column + " < " + moneyCap.toPlainString();
+        }
+
+        return condition;
+    }
+
+    /**
+     * Get the SQL expression computing the new balance. It's rounded down to two decimals like {@link
+     * #apply(BigDecimal, BigDecimal)} does.
+     *
+     * @param column The balance column
+     * @param moneyCap The money cap, or null if there is none
+     * @param dialect The dialect of the database
+     * @return String The expression
+     */
+    public String getNewBalanceSql(String column, BigDecimal moneyCap, SqlDialect dialect) {
+        String change = "(" + column + " - " + threshold.toPlainString() + ") * " + rate.toPlainString();
+        String newBalance;
+
+        if (type == Type.TAX) {
+            newBalance = column + " - " + change;
+        } else if (moneyCap != null) {
+            newBalance = "LEAST(" + column + " + " + change + ", " + moneyCap.toPlainString() + ")";
+        } else {
+            newBalance = column + " + " + change;
+        }
+
+        return dialect.roundDown(newBalance, 2);
+    }
+}
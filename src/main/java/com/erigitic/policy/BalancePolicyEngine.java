@@ -0,0 +1,611 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.policy;
+
+import com.erigitic.config.AccountCache;
+import com.erigitic.config.AccountManager;
+import com.erigitic.config.AccountSnapshot;
+import com.erigitic.config.TECurrency;
+import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.SqlManager;
+import com.erigitic.stats.EconomyStats;
+import com.erigitic.storage.ConfigAccountStorage;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.service.economy.Currency;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+/**
+ * Periodically applies {@link BalancePolicy balance policies} to every player account, including offline ones,
+ * without going through the economy API for each account.
+ *
+ * <p>Accounts are processed in chunks ordered by their id, one chunk per policy every tick, so a run never blocks the
+ * server for long. In database mode a chunk is a single set based UPDATE statement run asynchronously. Otherwise a
+ * chunk of the accounts configuration is processed in parallel on the main thread. The progress of a run is stored
+ * alongside the accounts after every chunk, so an interrupted run continues where it stopped after a restart. A single
+ * {@link BalancePolicyEvent} is fired when a run completes.</p>
+ */
+public class BalancePolicyEngine {
+
+    // Node of the accounts configuration holding the progress of the policies
+    private static final String STATE_NODE = "balance-policies";
+
+    // Runs of another server that haven't progressed for this long are taken over, in milliseconds
+    private static final long STALE_RUN = TimeUnit.MINUTES.toMillis(5);
+
+    private final TotalEconomy totalEconomy;
+    private final AccountManager accountManager;
+    private final Logger logger;
+    private final boolean databaseActive;
+    private final int chunkSize;
+    private final List<BalancePolicy> policies = new ArrayList<>();
+
+    // Policy id -> progress of the policy, only accessed by the policy task
+    private final Map<String, RunState> states = new HashMap<>();
+
+    private final AtomicBoolean ticking = new AtomicBoolean(false);
+
+    private SqlManager sqlManager;
+    private Task task;
+
+    public BalancePolicyEngine(TotalEconomy totalEconomy, AccountManager accountManager, ConfigurationNode policyNode, Logger logger) {
+        this.totalEconomy = totalEconomy;
+        this.accountManager = accountManager;
+        this.logger = logger;
+
+        databaseActive = totalEconomy.isDatabaseEnabled();
+        chunkSize = Math.max(policyNode.getNode("chunk-size").getInt(1000), 1);
+
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : policyNode.getNode("policies").getChildrenMap().entrySet()) {
+            loadPolicy(entry.getKey().toString(), entry.getValue()).ifPresent(policies::add);
+        }
+    }
+
+    /**
+     * Load the progress of all policies and start applying them.
+     */
+    public void start() {
+        if (policies.isEmpty()) {
+            return;
+        }
+
+        if (databaseActive) {
+            sqlManager = totalEconomy.getSqlManager();
+            sqlManager.createTable("balance_policies", "policy varchar(60) NOT NULL,"
+                    + "next_run bigint NOT NULL,"
+                    + "run_cursor varchar(60),"
+                    + "owner varchar(36),"
+                    + "started_at bigint NOT NULL DEFAULT 0,"
+                    + "updated_at bigint NOT NULL DEFAULT 0,"
+                    + "accounts int NOT NULL DEFAULT 0,"
+                    + "amount decimal(19,2) NOT NULL DEFAULT 0,"
+                    + "PRIMARY KEY (policy)"
+            );
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (BalancePolicy policy : policies) {
+            RunState state = new RunState();
+
+            if (databaseActive) {
+                // The first run happens one interval after the policy was added. The database decides when a policy is
+                // due, so the first check happens right away, which also resumes a run interrupted by a restart.
+                String[] columns = {"policy", "next_run"};
+                String[] values = {policy.getId(), String.valueOf(now + policy.getInterval())};
+
+                try (
+                        Connection connection = sqlManager.dataSource.getConnection();
+                        PreparedStatement statement = connection.prepareStatement(sqlManager.getDialect().insertIgnore("balance_policies", new String[]{"policy"}, columns, values))
+                ) {
+                    statement.executeUpdate();
+                } catch (SQLException e) {
+                    logger.warn("An error occurred while creating the state of balance policy " + policy.getId() + "!");
+                }
+            } else {
+                ConfigurationNode stateNode = accountManager.getAccountConfig().getNode(STATE_NODE, policy.getId());
+
+                if (stateNode.isVirtual()) {
+                    stateNode.getNode("next-run").setValue(now + policy.getInterval());
+                    accountManager.requestConfigurationSave();
+                }
+
+                state.nextRun = stateNode.getNode("next-run").getLong(now + policy.getInterval());
+                state.cursor = stateNode.getNode("cursor").getString(null);
+                state.startedAt = stateNode.getNode("started-at").getLong(now);
+                state.accounts = stateNode.getNode("accounts").getInt(0);
+                state.amount = new BigDecimal(stateNode.getNode("amount").getString("0"));
+            }
+
+            states.put(policy.getId(), state);
+        }
+
+        Task.Builder builder = Sponge.getScheduler().createTaskBuilder()
+                .intervalTicks(1)
+                .execute(this::tick)
+                .name("Total Economy - Balance Policies");
+
+        // Set based updates run off the main thread, while the accounts configuration may only be changed on it
+        if (databaseActive) {
+            builder.async();
+        }
+
+        task = builder.submit(totalEconomy);
+    }
+
+    /**
+     * Stop applying policies. Runs in progress continue where they stopped on the next start.
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    public List<BalancePolicy> getPolicies() {
+        return Collections.unmodifiableList(policies);
+    }
+
+    private Optional<BalancePolicy> loadPolicy(String id, ConfigurationNode node) {
+        try {
+            BalancePolicy.Type type = BalancePolicy.Type.valueOf(node.getNode("type").getString("interest").toUpperCase());
+            String currencyId = node.getNode("currency").getString(null);
+            Optional<Currency> currencyOpt = currencyId != null ? totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + currencyId.toLowerCase()) : Optional.empty();
+            TECurrency currency = (TECurrency) currencyOpt.orElse(totalEconomy.getDefaultCurrency());
+            BigDecimal rate = new BigDecimal(node.getNode("rate").getString("0"));
+            BigDecimal threshold = new BigDecimal(node.getNode("threshold").getString("0"));
+            long interval = node.getNode("interval").getLong(86400);
+
+            if (id.length() > 60 || rate.signum() <= 0 || rate.compareTo(BigDecimal.ONE) > 0 || threshold.signum() < 0 || interval <= 0) {
+                throw new IllegalArgumentException("Invalid id, rate, threshold or interval");
+            }
+
+            return Optional.of(new BalancePolicy(id, type, currency, rate, threshold, interval));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Skipping invalid balance policy " + id + ": " + e.getMessage());
+        }
+
+        return Optional.empty();
+    }
+
+    private void tick() {
+        // Async tasks may overlap when a chunk takes longer than a tick
+        if (!ticking.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+
+            for (BalancePolicy policy : policies) {
+                RunState state = states.get(policy.getId());
+
+                if (state.cursor == null && now >= state.nextRun) {
+                    begin(policy, state, now);
+                }
+
+                if (state.cursor != null) {
+                    if (databaseActive) {
+                        processDatabaseChunk(policy, state);
+                    } else {
+                        processConfigChunk(policy, state);
+                    }
+                }
+            }
+        } finally {
+            ticking.set(false);
+        }
+    }
+
+    /**
+     * Start a run of a policy that is due, or resume an interrupted run.
+     *
+     * @param policy The policy
+     * @param state The progress of the policy
+     * @param now The current time
+     */
+    private void begin(BalancePolicy policy, RunState state, long now) {
+        if (!databaseActive) {
+            state.cursor = "";
+            state.startedAt = now;
+            state.accounts = 0;
+            state.amount = BigDecimal.ZERO;
+
+            return;
+        }
+
+        String serverId = totalEconomy.getDatabaseServerId();
+
+        try (Connection connection = sqlManager.dataSource.getConnection()) {
+            long nextRun;
+            String cursor;
+            String owner;
+            long updatedAt;
+
+            try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM balance_policies WHERE policy = ?")) {
+                statement.setString(1, policy.getId());
+
+                try (ResultSet set = statement.executeQuery()) {
+                    if (!set.next()) {
+                        state.nextRun = now + STALE_RUN;
+
+                        return;
+                    }
+
+                    nextRun = set.getLong("next_run");
+                    cursor = set.getString("run_cursor");
+                    owner = set.getString("owner");
+                    updatedAt = set.getLong("updated_at");
+
+                    state.startedAt = set.getLong("started_at");
+                    state.accounts = set.getInt("accounts");
+                    state.amount = set.getBigDecimal("amount");
+                }
+            }
+
+            if (cursor == null) {
+                if (nextRun > now) {
+                    // Another server completed the run in the meantime
+                    state.nextRun = nextRun;
+
+                    return;
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE balance_policies SET run_cursor = '', owner = ?, started_at = ?, updated_at = ?, accounts = 0, amount = 0 WHERE policy = ? AND run_cursor IS NULL AND next_run = ?")) {
+                    statement.setString(1, serverId);
+                    statement.setLong(2, now);
+                    statement.setLong(3, now);
+                    statement.setString(4, policy.getId());
+                    statement.setLong(5, nextRun);
+
+                    if (statement.executeUpdate() > 0) {
+                        state.cursor = "";
+                        state.startedAt = now;
+                        state.accounts = 0;
+                        state.amount = BigDecimal.ZERO;
+                    } else {
+                        state.nextRun = now + STALE_RUN;
+                    }
+                }
+            } else if (serverId.equals(owner) || updatedAt < now - STALE_RUN) {
+                // Resume a run of this server interrupted by a restart, or take over the run of a server that stopped
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE balance_policies SET owner = ?, updated_at = ? WHERE policy = ? AND updated_at = ?")) {
+                    statement.setString(1, serverId);
+                    statement.setLong(2, now);
+                    statement.setString(3, policy.getId());
+                    statement.setLong(4, updatedAt);
+
+                    if (statement.executeUpdate() > 0) {
+                        state.cursor = cursor;
+                    } else {
+                        state.nextRun = now + STALE_RUN;
+                    }
+                }
+            } else {
+                // Another server is running the policy, check again once its run could have gone stale
+                state.nextRun = now + STALE_RUN;
+            }
+        } catch (SQLException e) {
+            state.nextRun = now + STALE_RUN;
+
+            logger.warn("An error occurred while starting balance policy " + policy.getId() + "!");
+        }
+    }
+
+    private void processDatabaseChunk(BalancePolicy policy, RunState state) {
+        // Balance changes read a balance and write the new one later, a chunk applied in between would be overwritten
+        Lock lock = accountManager.getBalanceLock().writeLock();
+        lock.lock();
+
+        try {
+            applyDatabaseChunk(policy, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void applyDatabaseChunk(BalancePolicy policy, RunState state) {
+        String column = TECurrency.getStorageName(policy.getCurrency()) + "_balance";
+        BigDecimal moneyCap = getMoneyCap();
+        long now = System.currentTimeMillis();
+        Optional<AccountCache> accountCache = accountManager.getAccountCache();
+
+        // Balance changes still queued in the sql writer would overwrite the result of the set based update
+        if (!sqlManager.getWriter().flush()) {
+            logger.warn("An error occurred while writing pending balances before applying balance policy " + policy.getId() + "!");
+
+            return;
+        }
+
+        try (Connection connection = sqlManager.dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                String upperBound = null;
+
+                try (PreparedStatement statement = connection.prepareStatement("SELECT uid FROM accounts WHERE uid > ? ORDER BY uid" + sqlManager.getDialect().limit(1, chunkSize - 1))) {
+                    statement.setString(1, state.cursor);
+
+                    try (ResultSet set = statement.executeQuery()) {
+                        if (set.next()) {
+                            upperBound = set.getString(1);
+                        }
+                    }
+                }
+
+                String newBalance = policy.getNewBalanceSql(column, moneyCap, sqlManager.getDialect());
+                String condition = "uid > ?" + (upperBound != null ? " AND uid <= ?" : "") + " AND " + policy.getConditionSql(column, moneyCap)
+                        + " AND " + newBalance + " <> " + column;
+                List<String> changed = new ArrayList<>();
+                BigDecimal amount = BigDecimal.ZERO;
+
+                try (PreparedStatement statement = connection.prepareStatement("SELECT uid, " + newBalance + " - " + column + " FROM accounts WHERE " + condition)) {
+                    setRange(statement, state.cursor, upperBound);
+
+                    try (ResultSet set = statement.executeQuery()) {
+                        while (set.next()) {
+                            changed.add(set.getString(1));
+                            amount = amount.add(set.getBigDecimal(2));
+                        }
+                    }
+                }
+
+                int accounts = changed.size();
+
+                if (accounts > 0) {
+                    if (accountCache.isPresent()) {
+                        accountCache.get().recordChanges(connection, changed);
+                    }
+
+                    try (PreparedStatement statement = connection.prepareStatement("UPDATE accounts SET " + column + " = " + newBalance + " WHERE " + condition)) {
+                        setRange(statement, state.cursor, upperBound);
+                        statement.executeUpdate();
+                    }
+                }
+
+                BigDecimal totalAmount = state.amount.add(amount).setScale(2, BigDecimal.ROUND_HALF_UP);
+                long nextRun = getNextRun(policy, state, now);
+
+                String progressUpdate = upperBound != null
+                        ? "UPDATE balance_policies SET run_cursor = ?, accounts = ?, amount = ?, updated_at = ? WHERE policy = ? AND owner = ?"
+                        : "UPDATE balance_policies SET run_cursor = NULL, owner = NULL, accounts = ?, amount = ?, updated_at = ?, next_run = ? WHERE policy = ? AND owner = ?";
+
+                try (PreparedStatement statement = connection.prepareStatement(progressUpdate)) {
+                    int index = 1;
+
+                    if (upperBound != null) {
+                        statement.setString(index++, upperBound);
+                    }
+
+                    statement.setInt(index++, state.accounts + accounts);
+                    statement.setBigDecimal(index++, totalAmount);
+                    statement.setLong(index++, now);
+
+                    if (upperBound == null) {
+                        statement.setLong(index++, nextRun);
+                    }
+
+                    statement.setString(index++, policy.getId());
+                    statement.setString(index, totalEconomy.getDatabaseServerId());
+
+                    if (statement.executeUpdate() == 0) {
+                        // Another server took over the run, so this chunk must not be applied twice
+                        connection.rollback();
+
+                        state.cursor = null;
+                        state.nextRun = now + STALE_RUN;
+
+                        return;
+                    }
+                }
+
+                connection.commit();
+
+                state.accounts += accounts;
+                state.amount = totalAmount;
+
+                // Only the changed accounts of the chunk are dropped, the rest of the cache stays warm
+                accountCache.ifPresent(cache -> changed.forEach(cache::invalidate));
+
+                if (upperBound != null) {
+                    state.cursor = upperBound;
+                } else {
+                    complete(policy, state, nextRun, now);
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while applying balance policy " + policy.getId() + "!");
+        }
+    }
+
+    private void processConfigChunk(BalancePolicy policy, RunState state) {
+        ConfigurationNode accountConfig = accountManager.getAccountConfig();
+        ConfigAccountStorage storage = accountManager.getConfigStorage().get();
+        EconomyStats economyStats = accountManager.getEconomyStats();
+
+        if (state.keys == null) {
+            state.keys = collectAccountKeys();
+        }
+
+        int start = Collections.binarySearch(state.keys, state.cursor);
+        start = start >= 0 ? start + 1 : -start - 1;
+
+        int end = Math.min(start + chunkSize, state.keys.size());
+        String currencyName = TECurrency.getStorageName(policy.getCurrency());
+        BigDecimal moneyCap = getMoneyCap();
+
+        // Accounts are independent of each other, so the chunk is split between the common fork-join pool
+        List<BigDecimal> changes = state.keys.subList(start, end).parallelStream()
+                .map(key -> storage.changeBalance(key, currencyName, balance -> {
+                    BigDecimal newBalance = policy.apply(balance, moneyCap);
+
+                    if (newBalance != null) {
+                        economyStats.recordChange(policy.getCurrency(), balance, newBalance);
+                    }
+
+                    return newBalance;
+                }))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+
+        for (BigDecimal change : changes) {
+            state.amount = state.amount.add(change);
+        }
+
+        state.accounts += changes.size();
+
+        long now = System.currentTimeMillis();
+        ConfigurationNode stateNode = accountConfig.getNode(STATE_NODE, policy.getId());
+
+        if (end < state.keys.size()) {
+            state.cursor = state.keys.get(end - 1);
+
+            stateNode.getNode("cursor").setValue(state.cursor);
+            stateNode.getNode("started-at").setValue(state.startedAt);
+            stateNode.getNode("accounts").setValue(state.accounts);
+            stateNode.getNode("amount").setValue(state.amount.toPlainString());
+        } else {
+            long nextRun = getNextRun(policy, state, now);
+
+            stateNode.removeChild("cursor");
+            stateNode.removeChild("started-at");
+            stateNode.removeChild("accounts");
+            stateNode.removeChild("amount");
+            stateNode.getNode("next-run").setValue(nextRun);
+
+            complete(policy, state, nextRun, now);
+        }
+
+        // The progress is saved together with the balances, so both always match
+        accountManager.requestConfigurationSave();
+    }
+
+    /**
+     * Get the sorted ids of all player accounts in the accounts configuration.
+     *
+     * @return List The sorted account ids
+     */
+    private List<String> collectAccountKeys() {
+        List<String> keys = new ArrayList<>();
+
+        try (AccountSnapshot snapshot = accountManager.getAccountRecords().get().openSnapshot()) {
+            snapshot.forEach(record -> {
+                // Virtual accounts aren't stored in the accounts configuration
+                if (!record.isVirtual()) {
+                    keys.add(record.getIdentifier());
+                }
+            });
+        }
+
+        Collections.sort(keys);
+
+        return keys;
+    }
+
+    private void complete(BalancePolicy policy, RunState state, long nextRun, long now) {
+        BalancePolicyEvent event = new BalancePolicyEvent(policy, state.accounts, state.amount, now - state.startedAt);
+
+        logger.info("Applied balance policy " + policy.getId() + " to " + state.accounts + " accounts, changing balances by " + state.amount.toPlainString());
+
+        state.cursor = null;
+        state.keys = null;
+        state.nextRun = nextRun;
+
+        Sponge.getScheduler().createTaskBuilder()
+                .execute(() -> Sponge.getEventManager().post(event))
+                .submit(totalEconomy);
+
+        // The accounts configuration records each change of a chunk, the database is read again asynchronously
+        if (databaseActive) {
+            accountManager.getEconomyStats().rebuild();
+        }
+    }
+
+    /**
+     * Get the time of the next run. Runs keep their interval, but missed runs aren't made up.
+     *
+     * @param policy The policy
+     * @param state The progress of the current run
+     * @param now The current time
+     * @return long The time of the next run
+     */
+    private long getNextRun(BalancePolicy policy, RunState state, long now) {
+        long nextRun = state.startedAt + policy.getInterval();
+
+        return nextRun > now ? nextRun : now + policy.getInterval();
+    }
+
+    private BigDecimal getMoneyCap() {
+        return totalEconomy.isMoneyCapEnabled() ? totalEconomy.getMoneyCap() : null;
+    }
+
+    private static void setRange(PreparedStatement statement, String lowerBound, String upperBound) throws SQLException {
+        statement.setString(1, lowerBound);
+
+        if (upperBound != null) {
+            statement.setString(2, upperBound);
+        }
+    }
+
+    /**
+     * Progress of a single policy.
+     */
+    private static class RunState {
+        private long nextRun;
+        private long startedAt;
+        private int accounts;
+        private BigDecimal amount = BigDecimal.ZERO;
+
+        // Id of the last processed account, or null if the policy isn't running
+        private String cursor;
+
+        // Sorted ids of the accounts being processed, only used with the accounts configuration
+        private List<String> keys;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.policy;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.event.cause.EventContext;
+import org.spongepowered.api.event.impl.AbstractEvent;
+
+import java.math.BigDecimal;
+
+/**
+ * Fired once after a balance policy was applied to every account, instead of a transaction event per account.
+ */
+public class BalancePolicyEvent extends AbstractEvent {
+
+    private final BalancePolicy policy;
+    private final int accounts;
+    private final BigDecimal amount;
+    private final long duration;
+
+    public BalancePolicyEvent(BalancePolicy policy, int accounts, BigDecimal amount, long duration) {
+        this.policy = policy;
+        this.accounts = accounts;
+        this.amount = amount;
+        this.duration = duration;
+    }
+
+    @Override
+    public Cause getCause() {
+        return Cause.builder()
+                .append(Sponge.getPluginManager().getPlugin("totaleconomy").get())
+                .build(EventContext.empty());
+    }
+
+    public BalancePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the amount of accounts whose balance was changed.
+     *
+     * @return int The amount of changed accounts
+     */
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Get the sum of all balance changes. Positive for interest and negative for taxes.
+     *
+     * @return BigDecimal The sum of all balance changes
+     */
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    /**
+     * Get the time the run took, including pauses between chunks.
+     *
+     * @return long The duration in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.shops;
+
+import com.erigitic.main.TotalEconomy;
+import com.flowpowered.math.vector.Vector3i;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.key.Keys;
+import org.spongepowered.api.item.ItemType;
+import org.spongepowered.api.item.inventory.ItemStack;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Index of the items stocked in all chest shops, so shops selling an item can be found without visiting or loading
+ * every shop chest. Listings are kept per item type in a set sorted by price, and are updated whenever a shop is
+ * stocked, an item is bought or removed, or a shop is destroyed.
+ *
+ * <p>Shops that were stocked before the index existed are indexed when their chunk is loaded. The chunks that were
+ * indexed are remembered, so each chunk is only searched for shops once.</p>
+ *
+ * <p>The index is stored in a compact binary file in the config directory, which is loaded at startup and saved
+ * asynchronously when it changed.</p>
+ */
+public class ShopIndex {
+
+    private static final int INDEX_FILE_MAGIC = 0x54455349;
+    private static final int INDEX_FILE_VERSION = 2;
+
+    private static final DataQuery DAMAGE_QUERY = DataQuery.of("UnsafeDamage");
+
+    private final TotalEconomy totalEconomy;
+    private final Logger logger;
+    private final File file;
+
+    // Item type id -> listings sorted by price
+    private final Map<String, NavigableSet<ShopListing>> itemListings = new HashMap<>();
+
+    // Shop location -> listings of the shop
+    private final Map<String, List<ShopListing>> shopListings = new HashMap<>();
+
+    // World -> chunks whose shops were indexed
+    private final Map<UUID, Set<Long>> indexedChunks = new HashMap<>();
+
+    private boolean dirty = false;
+
+    public ShopIndex(TotalEconomy totalEconomy, File configDir, Logger logger) {
+        this.totalEconomy = totalEconomy;
+        this.logger = logger;
+
+        file = new File(configDir, "shopindex.dat");
+    }
+
+    /**
+     * Load the index file and start saving the index periodically.
+     */
+    public void start() {
+        load();
+
+        int saveInterval = totalEconomy.getSaveInterval() > 0 ? totalEconomy.getSaveInterval() : 30;
+
+        Sponge.getScheduler().createTaskBuilder()
+                .async()
+                .interval(saveInterval, TimeUnit.SECONDS)
+                .execute(this::save)
+                .name("Total Economy - Shop Index Saver")
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Add stocked items to the index.
+     *
+     * @param location Location of the shop chest
+     * @param owner Owner of the shop
+     * @param ownerName Name of the owner
+     * @param itemStack The stocked item
+     * @param price Price of a single item
+     * @param quantity Amount of items stocked
+     */
+    public synchronized void addStock(Location<World> location, UUID owner, String ownerName, ItemStack itemStack, double price, int quantity) {
+        ShopListing listing = createListing(location, owner, ownerName, itemStack, price, quantity);
+        ShopListing existing = removeListing(listing);
+
+        if (existing != null) {
+            listing = listing.withQuantity(existing.getQuantity() + quantity);
+        }
+
+        addListing(listing);
+        dirty = true;
+    }
+
+    /**
+     * Remove bought or withdrawn items from the index.
+     *
+     * @param location Location of the shop chest
+     * @param itemStack The removed item
+     * @param price Price of a single item
+     * @param quantity Amount of items removed
+     */
+    public synchronized void removeStock(Location<World> location, ItemStack itemStack, double price, int quantity) {
+        ShopListing removed = removeListing(createListing(location, null, "", itemStack, price, 0));
+
+        if (removed != null) {
+            if (removed.getQuantity() > quantity) {
+                addListing(removed.withQuantity(removed.getQuantity() - quantity));
+            }
+
+            dirty = true;
+        }
+    }
+
+    /**
+     * Remove all listings of a destroyed shop.
+     *
+     * @param location Location of the shop chest
+     */
+    public void removeShop(Location<World> location) {
+        removeShop(location.getExtent().getUniqueId(), location.getBlockPosition());
+    }
+
+    /**
+     * Remove all listings of a destroyed shop.
+     *
+     * @param worldUniqueId The {@link UUID} of the world of the shop chest
+     * @param position Position of the shop chest
+     */
+    public synchronized void removeShop(UUID worldUniqueId, Vector3i position) {
+        List<ShopListing> listings = shopListings.remove(getLocationKey(worldUniqueId, position.getX(), position.getY(), position.getZ()));
+
+        if (listings != null) {
+            for (ShopListing listing : listings) {
+                NavigableSet<ShopListing> sortedListings = itemListings.get(listing.getItemId());
+                sortedListings.remove(listing);
+
+                if (sortedListings.isEmpty()) {
+                    itemListings.remove(listing.getItemId());
+                }
+            }
+
+            dirty = true;
+        }
+    }
+
+    /**
+     * Check if the shops of a chunk were indexed.
+     *
+     * @param worldUniqueId The {@link UUID} of the world of the chunk
+     * @param chunkPosition Position of the chunk
+     * @return boolean Whether or not the chunk was indexed
+     */
+    public synchronized boolean isChunkIndexed(UUID worldUniqueId, Vector3i chunkPosition) {
+        Set<Long> chunks = indexedChunks.get(worldUniqueId);
+
+        return chunks != null && chunks.contains(getChunkKey(chunkPosition));
+    }
+
+    /**
+     * Remember that the shops of a chunk were indexed.
+     *
+     * @param worldUniqueId The {@link UUID} of the world of the chunk
+     * @param chunkPosition Position of the chunk
+     */
+    public synchronized void setChunkIndexed(UUID worldUniqueId, Vector3i chunkPosition) {
+        if (indexedChunks.computeIfAbsent(worldUniqueId, k -> new HashSet<>()).add(getChunkKey(chunkPosition))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Find the cheapest listings of an item.
+     *
+     * @param itemType The item type to search for
+     * @param maxPrice Maximum price of a single item
+     * @param limit Maximum amount of listings
+     * @return List The listings, cheapest first
+     */
+    public synchronized List<ShopListing> find(ItemType itemType, double maxPrice, int limit) {
+        NavigableSet<ShopListing> sortedListings = itemListings.get(itemType.getId());
+
+        if (sortedListings == null) {
+            return Collections.emptyList();
+        }
+
+        List<ShopListing> listings = new ArrayList<>(Math.min(limit, sortedListings.size()));
+        Iterator<ShopListing> iterator = sortedListings.iterator();
+
+        while (listings.size() < limit && iterator.hasNext()) {
+            ShopListing listing = iterator.next();
+
+            if (listing.getPrice() > maxPrice) {
+                break;
+            }
+
+            listings.add(listing);
+        }
+
+        return listings;
+    }
+
+    /**
+     * Save the index file if the index changed since it was last saved.
+     */
+    public void save() {
+        List<ShopListing> listings = new ArrayList<>();
+        Map<UUID, long[]> chunks = new HashMap<>();
+
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+
+            shopListings.values().forEach(listings::addAll);
+            indexedChunks.forEach((worldUniqueId, worldChunks) -> chunks.put(worldUniqueId, worldChunks.stream().mapToLong(Long::longValue).toArray()));
+            dirty = false;
+        }
+
+        try {
+            file.getParentFile().mkdirs();
+
+            // Write to a temporary file first so a crash never leaves a truncated index behind
+            File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+                out.writeInt(INDEX_FILE_MAGIC);
+                out.writeByte(INDEX_FILE_VERSION);
+                out.writeInt(listings.size());
+
+                for (ShopListing listing : listings) {
+                    listing.write(out);
+                }
+
+                out.writeInt(chunks.size());
+
+                for (Map.Entry<UUID, long[]> entry : chunks.entrySet()) {
+                    out.writeLong(entry.getKey().getMostSignificantBits());
+                    out.writeLong(entry.getKey().getLeastSignificantBits());
+                    out.writeInt(entry.getValue().length);
+
+                    for (long chunk : entry.getValue()) {
+                        out.writeLong(chunk);
+                    }
+                }
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+
+            logger.warn("An error occurred while saving the shop index file!", e);
+        }
+    }
+
+    private synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            int version = in.readInt() == INDEX_FILE_MAGIC ? in.readUnsignedByte() : -1;
+
+            if (version < 1 || version > INDEX_FILE_VERSION) {
+                logger.warn("Ignoring unknown shop index file " + file.getName());
+
+                return;
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                addListing(ShopListing.read(in));
+            }
+
+            // The first version didn't remember indexed chunks, so every chunk is indexed again once
+            if (version >= 2) {
+                int worldCount = in.readInt();
+
+                for (int i = 0; i < worldCount; i++) {
+                    UUID worldUniqueId = new UUID(in.readLong(), in.readLong());
+                    int chunkCount = in.readInt();
+                    Set<Long> chunks = new HashSet<>(chunkCount * 2);
+
+                    for (int j = 0; j < chunkCount; j++) {
+                        chunks.add(in.readLong());
+                    }
+
+                    indexedChunks.put(worldUniqueId, chunks);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading the shop index file!", e);
+        }
+    }
+
+    private ShopListing createListing(Location<World> location, UUID owner, String ownerName, ItemStack itemStack, double price, int quantity) {
+        String itemName = itemStack.get(Keys.DISPLAY_NAME).orElse(Text.of(itemStack.getTranslation())).toPlain();
+        int itemDamage = itemStack.toContainer().getInt(DAMAGE_QUERY).orElse(0);
+
+        return new ShopListing(location.getExtent().getUniqueId(), location.getBlockX(), location.getBlockY(), location.getBlockZ(),
+                owner, ownerName, itemStack.getType().getId(), itemDamage, itemName, price, quantity);
+    }
+
+    private void addListing(ShopListing listing) {
+        itemListings.computeIfAbsent(listing.getItemId(), k -> new TreeSet<>()).add(listing);
+        shopListings.computeIfAbsent(getLocationKey(listing), k -> new ArrayList<>()).add(listing);
+    }
+
+    /**
+     * Remove the listing describing the same stock as the passed in listing.
+     *
+     * @param listing The listing to remove, the quantity is ignored
+     * @return ShopListing The removed listing, or null if it wasn't indexed
+     */
+    private ShopListing removeListing(ShopListing listing) {
+        String locationKey = getLocationKey(listing);
+        List<ShopListing> listings = shopListings.get(locationKey);
+
+        if (listings == null) {
+            return null;
+        }
+
+        for (Iterator<ShopListing> iterator = listings.iterator(); iterator.hasNext(); ) {
+            ShopListing existing = iterator.next();
+
+            if (existing.isSameStock(listing)) {
+                iterator.remove();
+
+                if (listings.isEmpty()) {
+                    shopListings.remove(locationKey);
+                }
+
+                NavigableSet<ShopListing> sortedListings = itemListings.get(existing.getItemId());
+                sortedListings.remove(existing);
+
+                if (sortedListings.isEmpty()) {
+                    itemListings.remove(existing.getItemId());
+                }
+
+                return existing;
+            }
+        }
+
+        return null;
+    }
+
+    private static long getChunkKey(Vector3i chunkPosition) {
+        return ((long) chunkPosition.getX() << 32) | (chunkPosition.getZ() & 0xFFFFFFFFL);
+    }
+
+    private static String getLocationKey(ShopListing listing) {
+        return getLocationKey(listing.getWorldUniqueId(), listing.getX(), listing.getY(), listing.getZ());
+    }
+
+    private static String getLocationKey(UUID worldUniqueId, int x, int y, int z) {
+        return worldUniqueId + ":" + x + ":" + y + ":" + z;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.shops;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * An item stocked in a chest shop at a single price, as kept by the {@link ShopIndex}. Listings are ordered by price
+ * first, so the cheapest listings of an item come first.
+ */
+public final class ShopListing implements Comparable<ShopListing> {
+
+    private final UUID worldUniqueId;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final UUID owner;
+    private final String ownerName;
+    private final String itemId;
+    private final int itemDamage;
+    private final String itemName;
+    private final double price;
+    private final int quantity;
+
+    public ShopListing(UUID worldUniqueId, int x, int y, int z, UUID owner, String ownerName, String itemId, int itemDamage, String itemName, double price, int quantity) {
+        this.worldUniqueId = worldUniqueId;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.owner = owner;
+        this.ownerName = ownerName;
+        this.itemId = itemId;
+        this.itemDamage = itemDamage;
+        this.itemName = itemName;
+        this.price = price;
+        this.quantity = quantity;
+    }
+
+    public UUID getWorldUniqueId() {
+        return worldUniqueId;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public int getItemDamage() {
+        return itemDamage;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Get a copy of this listing with a different quantity.
+     *
+     * @param quantity The new quantity
+     * @return ShopListing The copy
+     */
+    public ShopListing withQuantity(int quantity) {
+        return new ShopListing(worldUniqueId, x, y, z, owner, ownerName, itemId, itemDamage, itemName, price, quantity);
+    }
+
+    /**
+     * Check if this listing is for the same item at the same shop and price as another listing, ignoring the quantity.
+     *
+     * @param other The other listing
+     * @return boolean If both listings describe the same stock
+     */
+    public boolean isSameStock(ShopListing other) {
+        return compareTo(other) == 0;
+    }
+
+    @Override
+    public int compareTo(ShopListing other) {
+        int result = Double.compare(price, other.price);
+
+        if (result == 0) {
+            result = worldUniqueId.compareTo(other.worldUniqueId);
+        }
+
+        if (result == 0) {
+            result = Integer.compare(x, other.x);
+        }
+
+        if (result == 0) {
+            result = Integer.compare(y, other.y);
+        }
+
+        if (result == 0) {
+            result = Integer.compare(z, other.z);
+        }
+
+        if (result == 0) {
+            result = itemId.compareTo(other.itemId);
+        }
+
+        if (result == 0) {
+            result = Integer.compare(itemDamage, other.itemDamage);
+        }
+
+        return result;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(worldUniqueId.getMostSignificantBits());
+        out.writeLong(worldUniqueId.getLeastSignificantBits());
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(z);
+        out.writeLong(owner.getMostSignificantBits());
+        out.writeLong(owner.getLeastSignificantBits());
+        out.writeUTF(ownerName);
+        out.writeUTF(itemId);
+        out.writeInt(itemDamage);
+        out.writeUTF(itemName);
+        out.writeDouble(price);
+        out.writeInt(quantity);
+    }
+
+    static ShopListing read(DataInput in) throws IOException {
+        UUID worldUniqueId = new UUID(in.readLong(), in.readLong());
+        int x = in.readInt();
+        int y = in.readInt();
+        int z = in.readInt();
+        UUID owner = new UUID(in.readLong(), in.readLong());
+        String ownerName = in.readUTF();
+        String itemId = in.readUTF();
+        int itemDamage = in.readInt();
+        String itemName = in.readUTF();
+        double price = in.readDouble();
+        int quantity = in.readInt();
+
+        return new ShopListing(worldUniqueId, x, y, z, owner, ownerName, itemId, itemDamage, itemName, price, quantity);
+    }
+}
@@ -31,6 +31,7 @@ import com.erigitic.main.TotalEconomy;
 import com.erigitic.shops.data.PlayerShopInfoData;
 import com.erigitic.shops.data.ShopKeys;
 import com.erigitic.util.MessageManager;
+import org.slf4j.Logger;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.block.BlockType;
 import org.spongepowered.api.block.BlockTypes;
@@ -38,9 +39,12 @@ import org.spongepowered.api.block.tileentity.TileEntity;
 import org.spongepowered.api.block.tileentity.carrier.Chest;
 import org.spongepowered.api.data.DataContainer;
 import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.Transaction;
 import org.spongepowered.api.data.key.Keys;
 import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.entity.living.player.User;
 import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
 import org.spongepowered.api.event.block.ChangeBlockEvent;
 import org.spongepowered.api.event.cause.EventContextKeys;
 import org.spongepowered.api.event.filter.Getter;
@@ -48,6 +52,7 @@ import org.spongepowered.api.event.filter.cause.First;
 import org.spongepowered.api.event.filter.type.Exclude;
 import org.spongepowered.api.event.item.inventory.ClickInventoryEvent;
 import org.spongepowered.api.event.item.inventory.InteractInventoryEvent;
+import org.spongepowered.api.event.world.chunk.LoadChunkEvent;
 import org.spongepowered.api.item.inventory.Inventory;
 import org.spongepowered.api.item.inventory.ItemStack;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
@@ -59,6 +64,7 @@ import org.spongepowered.api.item.inventory.type.GridInventory;
 import org.spongepowered.api.util.Direction;
 import org.spongepowered.api.util.blockray.BlockRay;
 import org.spongepowered.api.util.blockray.BlockRayHit;
+import org.spongepowered.api.world.Chunk;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
@@ -73,16 +79,20 @@ public class ShopManager {
     private TotalEconomy totalEconomy;
     private AccountManager accountManager;
     private MessageManager messageManager;
+    private ShopIndex shopIndex;
 
     private final double minPrice;
     private final double maxPrice;
     private final double chestShopPrice;
 
-    public ShopManager(TotalEconomy totalEconomy, AccountManager accountManager, MessageManager messageManager) {
+    public ShopManager(TotalEconomy totalEconomy, AccountManager accountManager, MessageManager messageManager, Logger logger) {
         this.totalEconomy = totalEconomy;
         this.accountManager = accountManager;
         this.messageManager = messageManager;
 
+        shopIndex = new ShopIndex(totalEconomy, totalEconomy.getConfigDir(), logger);
+        shopIndex.start();
+
         minPrice = this.totalEconomy.getShopNode().getNode("min-item-price").getDouble(0);
         maxPrice = this.totalEconomy.getShopNode().getNode("max-item-price").getDouble(1000000000);
         chestShopPrice = this.totalEconomy.getShopNode().getNode("chestshop", "price").getDouble(1000);
@@ -130,6 +140,8 @@ public class ShopManager {
                                 Slot clickedSlot = event.getTransactions().get(0).getSlot();
 
                                 updateItemInSlot(clickedSlot, clickedItem, clickedItem.getQuantity() - 1);
+
+                                shopIndex.removeStock(location, clickedItem, shopItem.getPrice(), 1);
                             } else {
                                 event.getTransactions().get(0).setValid(false);
 
@@ -208,6 +220,8 @@ public class ShopManager {
                         returnedItem.setQuantity(clickedItem.getQuantity());
 
                         player.getInventory().offer(returnedItem);
+
+                        shopIndex.removeStock(location, clickedItem, shopItemOpt.get().getPrice(), clickedItem.getQuantity());
                     } else if (player.getUniqueId().equals(shop.getOwner())) {
                         event.setCancelled(false);
                     } else if (shopItemOpt.isPresent()) {
@@ -232,6 +246,8 @@ public class ShopManager {
                                 customerAccount.transfer(ownerAccount, totalEconomy.getDefaultCurrency(), BigDecimal.valueOf(purchasedQuantity * shopItem.getPrice()), event.getCause());
 
                                 player.getInventory().offer(purchasedItem);
+
+                                shopIndex.removeStock(location, clickedItem, shopItem.getPrice(), purchasedQuantity);
                             } else {
                                 event.getTransactions().get(0).setValid(false);
 
@@ -334,6 +350,8 @@ public class ShopManager {
 
                     player.sendMessage(messageManager.getMessage("shops.remove.stocked"));
                 } else {
+                    shopIndex.removeShop(chest.getLocation());
+
                     event.getLocations().get(0).removeBlock();
                     event.getLocations().get(0).setBlockType(BlockTypes.CHEST);
                 }
@@ -341,6 +359,72 @@ public class ShopManager {
         }
     }
 
+    /**
+     * Removes the listings of chest shops that were broken, no matter what broke them.
+     *
+     * @param event Break block
+     */
+    @Listener(order = Order.POST)
+    public void onShopBroken(ChangeBlockEvent.Break event) {
+        for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+            BlockSnapshot original = transaction.getOriginal();
+
+            if (transaction.isValid() && original.getState().getType().equals(BlockTypes.CHEST)) {
+                shopIndex.removeShop(original.getWorldUniqueId(), original.getPosition());
+            }
+        }
+    }
+
+    /**
+     * Indexes the chest shops of a chunk that is loaded for the first time since the shop index exists, so shops stocked
+     * before can be found as well.
+     *
+     * @param event Load chunk
+     */
+    @Listener
+    public void onChunkLoad(LoadChunkEvent event) {
+        Chunk chunk = event.getTargetChunk();
+        UUID worldUniqueId = chunk.getWorld().getUniqueId();
+
+        if (shopIndex.isChunkIndexed(worldUniqueId, chunk.getPosition())) {
+            return;
+        }
+
+        for (TileEntity tileEntity : chunk.getTileEntities(tileEntity -> tileEntity instanceof Chest)) {
+            Optional<Shop> shopOpt = tileEntity.get(ShopKeys.SINGLE_SHOP);
+
+            if (shopOpt.isPresent()) {
+                indexShop((Chest) tileEntity, shopOpt.get().getOwner());
+            }
+        }
+
+        shopIndex.setChunkIndexed(worldUniqueId, chunk.getPosition());
+    }
+
+    /**
+     * Replace the listings of a chest shop with the items it currently stocks.
+     *
+     * @param chest The chest of the shop
+     * @param owner The owner of the shop
+     */
+    private void indexShop(Chest chest, UUID owner) {
+        String ownerName = totalEconomy.getUserStorageService().get(owner).map(User::getName).orElse("");
+
+        shopIndex.removeShop(chest.getLocation());
+
+        for (Inventory slot : chest.getInventory().slots()) {
+            Optional<ItemStack> itemStackOpt = slot.peek();
+
+            if (itemStackOpt.isPresent()) {
+                Optional<ShopItem> shopItemOpt = itemStackOpt.get().get(ShopKeys.SHOP_ITEM);
+
+                if (shopItemOpt.isPresent()) {
+                    shopIndex.addStock(chest.getLocation(), owner, ownerName, itemStackOpt.get(), shopItemOpt.get().getPrice(), itemStackOpt.get().getQuantity());
+                }
+            }
+        }
+    }
+
     /**
      * Prevents chests from being placed next to chest shops.
      *
@@ -449,6 +533,10 @@ public class ShopManager {
         return Optional.empty();
     }
 
+    public ShopIndex getShopIndex() {
+        return shopIndex;
+    }
+
     public double getMinPrice() {
         return minPrice;
     }
@@ -0,0 +1,348 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.sql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The SQL syntax differences between the supported databases. Statements that aren't covered here only use standard
+ * SQL that all of them understand.
+ */
+public enum SqlDialect {
+    MYSQL("mysql") {
+        @Override
+        public String insertIgnore(String table, String[] keyColumns, String[] columns, String[] values) {
+            return "INSERT IGNORE INTO " + table + columnList(columns) + " VALUES " + valueList(values);
+        }
+
+        @Override
+        public String upsert(String table, String[] keyColumns, String[] columns, String[] values) {
+            List<String> updates = new ArrayList<>();
+
+            for (String column : nonKeyColumns(keyColumns, columns)) {
+                updates.add(column + "=VALUES(" + column + ")");
+            }
+
+            return "INSERT INTO " + table + columnList(columns) + " VALUES " + valueList(values)
+                    + " ON DUPLICATE KEY UPDATE " + String.join(",", updates);
+        }
+
+        @Override
+        public String quote(String identifier) {
+            return '`' + identifier + '`';
+        }
+
+        @Override
+        public String setNotNull(String table, String column, String type) {
+            return "ALTER TABLE " + table + " MODIFY " + column + " " + type + " NOT NULL";
+        }
+
+        @Override
+        public String createIndex(String name, String table, String... columns) {
+            return "CREATE INDEX " + name + " ON " + table + columnList(columns);
+        }
+
+        @Override
+        public boolean isDuplicateIndexError(SQLException e) {
+            // ER_DUP_KEYNAME
+            return e.getErrorCode() == 1061;
+        }
+    },
+
+    MARIADB("mariadb") {
+        @Override
+        public String insertIgnore(String table, String[] keyColumns, String[] columns, String[] values) {
+            return MYSQL.insertIgnore(table, keyColumns, columns, values);
+        }
+
+        @Override
+        public String upsert(String table, String[] keyColumns, String[] columns, String[] values) {
+            return MYSQL.upsert(table, keyColumns, columns, values);
+        }
+
+        @Override
+        public String quote(String identifier) {
+            return MYSQL.quote(identifier);
+        }
+
+        @Override
+        public String setNotNull(String table, String column, String type) {
+            return MYSQL.setNotNull(table, column, type);
+        }
+    },
+
+    H2("h2") {
+        @Override
+        public String insertIgnore(String table, String[] keyColumns, String[] columns, String[] values) {
+            return insertUnlessExists(table, keyColumns, columns, values);
+        }
+
+        @Override
+        public String upsert(String table, String[] keyColumns, String[] columns, String[] values) {
+            return "MERGE INTO " + table + columnList(columns) + " KEY (" + String.join(",", keyColumns) + ") VALUES " + valueList(values);
+        }
+
+        @Override
+        public String quote(String identifier) {
+            // Unquoted identifiers are stored in upper case
+            return '"' + identifier.toUpperCase() + '"';
+        }
+
+        @Override
+        public String unsignedIntType() {
+            return "int";
+        }
+
+        @Override
+        public String autoIncrementType() {
+            return "bigint AUTO_INCREMENT NOT NULL";
+        }
+    },
+
+    POSTGRESQL("postgresql") {
+        @Override
+        public String insertIgnore(String table, String[] keyColumns, String[] columns, String[] values) {
+            // ON CONFLICT requires a unique index on the key columns, tables of older versions may not have one
+            return insertUnlessExists(table, keyColumns, columns, values);
+        }
+
+        @Override
+        public String upsert(String table, String[] keyColumns, String[] columns, String[] values) {
+            List<String> updates = new ArrayList<>();
+
+            for (String column : nonKeyColumns(keyColumns, columns)) {
+                updates.add(column + "=EXCLUDED." + column);
+            }
+
+            return "INSERT INTO " + table + columnList(columns) + " VALUES " + valueList(values)
+                    + " ON CONFLICT (" + String.join(",", keyColumns) + ") DO UPDATE SET " + String.join(",", updates);
+        }
+
+        @Override
+        public String quote(String identifier) {
+            // Unquoted identifiers are stored in lower case
+            return '"' + identifier.toLowerCase() + '"';
+        }
+
+        @Override
+        public String unsignedIntType() {
+            return "integer";
+        }
+
+        @Override
+        public String autoIncrementType() {
+            return "bigserial NOT NULL";
+        }
+
+        @Override
+        public String roundDown(String expression, int scale) {
+            return "TRUNC(" + expression + ", " + scale + ")";
+        }
+    };
+
+    private final String id;
+
+    SqlDialect(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Get a dialect by its id, as used for "database.type" in the configuration and in JDBC urls.
+     *
+     * @param id Id of the dialect
+     * @return Optional The dialect
+     */
+    public static Optional<SqlDialect> fromId(String id) {
+        for (SqlDialect dialect : values()) {
+            if (dialect.id.equalsIgnoreCase(id)) {
+                return Optional.of(dialect);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Create a statement inserting a row.
+     *
+     * @param table Name of the table
+     * @param columns The columns being inserted
+     * @param values The values of the columns
+     * @return String The statement
+     */
+    public String insert(String table, String[] columns, String[] values) {
+        return "INSERT INTO " + table + columnList(columns) + " VALUES " + valueList(values);
+    }
+
+    /**
+     * Create a statement inserting a row, unless a row with the same key already exists.
+     *
+     * @param table Name of the table
+     * @param keyColumns The columns of the primary key
+     * @param columns All columns being inserted, including the key columns
+     * @param values The values of the columns
+     * @return String The statement
+     */
+    public abstract String insertIgnore(String table, String[] keyColumns, String[] columns, String[] values);
+
+    /**
+     * Create a statement inserting a row, or updating the non key columns if a row with the same key already exists.
+     *
+     * @param table Name of the table
+     * @param keyColumns The columns of the primary key
+     * @param columns All columns being inserted, including the key columns
+     * @param values The values of the columns
+     * @return String The statement
+     */
+    public abstract String upsert(String table, String[] keyColumns, String[] columns, String[] values);
+
+    /**
+     * Quote an identifier, such as a column named after a currency.
+     *
+     * @param identifier The identifier
+     * @return String The quoted identifier
+     */
+    public abstract String quote(String identifier);
+
+    /**
+     * Create a statement making a column not nullable, such as before it becomes the primary key.
+     *
+     * @param table Name of the table
+     * @param column Name of the column
+     * @param type The column type
+     * @return String The statement
+     */
+    public String setNotNull(String table, String column, String type) {
+        return "ALTER TABLE " + table + " ALTER COLUMN " + column + " SET NOT NULL";
+    }
+
+    /**
+     * Get the column type used for counters that can't be negative.
+     *
+     * @return String The column type
+     */
+    public String unsignedIntType() {
+        return "int(10) unsigned";
+    }
+
+    /**
+     * Get the column type, including constraints, of an auto incrementing 64 bit key.
+     *
+     * @return String The column type
+     */
+    public String autoIncrementType() {
+        return "bigint NOT NULL AUTO_INCREMENT";
+    }
+
+    /**
+     * Create a statement creating an index, if it doesn't exist yet. Dialects that can't skip existing indexes report
+     * them through {@link #isDuplicateIndexError(SQLException)}.
+     *
+     * @param name Name of the index
+     * @param table Name of the table
+     * @param columns The indexed columns
+     * @return String The statement
+     */
+    public String createIndex(String name, String table, String... columns) {
+        return "CREATE INDEX IF NOT EXISTS " + name + " ON " + table + columnList(columns);
+    }
+
+    /**
+     * Check if an exception was caused by creating an index that already exists.
+     *
+     * @param e The exception
+     * @return boolean Whether or not the index already existed
+     */
+    public boolean isDuplicateIndexError(SQLException e) {
+        return false;
+    }
+
+    /**
+     * Get an expression rounding a number towards zero, like {@link java.math.BigDecimal#ROUND_DOWN} does.
+     *
+     * @param expression The number to round
+     * @param scale The amount of decimals to keep
+     * @return String The expression
+     */
+    public String roundDown(String expression, int scale) {
+        return "TRUNCATE(" + expression + ", " + scale + ")";
+    }
+
+    /**
+     * Get the clause limiting the rows returned by a query.
+     *
+     * @param limit The maximum amount of rows
+     * @param offset The amount of rows to skip
+     * @return String The clause
+     */
+    public String limit(int limit, int offset) {
+        return " LIMIT " + limit + " OFFSET " + offset;
+    }
+
+    private static String insertUnlessExists(String table, String[] keyColumns, String[] columns, String[] values) {
+        List<String> conditions = new ArrayList<>();
+
+        for (String keyColumn : keyColumns) {
+            conditions.add(keyColumn + "='" + values[Arrays.asList(columns).indexOf(keyColumn)] + "'");
+        }
+
+        return "INSERT INTO " + table + columnList(columns) + " SELECT " + literalList(values)
+                + " WHERE NOT EXISTS (SELECT 1 FROM " + table + " WHERE " + String.join(" AND ", conditions) + ")";
+    }
+
+    private static String columnList(String[] columns) {
+        return " (" + String.join(",", columns) + ")";
+    }
+
+    private static String valueList(String[] values) {
+        return "(" + literalList(values) + ")";
+    }
+
+    private static String literalList(String[] values) {
+        return "'" + String.join("','", values) + "'";
+    }
+
+    private static List<String> nonKeyColumns(String[] keyColumns, String[] columns) {
+        List<String> keys = Arrays.asList(keyColumns);
+        List<String> result = new ArrayList<>();
+
+        for (String column : columns) {
+            if (!keys.contains(column)) {
+                result.add(column);
+            }
+        }
+
+        return result;
+    }
+}
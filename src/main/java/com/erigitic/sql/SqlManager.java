@@ -32,24 +32,218 @@ import org.spongepowered.api.Sponge;
 import org.spongepowered.api.service.sql.SqlService;
 
 import javax.sql.DataSource;
+import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SqlManager {
+    // Interval between health checks of the read replicas in seconds
+    private static final int REPLICA_CHECK_INTERVAL = 10;
+
+    private TotalEconomy totalEconomy;
     private Logger logger;
     public DataSource dataSource;
     private SqlService sql;
 
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private boolean leastLatency;
+
+    private SqlDialect dialect;
+
+    private SqlWriter writer;
+
     public SqlManager(TotalEconomy totalEconomy, Logger logger) {
+        this.totalEconomy = totalEconomy;
+        this.logger = logger;
+
+        dialect = resolveDialect(totalEconomy.getDatabaseType(), totalEconomy.getDatabaseUrl());
+
+        writer = new SqlWriter(this, logger, totalEconomy.getDatabaseCommitWindow());
+    }
+
+    /**
+     * Create a manager for a data source that is already connected, such as a throwaway database used by tests. Read
+     * replicas aren't used and the sql writer has to be started by the caller.
+     *
+     * @param dataSource The data source
+     * @param dialect The dialect of the database
+     * @param commitWindow The commit window of the sql writer in milliseconds, zero to write immediately
+     * @param logger Logger used to report errors
+     */
+    public SqlManager(DataSource dataSource, SqlDialect dialect, long commitWindow, Logger logger) {
+        this.dataSource = dataSource;
+        this.dialect = dialect;
         this.logger = logger;
 
+        writer = new SqlWriter(this, logger, commitWindow);
+    }
+
+    /**
+     * Connect to the database and the read replicas and start the sql writer. Runs during the storage warmup, the data
+     * sources can't be used before.
+     */
+    public void connect() {
+        String jdbcUrl;
+
+        if (dialect == SqlDialect.H2) {
+            // Embedded database stored next to the configuration, no external server required
+            jdbcUrl = "jdbc:h2:" + new File(totalEconomy.getConfigDir(), "totaleconomy").getAbsolutePath();
+        } else {
+            jdbcUrl = "jdbc:" + totalEconomy.getDatabaseUrl() + "?user=" + totalEconomy.getDatabaseUser() + "&password=" + totalEconomy.getDatabasePassword();
+        }
+
         try {
-            dataSource = getDataSource("jdbc:" + totalEconomy.getDatabaseUrl() + "?user=" + totalEconomy.getDatabaseUser() + "&password=" + totalEconomy.getDatabasePassword());
+            dataSource = getDataSource(jdbcUrl);
         } catch (SQLException e) {
             logger.warn("Error getting data source!");
         } catch (UncheckedExecutionException e) {
             logger.warn("Error connecting to database! Check the config and make sure the database credentials are correct!");
         }
+
+        if (dialect != SqlDialect.H2) {
+            setupReplicas(totalEconomy);
+        }
+
+        writer.start();
+    }
+
+    /**
+     * Determine the dialect of the database. Uses the configured type, or the scheme of the url if no type is configured.
+     *
+     * @param type The configured database type, may be empty
+     * @param url The configured database url
+     * @return SqlDialect The dialect
+     */
+    private SqlDialect resolveDialect(String type, String url) {
+        if (!type.isEmpty()) {
+            Optional<SqlDialect> dialectOpt = SqlDialect.fromId(type);
+
+            if (dialectOpt.isPresent()) {
+                return dialectOpt.get();
+            }
+
+            logger.warn("Unknown database type \"" + type + "\"! Falling back to MySQL.");
+            return SqlDialect.MYSQL;
+        }
+
+        if (url != null && url.contains(":")) {
+            return SqlDialect.fromId(url.substring(0, url.indexOf(':'))).orElse(SqlDialect.MYSQL);
+        }
+
+        return SqlDialect.MYSQL;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Get the writer that mutations of player data are group committed with.
+     *
+     * @return SqlWriter The writer
+     */
+    public SqlWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Create the data sources of the configured read replicas and start checking their health. Replicas use the same
+     * credentials as the primary database.
+     *
+     * @param totalEconomy Main plugin class
+     */
+    private void setupReplicas(TotalEconomy totalEconomy) {
+        leastLatency = totalEconomy.getDatabaseReplicaSelection().equalsIgnoreCase("least-latency");
+
+        for (String url : totalEconomy.getDatabaseReplicaUrls()) {
+            try {
+                replicas.add(new Replica(url, getDataSource("jdbc:" + url + "?user=" + totalEconomy.getDatabaseUser() + "&password=" + totalEconomy.getDatabasePassword())));
+            } catch (SQLException | UncheckedExecutionException e) {
+                logger.warn("Error getting data source for read replica " + url + "!");
+            }
+        }
+
+        if (!replicas.isEmpty()) {
+            Sponge.getScheduler().createTaskBuilder()
+                    .async()
+                    .interval(REPLICA_CHECK_INTERVAL, TimeUnit.SECONDS)
+                    .execute(this::checkReplicas)
+                    .name("Total Economy - Replica Health Check")
+                    .submit(totalEconomy);
+        }
+    }
+
+    /**
+     * Get the data source to use for read only queries that don't need to see the latest writes, like leaderboards and
+     * lookups of offline players. Reads that must see a player's own writes should use {@link #dataSource}.
+     *
+     * <p>Healthy read replicas are chosen round-robin or by lowest latency, depending on the configuration. Falls back
+     * to the primary data source if no replica is configured or healthy.</p>
+     *
+     * @return DataSource The data source to read from
+     */
+    public DataSource getReadDataSource() {
+        int count = replicas.size();
+
+        if (count == 0) {
+            return dataSource;
+        }
+
+        Replica selected = null;
+
+        if (leastLatency) {
+            for (Replica replica : replicas) {
+                if (replica.healthy && (selected == null || replica.latency < selected.latency)) {
+                    selected = replica;
+                }
+            }
+        } else {
+            int start = Math.floorMod(nextReplica.getAndIncrement(), count);
+
+            for (int i = 0; i < count && selected == null; i++) {
+                Replica replica = replicas.get((start + i) % count);
+
+                if (replica.healthy) {
+                    selected = replica;
+                }
+            }
+        }
+
+        return selected != null ? selected.dataSource : dataSource;
+    }
+
+    /**
+     * Check if each read replica accepts connections and measure how long it takes.
+     */
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            long start = System.nanoTime();
+            boolean healthy;
+
+            try (Connection conn = replica.dataSource.getConnection()) {
+                healthy = conn.isValid(REPLICA_CHECK_INTERVAL / 2);
+            } catch (SQLException e) {
+                healthy = false;
+            }
+
+            replica.latency = System.nanoTime() - start;
+
+            if (healthy != replica.healthy) {
+                if (healthy) {
+                    logger.info("Read replica " + replica.url + " is available again.");
+                } else {
+                    logger.warn("Read replica " + replica.url + " is unavailable! Reads are routed to the other replicas or the primary database.");
+                }
+            }
+
+            replica.healthy = healthy;
+        }
     }
 
     /**
@@ -90,4 +284,19 @@ public class SqlManager {
 
         return false;
     }
+
+    private static class Replica {
+        private final String url;
+        private final DataSource dataSource;
+
+        private volatile boolean healthy = true;
+
+        // Duration of the last health check in nanoseconds
+        private volatile long latency = 0;
+
+        private Replica(String url, DataSource dataSource) {
+            this.url = url;
+            this.dataSource = dataSource;
+        }
+    }
 }
@@ -49,8 +49,36 @@ public class SqlQuery {
         }
     }
 
+    /**
+     * Create a builder for a query against a data source, using the MySQL dialect.
+     *
+     * @param dataSource The data source to query
+     * @return Builder The builder
+     */
     public static SqlQuery.Builder builder(DataSource dataSource) {
-        return new Builder(dataSource);
+        return new Builder(dataSource, SqlDialect.MYSQL);
+    }
+
+    /**
+     * Create a builder for a query against the primary data source, using the configured dialect.
+     *
+     * @param sqlManager The sql manager
+     * @return Builder The builder
+     */
+    public static SqlQuery.Builder builder(SqlManager sqlManager) {
+        return new Builder(sqlManager.dataSource, sqlManager.getDialect());
+    }
+
+    /**
+     * Create a builder for a query against one of the data sources of a sql manager, such as a read replica, using the
+     * configured dialect.
+     *
+     * @param sqlManager The sql manager
+     * @param dataSource The data source to query
+     * @return Builder The builder
+     */
+    public static SqlQuery.Builder builder(SqlManager sqlManager, DataSource dataSource) {
+        return new Builder(dataSource, sqlManager.getDialect());
     }
 
     public void executeQuery() {
@@ -258,12 +286,26 @@ public class SqlQuery {
 
     public static class Builder {
         private DataSource dataSource;
+        private SqlDialect dialect;
         private String statement = "";
 
         private boolean update = false;
 
+        // Inserts are rendered by the dialect once the query is built
+        private String insertTable;
+        private boolean upsert = false;
+        private boolean append = false;
+        private String[] keyColumns;
+        private String[] insertColumns;
+        private String[] insertValues;
+
         public Builder(DataSource dataSource) {
+            this(dataSource, SqlDialect.MYSQL);
+        }
+
+        public Builder(DataSource dataSource, SqlDialect dialect) {
             this.dataSource = dataSource;
+            this.dialect = dialect;
         }
 
         public Builder select(String column) {
@@ -296,24 +338,63 @@ public class SqlQuery {
             return this;
         }
 
+        /**
+         * Insert a row, unless a row with the same key already exists.
+         *
+         * @param table Name of the table
+         * @return Builder The builder
+         */
         public Builder insert(String table) {
-            statement += "INSERT IGNORE INTO " + table;
+            update = true;
+            insertTable = table;
+
+            return this;
+        }
+
+        /**
+         * Insert a row, or update the existing row with the same key.
+         *
+         * @param table Name of the table
+         * @return Builder The builder
+         */
+        public Builder upsert(String table) {
+            upsert = true;
+
+            return insert(table);
+        }
+
+        /**
+         * Insert a row without checking for an existing row, for tables with a generated key.
+         *
+         * @param table Name of the table
+         * @return Builder The builder
+         */
+        public Builder append(String table) {
+            append = true;
+
+            return insert(table);
+        }
+
+        /**
+         * Set the key columns used to detect existing rows when inserting. Defaults to the first column.
+         *
+         * @param columns The key columns
+         * @return Builder The builder
+         */
+        public Builder keys(String... columns) {
+            keyColumns = columns;
 
             return this;
         }
 
         public Builder columns(String... columns) {
-            // Join all the values with a comma deliminator and surround with ()
-            String columnsJoined = " (" + String.join(",", columns) + ")";
-            statement += columnsJoined;
+            insertColumns = columns;
 
             return this;
         }
 
         public Builder values(String... values) {
-            String valuesJoined = "('" + String.join("','", values) + "')";
-
-            statement += " VALUES " + valuesJoined;
+            insertValues = values;
 
             return this;
         }
@@ -331,7 +412,28 @@ public class SqlQuery {
             return this;
         }
 
+        public Builder limit(int limit, int offset) {
+            statement += dialect.limit(limit, offset);
+
+            return this;
+        }
+
         public SqlQuery build() {
+            if (insertTable != null) {
+                String[] keys = keyColumns != null ? keyColumns : new String[] {insertColumns[0]};
+                String insert;
+
+                if (append) {
+                    insert = dialect.insert(insertTable, insertColumns, insertValues);
+                } else if (upsert) {
+                    insert = dialect.upsert(insertTable, keys, insertColumns, insertValues);
+                } else {
+                    insert = dialect.insertIgnore(insertTable, keys, insertColumns, insertValues);
+                }
+
+                statement = insert + statement;
+            }
+
             return new SqlQuery(this);
         }
     }
@@ -0,0 +1,837 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.sql;
+
+import org.slf4j.Logger;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Writes mutations to the database in group commits.
+ *
+ * <p>Mutations of all callers are collected for a short commit window and then written in a single transaction, so a
+ * burst of balance, experience or level changes costs one commit instead of one per change. Repeated updates of the
+ * same column of a row within a window are collapsed, only the last value is written. A column can also be changed by
+ * an amount, which is added to the value in the database when it's written, so changes made by other servers sharing
+ * the database in the meantime are kept. The future returned for a mutation completes once the transaction containing
+ * it was committed.</p>
+ *
+ * <p>A transaction that fails because the database is unavailable, or because of a deadlock or serialization failure,
+ * is rolled back and its mutations are queued again, the writer keeps retrying them with a growing delay until they're
+ * committed. Any other failure is caused by the mutations themselves, so the window is written again one row at a time
+ * and only the futures of the rows that fail again complete exceptionally, the other rows are committed. Futures also
+ * complete exceptionally if the row to update doesn't exist, or if the writer is stopped while the database is still
+ * unavailable.</p>
+ *
+ * <p>Mutations that are waiting to be committed can be read with {@link #getPending(String, String, String)}, so
+ * callers see their own writes before they reach the database. Pending changes by an amount are read with
+ * {@link #getPendingChange(String, String, String)} and added to the value read from the database inside
+ * {@link #whileNotCommitting(Supplier)}, so a change is never missed or counted twice.</p>
+ *
+ * <p>With a commit window of zero every mutation is written immediately on the calling thread, and a failed write
+ * completes its future exceptionally right away.</p>
+ */
+public class SqlWriter {
+
+    private final SqlManager sqlManager;
+    private final Logger logger;
+    private final long commitWindow;
+
+    private static final long MAX_RETRY_DELAY = 5000;
+
+    private final Object lock = new Object();
+
+    // Mutations of the current window, guarded by the lock
+    private Map<Cell, PendingUpdate> pending = new LinkedHashMap<>();
+    private List<PendingInsert> pendingInserts = new ArrayList<>();
+
+    // Mutations that are currently being committed, guarded by the lock
+    private Map<Cell, PendingUpdate> inflight = new LinkedHashMap<>();
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+
+    /**
+     * @param sqlManager The sql manager of the database to write to
+     * @param logger Logger used to report failed commits
+     * @param commitWindow Time mutations are collected for before they're committed, in milliseconds
+     */
+    public SqlWriter(SqlManager sqlManager, Logger logger, long commitWindow) {
+        this.sqlManager = sqlManager;
+        this.logger = logger;
+        this.commitWindow = commitWindow;
+    }
+
+    /**
+     * Start the thread committing the collected mutations.
+     */
+    public void start() {
+        if (commitWindow <= 0 || running) {
+            return;
+        }
+
+        running = true;
+
+        thread = new Thread(this::run, "Total Economy - SQL Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the writer thread after committing all mutations that are still pending. Mutations submitted afterwards are
+     * written immediately.
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Catch mutations that were submitted while the thread was finishing, nothing retries them anymore
+        commit(false);
+    }
+
+    /**
+     * Commit the pending mutations right away instead of waiting for the commit window to end. If the commit fails the
+     * writer thread keeps retrying it.
+     *
+     * @return boolean Whether or not every pending mutation was committed
+     */
+    public boolean flush() {
+        return commit(running);
+    }
+
+    /**
+     * Set a column of a row. The row must already exist.
+     *
+     * @param table The table of the row
+     * @param keyColumn The column identifying the row
+     * @param key The value of the key column
+     * @param column The column to set
+     * @param value The new value of the column
+     * @return CompletableFuture Completed when the value was committed, or exceptionally if writing it failed
+     */
+    public CompletableFuture<Void> update(String table, String keyColumn, String key, String column, Object value) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        synchronized (lock) {
+            Cell cell = new Cell(table, keyColumn, key, column);
+            PendingUpdate update = pending.computeIfAbsent(cell, k -> new PendingUpdate());
+
+            update.value = value;
+            update.relative = false;
+            update.futures.add(future);
+
+            lock.notifyAll();
+        }
+
+        if (!running) {
+            commit(false);
+        }
+
+        return future;
+    }
+
+    /**
+     * Change a decimal column of a row by an amount. The amount is added to the value in the database when it's written,
+     * and to a value set within the same window. The row must already exist.
+     *
+     * @param table The table of the row
+     * @param keyColumn The column identifying the row
+     * @param key The value of the key column
+     * @param column The column to change
+     * @param amount The amount to add to the column, negative to subtract
+     * @return CompletableFuture Completed when the change was committed, or exceptionally if writing it failed
+     */
+    public CompletableFuture<Void> add(String table, String keyColumn, String key, String column, BigDecimal amount) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        synchronized (lock) {
+            Cell cell = new Cell(table, keyColumn, key, column);
+            PendingUpdate update = pending.get(cell);
+
+            if (update == null) {
+                update = new PendingUpdate();
+                update.value = amount;
+                update.relative = true;
+
+                pending.put(cell, update);
+            } else {
+                update.value = ((BigDecimal) update.value).add(amount);
+            }
+
+            update.futures.add(future);
+
+            lock.notifyAll();
+        }
+
+        if (!running) {
+            commit(false);
+        }
+
+        return future;
+    }
+
+    /**
+     * Append a row to a table, such as a log. Appended rows are never collapsed and are written after the updates of the
+     * same window.
+     *
+     * @param table The table to append to
+     * @param columns The columns to set
+     * @param values The values of the columns
+     * @return CompletableFuture Completed when the row was committed, or exceptionally if writing it failed
+     */
+    public CompletableFuture<Void> append(String table, String[] columns, Object... values) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        synchronized (lock) {
+            pendingInserts.add(new PendingInsert(table, null, columns, values, future));
+
+            lock.notifyAll();
+        }
+
+        if (!running) {
+            commit(false);
+        }
+
+        return future;
+    }
+
+    /**
+     * Set the columns of a row, inserting the row if it doesn't exist yet, such as an option of a player. Written with
+     * the appended rows of the same window, in the order they were submitted.
+     *
+     * @param table The table of the row
+     * @param keyColumns The columns identifying the row
+     * @param columns The columns to set, including the key columns
+     * @param values The values of the columns
+     * @return CompletableFuture Completed when the row was committed, or exceptionally if writing it failed
+     */
+    public CompletableFuture<Void> upsert(String table, String[] keyColumns, String[] columns, Object... values) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        synchronized (lock) {
+            pendingInserts.add(new PendingInsert(table, keyColumns, columns, values, future));
+
+            lock.notifyAll();
+        }
+
+        if (!running) {
+            commit(false);
+        }
+
+        return future;
+    }
+
+    /**
+     * Get the value of a column that was set but isn't committed yet.
+     *
+     * @param table The table of the row
+     * @param key The value of the key column
+     * @param column The column
+     * @return Optional The pending value, empty if no value is pending or the column is only changed by an amount
+     */
+    public Optional<Object> getPending(String table, String key, String column) {
+        synchronized (lock) {
+            PendingUpdate update = getPendingUpdate(table, key, column);
+
+            return update != null && !update.relative ? Optional.of(update.value) : Optional.empty();
+        }
+    }
+
+    /**
+     * Get the amount a column was changed by that isn't committed yet. It has to be added to the value read from the
+     * database, which must be read inside {@link #whileNotCommitting(Supplier)} together with the change.
+     *
+     * @param table The table of the row
+     * @param key The value of the key column
+     * @param column The column
+     * @return Optional The pending amount, empty if the column isn't changed by an amount
+     */
+    public Optional<BigDecimal> getPendingChange(String table, String key, String column) {
+        synchronized (lock) {
+            PendingUpdate update = getPendingUpdate(table, key, column);
+
+            return update != null && update.relative ? Optional.of((BigDecimal) update.value) : Optional.empty();
+        }
+    }
+
+    /**
+     * Run a read while no transaction is being committed, so the database and the pending mutations are read in the
+     * same state. Commits wait until the read finished.
+     *
+     * @param read The read
+     * @return T The result of the read
+     */
+    public synchronized <T> T whileNotCommitting(Supplier<T> read) {
+        return read.get();
+    }
+
+    /**
+     * Get the mutation of a column that isn't committed yet. Must hold the lock.
+     */
+    private PendingUpdate getPendingUpdate(String table, String key, String column) {
+        if (pending.isEmpty() && inflight.isEmpty()) {
+            return null;
+        }
+
+        Cell cell = new Cell(table, null, key, column);
+        PendingUpdate update = pending.get(cell);
+
+        return update != null ? update : inflight.get(cell);
+    }
+
+    /**
+     * Get the amount of mutations waiting to be committed.
+     *
+     * @return int The amount of pending mutations
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size() + pendingInserts.size() + inflight.size();
+        }
+    }
+
+    /**
+     * Get the amount of transactions committed since the writer was created.
+     *
+     * @return long The amount of commits
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Get the amount of rows updated or inserted by committed transactions since the writer was created.
+     *
+     * @return long The amount of written rows
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    private void run() {
+        long retryDelay = 0;
+
+        while (running) {
+            synchronized (lock) {
+                while (running && pending.isEmpty() && pendingInserts.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+
+            // Give other callers the rest of the window to add their mutations, or the database time to recover
+            try {
+                Thread.sleep(Math.max(commitWindow, retryDelay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (commit(true)) {
+                retryDelay = 0;
+            } else {
+                retryDelay = Math.min(Math.max(retryDelay * 2, commitWindow * 2), MAX_RETRY_DELAY);
+            }
+        }
+
+        commit(true);
+    }
+
+    /**
+     * Commit all pending mutations in a single transaction and complete their futures.
+     *
+     * @param retry Whether or not the mutations of a failed transaction are queued again, otherwise their futures are
+     *              completed exceptionally
+     * @return boolean Whether or not the transaction was committed
+     */
+    private synchronized boolean commit(boolean retry) {
+        Map<Cell, PendingUpdate> updates;
+        List<PendingInsert> inserts;
+
+        synchronized (lock) {
+            if (pending.isEmpty() && pendingInserts.isEmpty()) {
+                return true;
+            }
+
+            updates = pending;
+            inserts = pendingInserts;
+
+            // Updates stay readable until they're committed
+            inflight = updates;
+            pending = new LinkedHashMap<>();
+            pendingInserts = new ArrayList<>();
+        }
+
+        // Columns of the same row are written with a single statement
+        Map<Row, Map<String, PendingUpdate>> rows = new LinkedHashMap<>();
+
+        updates.forEach((cell, update) -> rows.computeIfAbsent(new Row(cell), k -> new LinkedHashMap<>()).put(cell.column, update));
+
+        List<Runnable> completions = new ArrayList<>();
+
+        try (Connection connection = sqlManager.dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                writeUpdates(connection, rows, completions);
+                writeInserts(connection, inserts, completions);
+
+                connection.commit();
+
+                commitCount.incrementAndGet();
+                writeCount.addAndGet(rows.size() + inserts.size());
+            } catch (SQLException e) {
+                connection.rollback();
+
+                if (isTransient(e)) {
+                    throw e;
+                }
+
+                logger.warn("An error occurred while committing " + (updates.size() + inserts.size()) + " database writes, they will be written one by one!");
+
+                return commitSeparately(connection, rows, inserts, retry);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            completions.forEach(Runnable::run);
+
+            return true;
+        } catch (SQLException e) {
+            if (retry) {
+                logger.warn("An error occurred while committing " + (updates.size() + inserts.size()) + " database writes, they will be retried!");
+
+                requeue(updates, inserts);
+            } else {
+                logger.error("An error occurred while committing " + (updates.size() + inserts.size()) + " database writes, they are lost!");
+
+                updates.values().forEach(update -> update.futures.forEach(future -> future.completeExceptionally(e)));
+                inserts.forEach(insert -> insert.future.completeExceptionally(e));
+            }
+
+            return false;
+        } finally {
+            synchronized (lock) {
+                inflight = new LinkedHashMap<>();
+            }
+        }
+    }
+
+    /**
+     * Write the mutations of a window whose transaction failed one row at a time, so a mutation that can't be written
+     * doesn't keep the others from being committed. Rows that fail because of the mutation complete their futures
+     * exceptionally, if the database becomes unavailable the rest is queued again.
+     *
+     * @param connection The connection, in auto commit mode once this is called
+     * @param rows The updated rows of the window
+     * @param inserts The inserts of the window
+     * @param retry Whether or not mutations are queued again if the database is unavailable, otherwise their futures are
+     *              completed exceptionally
+     * @return boolean Whether or not every mutation was either committed or failed
+     */
+    private boolean commitSeparately(Connection connection, Map<Row, Map<String, PendingUpdate>> rows, List<PendingInsert> inserts, boolean retry) {
+        Map<Cell, PendingUpdate> unavailableUpdates = new LinkedHashMap<>();
+        List<PendingInsert> unavailableInserts = new ArrayList<>();
+        SQLException unavailable = null;
+
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            unavailable = e;
+        }
+
+        for (Map.Entry<Row, Map<String, PendingUpdate>> entry : rows.entrySet()) {
+            Row row = entry.getKey();
+
+            if (unavailable == null) {
+                List<Runnable> completions = new ArrayList<>();
+
+                try {
+                    writeUpdates(connection, Collections.singletonMap(row, entry.getValue()), completions);
+
+                    commitCount.incrementAndGet();
+                    writeCount.incrementAndGet();
+                    completions.forEach(Runnable::run);
+
+                    continue;
+                } catch (SQLException e) {
+                    if (isTransient(e)) {
+                        unavailable = e;
+                    } else {
+                        logger.error("An error occurred while writing " + String.join(", ", entry.getValue().keySet()) + " of " + row.key + " in " + row.table + ", the write is lost!", e);
+
+                        entry.getValue().values().forEach(update -> update.futures.forEach(future -> future.completeExceptionally(e)));
+
+                        continue;
+                    }
+                }
+            }
+
+            entry.getValue().forEach((column, update) -> unavailableUpdates.put(new Cell(row.table, row.keyColumn, row.key, column), update));
+        }
+
+        for (PendingInsert insert : inserts) {
+            if (unavailable == null) {
+                List<Runnable> completions = new ArrayList<>();
+
+                try {
+                    writeInserts(connection, Collections.singletonList(insert), completions);
+
+                    commitCount.incrementAndGet();
+                    writeCount.incrementAndGet();
+                    completions.forEach(Runnable::run);
+
+                    continue;
+                } catch (SQLException e) {
+                    if (isTransient(e)) {
+                        unavailable = e;
+                    } else {
+                        logger.error("An error occurred while inserting into " + insert.table + ", the row is lost!", e);
+
+                        insert.future.completeExceptionally(e);
+
+                        continue;
+                    }
+                }
+            }
+
+            unavailableInserts.add(insert);
+        }
+
+        if (unavailable == null) {
+            return true;
+        }
+
+        if (retry) {
+            requeue(unavailableUpdates, unavailableInserts);
+        } else {
+            SQLException e = unavailable;
+
+            unavailableUpdates.values().forEach(update -> update.futures.forEach(future -> future.completeExceptionally(e)));
+            unavailableInserts.forEach(insert -> insert.future.completeExceptionally(e));
+        }
+
+        return false;
+    }
+
+    /**
+     * Determines if a failure may go away by itself, because the database is unavailable or the transaction lost a
+     * deadlock or a serialization conflict, so retrying the same mutations later can succeed.
+     *
+     * @param e The failure
+     * @return boolean Whether or not the failure is transient
+     */
+    static boolean isTransient(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException || cause instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+
+                // Connection exceptions, transaction rollbacks such as deadlocks, and timeouts
+                if (state != null && (state.startsWith("08") || state.startsWith("40") || state.equals("HYT00"))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Queue the mutations of a failed transaction again. A value set since then replaces the failed one, a change by an
+     * amount since then is applied on top of it. The futures of both complete once it's committed.
+     *
+     * @param updates The updates of the failed transaction
+     * @param inserts The inserts of the failed transaction
+     */
+    private void requeue(Map<Cell, PendingUpdate> updates, List<PendingInsert> inserts) {
+        synchronized (lock) {
+            updates.forEach((cell, update) -> {
+                PendingUpdate newer = pending.get(cell);
+
+                if (newer != null) {
+                    if (newer.relative) {
+                        newer.value = ((BigDecimal) update.value).add((BigDecimal) newer.value);
+                        newer.relative = update.relative;
+                    }
+
+                    newer.futures.addAll(0, update.futures);
+                } else {
+                    pending.put(cell, update);
+                }
+            });
+
+            pendingInserts.addAll(0, inserts);
+        }
+    }
+
+    private void writeUpdates(Connection connection, Map<Row, Map<String, PendingUpdate>> rows, List<Runnable> completions) throws SQLException {
+        // Rows setting the same columns share a statement and are written as one batch
+        Map<String, List<Map.Entry<Row, Map<String, PendingUpdate>>>> batches = new LinkedHashMap<>();
+
+        for (Map.Entry<Row, Map<String, PendingUpdate>> entry : rows.entrySet()) {
+            Row row = entry.getKey();
+            List<String> assignments = new ArrayList<>(entry.getValue().size());
+
+            entry.getValue().forEach((column, update) -> assignments.add(update.relative ? column + " = " + column + " + ?" : column + " = ?"));
+
+            String sql = "UPDATE " + row.table + " SET " + String.join(", ", assignments) + " WHERE " + row.keyColumn + " = ?";
+
+            batches.computeIfAbsent(sql, k -> new ArrayList<>()).add(entry);
+        }
+
+        for (Map.Entry<String, List<Map.Entry<Row, Map<String, PendingUpdate>>>> batch : batches.entrySet()) {
+            try (PreparedStatement statement = connection.prepareStatement(batch.getKey())) {
+                for (Map.Entry<Row, Map<String, PendingUpdate>> entry : batch.getValue()) {
+                    int index = 1;
+
+                    for (PendingUpdate update : entry.getValue().values()) {
+                        statement.setObject(index++, update.value);
+                    }
+
+                    statement.setString(index, entry.getKey().key);
+                    statement.addBatch();
+                }
+
+                int[] counts = statement.executeBatch();
+
+                for (int i = 0; i < batch.getValue().size(); i++) {
+                    Map.Entry<Row, Map<String, PendingUpdate>> entry = batch.getValue().get(i);
+                    boolean missing = i < counts.length && counts[i] == 0;
+
+                    for (PendingUpdate update : entry.getValue().values()) {
+                        for (CompletableFuture<Void> future : update.futures) {
+                            if (missing) {
+                                completions.add(() -> future.completeExceptionally(new SQLException("No row in " + entry.getKey().table + " with " + entry.getKey().keyColumn + " " + entry.getKey().key + "!")));
+                            } else {
+                                completions.add(() -> future.complete(null));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeInserts(Connection connection, List<PendingInsert> inserts, List<Runnable> completions) throws SQLException {
+        for (PendingInsert insert : inserts) {
+            // An upsert only inserts the row if updating it found none
+            if (insert.keyColumns != null && writeUpsert(connection, insert)) {
+                completions.add(() -> insert.future.complete(null));
+                continue;
+            }
+
+            String[] placeholders = new String[insert.values.length];
+            Arrays.fill(placeholders, "?");
+
+            String sql = "INSERT INTO " + insert.table + " (" + String.join(", ", insert.columns) + ") VALUES (" + String.join(", ", placeholders) + ")";
+
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < insert.values.length; i++) {
+                    statement.setObject(i + 1, insert.values[i]);
+                }
+
+                statement.executeUpdate();
+            }
+
+            completions.add(() -> insert.future.complete(null));
+        }
+    }
+
+    /**
+     * Update the row of an upsert.
+     *
+     * @param connection The connection
+     * @param upsert The upsert
+     * @return boolean Whether or not the row existed
+     * @throws SQLException Error updating the row
+     */
+    private boolean writeUpsert(Connection connection, PendingInsert upsert) throws SQLException {
+        List<String> keyColumns = Arrays.asList(upsert.keyColumns);
+        List<String> assignments = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        List<Object> keys = new ArrayList<>();
+
+        for (int i = 0; i < upsert.columns.length; i++) {
+            if (keyColumns.contains(upsert.columns[i])) {
+                conditions.add(upsert.columns[i] + " = ?");
+                keys.add(upsert.values[i]);
+            } else {
+                assignments.add(upsert.columns[i] + " = ?");
+                parameters.add(upsert.values[i]);
+            }
+        }
+
+        parameters.addAll(keys);
+
+        String sql = "UPDATE " + upsert.table + " SET " + String.join(", ", assignments) + " WHERE " + String.join(" AND ", conditions);
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+
+            return statement.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * A column of a row. The key column is not part of the identity, a table is always keyed by the same column.
+     */
+    private static class Cell {
+        private final String table;
+        private final String keyColumn;
+        private final String key;
+        private final String column;
+
+        private Cell(String table, String keyColumn, String key, String column) {
+            this.table = table;
+            this.keyColumn = keyColumn;
+            this.key = key;
+            this.column = column;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Cell)) {
+                return false;
+            }
+
+            Cell cell = (Cell) o;
+
+            return table.equals(cell.table) && key.equals(cell.key) && column.equals(cell.column);
+        }
+
+        @Override
+        public int hashCode() {
+            return (table.hashCode() * 31 + key.hashCode()) * 31 + column.hashCode();
+        }
+    }
+
+    private static class Row {
+        private final String table;
+        private final String keyColumn;
+        private final String key;
+
+        private Row(Cell cell) {
+            this.table = cell.table;
+            this.keyColumn = cell.keyColumn;
+            this.key = cell.key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Row)) {
+                return false;
+            }
+
+            Row row = (Row) o;
+
+            return table.equals(row.table) && key.equals(row.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return table.hashCode() * 31 + key.hashCode();
+        }
+    }
+
+    private static class PendingUpdate {
+        private Object value;
+
+        // Whether or not the value is an amount added to the column instead of its new value
+        private boolean relative = false;
+
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+    }
+
+    private static class PendingInsert {
+        private final String table;
+
+        // Columns identifying the row of an upsert, null for rows that are always inserted
+        private final String[] keyColumns;
+
+        private final String[] columns;
+        private final Object[] values;
+        private final CompletableFuture<Void> future;
+
+        private PendingInsert(String table, String[] keyColumns, String[] columns, Object[] values, CompletableFuture<Void> future) {
+            this.table = table;
+            this.keyColumns = keyColumns;
+            this.columns = columns;
+            this.values = values;
+            this.future = future;
+        }
+    }
+}
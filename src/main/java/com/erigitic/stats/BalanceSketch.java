@@ -0,0 +1,198 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.stats;
+
+/**
+ * Approximate distribution of balances with a fixed relative accuracy. Balances are counted in logarithmically sized
+ * buckets, so any quantile is estimated within about one percent of the real balance, while the memory used doesn't
+ * depend on the amount of accounts. Balances can be added as well as removed, and sketches can be merged by adding
+ * their counts.
+ */
+public class BalanceSketch {
+
+    // Ratio between the upper and lower bound of a bucket
+    private static final double GAMMA = 1.02;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    // Balances are stored with two decimals, so anything smaller than half a cent counts as zero
+    private static final double MIN_VALUE = 0.01;
+    private static final double ZERO_THRESHOLD = 0.005;
+
+    // Enough buckets to cover every balance a decimal(19,2) column can hold
+    private static final int BUCKET_COUNT = (int) Math.ceil(Math.log(1e17 / MIN_VALUE) / LOG_GAMMA) + 1;
+
+    private final long[] positiveCounts = new long[BUCKET_COUNT];
+    private final long[] negativeCounts = new long[BUCKET_COUNT];
+    private long zeroCount;
+    private long count;
+
+    /**
+     * Add a balance to the sketch.
+     *
+     * @param value The balance
+     */
+    public void add(double value) {
+        adjust(value, 1);
+    }
+
+    /**
+     * Remove a balance that was added before.
+     *
+     * @param value The balance
+     */
+    public void remove(double value) {
+        adjust(value, -1);
+    }
+
+    /**
+     * Add all balances of another sketch to this sketch.
+     *
+     * @param other The sketch to merge
+     */
+    public void merge(BalanceSketch other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            positiveCounts[i] += other.positiveCounts[i];
+            negativeCounts[i] += other.negativeCounts[i];
+        }
+
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    /**
+     * Get the amount of balances in the sketch.
+     *
+     * @return long The amount of balances
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimate a quantile of the balances.
+     *
+     * @param quantile The quantile between 0 and 1, for example 0.5 for the median
+     * @return double The estimated balance, or 0 if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (count <= 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.floor(Math.min(Math.max(quantile, 0), 1) * (count - 1));
+        long seen = 0;
+
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            seen += negativeCounts[i];
+
+            if (seen > rank) {
+                return -getBucketValue(i);
+            }
+        }
+
+        seen += zeroCount;
+
+        if (seen > rank) {
+            return 0;
+        }
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += positiveCounts[i];
+
+            if (seen > rank) {
+                return getBucketValue(i);
+            }
+        }
+
+        return getBucketValue(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Estimate the Gini coefficient of the balances, where 0 means every account holds the same balance and values
+     * approaching 1 mean a few accounts hold nearly all money. Negative balances are counted as zero.
+     *
+     * @return double The estimated Gini coefficient, or 0 if the sketch is empty
+     */
+    public double getGini() {
+        // Accounts sorted by balance, where every bucket is a run of accounts with the same balance
+        long rank = 1;
+        double weightedSum = 0;
+        double sum = 0;
+
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            rank += negativeCounts[i];
+        }
+
+        rank += zeroCount;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = positiveCounts[i];
+
+            if (bucketCount > 0) {
+                double value = getBucketValue(i);
+
+                weightedSum += value * (bucketCount * (double) rank + bucketCount * (bucketCount - 1) / 2.0);
+                sum += value * bucketCount;
+                rank += bucketCount;
+            }
+        }
+
+        if (count <= 0 || sum <= 0) {
+            return 0;
+        }
+
+        return Math.max((2 * weightedSum) / (count * sum) - (count + 1) / (double) count, 0);
+    }
+
+    private void adjust(double value, int delta) {
+        count += delta;
+
+        if (Math.abs(value) < ZERO_THRESHOLD) {
+            zeroCount += delta;
+        } else if (value > 0) {
+            positiveCounts[getBucketIndex(value)] += delta;
+        } else {
+            negativeCounts[getBucketIndex(-value)] += delta;
+        }
+    }
+
+    private static int getBucketIndex(double value) {
+        int index = (int) Math.ceil(Math.log(Math.max(value, MIN_VALUE) / MIN_VALUE) / LOG_GAMMA);
+
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Get the balance that represents a bucket, chosen so the relative error is the same for the lowest and highest
+     * balance within the bucket.
+     *
+     * @param index The index of the bucket
+     * @return double The representative balance
+     */
+    private static double getBucketValue(int index) {
+        return MIN_VALUE * 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+}
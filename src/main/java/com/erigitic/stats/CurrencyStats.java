@@ -0,0 +1,91 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.stats;
+
+import java.math.BigDecimal;
+
+/**
+ * Snapshot of the aggregated balances of a single currency.
+ */
+public final class CurrencyStats {
+
+    private final BigDecimal total;
+    private final long accountCount;
+    private final double median;
+    private final double gini;
+
+    public CurrencyStats(BigDecimal total, long accountCount, double median, double gini) {
+        this.total = total;
+        this.accountCount = accountCount;
+        this.median = median;
+        this.gini = gini;
+    }
+
+    /**
+     * Get the sum of all balances, which is the money supply of the currency.
+     *
+     * @return BigDecimal The sum of all balances
+     */
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * Get the mean balance.
+     *
+     * @return BigDecimal The mean balance, or zero if there are no accounts
+     */
+    public BigDecimal getMean() {
+        if (accountCount <= 0) {
+            return BigDecimal.ZERO;
+        }
+
+        return total.divide(BigDecimal.valueOf(accountCount), 2, BigDecimal.ROUND_HALF_UP);
+    }
+
+    /**
+     * Get the estimated median balance, accurate to about one percent.
+     *
+     * @return double The estimated median balance
+     */
+    public double getMedian() {
+        return median;
+    }
+
+    /**
+     * Get the estimated Gini coefficient of the balances, ranging from 0 for perfect equality to 1 when a single
+     * account holds all money.
+     *
+     * @return double The estimated Gini coefficient
+     */
+    public double getGini() {
+        return gini;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.stats;
+
+import com.erigitic.config.AccountManager;
+import com.erigitic.config.AccountSnapshot;
+import com.erigitic.config.TECurrency;
+import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.SqlManager;
+import com.erigitic.sql.SqlWriter;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.service.economy.Currency;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Economy wide aggregates of the balances of every account, kept per currency. The aggregates are built once by
+ * reading all accounts and are then updated on every balance change, so they can be read at any time without
+ * scanning the accounts again.
+ *
+ * <p>When several servers share a database, only the changes made by this server are applied. The aggregates are
+ * rebuilt on startup and on reload, which also picks up the changes of the other servers. Rebuilds read the primary
+ * database once the pending writes are committed, and changes recorded meanwhile are replayed on the rebuilt
+ * aggregates before they replace the old ones.</p>
+ */
+public class EconomyStats {
+
+    private final TotalEconomy totalEconomy;
+    private final AccountManager accountManager;
+    private final Logger logger;
+
+    // Currency id -> aggregate, replaced as a whole when rebuilt
+    private volatile Map<String, Aggregate> aggregates = new HashMap<>();
+
+    // Guards swapping the aggregates against recording a change, so a change is either buffered for the rebuilt
+    // aggregates or recorded after they replaced the old ones
+    private final Object rebuildLock = new Object();
+
+    // Changes recorded while the aggregates are rebuilt from the database, null if no rebuild is running
+    private List<Consumer<Map<String, Aggregate>>> rebuildChanges;
+
+    public EconomyStats(TotalEconomy totalEconomy, AccountManager accountManager, Logger logger) {
+        this.totalEconomy = totalEconomy;
+        this.accountManager = accountManager;
+        this.logger = logger;
+    }
+
+    /**
+     * Rebuild the aggregates from all accounts. In database mode the accounts are read asynchronously.
+     */
+    public void rebuild() {
+        if (totalEconomy.isDatabaseEnabled()) {
+            Sponge.getScheduler().createTaskBuilder()
+                    .async()
+                    .execute(this::rebuildFromDatabase)
+                    .name("Total Economy - Economy Stats Rebuild")
+                    .submit(totalEconomy);
+        } else {
+            rebuildFromConfig();
+        }
+    }
+
+    /**
+     * Record the balance of a newly created account.
+     *
+     * @param currency The currency of the balance
+     * @param balance The starting balance
+     */
+    public void recordAccount(Currency currency, BigDecimal balance) {
+        record(rebuilt -> {
+            Aggregate aggregate = rebuilt.get(currency.getId());
+
+            if (aggregate != null) {
+                aggregate.add(balance);
+            }
+        });
+    }
+
+    /**
+     * Record a change of the balance of an existing account.
+     *
+     * @param currency The currency of the balance
+     * @param oldBalance The balance before the change
+     * @param newBalance The balance after the change
+     */
+    public void recordChange(Currency currency, BigDecimal oldBalance, BigDecimal newBalance) {
+        record(rebuilt -> {
+            Aggregate aggregate = rebuilt.get(currency.getId());
+
+            if (aggregate != null) {
+                aggregate.change(oldBalance, newBalance);
+            }
+        });
+    }
+
+    /**
+     * Get a snapshot of the aggregated balances of a currency.
+     *
+     * @param currency The currency
+     * @return Optional The aggregates, empty if they aren't built yet
+     */
+    public Optional<CurrencyStats> getStats(Currency currency) {
+        Aggregate aggregate = aggregates.get(currency.getId());
+
+        return aggregate != null ? Optional.of(aggregate.snapshot()) : Optional.empty();
+    }
+
+    /**
+     * Estimate a quantile of the balances of a currency.
+     *
+     * @param currency The currency
+     * @param quantile The quantile between 0 and 1, for example 0.9 for the balance 90% of the accounts stay below
+     * @return Optional The estimated balance, empty if the aggregates aren't built yet
+     */
+    public Optional<Double> getQuantile(Currency currency, double quantile) {
+        Aggregate aggregate = aggregates.get(currency.getId());
+
+        return aggregate != null ? Optional.of(aggregate.getQuantile(quantile)) : Optional.empty();
+    }
+
+    private void record(Consumer<Map<String, Aggregate>> change) {
+        synchronized (rebuildLock) {
+            if (rebuildChanges != null) {
+                rebuildChanges.add(change);
+            }
+
+            change.accept(aggregates);
+        }
+    }
+
+    private Map<String, Aggregate> createAggregates() {
+        Map<String, Aggregate> rebuilt = new HashMap<>();
+
+        for (Currency currency : totalEconomy.getCurrencies()) {
+            rebuilt.put(currency.getId(), new Aggregate());
+        }
+
+        return rebuilt;
+    }
+
+    private void rebuildFromConfig() {
+        Map<String, Aggregate> rebuilt = createAggregates();
+
+        try (AccountSnapshot snapshot = accountManager.getAccountRecords().get().openSnapshot()) {
+            snapshot.forEach(record -> {
+                for (Currency currency : totalEconomy.getCurrencies()) {
+                    record.getBalance(currency).ifPresent(balance -> rebuilt.get(currency.getId()).add(balance));
+                }
+            });
+        }
+
+        aggregates = rebuilt;
+    }
+
+    private synchronized void rebuildFromDatabase() {
+        SqlManager sqlManager = totalEconomy.getSqlManager();
+        SqlWriter writer = sqlManager.getWriter();
+        Map<String, Aggregate> rebuilt = createAggregates();
+        StringBuilder columns = new StringBuilder();
+
+        for (Currency currency : totalEconomy.getCurrencies()) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+
+            columns.append(((TECurrency) currency).getName().toLowerCase()).append("_balance");
+        }
+
+        String query = "SELECT " + columns + " FROM accounts UNION ALL SELECT " + columns + " FROM virtual_accounts";
+
+        try (Connection connection = sqlManager.dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.setFetchSize(1000);
+
+            // Nothing is committed between the flush and the start of the query, so the query sees every change recorded
+            // before buffering started and none of the buffered ones
+            ResultSet result = writer.whileNotCommitting(() -> {
+                if (!writer.flush()) {
+                    return null;
+                }
+
+                synchronized (rebuildLock) {
+                    rebuildChanges = new ArrayList<>();
+                }
+
+                try {
+                    return statement.executeQuery(query);
+                } catch (SQLException e) {
+                    return null;
+                }
+            });
+
+            if (result == null) {
+                throw new SQLException("Error reading the balances of the accounts");
+            }
+
+            try (ResultSet set = result) {
+                while (set.next()) {
+                    int column = 1;
+
+                    for (Currency currency : totalEconomy.getCurrencies()) {
+                        BigDecimal balance = set.getBigDecimal(column++);
+
+                        if (balance != null) {
+                            rebuilt.get(currency.getId()).add(balance);
+                        }
+                    }
+                }
+            }
+
+            synchronized (rebuildLock) {
+                rebuildChanges.forEach(change -> change.accept(rebuilt));
+
+                aggregates = rebuilt;
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while building the economy statistics!");
+        } finally {
+            synchronized (rebuildLock) {
+                rebuildChanges = null;
+            }
+        }
+    }
+
+    /**
+     * Running aggregates of the balances of a single currency.
+     */
+    private static class Aggregate {
+        private final BalanceSketch sketch = new BalanceSketch();
+        private BigDecimal total = BigDecimal.ZERO;
+
+        private synchronized void add(BigDecimal balance) {
+            total = total.add(balance);
+            sketch.add(balance.doubleValue());
+        }
+
+        private synchronized void change(BigDecimal oldBalance, BigDecimal newBalance) {
+            total = total.add(newBalance).subtract(oldBalance);
+            sketch.remove(oldBalance.doubleValue());
+            sketch.add(newBalance.doubleValue());
+        }
+
+        private synchronized double getQuantile(double quantile) {
+            return sketch.getQuantile(quantile);
+        }
+
+        private synchronized CurrencyStats snapshot() {
+            return new CurrencyStats(total, sketch.getCount(), sketch.getQuantile(0.5), sketch.getGini());
+        }
+    }
+}
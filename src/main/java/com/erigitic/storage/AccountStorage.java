@@ -0,0 +1,247 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stores the data of unique and virtual accounts: balances, jobs, job levels and experience, notification states and
+ * user options.
+ *
+ * <p>Accounts are identified by the string form of a player's {@link java.util.UUID}, or by the identifier of a virtual
+ * account. Unique and virtual accounts are separate, the same identifier may exist as both. Currencies are identified by
+ * their storage name, see {@link com.erigitic.config.TECurrency#getStorageName(org.spongepowered.api.service.economy.Currency)}.</p>
+ *
+ * <p>Writes return a future that completes once the change is durable. Implementations may complete it later, but a
+ * read following a write must always return the written value. A write that is rejected right away, for example
+ * because the account doesn't exist, returns a future that is already completed exceptionally.</p>
+ *
+ * <p>Implementations must be safe to use from multiple threads. {@link AccountStorageTestKit} checks an implementation
+ * against this contract and measures its throughput.</p>
+ */
+public interface AccountStorage {
+
+    /**
+     * Get the name of the storage, used in logs and test reports.
+     *
+     * @return String The name
+     */
+    String getName();
+
+    /**
+     * Prepare the storage for use, for example by creating tables or loading files. Called once during the storage
+     * warmup, before any other method.
+     */
+    void load();
+
+    /**
+     * Reload data that may have been changed outside of the plugin.
+     */
+    void reload();
+
+    /**
+     * Write all changes that aren't durable yet.
+     */
+    void save();
+
+    /**
+     * Determines if an account exists.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @return boolean Whether or not the account exists
+     */
+    boolean hasAccount(String identifier, boolean virtual);
+
+    /**
+     * Create an account with the passed in balances, unless it already exists.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @param balances The starting balance of each currency
+     * @return boolean Whether or not the account was created by this call
+     */
+    boolean createAccount(String identifier, boolean virtual, Map<String, BigDecimal> balances);
+
+    /**
+     * Add the balances of currencies an existing account has no balance of yet.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @param balances The starting balance of each currency
+     * @return Map The balances that were added
+     */
+    Map<String, BigDecimal> addMissingBalances(String identifier, boolean virtual, Map<String, BigDecimal> balances);
+
+    /**
+     * Delete an account and all of its data.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @return boolean Whether or not the account existed
+     */
+    boolean deleteAccount(String identifier, boolean virtual);
+
+    /**
+     * Determines if an account has a balance of a currency.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @param currencyName The storage name of the currency
+     * @return boolean Whether or not the balance exists
+     */
+    boolean hasBalance(String identifier, boolean virtual, String currencyName);
+
+    /**
+     * Get the balance of a currency.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @param currencyName The storage name of the currency
+     * @return Optional The balance, empty if the account has no balance of the currency
+     */
+    Optional<BigDecimal> getBalance(String identifier, boolean virtual, String currencyName);
+
+    /**
+     * Set the balance of a currency. The account must exist.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @param currencyName The storage name of the currency
+     * @param balance The new balance
+     * @return CompletableFuture Completed when the balance is durable
+     */
+    CompletableFuture<Void> setBalance(String identifier, boolean virtual, String currencyName, BigDecimal balance);
+
+    /**
+     * Change the balance of a currency by an amount. Unlike setting the balance, changes made by other servers sharing
+     * the storage in the meantime are kept. The account must exist.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @param currencyName The storage name of the currency
+     * @param amount The amount to add to the balance, negative to subtract
+     * @return CompletableFuture Completed when the change is durable
+     */
+    CompletableFuture<Void> addBalance(String identifier, boolean virtual, String currencyName, BigDecimal amount);
+
+    /**
+     * Get the job of a unique account.
+     *
+     * @param identifier The identifier of the account
+     * @param latest Whether or not the read must see the latest writes, otherwise it may be served by a read replica
+     * @return Optional The lowercase name of the job, empty if the account doesn't exist
+     */
+    Optional<String> getJob(String identifier, boolean latest);
+
+    /**
+     * Set the job of a unique account. The level and experience of the job are kept.
+     *
+     * @param identifier The identifier of the account
+     * @param job The lowercase name of the job
+     * @return CompletableFuture Completed when the job is durable
+     */
+    CompletableFuture<Void> setJob(String identifier, String job);
+
+    /**
+     * Get the level of a job.
+     *
+     * @param identifier The identifier of the account
+     * @param job The lowercase name of the job
+     * @param latest Whether or not the read must see the latest writes, otherwise it may be served by a read replica
+     * @return Optional The level, empty if the account has no level of the job
+     */
+    Optional<Integer> getJobLevel(String identifier, String job, boolean latest);
+
+    /**
+     * Set the level of a job.
+     *
+     * @param identifier The identifier of the account
+     * @param job The lowercase name of the job
+     * @param level The new level
+     * @return CompletableFuture Completed when the level is durable
+     */
+    CompletableFuture<Void> setJobLevel(String identifier, String job, int level);
+
+    /**
+     * Get the experience of a job.
+     *
+     * @param identifier The identifier of the account
+     * @param job The lowercase name of the job
+     * @param latest Whether or not the read must see the latest writes, otherwise it may be served by a read replica
+     * @return Optional The experience, empty if the account has no experience of the job
+     */
+    Optional<Integer> getJobExp(String identifier, String job, boolean latest);
+
+    /**
+     * Set the experience of a job.
+     *
+     * @param identifier The identifier of the account
+     * @param job The lowercase name of the job
+     * @param exp The new experience
+     * @return CompletableFuture Completed when the experience is durable
+     */
+    CompletableFuture<Void> setJobExp(String identifier, String job, int exp);
+
+    /**
+     * Get whether or not a player receives job notifications.
+     *
+     * @param identifier The identifier of the account
+     * @return Optional The notification state, empty if the account doesn't exist
+     */
+    Optional<Boolean> getJobNotifications(String identifier);
+
+    /**
+     * Set whether or not a player receives job notifications.
+     *
+     * @param identifier The identifier of the account
+     * @param enabled The new notification state
+     * @return CompletableFuture Completed when the notification state is durable
+     */
+    CompletableFuture<Void> setJobNotifications(String identifier, boolean enabled);
+
+    /**
+     * Get a user option, such as a job debug option.
+     *
+     * @param identifier The identifier of the account
+     * @param option The key of the option
+     * @return Optional The value of the option
+     */
+    Optional<String> getUserOption(String identifier, String option);
+
+    /**
+     * Set a user option.
+     *
+     * @param identifier The identifier of the account
+     * @param option The key of the option
+     * @param value The new value of the option
+     * @return CompletableFuture Completed when the option is durable
+     */
+    CompletableFuture<Void> setUserOption(String identifier, String option, String value);
+}
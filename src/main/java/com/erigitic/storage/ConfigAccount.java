@@ -0,0 +1,166 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import com.erigitic.config.VersionedAccount;
+import ninja.leaping.configurate.ConfigurationNode;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The live data of an account stored in a configuration file. Balances and job progress are kept in arrays indexed by
+ * the slot of their currency or job, so an account takes a few hundred bytes instead of a tree of configuration nodes.
+ *
+ * <p>Only {@link ConfigAccountStorage} knows the slots, it converts accounts from and to configuration nodes when the
+ * files are loaded and saved. Accounts are changed from several threads, every access is synchronized on the
+ * account.</p>
+ *
+ * <p>Snapshots read the accounts directly, an account only keeps the versions it replaced while a snapshot is open that
+ * may need them.</p>
+ */
+final class ConfigAccount extends VersionedAccount {
+
+    private static final BigDecimal[] NO_BALANCES = new BigDecimal[0];
+    private static final int[] NO_PROGRESS = new int[0];
+
+    // Marks a job level or experience that isn't set
+    private static final int ABSENT = Integer.MIN_VALUE;
+
+    private static final byte NOTIFICATIONS_SET = 1;
+    private static final byte NOTIFICATIONS_ENABLED = 2;
+
+    private BigDecimal[] balances = NO_BALANCES;
+    private String job;
+
+    // The level and experience of each job slot, level first
+    private int[] jobProgress = NO_PROGRESS;
+    private byte flags;
+
+    // Rarely used, only created when needed
+    private Map<String, String> options;
+    private ConfigurationNode unknown;
+
+    synchronized Optional<BigDecimal> getBalance(int slot) {
+        return slot >= 0 && slot < balances.length ? Optional.ofNullable(balances[slot]) : Optional.empty();
+    }
+
+    synchronized void setBalance(int slot, BigDecimal balance) {
+        if (slot >= balances.length) {
+            balances = Arrays.copyOf(balances, slot + 1);
+        }
+
+        balances[slot] = balance;
+    }
+
+    synchronized int getBalanceSlots() {
+        return balances.length;
+    }
+
+    synchronized Optional<String> getJob() {
+        return Optional.ofNullable(job);
+    }
+
+    synchronized void setJob(String job) {
+        this.job = job;
+    }
+
+    synchronized Optional<Integer> getJobLevel(int slot) {
+        return getProgress(slot * 2);
+    }
+
+    synchronized void setJobLevel(int slot, int level) {
+        setProgress(slot * 2, level);
+    }
+
+    synchronized Optional<Integer> getJobExp(int slot) {
+        return getProgress(slot * 2 + 1);
+    }
+
+    synchronized void setJobExp(int slot, int exp) {
+        setProgress(slot * 2 + 1, exp);
+    }
+
+    synchronized int getJobSlots() {
+        return jobProgress.length / 2;
+    }
+
+    synchronized Optional<Boolean> getJobNotifications() {
+        return (flags & NOTIFICATIONS_SET) != 0 ? Optional.of((flags & NOTIFICATIONS_ENABLED) != 0) : Optional.empty();
+    }
+
+    synchronized void setJobNotifications(boolean enabled) {
+        flags = (byte) (NOTIFICATIONS_SET | (enabled ? NOTIFICATIONS_ENABLED : 0));
+    }
+
+    synchronized Optional<String> getOption(String option) {
+        return options != null ? Optional.ofNullable(options.get(option)) : Optional.empty();
+    }
+
+    synchronized void setOption(String option, String value) {
+        if (options == null) {
+            options = new HashMap<>(4);
+        }
+
+        options.put(option, value);
+    }
+
+    synchronized Map<String, String> getOptions() {
+        return options != null ? new HashMap<>(options) : new HashMap<>();
+    }
+
+    /**
+     * Get the values of the configuration file this account doesn't know, which are written back unchanged.
+     *
+     * @return ConfigurationNode The unknown values, null if there are none
+     */
+    synchronized ConfigurationNode getUnknown() {
+        return unknown;
+    }
+
+    synchronized void setUnknown(ConfigurationNode unknown) {
+        this.unknown = unknown;
+    }
+
+    private Optional<Integer> getProgress(int index) {
+        return index < jobProgress.length && jobProgress[index] != ABSENT ? Optional.of(jobProgress[index]) : Optional.empty();
+    }
+
+    private void setProgress(int index, int value) {
+        if (index >= jobProgress.length) {
+            int oldLength = jobProgress.length;
+
+            // Always grown by whole jobs
+            jobProgress = Arrays.copyOf(jobProgress, (index / 2 + 1) * 2);
+            Arrays.fill(jobProgress, oldLength, jobProgress.length, ABSENT);
+        }
+
+        jobProgress[index] = value;
+    }
+}
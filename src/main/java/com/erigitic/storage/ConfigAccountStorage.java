@@ -0,0 +1,799 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import com.erigitic.config.AccountManager;
+import com.erigitic.config.AccountRecord;
+import com.erigitic.config.AccountRecords;
+import com.erigitic.config.VersionedAccount;
+import com.erigitic.config.VirtualAccountStore;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
+import ninja.leaping.configurate.loader.ConfigurationLoader;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Stores unique accounts in the accounts configuration file and virtual accounts in the virtual accounts configuration
+ * file, which is indexed by the {@link VirtualAccountStore}. Changes of balances and jobs are versioned by the
+ * {@link AccountRecords}, whose snapshots read the accounts for balance top and the economy statistics.
+ *
+ * <p>While the server runs the accounts are held as compact {@link ConfigAccount}s, the configuration nodes only exist
+ * while the files are read or written. Changes are written to the files when a save is requested, or by the autosave if
+ * a save interval is configured. The autosave copies the accounts a slice at a time on the main thread and writes the
+ * files in the background, see {@link #startSave()}.</p>
+ */
+public class ConfigAccountStorage implements AccountStorage {
+
+    // Accounts copied per step of an autosave, so a step takes well below a millisecond
+    private static final int SAVE_SLICE_SIZE = 100;
+
+    private final File accountsFile;
+    private final VirtualAccountStore virtualAccountStore;
+    private final AccountRecords accountRecords;
+    private final boolean jobNotifications;
+    private final boolean autosave;
+    private final Logger logger;
+
+    private ConfigurationLoader<CommentedConfigurationNode> loader;
+
+    // The values of the accounts file that aren't accounts, such as the content version
+    private volatile ConfigurationNode metadata = SimpleConfigurationNode.root();
+
+    private volatile Map<String, ConfigAccount> accounts = new ConcurrentHashMap<>();
+    private volatile Map<String, ConfigAccount> virtualAccounts = new ConcurrentHashMap<>();
+
+    // Names of the currencies and jobs to their index in the arrays of the accounts
+    private final SlotTable currencySlots = new SlotTable();
+    private final SlotTable jobSlots = new SlotTable();
+
+    private volatile boolean saveRequested = false;
+
+    // Saves are numbered when they start, so a slow autosave never overwrites the files written by a newer save
+    private final AtomicLong saveSequence = new AtomicLong();
+    private final Object fileLock = new Object();
+
+    // Number of the save that last wrote the files, guarded by fileLock
+    private long writtenSequence = 0;
+
+    /**
+     * @param configDir The directory of the configuration files
+     * @param virtualAccountStore The index of the virtual accounts
+     * @param accountRecords The account records that version the accounts
+     * @param jobNotifications The notification state of new unique accounts
+     * @param autosave Whether or not requested saves are left to the autosave, otherwise they're written right away
+     * @param logger The logger
+     */
+    public ConfigAccountStorage(File configDir, VirtualAccountStore virtualAccountStore, AccountRecords accountRecords, boolean jobNotifications,
+                                boolean autosave, Logger logger) {
+        this.accountsFile = new File(configDir, "accounts.conf");
+        this.virtualAccountStore = virtualAccountStore;
+        this.accountRecords = accountRecords;
+        this.jobNotifications = jobNotifications;
+        this.autosave = autosave;
+        this.logger = logger;
+
+        loader = HoconConfigurationLoader.builder().setFile(accountsFile).build();
+        accountRecords.setSource(new RecordSource());
+    }
+
+    @Override
+    public String getName() {
+        return "config";
+    }
+
+    /**
+     * Load the accounts configuration file, migrating it if necessary, and the virtual accounts.
+     */
+    @Override
+    public void load() {
+        ConfigurationNode accountConfig;
+
+        try {
+            accountConfig = loader.load();
+
+            if (!accountsFile.exists()) {
+                loader.save(accountConfig);
+            } else {
+                if (accountConfig.getNode("version").getInt(0) != AccountManager.CONTENT_VERSION) {
+                    accountConfig.getChildrenMap().entrySet().parallelStream().forEach(nodeEntry -> {
+                        ConfigurationNode accountNode = nodeEntry.getValue();
+
+                        accountNode.getNode("jobstats").getChildrenMap().entrySet().parallelStream().forEach(jobNodeEntry -> {
+                            ConfigurationNode jobNode = jobNodeEntry.getValue();
+                            ConfigurationNode expNode = jobNode.getNode("exp");
+
+                            int exp = expNode.getInt(0);
+                            int level = jobNode.getNode("level").getInt(0);
+
+                            expNode.setValue((int) (exp + (((Math.pow(level, 2) + level) / 2) * 100 - (level * 100))));
+
+                            try {
+                                loader.save(accountConfig);
+                            } catch (IOException e) {
+                                logger.warn("Error migrating account experience values!");
+                            }
+                        });
+                    });
+
+                    accountConfig.getNode("version").setValue(AccountManager.CONTENT_VERSION);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Error creating accounts configuration file!");
+            accountConfig = loader.createEmptyNode();
+        }
+
+        int nodeCount = accountConfig.getChildrenMap().size();
+        ConfigurationNode virtualConfig = virtualAccountStore.load(accountConfig);
+
+        readAccounts(accountConfig, virtualConfig);
+
+        // Virtual accounts were moved out of the accounts file
+        if (accountConfig.getChildrenMap().size() != nodeCount) {
+            save();
+        }
+    }
+
+    @Override
+    public void reload() {
+        // Autosaves still copying or writing the old accounts must not overwrite the reloaded files
+        synchronized (fileLock) {
+            writtenSequence = saveSequence.incrementAndGet();
+        }
+
+        try {
+            ConfigurationNode accountConfig = loader.load();
+
+            readAccounts(accountConfig, virtualAccountStore.reload());
+            logger.info("Reloading account configuration file.");
+        } catch (IOException e) {
+            logger.warn("An error occurred while reloading the account configuration file!");
+        }
+    }
+
+    /**
+     * Save the account and virtual account configuration files.
+     */
+    @Override
+    public void save() {
+        saveRequested = false;
+
+        long sequence = saveSequence.incrementAndGet();
+        ConfigurationNode virtualConfig = virtualAccountStore.createConfig();
+
+        virtualAccounts.forEach((identifier, account) -> writeAccount(account, virtualConfig.getNode(identifier)));
+        writeFiles(sequence, writeAccounts(), virtualConfig);
+    }
+
+    /**
+     * Request for the configuration files to be saved, either by the next autosave or right away.
+     */
+    public void requestSave() {
+        if (autosave) {
+            saveRequested = true;
+        } else {
+            save();
+        }
+    }
+
+    /**
+     * Start saving the configuration files if a save was requested since the last save. Used by the autosave, which
+     * copies the accounts with {@link SlicedSave#copySlice()} on the main thread and then writes the files with
+     * {@link SlicedSave#write()} in the background.
+     *
+     * @return Optional The save, empty if no save was requested
+     */
+    public Optional<SlicedSave> startSave() {
+        if (!saveRequested) {
+            return Optional.empty();
+        }
+
+        // Changes made while the accounts are copied request the next save
+        saveRequested = false;
+
+        return Optional.of(new SlicedSave());
+    }
+
+    /**
+     * Get the values of the accounts configuration file that aren't accounts, such as the content version and the
+     * progress of balance policies. Changes are saved with the accounts.
+     *
+     * @return ConfigurationNode The values
+     */
+    public ConfigurationNode getAccountConfig() {
+        return metadata;
+    }
+
+    /**
+     * Get the loader of the account configuration file.
+     *
+     * @return ConfigurationLoader The configuration loader
+     */
+    public ConfigurationLoader<CommentedConfigurationNode> getLoader() {
+        return loader;
+    }
+
+    /**
+     * Change the balance of a unique account without requesting a save, for bulk changes that request a single save
+     * once they're done.
+     *
+     * @param identifier The identifier of the account
+     * @param currencyName The storage name of the currency
+     * @param update Returns the new balance for the current one, or null to leave it unchanged
+     * @return Optional The change of the balance, empty if the account has no balance of the currency or it wasn't changed
+     */
+    public Optional<BigDecimal> changeBalance(String identifier, String currencyName, UnaryOperator<BigDecimal> update) {
+        ConfigAccount account = accounts.get(identifier);
+
+        if (account == null) {
+            return Optional.empty();
+        }
+
+        int slot = currencySlots.getSlot(currencyName);
+        BigDecimal change;
+
+        synchronized (account) {
+            Optional<BigDecimal> balanceOpt = account.getBalance(slot);
+            BigDecimal newBalance = balanceOpt.isPresent() ? update.apply(balanceOpt.get()) : null;
+
+            if (newBalance == null) {
+                return Optional.empty();
+            }
+
+            accountRecords.change(identifier, false, account);
+            account.setBalance(slot, newBalance);
+
+            change = newBalance.subtract(balanceOpt.get());
+        }
+
+        return Optional.of(change);
+    }
+
+    @Override
+    public boolean hasAccount(String identifier, boolean virtual) {
+        return getAccounts(virtual).containsKey(identifier);
+    }
+
+    @Override
+    public boolean createAccount(String identifier, boolean virtual, Map<String, BigDecimal> balances) {
+        ConfigAccount account = new ConfigAccount();
+
+        balances.forEach((currencyName, balance) -> account.setBalance(currencySlots.getSlot(currencyName), balance));
+
+        if (!virtual) {
+            account.setJob("unemployed");
+            account.setJobNotifications(jobNotifications);
+        }
+
+        accountRecords.register(account);
+
+        if (getAccounts(virtual).putIfAbsent(identifier, account) != null) {
+            return false;
+        }
+
+        if (virtual) {
+            virtualAccountStore.register(identifier);
+        }
+
+        requestSave();
+
+        return true;
+    }
+
+    @Override
+    public Map<String, BigDecimal> addMissingBalances(String identifier, boolean virtual, Map<String, BigDecimal> balances) {
+        Map<String, BigDecimal> added = new LinkedHashMap<>();
+        ConfigAccount account = getOrCreateAccount(identifier, virtual);
+
+        synchronized (account) {
+            balances.forEach((currencyName, balance) -> {
+                int slot = currencySlots.getSlot(currencyName);
+
+                if (!account.getBalance(slot).isPresent()) {
+                    if (added.isEmpty()) {
+                        accountRecords.change(identifier, virtual, account);
+                    }
+
+                    account.setBalance(slot, balance);
+                    added.put(currencyName, balance);
+                }
+            });
+        }
+
+        if (!added.isEmpty()) {
+            requestSave();
+        }
+
+        return added;
+    }
+
+    @Override
+    public boolean deleteAccount(String identifier, boolean virtual) {
+        if (getAccounts(virtual).remove(identifier) == null) {
+            return false;
+        }
+
+        if (virtual) {
+            virtualAccountStore.unregister(identifier);
+        }
+
+        requestSave();
+
+        return true;
+    }
+
+    @Override
+    public boolean hasBalance(String identifier, boolean virtual, String currencyName) {
+        return getBalance(identifier, virtual, currencyName).isPresent();
+    }
+
+    @Override
+    public Optional<BigDecimal> getBalance(String identifier, boolean virtual, String currencyName) {
+        ConfigAccount account = getAccounts(virtual).get(identifier);
+
+        return account != null ? account.getBalance(currencySlots.getSlot(currencyName)) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> setBalance(String identifier, boolean virtual, String currencyName, BigDecimal balance) {
+        ConfigAccount account = getOrCreateAccount(identifier, virtual);
+        int slot = currencySlots.getSlot(currencyName);
+
+        // Versioned while the account is locked, so a snapshot sees either the whole change or none of it
+        synchronized (account) {
+            accountRecords.change(identifier, virtual, account);
+            account.setBalance(slot, balance);
+        }
+
+        requestSave();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * The accounts are only used by this server, so the change is applied to the balance it holds.
+     */
+    @Override
+    public CompletableFuture<Void> addBalance(String identifier, boolean virtual, String currencyName, BigDecimal amount) {
+        ConfigAccount account = getOrCreateAccount(identifier, virtual);
+        int slot = currencySlots.getSlot(currencyName);
+
+        synchronized (account) {
+            accountRecords.change(identifier, virtual, account);
+            account.setBalance(slot, account.getBalance(slot).orElse(BigDecimal.ZERO).add(amount));
+        }
+
+        requestSave();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Optional<String> getJob(String identifier, boolean latest) {
+        ConfigAccount account = accounts.get(identifier);
+
+        return account != null ? account.getJob() : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> setJob(String identifier, String job) {
+        ConfigAccount account = getOrCreateAccount(identifier, false);
+        int slot = jobSlots.getSlot(job);
+
+        synchronized (account) {
+            accountRecords.change(identifier, false, account);
+            account.setJob(job);
+            account.setJobLevel(slot, account.getJobLevel(slot).orElse(1));
+            account.setJobExp(slot, account.getJobExp(slot).orElse(0));
+        }
+
+        requestSave();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Optional<Integer> getJobLevel(String identifier, String job, boolean latest) {
+        ConfigAccount account = accounts.get(identifier);
+
+        return account != null ? account.getJobLevel(jobSlots.getSlot(job)) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> setJobLevel(String identifier, String job, int level) {
+        ConfigAccount account = getOrCreateAccount(identifier, false);
+        int slot = jobSlots.getSlot(job);
+
+        synchronized (account) {
+            account.setJobLevel(slot, level);
+        }
+
+        requestSave();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Optional<Integer> getJobExp(String identifier, String job, boolean latest) {
+        ConfigAccount account = accounts.get(identifier);
+
+        return account != null ? account.getJobExp(jobSlots.getSlot(job)) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> setJobExp(String identifier, String job, int exp) {
+        ConfigAccount account = getOrCreateAccount(identifier, false);
+        int slot = jobSlots.getSlot(job);
+
+        synchronized (account) {
+            account.setJobExp(slot, exp);
+        }
+
+        requestSave();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Optional<Boolean> getJobNotifications(String identifier) {
+        ConfigAccount account = accounts.get(identifier);
+
+        return account != null ? account.getJobNotifications() : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> setJobNotifications(String identifier, boolean enabled) {
+        ConfigAccount account = getOrCreateAccount(identifier, false);
+
+        synchronized (account) {
+            account.setJobNotifications(enabled);
+        }
+
+        requestSave();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Optional<String> getUserOption(String identifier, String option) {
+        ConfigAccount account = accounts.get(identifier);
+
+        return account != null ? account.getOption(option) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Void> setUserOption(String identifier, String option, String value) {
+        ConfigAccount account = getOrCreateAccount(identifier, false);
+
+        synchronized (account) {
+            account.setOption(option, value);
+        }
+
+        requestSave();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private Map<String, ConfigAccount> getAccounts(boolean virtual) {
+        return virtual ? virtualAccounts : accounts;
+    }
+
+    /**
+     * Get an account to write to. Like the configuration nodes accounts used to be, an account that doesn't exist is
+     * created without balances, which are added once the account is requested from the economy service.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @return ConfigAccount The account
+     */
+    private ConfigAccount getOrCreateAccount(String identifier, boolean virtual) {
+        return getAccounts(virtual).computeIfAbsent(identifier, key -> {
+            if (virtual) {
+                virtualAccountStore.register(identifier);
+            }
+
+            ConfigAccount account = new ConfigAccount();
+            accountRecords.register(account);
+
+            return account;
+        });
+    }
+
+    /**
+     * Replace the accounts with the ones in the configuration files. The nodes aren't kept, so they can be collected once
+     * the accounts were read. Snapshots opened before keep reading the replaced accounts.
+     *
+     * @param accountConfig The accounts configuration
+     * @param virtualConfig The virtual accounts configuration
+     */
+    private void readAccounts(ConfigurationNode accountConfig, ConfigurationNode virtualConfig) {
+        Map<String, ConfigAccount> loadedAccounts = new ConcurrentHashMap<>();
+        Map<String, ConfigAccount> loadedVirtualAccounts = new ConcurrentHashMap<>();
+        ConfigurationNode loadedMetadata = SimpleConfigurationNode.root();
+
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : accountConfig.getChildrenMap().entrySet()) {
+            String identifier = entry.getKey().toString();
+
+            if (isUniqueIdentifier(identifier)) {
+                loadedAccounts.put(identifier, readAccount(identifier, entry.getValue()));
+            } else {
+                loadedMetadata.getNode(entry.getKey()).setValue(entry.getValue().getValue());
+            }
+        }
+
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : virtualConfig.getChildrenMap().entrySet()) {
+            loadedVirtualAccounts.put(entry.getKey().toString(), readAccount(entry.getKey().toString(), entry.getValue()));
+        }
+
+        metadata = loadedMetadata;
+        accounts = loadedAccounts;
+        virtualAccounts = loadedVirtualAccounts;
+    }
+
+    private ConfigAccount readAccount(String identifier, ConfigurationNode accountNode) {
+        ConfigAccount account = new ConfigAccount();
+        ConfigurationNode unknown = SimpleConfigurationNode.root();
+
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : accountNode.getChildrenMap().entrySet()) {
+            String key = entry.getKey().toString();
+            ConfigurationNode node = entry.getValue();
+
+            if (key.endsWith("-balance")) {
+                try {
+                    account.setBalance(currencySlots.getSlot(key.substring(0, key.length() - "-balance".length())), new BigDecimal(node.getString()));
+                } catch (NumberFormatException | NullPointerException e) {
+                    logger.warn("Keeping invalid balance " + node.getString() + " of account " + identifier + " as it is!");
+                    unknown.getNode(key).setValue(node.getValue());
+                }
+            } else if (key.equals("job")) {
+                account.setJob(node.getString("unemployed").intern());
+            } else if (key.equals("jobnotifications")) {
+                account.setJobNotifications(node.getBoolean());
+            } else if (key.equals("jobstats")) {
+                readJobStats(account, node, unknown);
+            } else if (key.equals("options")) {
+                node.getChildrenMap().forEach((option, value) -> account.setOption(option.toString(), value.getString()));
+            } else {
+                unknown.getNode(key).setValue(node.getValue());
+            }
+        }
+
+        if (unknown.hasMapChildren()) {
+            account.setUnknown(unknown);
+        }
+
+        return account;
+    }
+
+    private void readJobStats(ConfigAccount account, ConfigurationNode jobStatsNode, ConfigurationNode unknown) {
+        for (Map.Entry<Object, ? extends ConfigurationNode> jobEntry : jobStatsNode.getChildrenMap().entrySet()) {
+            int slot = jobSlots.getSlot(jobEntry.getKey().toString());
+
+            for (Map.Entry<Object, ? extends ConfigurationNode> entry : jobEntry.getValue().getChildrenMap().entrySet()) {
+                String key = entry.getKey().toString();
+
+                if (key.equals("level")) {
+                    account.setJobLevel(slot, entry.getValue().getInt());
+                } else if (key.equals("exp")) {
+                    account.setJobExp(slot, entry.getValue().getInt());
+                } else {
+                    unknown.getNode("jobstats", jobEntry.getKey(), key).setValue(entry.getValue().getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the configuration files, unless a newer save has written them already.
+     *
+     * @param sequence The number of the save
+     * @param accountConfig The accounts configuration
+     * @param virtualConfig The virtual accounts configuration
+     */
+    private void writeFiles(long sequence, ConfigurationNode accountConfig, ConfigurationNode virtualConfig) {
+        synchronized (fileLock) {
+            if (sequence < writtenSequence) {
+                return;
+            }
+
+            writtenSequence = sequence;
+
+            try {
+                loader.save(accountConfig);
+            } catch (IOException e) {
+                logger.error("An error occurred while saving the account configuration file!");
+            }
+
+            virtualAccountStore.save(virtualConfig);
+        }
+    }
+
+    private ConfigurationNode writeAccounts() {
+        ConfigurationNode accountConfig = loader.createEmptyNode();
+
+        accountConfig.mergeValuesFrom(metadata);
+        accounts.forEach((identifier, account) -> writeAccount(account, accountConfig.getNode(identifier)));
+
+        return accountConfig;
+    }
+
+    private void writeAccount(ConfigAccount account, ConfigurationNode accountNode) {
+        synchronized (account) {
+            for (int slot = 0; slot < account.getBalanceSlots(); slot++) {
+                int balanceSlot = slot;
+
+                account.getBalance(slot).ifPresent(balance -> accountNode.getNode(currencySlots.getName(balanceSlot) + "-balance").setValue(balance));
+            }
+
+            account.getJob().ifPresent(job -> accountNode.getNode("job").setValue(job));
+            account.getJobNotifications().ifPresent(enabled -> accountNode.getNode("jobnotifications").setValue(enabled));
+
+            for (int slot = 0; slot < account.getJobSlots(); slot++) {
+                String job = jobSlots.getName(slot);
+
+                account.getJobLevel(slot).ifPresent(level -> accountNode.getNode("jobstats", job, "level").setValue(level));
+                account.getJobExp(slot).ifPresent(exp -> accountNode.getNode("jobstats", job, "exp").setValue(exp));
+            }
+
+            account.getOptions().forEach((option, value) -> accountNode.getNode("options", option).setValue(value));
+
+            if (account.getUnknown() != null) {
+                accountNode.mergeValuesFrom(account.getUnknown());
+            }
+        }
+    }
+
+    private static boolean isUniqueIdentifier(String identifier) {
+        try {
+            UUID.fromString(identifier);
+            return true;
+        } catch (IllegalArgumentException e) {
+            // Not a player account
+            return false;
+        }
+    }
+
+    /**
+     * Assigns each currency or job name an index into the arrays of the accounts. Slots are never removed, so an index
+     * keeps its meaning while the server runs.
+     */
+    private static class SlotTable {
+
+        private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+        private final List<String> names = new CopyOnWriteArrayList<>();
+
+        int getSlot(String name) {
+            Integer slot = slots.get(name);
+
+            if (slot != null) {
+                return slot;
+            }
+
+            synchronized (this) {
+                return slots.computeIfAbsent(name, key -> {
+                    names.add(key);
+
+                    return names.size() - 1;
+                });
+            }
+        }
+
+        String getName(int slot) {
+            return names.get(slot);
+        }
+    }
+
+    /**
+     * Creates the records that snapshots read from the accounts.
+     */
+    private class RecordSource implements AccountRecords.Source {
+
+        @Override
+        public Map<String, ConfigAccount> getAccounts(boolean virtual) {
+            return ConfigAccountStorage.this.getAccounts(virtual);
+        }
+
+        @Override
+        public AccountRecord createRecord(String identifier, boolean virtual, VersionedAccount versionedAccount) {
+            ConfigAccount account = (ConfigAccount) versionedAccount;
+            Map<String, BigDecimal> balances = new HashMap<>();
+
+            for (int slot = 0; slot < account.getBalanceSlots(); slot++) {
+                int balanceSlot = slot;
+
+                account.getBalance(slot).ifPresent(balance -> balances.put(currencySlots.getName(balanceSlot), balance));
+            }
+
+            String job = virtual ? null : account.getJob().orElse("unemployed");
+
+            return new AccountRecord(identifier, virtual, balances, job, account.getVersion());
+        }
+    }
+
+    /**
+     * A save of the configuration files that copies the accounts into configuration nodes a slice at a time. Accounts
+     * changed after they were copied requested another save, so their changes are written by the next one.
+     */
+    public class SlicedSave {
+        private final long sequence = saveSequence.incrementAndGet();
+        private final ConfigurationNode accountConfig = loader.createEmptyNode();
+        private final ConfigurationNode virtualConfig = virtualAccountStore.createConfig();
+        private final Iterator<Map.Entry<String, ConfigAccount>> accountIterator = accounts.entrySet().iterator();
+        private final Iterator<Map.Entry<String, ConfigAccount>> virtualIterator = virtualAccounts.entrySet().iterator();
+
+        private SlicedSave() {
+            accountConfig.mergeValuesFrom(metadata);
+        }
+
+        /**
+         * Copy the next slice of accounts.
+         *
+         * @return boolean Whether or not all accounts have been copied
+         */
+        public boolean copySlice() {
+            for (int i = 0; i < SAVE_SLICE_SIZE; i++) {
+                if (accountIterator.hasNext()) {
+                    Map.Entry<String, ConfigAccount> entry = accountIterator.next();
+
+                    writeAccount(entry.getValue(), accountConfig.getNode(entry.getKey()));
+                } else if (virtualIterator.hasNext()) {
+                    Map.Entry<String, ConfigAccount> entry = virtualIterator.next();
+
+                    writeAccount(entry.getValue(), virtualConfig.getNode(entry.getKey()));
+                } else {
+                    return true;
+                }
+            }
+
+            return !accountIterator.hasNext() && !virtualIterator.hasNext();
+        }
+
+        /**
+         * Write the copied accounts to the configuration files. Doesn't need to run on the main thread.
+         */
+        public void write() {
+            writeFiles(sequence, accountConfig, virtualConfig);
+        }
+    }
+}
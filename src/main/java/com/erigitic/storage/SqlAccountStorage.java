@@ -0,0 +1,645 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import com.erigitic.config.AccountCache;
+import com.erigitic.sql.SqlManager;
+import com.erigitic.sql.SqlQuery;
+import com.erigitic.sql.SqlWriter;
+import org.slf4j.Logger;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Stores accounts in the database. Writes go through the {@link SqlWriter}, so they're group committed and readable
+ * before they're committed. Balances of unique accounts are cached by the {@link AccountCache} if it's enabled.
+ */
+public class SqlAccountStorage implements AccountStorage {
+
+    // Jobs of the default jobs configuration, their columns are created with the tables
+    private static final String[] DEFAULT_JOBS = {"miner", "lumberjack", "warrior", "fisherman", "farmer"};
+
+    // Job names that can be used as a column name
+    private static final Pattern JOB_COLUMN = Pattern.compile("[a-z][a-z0-9_]{0,49}");
+
+    private final SqlManager sqlManager;
+    private final AccountCache accountCache;
+    private final Map<String, BigDecimal> startingBalances;
+    private final boolean jobNotifications;
+    private final Object plugin;
+    private final Logger logger;
+
+    // The job columns of the levels and experience tables
+    private final Map<String, Set<String>> jobColumns = new HashMap<>();
+
+    /**
+     * @param sqlManager The sql manager
+     * @param accountCache The cache of account balances, may be null
+     * @param startingBalances The starting balance of each currency, used as column defaults
+     * @param jobNotifications The notification state of new unique accounts
+     * @param plugin The plugin the tasks of the account cache are registered for
+     * @param logger The logger
+     */
+    public SqlAccountStorage(SqlManager sqlManager, AccountCache accountCache, Map<String, BigDecimal> startingBalances,
+                             boolean jobNotifications, Object plugin, Logger logger) {
+        this.sqlManager = sqlManager;
+        this.accountCache = accountCache;
+        this.startingBalances = startingBalances;
+        this.jobNotifications = jobNotifications;
+        this.plugin = plugin;
+        this.logger = logger;
+    }
+
+    @Override
+    public String getName() {
+        return "sql (" + sqlManager.getDialect().getId() + ")";
+    }
+
+    /**
+     * Create the tables that will contain the accounts and start the account cache.
+     */
+    @Override
+    public void load() {
+        String currencyCols = "";
+
+        for (Map.Entry<String, BigDecimal> entry : startingBalances.entrySet()) {
+            currencyCols += entry.getKey() + "_balance decimal(19,2) NOT NULL DEFAULT '" + entry.getValue() + "',";
+        }
+
+        sqlManager.createTable("accounts", "uid varchar(60) NOT NULL,"
+                + currencyCols
+                + "job varchar(50) NOT NULL DEFAULT 'Unemployed',"
+                + "job_notifications boolean NOT NULL DEFAULT TRUE,"
+                + "PRIMARY KEY (uid)"
+        );
+
+        sqlManager.createTable("virtual_accounts", "uid varchar(60) NOT NULL,"
+                + currencyCols
+                + "PRIMARY KEY (uid)"
+        );
+
+        String counterType = sqlManager.getDialect().unsignedIntType();
+        String levelCols = "";
+        String expCols = "";
+
+        for (String job : DEFAULT_JOBS) {
+            levelCols += job + " " + counterType + " NOT NULL DEFAULT '1',";
+            expCols += job + " " + counterType + " NOT NULL DEFAULT '0',";
+        }
+
+        sqlManager.createTable("levels", "uid varchar(60) NOT NULL,"
+                + levelCols
+                + "PRIMARY KEY (uid),"
+                + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE"
+        );
+
+        sqlManager.createTable("experience", "uid varchar(60) NOT NULL,"
+                + expCols
+                + "PRIMARY KEY (uid),"
+                + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE"
+        );
+
+        // Tables created by older versions have no primary key, which inserting only missing rows relies on
+        addPrimaryKey("levels");
+        addPrimaryKey("experience");
+
+        readJobColumns("levels");
+        readJobColumns("experience");
+
+        // Tables created by older versions lack the columns of newer default jobs
+        for (String job : DEFAULT_JOBS) {
+            hasJobColumn("levels", job, true);
+            hasJobColumn("experience", job, true);
+        }
+
+        sqlManager.createTable("user_options", "uid varchar(60) NOT NULL,"
+                + "option_key varchar(100) NOT NULL,"
+                + "option_value varchar(100) NOT NULL,"
+                + "PRIMARY KEY (uid, option_key)"
+        );
+
+        if (accountCache != null) {
+            accountCache.start(plugin);
+        }
+    }
+
+    @Override
+    public void reload() {
+        // Nothing is loaded into memory that could become stale, the account cache invalidates itself
+    }
+
+    @Override
+    public void save() {
+        sqlManager.getWriter().flush();
+    }
+
+    @Override
+    public boolean hasAccount(String identifier, boolean virtual) {
+        SqlQuery query = SqlQuery.builder(sqlManager)
+                .select("uid")
+                .from(getTable(virtual))
+                .where("uid")
+                .equals(identifier)
+                .build();
+
+        return query.recordExists();
+    }
+
+    @Override
+    public boolean createAccount(String identifier, boolean virtual, Map<String, BigDecimal> balances) {
+        List<String> columns = new ArrayList<>(balances.size() + 3);
+        List<String> values = new ArrayList<>(balances.size() + 3);
+
+        columns.add("uid");
+        values.add(identifier);
+
+        if (!virtual) {
+            columns.add("job");
+            values.add("unemployed");
+
+            columns.add("job_notifications");
+            values.add(String.valueOf(jobNotifications));
+        }
+
+        balances.forEach((currencyName, balance) -> {
+            columns.add(currencyName + "_balance");
+            values.add(balance.toString());
+        });
+
+        SqlQuery query = SqlQuery.builder(sqlManager).insert(getTable(virtual))
+                .columns(columns.toArray(new String[0]))
+                .values(values.toArray(new String[0]))
+                .build();
+
+        // Another server may have created the account in the meantime
+        if (query.getRowsAffected() <= 0) {
+            return false;
+        }
+
+        if (!virtual) {
+            SqlQuery.builder(sqlManager).insert("levels")
+                    .columns("uid")
+                    .values(identifier)
+                    .build();
+
+            SqlQuery.builder(sqlManager).insert("experience")
+                    .columns("uid")
+                    .values(identifier)
+                    .build();
+        }
+
+        return true;
+    }
+
+    /**
+     * Every account has a column for each currency, defaulting to its starting balance, so no balance is ever missing.
+     */
+    @Override
+    public Map<String, BigDecimal> addMissingBalances(String identifier, boolean virtual, Map<String, BigDecimal> balances) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean deleteAccount(String identifier, boolean virtual) {
+        // Pending writes of the account would fail once it's gone
+        sqlManager.getWriter().flush();
+
+        boolean deleted;
+
+        try (Connection connection = sqlManager.dataSource.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + getTable(virtual) + " WHERE uid = ?")) {
+                statement.setString(1, identifier);
+                deleted = statement.executeUpdate() > 0;
+            }
+
+            if (!virtual) {
+                try (PreparedStatement statement = connection.prepareStatement("DELETE FROM user_options WHERE uid = ?")) {
+                    statement.setString(1, identifier);
+                    statement.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while deleting the account " + identifier + "!");
+            return false;
+        }
+
+        if (!virtual && accountCache != null) {
+            accountCache.invalidate(identifier);
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public boolean hasBalance(String identifier, boolean virtual, String currencyName) {
+        if (!virtual && accountCache != null && accountCache.get(identifier, currencyName) != null) {
+            return true;
+        }
+
+        SqlQuery sqlQuery = SqlQuery.builder(sqlManager)
+                .select(currencyName + "_balance")
+                .from(getTable(virtual))
+                .where("uid")
+                .equals(identifier)
+                .build();
+
+        return sqlQuery.recordExists();
+    }
+
+    @Override
+    public Optional<BigDecimal> getBalance(String identifier, boolean virtual, String currencyName) {
+        if (virtual || accountCache == null) {
+            return readBalance(identifier, virtual, currencyName);
+        }
+
+        BigDecimal balance = accountCache.get(identifier, currencyName);
+
+        if (balance == null) {
+            long stamp = accountCache.getStamp();
+            Optional<BigDecimal> balanceOpt = readBalance(identifier, false, currencyName);
+
+            if (!balanceOpt.isPresent()) {
+                return Optional.empty();
+            }
+
+            balance = balanceOpt.get();
+            accountCache.put(identifier, currencyName, balance, stamp);
+        }
+
+        return Optional.of(balance);
+    }
+
+    /**
+     * Read a balance from the database. A balance that was set but isn't committed yet is taken from the sql writer.
+     *
+     * @param identifier The identifier of the account
+     * @param virtual Whether or not the account is a virtual account
+     * @param currencyName The storage name of the currency
+     * @return Optional The balance
+     */
+    private Optional<BigDecimal> readBalance(String identifier, boolean virtual, String currencyName) {
+        SqlWriter writer = sqlManager.getWriter();
+        String column = currencyName + "_balance";
+        Optional<Object> pending = writer.getPending(getTable(virtual), identifier, column);
+
+        if (pending.isPresent()) {
+            return Optional.of((BigDecimal) pending.get());
+        }
+
+        if (!writer.getPendingChange(getTable(virtual), identifier, column).isPresent()) {
+            return read(sqlManager.dataSource, getTable(virtual), column, identifier, set -> set.getBigDecimal(1));
+        }
+
+        // The balance was changed by an amount that isn't committed yet, which is added to the committed balance
+        return writer.whileNotCommitting(() -> {
+            Optional<BigDecimal> balance = read(sqlManager.dataSource, getTable(virtual), column, identifier, set -> set.getBigDecimal(1));
+            Optional<BigDecimal> change = writer.getPendingChange(getTable(virtual), identifier, column);
+
+            return change.isPresent() ? balance.map(change.get()::add) : balance;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> setBalance(String identifier, boolean virtual, String currencyName, BigDecimal balance) {
+        CompletableFuture<Void> write = sqlManager.getWriter().update(getTable(virtual), "uid", identifier, currencyName + "_balance", balance);
+
+        if (!virtual && accountCache != null && !write.isCompletedExceptionally()) {
+            // Committed with the next group commit, a failed commit drops the cached balance again
+            write.exceptionally(e -> {
+                accountCache.invalidate(identifier);
+
+                return null;
+            });
+
+            accountCache.update(identifier, currencyName, balance);
+        }
+
+        return write;
+    }
+
+    /**
+     * The amount is added to the balance in the database when it's written, so balance changes made by other servers
+     * sharing the database in the meantime aren't overwritten.
+     */
+    @Override
+    public CompletableFuture<Void> addBalance(String identifier, boolean virtual, String currencyName, BigDecimal amount) {
+        CompletableFuture<Void> write = sqlManager.getWriter().add(getTable(virtual), "uid", identifier, currencyName + "_balance", amount);
+
+        if (!virtual && accountCache != null && !write.isCompletedExceptionally()) {
+            write.exceptionally(e -> {
+                accountCache.invalidate(identifier);
+
+                return null;
+            });
+
+            accountCache.change(identifier, currencyName, amount);
+        }
+
+        return write;
+    }
+
+    @Override
+    public Optional<String> getJob(String identifier, boolean latest) {
+        Optional<Object> pending = sqlManager.getWriter().getPending("accounts", identifier, "job");
+
+        if (pending.isPresent()) {
+            return Optional.of((String) pending.get());
+        }
+
+        return read(getReadDataSource(latest), "accounts", "job", identifier, set -> set.getString(1));
+    }
+
+    @Override
+    public CompletableFuture<Void> setJob(String identifier, String job) {
+        return sqlManager.getWriter().update("accounts", "uid", identifier, "job", job);
+    }
+
+    @Override
+    public Optional<Integer> getJobLevel(String identifier, String job, boolean latest) {
+        return readCounter("levels", identifier, job, latest);
+    }
+
+    @Override
+    public CompletableFuture<Void> setJobLevel(String identifier, String job, int level) {
+        return writeCounter("levels", identifier, job, level);
+    }
+
+    @Override
+    public Optional<Integer> getJobExp(String identifier, String job, boolean latest) {
+        return readCounter("experience", identifier, job, latest);
+    }
+
+    @Override
+    public CompletableFuture<Void> setJobExp(String identifier, String job, int exp) {
+        return writeCounter("experience", identifier, job, exp);
+    }
+
+    /**
+     * Write the level or experience of a job. The column of a job that was added to the jobs configuration is created
+     * when the job is first written, a write for a job whose name can't be a column fails.
+     *
+     * @param table The levels or experience table
+     * @param identifier The identifier of the account
+     * @param job The name of the job
+     * @param value The level or experience
+     * @return CompletableFuture Completed when the value was committed, or exceptionally if writing it failed
+     */
+    private CompletableFuture<Void> writeCounter(String table, String identifier, String job, int value) {
+        if (!hasJobColumn(table, job, true)) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new SQLException("The job " + job + " has no column in " + table + "!"));
+
+            return future;
+        }
+
+        return sqlManager.getWriter().update(table, "uid", identifier, job, value);
+    }
+
+    /**
+     * Make the uid the primary key of the levels or experience table, unless it already is.
+     *
+     * @param table The table
+     */
+    private void addPrimaryKey(String table) {
+        try (Connection connection = sqlManager.dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+
+            // Databases store unquoted names in upper or lower case
+            for (String name : new String[] {table, table.toUpperCase(), table.toLowerCase()}) {
+                try (ResultSet set = metaData.getPrimaryKeys(null, null, name)) {
+                    if (set.next()) {
+                        return;
+                    }
+                }
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                // Rows without an account can't be read, they'd keep the column from becoming the key
+                statement.executeUpdate("DELETE FROM " + table + " WHERE uid IS NULL");
+                statement.execute(sqlManager.getDialect().setNotNull(table, "uid", "varchar(60)"));
+                statement.execute("ALTER TABLE " + table + " ADD PRIMARY KEY (uid)");
+            }
+
+            logger.info("Added the primary key of " + table + ".");
+        } catch (SQLException e) {
+            logger.warn("An error occurred while adding the primary key of " + table + "!");
+        }
+    }
+
+    /**
+     * Read the job columns of the levels or experience table.
+     *
+     * @param table The table
+     */
+    private void readJobColumns(String table) {
+        Set<String> columns = ConcurrentHashMap.newKeySet();
+
+        try (
+                Connection connection = sqlManager.dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement("SELECT * FROM " + table + " WHERE 1 = 0");
+                ResultSet set = statement.executeQuery()
+        ) {
+            ResultSetMetaData metaData = set.getMetaData();
+
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnName(i).toLowerCase());
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while reading the columns of " + table + "!");
+        }
+
+        columns.remove("uid");
+
+        synchronized (jobColumns) {
+            jobColumns.put(table, columns);
+        }
+    }
+
+    /**
+     * Determines if the levels or experience table has a column for a job.
+     *
+     * @param table The table
+     * @param job The name of the job
+     * @param create Whether or not a missing column is created
+     * @return boolean Whether or not the column exists
+     */
+    private boolean hasJobColumn(String table, String job, boolean create) {
+        Set<String> columns;
+
+        synchronized (jobColumns) {
+            columns = jobColumns.getOrDefault(table, Collections.emptySet());
+        }
+
+        if (columns.contains(job)) {
+            return true;
+        }
+
+        if (!create || !JOB_COLUMN.matcher(job).matches()) {
+            return false;
+        }
+
+        synchronized (jobColumns) {
+            if (columns.contains(job)) {
+                return true;
+            }
+
+            String sql = "ALTER TABLE " + table + " ADD COLUMN " + job + " " + sqlManager.getDialect().unsignedIntType()
+                    + " NOT NULL DEFAULT '" + (table.equals("levels") ? 1 : 0) + "'";
+
+            try (
+                    Connection connection = sqlManager.dataSource.getConnection();
+                    PreparedStatement statement = connection.prepareStatement(sql)
+            ) {
+                statement.execute();
+                columns.add(job);
+
+                logger.info("Added the column of the job " + job + " to " + table + ".");
+
+                return true;
+            } catch (SQLException e) {
+                logger.warn("An error occurred while adding the column of the job " + job + " to " + table + "!");
+
+                return false;
+            }
+        }
+    }
+
+    private Optional<Integer> readCounter(String table, String identifier, String job, boolean latest) {
+        if (!hasJobColumn(table, job, false)) {
+            return Optional.empty();
+        }
+
+        Optional<Object> pending = sqlManager.getWriter().getPending(table, identifier, job);
+
+        if (pending.isPresent()) {
+            return Optional.of((Integer) pending.get());
+        }
+
+        return read(getReadDataSource(latest), table, job, identifier, set -> set.getInt(1));
+    }
+
+    @Override
+    public Optional<Boolean> getJobNotifications(String identifier) {
+        Optional<Object> pending = sqlManager.getWriter().getPending("accounts", identifier, "job_notifications");
+
+        if (pending.isPresent()) {
+            return Optional.of((Boolean) pending.get());
+        }
+
+        return read(sqlManager.dataSource, "accounts", "job_notifications", identifier, set -> set.getBoolean(1));
+    }
+
+    @Override
+    public CompletableFuture<Void> setJobNotifications(String identifier, boolean enabled) {
+        return sqlManager.getWriter().update("accounts", "uid", identifier, "job_notifications", enabled);
+    }
+
+    @Override
+    public Optional<String> getUserOption(String identifier, String option) {
+        SqlQuery sqlQuery = SqlQuery.builder(sqlManager).select("option_value")
+                .from("user_options")
+                .where("uid")
+                .equals(identifier)
+                .and("option_key")
+                .equals(option)
+                .build();
+
+        return Optional.ofNullable(sqlQuery.getString(null));
+    }
+
+    @Override
+    public CompletableFuture<Void> setUserOption(String identifier, String option, String value) {
+        return sqlManager.getWriter().upsert("user_options", new String[] {"uid", "option_key"}, new String[] {"uid", "option_key", "option_value"}, identifier, option, value);
+    }
+
+    /**
+     * Get the data source to read from. Reads that must see the latest writes use the primary database, others may be
+     * served by a read replica.
+     *
+     * @param latest Whether or not the read must see the latest writes
+     * @return DataSource The data source to read from
+     */
+    private DataSource getReadDataSource(boolean latest) {
+        return latest ? sqlManager.dataSource : sqlManager.getReadDataSource();
+    }
+
+    private String getTable(boolean virtual) {
+        return virtual ? "virtual_accounts" : "accounts";
+    }
+
+    /**
+     * Read a column of the row of an account.
+     *
+     * @param dataSource The data source to read from
+     * @param table The table of the row
+     * @param column The column to read
+     * @param identifier The identifier of the account
+     * @param reader Reads the value of the column from the result set
+     * @return Optional The value, empty if the row doesn't exist or the column is null
+     */
+    private <T> Optional<T> read(DataSource dataSource, String table, String column, String identifier, ColumnReader<T> reader) {
+        try (
+                Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement("SELECT " + column + " FROM " + table + " WHERE uid = ?")
+        ) {
+            statement.setString(1, identifier);
+
+            try (ResultSet set = statement.executeQuery()) {
+                if (set.next()) {
+                    T value = reader.read(set);
+
+                    return set.wasNull() ? Optional.empty() : Optional.ofNullable(value);
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while reading " + table + "." + column + " of " + identifier + "!");
+        }
+
+        return Optional.empty();
+    }
+
+    private interface ColumnReader<T> {
+        T read(ResultSet set) throws SQLException;
+    }
+}
@@ -30,7 +30,6 @@ import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
-import org.apache.commons.lang3.text.StrSubstitutor;
 import org.slf4j.Logger;
 import org.spongepowered.api.asset.Asset;
 import org.spongepowered.api.text.Text;
@@ -38,9 +37,12 @@ import org.spongepowered.api.text.serializer.TextSerializers;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MessageManager {
 
@@ -49,6 +51,9 @@ public class MessageManager {
     private ConfigurationNode messagesConfig;
     private Locale locale;
 
+    // Message key -> parsed message
+    private final Map<String, MessageTemplate> templates = new ConcurrentHashMap<>();
+
     /**
      * Grabs a message from the messages_[lang].conf file and converts it to a usable String/Text object ready for printing. Colors
      * are changed, and value placeholders are changed to their corresponding values which are passed in.
@@ -89,9 +94,7 @@ public class MessageManager {
      * @return Text The deserialized message
      */
     public Text getMessage(String messageKey) {
-        String message = messagesConfig.getNode(messageKey).getString("Message not found (" + locale + "): " + messageKey);
-
-        return TextSerializers.FORMATTING_CODE.deserialize(message);
+        return getTemplate(messageKey).getText();
     }
 
     /**
@@ -102,9 +105,103 @@ public class MessageManager {
      * @return Text The deserialized message
      */
     public Text getMessage(String messageKey, Map<String, String> values) {
-        StrSubstitutor sub = new StrSubstitutor(values, "{", "}");
-        String message = sub.replace(messagesConfig.getNode(messageKey).getString("Message not found (" + locale + "): " + messageKey));
+        MessageTemplate template = getTemplate(messageKey);
+
+        if (template.placeholders.length == 0) {
+            return template.getText();
+        }
+
+        return TextSerializers.FORMATTING_CODE.deserialize(template.render(values));
+    }
+
+    /**
+     * Get the parsed message of a key. Messages don't change while the server is running, so every message is only
+     * looked up and parsed once.
+     *
+     * @param messageKey The key of the message
+     * @return MessageTemplate The parsed message
+     */
+    private MessageTemplate getTemplate(String messageKey) {
+        MessageTemplate template = templates.get(messageKey);
+
+        if (template == null) {
+            template = new MessageTemplate(messagesConfig.getNode(messageKey).getString("Message not found (" + locale + "): " + messageKey));
+            templates.put(messageKey, template);
+        }
+
+        return template;
+    }
+
+    /**
+     * A message split into literal text and value placeholders.
+     */
+    static class MessageTemplate {
+        private final String message;
+
+        // Literal text before each placeholder, followed by the literal text after the last placeholder
+        private final String[] literals;
+        private final String[] placeholders;
+
+        private Text text;
 
-        return TextSerializers.FORMATTING_CODE.deserialize(message);
+        MessageTemplate(String message) {
+            this.message = message;
+
+            List<String> literalList = new ArrayList<>();
+            List<String> placeholderList = new ArrayList<>();
+            int literalStart = 0;
+            int open = message.indexOf('{');
+
+            while (open >= 0) {
+                int close = message.indexOf('}', open + 1);
+
+                if (close < 0) {
+                    break;
+                }
+
+                literalList.add(message.substring(literalStart, open));
+                placeholderList.add(message.substring(open + 1, close));
+                literalStart = close + 1;
+                open = message.indexOf('{', literalStart);
+            }
+
+            literalList.add(message.substring(literalStart));
+
+            literals = literalList.toArray(new String[0]);
+            placeholders = placeholderList.toArray(new String[0]);
+        }
+
+        private Text getText() {
+            // Text is immutable, so the deserialized message can be shared. A race only deserializes it twice.
+            if (text == null) {
+                text = TextSerializers.FORMATTING_CODE.deserialize(message);
+            }
+
+            return text;
+        }
+
+        /**
+         * Replace the placeholders with their values. Placeholders without a value are kept as they are.
+         *
+         * @param values Map of placeholder names to values
+         * @return String The message with the values filled in
+         */
+        String render(Map<String, String> values) {
+            StringBuilder builder = new StringBuilder(message.length() + placeholders.length * 16);
+
+            for (int i = 0; i < placeholders.length; i++) {
+                builder.append(literals[i]);
+
+                String value = values.get(placeholders[i]);
+
+                if (value != null) {
+                    builder.append(value);
+                } else {
+                    builder.append('{').append(placeholders[i]).append('}');
+                }
+            }
+
+            return builder.append(literals[placeholders.length]).toString();
+        }
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how many bytes an operation allocates on the heap, so tests can keep hot paths within a budget. Operations
+ * are warmed up first, so the measurement reflects the compiled code a running server executes.
+ */
+public final class AllocationBudget {
+
+    private static final int WARMUP_RUNS = 20000;
+    private static final int MEASURED_RUNS = 10000;
+
+    private AllocationBudget() {
+    }
+
+    /**
+     * Assert that an operation allocates no more than a number of bytes per call on average. The test is skipped if the
+     * JVM can't measure allocations.
+     *
+     * @param name Name of the operation used in the failure message
+     * @param budget The maximum number of bytes per call
+     * @param operation The operation
+     */
+    public static void assertWithin(String name, long budget, Runnable operation) {
+        long allocated = measure(operation);
+
+        assertTrue(name + " allocated " + allocated + " bytes per call, the budget is " + budget + " bytes", allocated <= budget);
+    }
+
+    /**
+     * Measure the average number of bytes an operation allocates per call on the current thread.
+     *
+     * @param operation The operation
+     * @return long The allocated bytes per call
+     */
+    public static long measure(Runnable operation) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            operation.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            operation.run();
+        }
+
+        return (allocationBean.getThreadAllocatedBytes(threadId) - before) / MEASURED_RUNS;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import com.erigitic.sql.SqlDialect;
+import com.erigitic.sql.SqlManager;
+import com.erigitic.storage.SqlAccountStorage;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Two servers sharing one H2 database, each with its own account cache.
+ */
+public class AccountCacheTest {
+
+    private static final String CURRENCY = "dollar";
+    private static final Map<String, BigDecimal> STARTING_BALANCES = Collections.singletonMap(CURRENCY, new BigDecimal("10.00"));
+    private static final int DEPOSITS = 200;
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+
+    private AccountCache serverA;
+    private AccountCache serverB;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID());
+
+        // The in-memory database is dropped when its last connection is closed
+        keepAlive = dataSource.getConnection();
+
+        serverA = createCache(createSqlManager(0), "server-a");
+        serverB = createCache(createSqlManager(0), "server-b");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Test
+    public void changeOfOtherServerInvalidatesCachedBalance() {
+        serverA.put("player", CURRENCY, new BigDecimal("10.00"), serverA.getStamp());
+        serverB.update("player", CURRENCY, new BigDecimal("20.00"));
+
+        serverA.poll();
+
+        assertNull(serverA.get("player", CURRENCY));
+    }
+
+    @Test
+    public void ownChangeKeepsCachedBalance() {
+        serverB.update("player", CURRENCY, new BigDecimal("20.00"));
+
+        serverB.poll();
+
+        assertEquals(new BigDecimal("20.00"), serverB.get("player", CURRENCY));
+    }
+
+    @Test
+    public void changeCommittedOutOfOrderIsNotSkipped() throws SQLException {
+        serverA.put("early", CURRENCY, new BigDecimal("10.00"), serverA.getStamp());
+        serverA.put("late", CURRENCY, new BigDecimal("10.00"), serverA.getStamp());
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            // Gets the lower sequence number, but is committed after the change of the other account
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO account_changes (uid, server_id, changed_at) VALUES (?, ?, ?)")) {
+                statement.setString(1, "late");
+                statement.setString(2, "server-b");
+                statement.setLong(3, System.currentTimeMillis());
+                statement.executeUpdate();
+            }
+
+            serverB.update("early", CURRENCY, new BigDecimal("20.00"));
+            serverA.poll();
+
+            assertNull(serverA.get("early", CURRENCY));
+            assertEquals(new BigDecimal("10.00"), serverA.get("late", CURRENCY));
+
+            connection.commit();
+        }
+
+        serverA.poll();
+
+        assertNull(serverA.get("late", CURRENCY));
+    }
+
+    @Test
+    public void changeIsOnlyHandledOnce() {
+        serverB.update("player", CURRENCY, new BigDecimal("20.00"));
+        serverA.poll();
+
+        serverA.put("player", CURRENCY, new BigDecimal("20.00"), serverA.getStamp());
+        serverA.poll();
+
+        assertEquals(new BigDecimal("20.00"), serverA.get("player", CURRENCY));
+    }
+
+    @Test
+    public void bulkChangesInvalidateChangedAccounts() throws SQLException {
+        serverA.put("changed", CURRENCY, new BigDecimal("10.00"), serverA.getStamp());
+        serverA.put("unchanged", CURRENCY, new BigDecimal("10.00"), serverA.getStamp());
+
+        try (Connection connection = dataSource.getConnection()) {
+            serverB.recordChanges(connection, Arrays.asList("changed"));
+        }
+
+        serverA.poll();
+
+        assertNull(serverA.get("changed", CURRENCY));
+        assertEquals(new BigDecimal("10.00"), serverA.get("unchanged", CURRENCY));
+    }
+
+    @Test
+    public void concurrentDepositsOnBothServersAreKept() throws Exception {
+        // Creates the accounts table, the storages of the servers share it
+        new SqlAccountStorage(createSqlManager(0), null, STARTING_BALANCES, true, null, NOPLogger.NOP_LOGGER).load();
+
+        SqlManager sqlManagerA = createSqlManager(5);
+        SqlManager sqlManagerB = createSqlManager(5);
+        AccountCache cacheA = createCache(sqlManagerA, "server-a");
+        AccountCache cacheB = createCache(sqlManagerB, "server-b");
+        SqlAccountStorage storageA = new SqlAccountStorage(sqlManagerA, cacheA, STARTING_BALANCES, true, null, NOPLogger.NOP_LOGGER);
+        SqlAccountStorage storageB = new SqlAccountStorage(sqlManagerB, cacheB, STARTING_BALANCES, true, null, NOPLogger.NOP_LOGGER);
+
+        storageA.createAccount("player", false, STARTING_BALANCES);
+        sqlManagerA.getWriter().start();
+        sqlManagerB.getWriter().start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<?> depositsA = executor.submit(() -> deposit(storageA));
+            Future<?> depositsB = executor.submit(() -> deposit(storageB));
+
+            depositsA.get();
+            depositsB.get();
+        } finally {
+            executor.shutdown();
+            sqlManagerA.getWriter().stop();
+            sqlManagerB.getWriter().stop();
+        }
+
+        BigDecimal expected = new BigDecimal("10.00").add(BigDecimal.valueOf(2 * DEPOSITS));
+
+        cacheA.poll();
+        cacheB.poll();
+
+        assertEquals(Optional.of(expected), storageA.getBalance("player", false, CURRENCY));
+        assertEquals(Optional.of(expected), storageB.getBalance("player", false, CURRENCY));
+    }
+
+    /**
+     * Deposit one dollar at a time like an account does, reading the balance before changing it.
+     */
+    private void deposit(SqlAccountStorage storage) {
+        CompletableFuture<Void> write = CompletableFuture.completedFuture(null);
+
+        for (int i = 0; i < DEPOSITS; i++) {
+            storage.getBalance("player", false, CURRENCY);
+            write = storage.addBalance("player", false, CURRENCY, BigDecimal.ONE);
+        }
+
+        write.join();
+    }
+
+    private SqlManager createSqlManager(long commitWindow) {
+        return new SqlManager(dataSource, SqlDialect.H2, commitWindow, NOPLogger.NOP_LOGGER);
+    }
+
+    private AccountCache createCache(SqlManager sqlManager, String serverId) {
+        AccountCache cache = new AccountCache(sqlManager, NOPLogger.NOP_LOGGER, serverId, 1000, 100, 60000);
+
+        cache.createChangeLog();
+
+        return cache;
+    }
+}
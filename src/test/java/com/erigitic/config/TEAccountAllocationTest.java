@@ -0,0 +1,91 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.config;
+
+import com.erigitic.AllocationBudget;
+import com.erigitic.main.TestEconomy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.event.cause.EventContext;
+import org.spongepowered.api.service.economy.account.UniqueAccount;
+import org.spongepowered.api.service.economy.transaction.ResultType;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Allocation budgets of the balance changes made by commands, shops and jobs.
+ */
+public class TEAccountAllocationTest {
+
+    private TestEconomy economy;
+    private TECurrency currency;
+    private Cause cause;
+
+    private UniqueAccount sender;
+    private UniqueAccount receiver;
+
+    @Before
+    public void setUp() throws IOException {
+        economy = new TestEconomy().start();
+        currency = economy.getDefaultCurrency();
+        cause = Cause.of(EventContext.empty(), this);
+
+        sender = economy.getAccountManager().getOrCreateAccount(UUID.randomUUID()).get();
+        receiver = economy.getAccountManager().getOrCreateAccount(UUID.randomUUID()).get();
+
+        // Enough for every transfer of the test
+        sender.setBalance(currency, new BigDecimal("1000000.00"), cause);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        economy.stop();
+    }
+
+    @Test
+    public void depositStaysWithinBudget() {
+        assertEquals(ResultType.SUCCESS, receiver.deposit(currency, BigDecimal.ONE, cause).getResult());
+
+        AllocationBudget.assertWithin("Deposit", 2048, () -> receiver.deposit(currency, BigDecimal.ONE, cause));
+    }
+
+    @Test
+    public void transferStaysWithinBudget() {
+        int postedEvents = economy.getPostedEvents();
+
+        assertEquals(ResultType.SUCCESS, sender.transfer(receiver, currency, BigDecimal.ONE, cause).getResult());
+
+        // Only the transfer itself, its withdrawal and deposit would be recorded in the ledger a second time
+        assertEquals(postedEvents + 1, economy.getPostedEvents());
+
+        AllocationBudget.assertWithin("Transfer", 4096, () -> sender.transfer(receiver, currency, BigDecimal.ONE, cause));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.jobs;
+
+import com.erigitic.AllocationBudget;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.block.BlockType;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Allocation budget of looking up the reward of a broken block, which runs for every block a player breaks.
+ */
+public class JobIndexAllocationTest {
+
+    private static final String STONE = "minecraft:stone";
+
+    private JobIndex jobIndex;
+    private BlockState stone;
+
+    @Before
+    public void setUp() {
+        ConfigurationNode jobSetsConfig = SimpleConfigurationNode.root();
+        jobSetsConfig.getNode("sets", "miner", "break", STONE, "exp").setValue(5);
+        jobSetsConfig.getNode("sets", "miner", "break", STONE, "money").setValue(0.25);
+
+        ConfigurationNode jobsConfig = SimpleConfigurationNode.root();
+        jobsConfig.getNode("jobs", "miner", "salary").setValue(10);
+        jobsConfig.getNode("jobs", "miner", "sets").setValue(Collections.singletonList("miner"));
+
+        BlockType stoneType = (BlockType) Proxy.newProxyInstance(BlockType.class.getClassLoader(), new Class<?>[] {BlockType.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getId":
+                    return STONE;
+                case "getAllBlockStates":
+                    return Collections.singletonList(stone);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        stone = (BlockState) Proxy.newProxyInstance(BlockState.class.getClassLoader(), new Class<?>[] {BlockState.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getType")) {
+                return stoneType;
+            }
+
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        // Rewards are only looked up, the currency they pay out in doesn't matter
+        jobIndex = JobIndex.build(jobsConfig, jobSetsConfig, currencyId -> null,
+                id -> id.equals(STONE) ? Optional.of(stoneType) : Optional.empty(), NOPLogger.NOP_LOGGER);
+    }
+
+    @Test
+    public void breakRewardStaysWithinBudget() {
+        assertEquals(5, jobIndex.getBreakReward("miner", stone, false).get().getExpReward());
+
+        // Stone doesn't grow, so placed stone pays nothing
+        assertFalse(jobIndex.getBreakReward("miner", stone, true).isPresent());
+
+        AllocationBudget.assertWithin("Break reward lookup", 64, () -> jobIndex.getBreakReward("miner", stone, false));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.ledger;
+
+import com.erigitic.sql.SqlDialect;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Records entries in an in-memory H2 database and reads them back.
+ */
+public class TransactionLedgerTest {
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+    private TransactionLedger ledger;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID());
+
+        // The in-memory database is dropped when its last connection is closed
+        keepAlive = dataSource.getConnection();
+
+        ledger = new TransactionLedger(dataSource, () -> dataSource, SqlDialect.H2, NOPLogger.NOP_LOGGER);
+        ledger.start();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        ledger.stop();
+        keepAlive.close();
+    }
+
+    @Test
+    public void transferIsOneRowInTheHistoryOfBothAccounts() throws SQLException {
+        ledger.record(new LedgerEntry(1000, "sender", null, "totaleconomy:dollar", new BigDecimal("10.00"), "deposit", "SUCCESS"));
+        ledger.record(new LedgerEntry(2000, "sender", "receiver", "totaleconomy:dollar", new BigDecimal("4.00"), "transfer", "SUCCESS"));
+
+        // Writes the queued entries
+        ledger.stop();
+
+        assertEquals(2, countRows());
+
+        List<LedgerEntry> sent = ledger.getHistory("sender", 0, 10);
+        List<LedgerEntry> received = ledger.getHistory("receiver", 0, 10);
+
+        assertEquals(2, sent.size());
+        assertEquals("transfer", sent.get(0).getType());
+        assertEquals(1, received.size());
+        assertEquals("sender", received.get(0).getAccount());
+        assertEquals("receiver", received.get(0).getOtherAccount());
+    }
+
+    private int countRows() throws SQLException {
+        try (
+                Statement statement = keepAlive.createStatement();
+                ResultSet set = statement.executeQuery("SELECT COUNT(*) FROM transactions")
+        ) {
+            set.next();
+
+            return set.getInt(1);
+        }
+    }
+}
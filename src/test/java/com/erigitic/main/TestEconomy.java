@@ -0,0 +1,372 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.main;
+
+import com.erigitic.config.AccountCache;
+import com.erigitic.config.AccountManager;
+import com.erigitic.config.TECurrency;
+import com.erigitic.sql.SqlManager;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+import org.spongepowered.api.Game;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.event.EventManager;
+import org.spongepowered.api.scheduler.Scheduler;
+import org.spongepowered.api.service.ServiceManager;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.sql.SqlService;
+import org.spongepowered.api.service.user.UserStorageService;
+import org.spongepowered.api.text.Text;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A Total Economy instance that runs without a server. Accounts are stored in the configuration files or an H2
+ * database in a temporary directory, which is deleted once the economy is stopped.
+ *
+ * <p>The game is stubbed: events are counted instead of posted, tasks run on a {@link TestScheduler}, the sql service
+ * hands out pooled H2 data sources and the user storage service doesn't know any users. The autosave of the
+ * configuration files never runs, saves are written when the economy is stopped.</p>
+ */
+public class TestEconomy extends TotalEconomy {
+
+    private final Logger logger = NOPLogger.NOP_LOGGER;
+    private final boolean databaseEnabled;
+    private final File configDir;
+    private final TECurrency defaultCurrency;
+    private final HashSet<Currency> currencies = new HashSet<>();
+    private final StorageWarmup storageWarmup = new StorageWarmup(logger);
+    private final MaintenanceScheduler maintenanceScheduler = new MaintenanceScheduler(this, logger, 2);
+    private final TestScheduler scheduler = new TestScheduler();
+    private final AtomicInteger postedEvents = new AtomicInteger();
+    private final List<JdbcConnectionPool> connectionPools = new CopyOnWriteArrayList<>();
+
+    private final EventManager eventManager;
+    private final ServiceManager serviceManager;
+    private final UserStorageService userStorageService;
+    private final Game game;
+
+    private SqlManager sqlManager;
+    private AccountManager accountManager;
+
+    /**
+     * Create an economy that stores its accounts in the configuration files.
+     *
+     * @throws IOException If the temporary directory couldn't be created
+     */
+    public TestEconomy() throws IOException {
+        this(false);
+    }
+
+    /**
+     * @param databaseEnabled Whether the accounts are stored in an H2 database or in the configuration files
+     * @throws IOException If the temporary directory couldn't be created
+     */
+    public TestEconomy(boolean databaseEnabled) throws IOException {
+        this.databaseEnabled = databaseEnabled;
+
+        configDir = Files.createTempDirectory("totaleconomy").toFile();
+
+        // Only read while the currency is created, so the calls measured by tests never reach the mock
+        Text name = mock(Text.class);
+        when(name.toPlain()).thenReturn("Dollar");
+
+        defaultCurrency = new TECurrency(name, name, name, 2, true, true, true, new BigDecimal("100.00"));
+        currencies.add(defaultCurrency);
+
+        eventManager = stub(EventManager.class, (method, args) -> {
+            if (method.equals("post")) {
+                postedEvents.incrementAndGet();
+
+                return false;
+            }
+
+            throw new UnsupportedOperationException(method);
+        });
+
+        SqlService sqlService = stub(SqlService.class, (method, args) -> {
+            if (method.equals("getDataSource")) {
+                JdbcConnectionPool pool = JdbcConnectionPool.create((String) args[args.length - 1], "", "");
+                connectionPools.add(pool);
+
+                return pool;
+            }
+
+            throw new UnsupportedOperationException(method);
+        });
+
+        userStorageService = stub(UserStorageService.class, (method, args) -> {
+            if (method.equals("get")) {
+                return Optional.empty();
+            }
+
+            throw new UnsupportedOperationException(method);
+        });
+
+        serviceManager = stub(ServiceManager.class, (method, args) -> {
+            if (method.equals("provide")) {
+                if (args[0] == SqlService.class) {
+                    return Optional.of(sqlService);
+                } else if (args[0] == UserStorageService.class) {
+                    return Optional.of(userStorageService);
+                }
+
+                return Optional.empty();
+            }
+
+            throw new UnsupportedOperationException(method);
+        });
+
+        game = stub(Game.class, (method, args) -> {
+            switch (method) {
+                case "getEventManager":
+                    return eventManager;
+                case "getScheduler":
+                    return scheduler.getScheduler();
+                case "getServiceManager":
+                    return serviceManager;
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    /**
+     * Install the stubbed game, create the account manager and load the account storage the way the storage warmup
+     * does on a server.
+     *
+     * @return TestEconomy This economy
+     */
+    public TestEconomy start() {
+        installGame();
+
+        if (databaseEnabled) {
+            sqlManager = new SqlManager(this, logger);
+            storageWarmup.phase("database connection", sqlManager::connect);
+        }
+
+        accountManager = new AccountManager(this, null, logger);
+
+        storageWarmup.phase("account storage", accountManager::loadStorage)
+                .phase("economy statistics", accountManager::loadStatistics)
+                .start();
+        storageWarmup.awaitReady();
+
+        return this;
+    }
+
+    /**
+     * Write the pending changes, stop the tasks and delete the configuration files and the database.
+     *
+     * @throws IOException If a file couldn't be deleted
+     */
+    public void stop() throws IOException {
+        if (accountManager != null) {
+            if (databaseEnabled) {
+                accountManager.getAccountCache().ifPresent(AccountCache::stop);
+                sqlManager.getWriter().stop();
+            } else {
+                accountManager.saveConfiguration();
+            }
+        }
+
+        scheduler.shutdown();
+        connectionPools.forEach(JdbcConnectionPool::dispose);
+
+        try (Stream<Path> paths = Files.walk(configDir.toPath())) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Run the synchronous tasks that are due in the current tick.
+     */
+    public void runTick() {
+        scheduler.runTick();
+    }
+
+    public int getPostedEvents() {
+        return postedEvents.get();
+    }
+
+    /**
+     * Make the stubbed game and its managers available through {@link Sponge}, like the server does by injecting them.
+     */
+    private void installGame() {
+        try {
+            for (Field field : Sponge.class.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                    continue;
+                }
+
+                Object value = null;
+
+                if (field.getType() == Game.class) {
+                    value = game;
+                } else if (field.getType() == EventManager.class) {
+                    value = eventManager;
+                } else if (field.getType() == Scheduler.class) {
+                    value = scheduler.getScheduler();
+                } else if (field.getType() == ServiceManager.class) {
+                    value = serviceManager;
+                }
+
+                if (value != null) {
+                    field.setAccessible(true);
+                    field.set(null, value);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not install the stubbed game", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, StubMethod handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> handler.invoke(method.getName(), args));
+    }
+
+    @Override
+    public AccountManager getAccountManager() {
+        return accountManager;
+    }
+
+    @Override
+    public HashSet<Currency> getCurrencies() {
+        return currencies;
+    }
+
+    @Override
+    public TECurrency getDefaultCurrency() {
+        return defaultCurrency;
+    }
+
+    @Override
+    public File getConfigDir() {
+        return configDir;
+    }
+
+    @Override
+    public Game getGame() {
+        return game;
+    }
+
+    @Override
+    public UserStorageService getUserStorageService() {
+        return userStorageService;
+    }
+
+    @Override
+    public int getSaveInterval() {
+        return 30;
+    }
+
+    @Override
+    public StorageWarmup getStorageWarmup() {
+        return storageWarmup;
+    }
+
+    @Override
+    public MaintenanceScheduler getMaintenanceScheduler() {
+        return maintenanceScheduler;
+    }
+
+    @Override
+    public boolean isDatabaseEnabled() {
+        return databaseEnabled;
+    }
+
+    @Override
+    public String getDatabaseType() {
+        return "h2";
+    }
+
+    @Override
+    public String getDatabaseUrl() {
+        return "";
+    }
+
+    @Override
+    public long getDatabaseCommitWindow() {
+        return 5;
+    }
+
+    @Override
+    public boolean isDatabaseCacheEnabled() {
+        return true;
+    }
+
+    @Override
+    public String getDatabaseServerId() {
+        return "test";
+    }
+
+    @Override
+    public long getDatabasePollInterval() {
+        return 1000;
+    }
+
+    @Override
+    public int getDatabaseCacheMaxOfflineAccounts() {
+        return 10000;
+    }
+
+    @Override
+    public long getDatabaseCacheIdleExpiry() {
+        return 600000;
+    }
+
+    @Override
+    public SqlManager getSqlManager() {
+        return sqlManager;
+    }
+
+    /**
+     * Handles the calls of a stubbed interface by the name of the called method.
+     */
+    private interface StubMethod {
+        Object invoke(String method, Object[] args) throws Throwable;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.main;
+
+import org.spongepowered.api.scheduler.Scheduler;
+import org.spongepowered.api.scheduler.SpongeExecutorService;
+import org.spongepowered.api.scheduler.Task;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs the tasks submitted to a {@link Scheduler} without a server. Synchronous tasks run when {@link #runTick()} is
+ * called by the thread that acts as the main thread, asynchronous tasks run on a small thread pool.
+ */
+public class TestScheduler {
+
+    private static final long TICK_MILLIS = 50;
+
+    private final ScheduledExecutorService asyncPool = Executors.newScheduledThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "Test Scheduler - Async");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final List<TestTask> syncTasks = new CopyOnWriteArrayList<>();
+    private final Scheduler scheduler;
+
+    public TestScheduler() {
+        SpongeExecutorService syncExecutor = createExecutor(runnable -> syncTasks.add(new TestTask(task -> runnable.run(), false, 0, 0)));
+        SpongeExecutorService asyncExecutor = createExecutor(asyncPool::execute);
+
+        scheduler = (Scheduler) Proxy.newProxyInstance(Scheduler.class.getClassLoader(), new Class<?>[] {Scheduler.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createTaskBuilder":
+                    return new TaskBuilder().proxy;
+                case "createSyncExecutor":
+                    return syncExecutor;
+                case "createAsyncExecutor":
+                    return asyncExecutor;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Run the synchronous tasks that are due in this tick on the current thread.
+     */
+    public void runTick() {
+        for (TestTask task : syncTasks) {
+            if (task.cancelled) {
+                syncTasks.remove(task);
+            } else if (--task.ticksLeft <= 0) {
+                if (task.intervalTicks > 0) {
+                    task.ticksLeft = task.intervalTicks;
+                } else {
+                    syncTasks.remove(task);
+                }
+
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Cancel all tasks and stop the asynchronous threads.
+     */
+    public void shutdown() {
+        syncTasks.clear();
+        asyncPool.shutdownNow();
+    }
+
+    private static SpongeExecutorService createExecutor(Consumer<Runnable> executor) {
+        return (SpongeExecutorService) Proxy.newProxyInstance(SpongeExecutorService.class.getClassLoader(), new Class<?>[] {SpongeExecutorService.class}, (proxy, method, args) -> {
+            if (method.getName().equals("execute")) {
+                executor.accept((Runnable) args[0]);
+
+                return null;
+            }
+
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static long toTicks(long millis) {
+        return Math.max(millis / TICK_MILLIS, millis > 0 ? 1 : 0);
+    }
+
+    /**
+     * A submitted task. Delays and intervals of synchronous tasks are counted in ticks, those of asynchronous tasks in
+     * milliseconds.
+     */
+    private class TestTask {
+        private final Consumer<Task> action;
+        private final boolean async;
+        private final long intervalTicks;
+        private final Task proxy;
+
+        private volatile boolean cancelled = false;
+        private long ticksLeft;
+        private ScheduledFuture<?> future;
+
+        private TestTask(Consumer<Task> action, boolean async, long delayTicks, long intervalTicks) {
+            this.action = action;
+            this.async = async;
+            this.ticksLeft = delayTicks;
+            this.intervalTicks = intervalTicks;
+
+            proxy = (Task) Proxy.newProxyInstance(Task.class.getClassLoader(), new Class<?>[] {Task.class}, (taskProxy, method, args) -> {
+                switch (method.getName()) {
+                    case "cancel":
+                        cancel();
+
+                        return true;
+                    case "isAsynchronous":
+                        return this.async;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private void run() {
+            // Like on a server, a failing task doesn't stop the other tasks or the next runs of a repeating task
+            try {
+                action.accept(proxy);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Collects the settings of a task until it's submitted.
+     */
+    private class TaskBuilder {
+        private final Task.Builder proxy;
+
+        private Consumer<Task> action;
+        private boolean async = false;
+        private long delayMillis = 0;
+        private long intervalMillis = 0;
+
+        @SuppressWarnings("unchecked")
+        private TaskBuilder() {
+            proxy = (Task.Builder) Proxy.newProxyInstance(Task.Builder.class.getClassLoader(), new Class<?>[] {Task.Builder.class}, (builderProxy, method, args) -> {
+                switch (method.getName()) {
+                    case "execute":
+                        if (args[0] instanceof Runnable) {
+                            Runnable runnable = (Runnable) args[0];
+                            action = task -> runnable.run();
+                        } else {
+                            action = (Consumer<Task>) args[0];
+                        }
+                        break;
+                    case "async":
+                        async = true;
+                        break;
+                    case "delay":
+                        delayMillis = ((TimeUnit) args[1]).toMillis((long) args[0]);
+                        break;
+                    case "delayTicks":
+                        delayMillis = (long) args[0] * TICK_MILLIS;
+                        break;
+                    case "interval":
+                        intervalMillis = ((TimeUnit) args[1]).toMillis((long) args[0]);
+                        break;
+                    case "intervalTicks":
+                        intervalMillis = (long) args[0] * TICK_MILLIS;
+                        break;
+                    case "name":
+                        break;
+                    case "submit":
+                        return submit();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+
+                return builderProxy;
+            });
+        }
+
+        private Task submit() {
+            TestTask task = new TestTask(action, async, toTicks(delayMillis), toTicks(intervalMillis));
+
+            if (!async) {
+                syncTasks.add(task);
+            } else if (intervalMillis > 0) {
+                task.future = asyncPool.scheduleAtFixedRate(task::run, delayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            } else {
+                task.future = asyncPool.schedule(task::run, delayMillis, TimeUnit.MILLISECONDS);
+            }
+
+            return task.proxy;
+        }
+    }
+}
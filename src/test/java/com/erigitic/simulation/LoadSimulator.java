@@ -0,0 +1,386 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.simulation;
+
+import com.erigitic.config.AccountManager;
+import com.erigitic.main.TestEconomy;
+import com.erigitic.sql.SqlWriter;
+import com.erigitic.storage.AccountStorage;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.event.cause.EventContext;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.account.UniqueAccount;
+import org.spongepowered.api.service.economy.transaction.ResultType;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Simulates players mining, fishing, paying each other and buying from shops to measure how the economy holds up under
+ * load, on a {@link TestEconomy} storing its accounts in the configuration files or an H2 database.
+ *
+ * <p>The simulated players only exist as accounts, they are created with random unique ids before the simulation and
+ * deleted afterwards. Their actions run once per tick on the calling thread, which acts as the main thread, and go
+ * through the same account manager, storage and economy events as the actions of real players. Ticks are paced at 20
+ * per second, so the sql writer groups the changes of a tick like it does on a server. Job actions perform the storage
+ * reads and writes of a job reward without the messages sent to a player.</p>
+ *
+ * <p>Run {@link #main(String[])} for longer simulations than the ones of the tests.</p>
+ */
+public class LoadSimulator {
+
+    private static final int TICKS_PER_SECOND = 20;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1) / TICKS_PER_SECOND;
+
+    private static final BigDecimal JOB_REWARD = new BigDecimal("0.25");
+    private static final int JOB_EXP = 5;
+    private static final BigDecimal PAY_AMOUNT = new BigDecimal("1.00");
+    private static final BigDecimal SHOP_PRICE = new BigDecimal("2.50");
+
+    private TestEconomy economy;
+    private AccountManager accountManager;
+    private Currency currency;
+    private Cause cause;
+    private Random random = new Random();
+
+    private int playerCount;
+    private int tickCount;
+    private Map<String, Double> rates = new LinkedHashMap<>();
+
+    private List<UUID> players;
+    private List<UUID> shopOwners;
+
+    private Map<String, Latencies> latencies = new LinkedHashMap<>();
+    private Map<String, Integer> failures = new LinkedHashMap<>();
+    private Map<String, Double> carries = new LinkedHashMap<>();
+    private Latencies tickLatencies;
+    private long startCommits;
+    private long startWrites;
+
+    /**
+     * @param economy The started economy to simulate the players on
+     * @param playerCount The number of simulated players
+     * @param seconds How long to simulate for, in seconds
+     * @param miningRate Blocks mined per player per minute
+     * @param fishingRate Fish caught per player per minute
+     * @param payRate Payments made per player per minute
+     * @param shopRate Shop purchases made per player per minute
+     */
+    public LoadSimulator(TestEconomy economy, int playerCount, int seconds, double miningRate, double fishingRate,
+                         double payRate, double shopRate) {
+        this.economy = economy;
+        this.accountManager = economy.getAccountManager();
+        this.currency = economy.getDefaultCurrency();
+        this.playerCount = playerCount;
+        this.tickCount = seconds * TICKS_PER_SECOND;
+
+        rates.put("mining", miningRate);
+        rates.put("fishing", fishingRate);
+        rates.put("pay", payRate);
+        rates.put("shop", shopRate);
+
+        cause = Cause.of(EventContext.empty(), economy);
+    }
+
+    /**
+     * Simulate players on a new economy and print the report.
+     *
+     * @param args The number of players and seconds, optionally followed by the rates of mining, fishing, paying and
+     *             shopping per player per minute and "database" to store the accounts in H2
+     * @throws IOException If the files of the economy couldn't be created or deleted
+     * @throws InterruptedException If interrupted while waiting for the next tick
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: LoadSimulator <players> <seconds> [mining] [fishing] [pay] [shop] [database]");
+            return;
+        }
+
+        boolean database = args[args.length - 1].equals("database");
+        int rateCount = args.length - (database ? 3 : 2);
+        double[] rates = {30, 2, 0.5, 1};
+
+        for (int i = 0; i < rateCount && i < rates.length; i++) {
+            rates[i] = Double.parseDouble(args[i + 2]);
+        }
+
+        TestEconomy economy = new TestEconomy(database).start();
+
+        try {
+            new LoadSimulator(economy, Integer.parseInt(args[0]), Integer.parseInt(args[1]), rates[0], rates[1], rates[2], rates[3])
+                    .run()
+                    .forEach(System.out::println);
+        } finally {
+            economy.stop();
+        }
+    }
+
+    /**
+     * Create the simulated players, run the simulation and delete the players again.
+     *
+     * @return List The lines of the report
+     * @throws InterruptedException If interrupted while waiting for the next tick
+     */
+    public List<String> run() throws InterruptedException {
+        createPlayers();
+
+        try {
+            long nextTick = System.nanoTime();
+
+            for (int i = 0; i < tickCount; i++) {
+                tick();
+                economy.runTick();
+
+                nextTick += TICK_NANOS;
+                TimeUnit.NANOSECONDS.sleep(nextTick - System.nanoTime());
+            }
+
+            return finish();
+        } finally {
+            deletePlayers();
+        }
+    }
+
+    /**
+     * Get the number of actions that failed during the simulation.
+     *
+     * @return int The number of failed actions
+     */
+    public int getFailureCount() {
+        return failures.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private void createPlayers() {
+        AccountStorage storage = accountManager.getStorage();
+
+        players = new ArrayList<>(playerCount);
+
+        for (int i = 0; i < playerCount; i++) {
+            UUID uuid = UUID.randomUUID();
+
+            accountManager.getOrCreateAccount(uuid);
+            storage.setJob(uuid.toString(), i % 2 == 0 ? "miner" : "fisherman").join();
+
+            players.add(uuid);
+        }
+
+        // A few popular shops receive most purchases
+        shopOwners = players.subList(0, Math.max(1, playerCount / 20));
+
+        for (String action : rates.keySet()) {
+            latencies.put(action, new Latencies());
+            failures.put(action, 0);
+            carries.put(action, 0D);
+        }
+
+        tickLatencies = new Latencies();
+
+        getWriter().ifPresent(writer -> {
+            startCommits = writer.getCommitCount();
+            startWrites = writer.getWriteCount();
+        });
+    }
+
+    private void deletePlayers() {
+        AccountStorage storage = accountManager.getStorage();
+
+        for (UUID uuid : players) {
+            storage.deleteAccount(uuid.toString(), false);
+        }
+
+        // The statistics counted the simulated players when they were created
+        accountManager.loadStatistics();
+    }
+
+    private void tick() {
+        long tickStart = System.nanoTime();
+
+        for (Map.Entry<String, Double> rate : rates.entrySet()) {
+            String action = rate.getKey();
+            double due = carries.get(action) + playerCount * rate.getValue() / (60D * TICKS_PER_SECOND);
+            int count = (int) due;
+
+            carries.put(action, due - count);
+
+            for (int i = 0; i < count; i++) {
+                perform(action);
+            }
+        }
+
+        tickLatencies.add(System.nanoTime() - tickStart);
+    }
+
+    private void perform(String action) {
+        UUID player = randomPlayer(players);
+        Supplier<Boolean> operation;
+
+        switch (action) {
+            case "mining":
+            case "fishing":
+                operation = () -> jobAction(player);
+                break;
+            case "pay":
+                operation = () -> transfer(player, randomPlayer(players), PAY_AMOUNT);
+                break;
+            default:
+                operation = () -> transfer(player, randomPlayer(shopOwners), SHOP_PRICE);
+        }
+
+        long start = System.nanoTime();
+        boolean success;
+
+        try {
+            success = operation.get();
+        } catch (RuntimeException e) {
+            success = false;
+        }
+
+        latencies.get(action).add(System.nanoTime() - start);
+
+        if (!success) {
+            failures.merge(action, 1, Integer::sum);
+        }
+    }
+
+    private boolean jobAction(UUID uuid) {
+        String identifier = uuid.toString();
+        AccountStorage storage = accountManager.getStorage();
+        String job = storage.getJob(identifier, true).orElse("unemployed");
+
+        storage.getJobNotifications(identifier);
+
+        UniqueAccount account = accountManager.getOrCreateAccount(uuid).get();
+
+        if (account.deposit(currency, JOB_REWARD, cause).getResult() != ResultType.SUCCESS) {
+            return false;
+        }
+
+        int exp = storage.getJobExp(identifier, job, true).orElse(0) + JOB_EXP;
+
+        storage.getJobLevel(identifier, job, true);
+
+        return !storage.setJobExp(identifier, job, exp).isCompletedExceptionally();
+    }
+
+    private boolean transfer(UUID from, UUID to, BigDecimal amount) {
+        if (from.equals(to)) {
+            return true;
+        }
+
+        UniqueAccount fromAccount = accountManager.getOrCreateAccount(from).get();
+        UniqueAccount toAccount = accountManager.getOrCreateAccount(to).get();
+
+        return fromAccount.transfer(toAccount, currency, amount, cause).getResult() == ResultType.SUCCESS;
+    }
+
+    private UUID randomPlayer(List<UUID> candidates) {
+        return candidates.get(random.nextInt(candidates.size()));
+    }
+
+    private List<String> finish() {
+        // Writes still waiting for a commit window or the autosave belong to the simulation
+        accountManager.getStorage().save();
+
+        double seconds = tickCount / (double) TICKS_PER_SECOND;
+        List<String> lines = new ArrayList<>();
+
+        lines.add("Simulated " + playerCount + " players for " + tickCount + " ticks");
+
+        for (Map.Entry<String, Latencies> entry : latencies.entrySet()) {
+            Latencies values = entry.getValue();
+
+            lines.add(entry.getKey() + ": " + String.format("%.1f", values.size() / seconds) + " ops/s"
+                    + " p50 " + formatMicros(values.percentile(50))
+                    + " p95 " + formatMicros(values.percentile(95))
+                    + " p99 " + formatMicros(values.percentile(99))
+                    + " failed " + failures.get(entry.getKey()));
+        }
+
+        lines.add("tick: p50 " + formatMicros(tickLatencies.percentile(50)) + " p95 " + formatMicros(tickLatencies.percentile(95))
+                + " p99 " + formatMicros(tickLatencies.percentile(99)) + " max " + formatMicros(tickLatencies.percentile(100)));
+
+        if (getWriter().isPresent()) {
+            SqlWriter writer = getWriter().get();
+
+            lines.add("storage: " + String.format("%.2f", (writer.getWriteCount() - startWrites) / (double) tickCount) + " rows and "
+                    + String.format("%.2f", (writer.getCommitCount() - startCommits) / (double) tickCount) + " commits per tick");
+        } else {
+            lines.add("storage: changes are kept in memory until the accounts file is saved");
+        }
+
+        return lines;
+    }
+
+    private Optional<SqlWriter> getWriter() {
+        return economy.isDatabaseEnabled() ? Optional.of(economy.getSqlManager().getWriter()) : Optional.empty();
+    }
+
+    private String formatMicros(long nanos) {
+        return String.format("%.0fµs", nanos / 1000D);
+    }
+
+    /**
+     * Latencies of an operation, in nanoseconds. Only used from the simulating thread.
+     */
+    private static class Latencies {
+
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = nanos;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long percentile(int percentile) {
+            if (size == 0) {
+                return 0;
+            }
+
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+
+            return sorted[Math.max(0, (int) Math.ceil(percentile / 100D * size) - 1)];
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.simulation;
+
+import com.erigitic.main.TestEconomy;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Short simulations of both storages, making sure every simulated action succeeds.
+ */
+public class LoadSimulatorTest {
+
+    @Test
+    public void configurationStorageHandlesLoad() throws IOException, InterruptedException {
+        simulate(false);
+    }
+
+    @Test
+    public void databaseStorageHandlesLoad() throws IOException, InterruptedException {
+        simulate(true);
+    }
+
+    private void simulate(boolean database) throws IOException, InterruptedException {
+        TestEconomy economy = new TestEconomy(database).start();
+
+        try {
+            LoadSimulator simulator = new LoadSimulator(economy, 50, 2, 30, 2, 0.5, 1);
+            List<String> report = simulator.run();
+
+            report.forEach(System.out::println);
+
+            assertEquals(0, simulator.getFailureCount());
+        } finally {
+            economy.stop();
+        }
+    }
+}
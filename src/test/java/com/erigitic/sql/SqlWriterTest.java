@@ -0,0 +1,140 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.sql;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Commits the sql writer's windows against an in-memory H2 database.
+ */
+public class SqlWriterTest {
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+    private SqlWriter writer;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID());
+
+        // The in-memory database is dropped when its last connection is closed
+        keepAlive = dataSource.getConnection();
+
+        try (PreparedStatement statement = keepAlive.prepareStatement("CREATE TABLE counters (uid varchar(60) PRIMARY KEY, amount int NOT NULL)")) {
+            statement.execute();
+        }
+
+        try (PreparedStatement statement = keepAlive.prepareStatement("INSERT INTO counters VALUES ('first', 0), ('second', 0)")) {
+            statement.execute();
+        }
+
+        // Whether the flush or the writer thread commits the window, its rows are collected in one transaction
+        writer = new SqlManager(dataSource, SqlDialect.H2, 200, NOPLogger.NOP_LOGGER).getWriter();
+        writer.start();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        writer.stop();
+        keepAlive.close();
+    }
+
+    @Test
+    public void failingRowDoesNotRollBackTheWindow() throws SQLException {
+        CompletableFuture<Void> first = writer.update("counters", "uid", "first", "amount", 1);
+        CompletableFuture<Void> missing = writer.update("counters", "uid", "second", "missing", 2);
+        CompletableFuture<Void> second = writer.update("counters", "uid", "second", "amount", 3);
+
+        assertTrue(writer.flush());
+
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(missing.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(0, writer.getPendingCount());
+
+        assertEquals(1, readAmount("first"));
+        assertEquals(0, readAmount("second"));
+    }
+
+    @Test
+    public void failingInsertDoesNotRollBackTheWindow() throws SQLException {
+        CompletableFuture<Void> update = writer.update("counters", "uid", "first", "amount", 1);
+        CompletableFuture<Void> duplicate = writer.append("counters", new String[] {"uid", "amount"}, "second", 5);
+        CompletableFuture<Void> insert = writer.append("counters", new String[] {"uid", "amount"}, "third", 7);
+
+        assertTrue(writer.flush());
+
+        assertTrue(update.isDone() && !update.isCompletedExceptionally());
+        assertTrue(duplicate.isCompletedExceptionally());
+        assertTrue(insert.isDone() && !insert.isCompletedExceptionally());
+
+        assertEquals(1, readAmount("first"));
+        assertEquals(0, readAmount("second"));
+        assertEquals(7, readAmount("third"));
+    }
+
+    @Test
+    public void upsertInsertsThenUpdatesTheRow() throws SQLException {
+        CompletableFuture<Void> insert = writer.upsert("counters", new String[] {"uid"}, new String[] {"uid", "amount"}, "fourth", 3);
+
+        assertTrue(writer.flush());
+
+        CompletableFuture<Void> update = writer.upsert("counters", new String[] {"uid"}, new String[] {"uid", "amount"}, "fourth", 4);
+
+        assertTrue(writer.flush());
+
+        assertTrue(insert.isDone() && !insert.isCompletedExceptionally());
+        assertTrue(update.isDone() && !update.isCompletedExceptionally());
+        assertEquals(4, readAmount("fourth"));
+    }
+
+    private int readAmount(String uid) throws SQLException {
+        try (PreparedStatement statement = keepAlive.prepareStatement("SELECT amount FROM counters WHERE uid = ?")) {
+            statement.setString(1, uid);
+
+            try (ResultSet set = statement.executeQuery()) {
+                set.next();
+
+                return set.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import com.erigitic.config.AccountManager;
+import com.erigitic.config.TECurrency;
+import com.erigitic.main.TestEconomy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures the heap retained by the accounts of a large accounts configuration file once a {@link TestEconomy} has
+ * loaded it, which includes the account storage, the account records and the economy statistics.
+ *
+ * <p>Run with a fixed heap size, e.g. -Xms2g -Xmx2g, so collections don't resize it between the measurements.</p>
+ */
+public class AccountMemoryHarness {
+
+    private static final String[] JOBS = {"miner", "lumberjack", "fisherman", "warrior"};
+
+    /**
+     * Generate an accounts file, load it and print the retained heap.
+     *
+     * @param args The number of accounts, 100000 if not given
+     * @throws IOException If the files of the economy couldn't be created or deleted
+     * @throws InterruptedException If interrupted while waiting for the collections
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        TestEconomy economy = new TestEconomy();
+
+        try {
+            writeAccounts(new File(economy.getConfigDir(), "accounts.conf"), TECurrency.getStorageName(economy.getDefaultCurrency()), accountCount);
+
+            long before = usedHeap();
+            economy.start();
+            long after = usedHeap();
+
+            System.out.println("Loaded " + accountCount + " accounts");
+            System.out.println("Retained heap: " + (after - before) / 1024 + " KiB, " + (after - before) / accountCount + " bytes per account");
+        } finally {
+            economy.stop();
+        }
+    }
+
+    /**
+     * Write an accounts file in which every account has a balance, a job and the progress of one job.
+     *
+     * @param file The file
+     * @param currencyName The storage name of the currency
+     * @param accountCount The number of accounts
+     * @throws IOException If the file couldn't be written
+     */
+    private static void writeAccounts(File file, String currencyName, int accountCount) throws IOException {
+        Random random = new Random(accountCount);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("version=" + AccountManager.CONTENT_VERSION + "\n");
+
+            for (int i = 0; i < accountCount; i++) {
+                String job = JOBS[i % JOBS.length];
+
+                writer.write("\"" + new UUID(random.nextLong(), random.nextLong()) + "\" {\n");
+                writer.write("    " + currencyName + "-balance=" + random.nextInt(100000) + "." + (10 + random.nextInt(90)) + "\n");
+                writer.write("    job=" + job + "\n");
+                writer.write("    jobnotifications=true\n");
+                writer.write("    jobstats {\n");
+                writer.write("        " + job + " {\n");
+                writer.write("            exp=" + random.nextInt(1000) + "\n");
+                writer.write("            level=" + (1 + random.nextInt(50)) + "\n");
+                writer.write("        }\n");
+                writer.write("    }\n");
+                writer.write("}\n");
+            }
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
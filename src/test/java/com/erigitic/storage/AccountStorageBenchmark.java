@@ -0,0 +1,67 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import com.erigitic.main.TestEconomy;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Measures the throughput of the configuration file storage and the H2 database storage with the
+ * {@link AccountStorageTestKit} and prints the operations per second of each.
+ */
+public class AccountStorageBenchmark {
+
+    /**
+     * Run the benchmark against both storages.
+     *
+     * @param args The number of accounts and the number of times each operation is run, 20 and 500 if not given
+     * @throws IOException If the files of the economy couldn't be created or deleted
+     */
+    public static void main(String[] args) throws IOException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        benchmark(false, accounts, operations);
+        benchmark(true, accounts, operations);
+    }
+
+    private static void benchmark(boolean database, int accounts, int operations) throws IOException {
+        TestEconomy economy = new TestEconomy(database).start();
+
+        try {
+            AccountStorage storage = economy.getAccountManager().getStorage();
+            AccountStorageTestKit testKit = new AccountStorageTestKit(storage, economy.getAccountManager().getStartingBalances());
+
+            for (Map.Entry<String, Double> result : testKit.benchmark(accounts, operations).entrySet()) {
+                System.out.println(storage.getName() + " " + result.getKey() + ": " + String.format("%.0f", result.getValue()) + " ops/s");
+            }
+        } finally {
+            economy.stop();
+        }
+    }
+}
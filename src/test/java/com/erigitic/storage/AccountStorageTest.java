@@ -0,0 +1,72 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.storage;
+
+import com.erigitic.main.TestEconomy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the conformance checks of the {@link AccountStorageTestKit} against the configuration files and an H2 database
+ * in a temporary directory. The benchmark of the test kit is run by {@link AccountStorageBenchmark}.
+ */
+public class AccountStorageTest {
+
+    private TestEconomy economy;
+
+    @After
+    public void tearDown() throws IOException {
+        if (economy != null) {
+            economy.stop();
+        }
+    }
+
+    @Test
+    public void configStorageConforms() throws IOException {
+        checkConformance(false);
+    }
+
+    @Test
+    public void sqlStorageConforms() throws IOException {
+        checkConformance(true);
+    }
+
+    private void checkConformance(boolean database) throws IOException {
+        AccountStorageTestKit testKit = createTestKit(database);
+
+        assertEquals(Collections.emptyList(), testKit.checkConformance());
+    }
+
+    private AccountStorageTestKit createTestKit(boolean database) throws IOException {
+        economy = new TestEconomy(database).start();
+
+        return new AccountStorageTestKit(economy.getAccountManager().getStorage(), economy.getAccountManager().getStartingBalances());
+    }
+}
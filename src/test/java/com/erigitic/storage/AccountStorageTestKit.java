@@ -0,0 +1,236 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntConsumer;
+
+/**
+ * Checks an {@link AccountStorage} against the contract of the interface and measures its throughput. Every storage runs
+ * the same checks, so a new storage can be verified before it's used on a server.
+ *
+ * <p>The kit works on accounts with random identifiers and deletes them afterwards. {@link AccountStorageTest} runs it
+ * against throwaway storages.</p>
+ */
+public class AccountStorageTestKit {
+
+    // Every storage has a level and experience column for the default jobs
+    private static final String JOB = "miner";
+
+    private static final String VIRTUAL_PREFIX = "te-kit:";
+
+    private AccountStorage storage;
+    private Map<String, BigDecimal> balances;
+
+    /**
+     * @param storage The storage to test
+     * @param balances The starting balance of each configured currency, keyed by storage name
+     */
+    public AccountStorageTestKit(AccountStorage storage, Map<String, BigDecimal> balances) {
+        this.storage = storage;
+        this.balances = balances;
+    }
+
+    /**
+     * Run the conformance checks.
+     *
+     * @return List The failed checks, empty if the storage conforms
+     */
+    public List<String> checkConformance() {
+        List<String> failures = new ArrayList<>();
+        String uniqueId = UUID.randomUUID().toString();
+        String virtualId = VIRTUAL_PREFIX + UUID.randomUUID().toString();
+
+        try {
+            checkAccount(failures, uniqueId, false);
+            checkAccount(failures, virtualId, true);
+
+            check(failures, "unique and virtual accounts are separate",
+                    !storage.hasAccount(uniqueId, true) && !storage.hasAccount(virtualId, false));
+
+            checkPlayerData(failures, uniqueId);
+        } catch (RuntimeException e) {
+            failures.add("unexpected " + e.getClass().getSimpleName() + ": " + e.getMessage());
+        } finally {
+            storage.deleteAccount(uniqueId, false);
+            storage.deleteAccount(virtualId, true);
+        }
+
+        try {
+            check(failures, "deleted accounts don't exist", !storage.hasAccount(uniqueId, false) && !storage.hasAccount(virtualId, true));
+        } catch (RuntimeException e) {
+            failures.add("unexpected " + e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+
+        return failures;
+    }
+
+    private void checkAccount(List<String> failures, String identifier, boolean virtual) {
+        String type = virtual ? "virtual" : "unique";
+
+        check(failures, type + " account doesn't exist before it's created", !storage.hasAccount(identifier, virtual));
+        check(failures, type + " account is created", storage.createAccount(identifier, virtual, balances));
+        check(failures, type + " account is only created once", !storage.createAccount(identifier, virtual, balances));
+        check(failures, type + " account exists after it's created", storage.hasAccount(identifier, virtual));
+
+        for (Map.Entry<String, BigDecimal> entry : balances.entrySet()) {
+            String currencyName = entry.getKey();
+
+            check(failures, type + " account has a " + currencyName + " balance", storage.hasBalance(identifier, virtual, currencyName));
+            check(failures, type + " account starts with the starting " + currencyName + " balance",
+                    equal(storage.getBalance(identifier, virtual, currencyName), entry.getValue()));
+
+            BigDecimal balance = entry.getValue().add(new BigDecimal("12.34"));
+            CompletableFuture<Void> future = storage.setBalance(identifier, virtual, currencyName, balance);
+
+            check(failures, type + " account reads its " + currencyName + " balance before the write is durable",
+                    equal(storage.getBalance(identifier, virtual, currencyName), balance));
+            check(failures, type + " account " + currencyName + " balance write completes", complete(future));
+            check(failures, type + " account reads its " + currencyName + " balance after the write is durable",
+                    equal(storage.getBalance(identifier, virtual, currencyName), balance));
+
+            BigDecimal changedBalance = balance.subtract(new BigDecimal("2.34"));
+            CompletableFuture<Void> change = storage.addBalance(identifier, virtual, currencyName, new BigDecimal("-2.34"));
+
+            check(failures, type + " account reads its changed " + currencyName + " balance before the change is durable",
+                    equal(storage.getBalance(identifier, virtual, currencyName), changedBalance));
+            check(failures, type + " account " + currencyName + " balance change completes", complete(change));
+            check(failures, type + " account reads its changed " + currencyName + " balance after the change is durable",
+                    equal(storage.getBalance(identifier, virtual, currencyName), changedBalance));
+        }
+
+        check(failures, type + " account has no missing balances", storage.addMissingBalances(identifier, virtual, balances).isEmpty());
+    }
+
+    private void checkPlayerData(List<String> failures, String identifier) {
+        check(failures, "job is written", complete(storage.setJob(identifier, JOB)));
+        check(failures, "job is read", storage.getJob(identifier, true).map(JOB::equals).orElse(false));
+
+        check(failures, "job level is written", complete(storage.setJobLevel(identifier, JOB, 7)));
+        check(failures, "job level is read", storage.getJobLevel(identifier, JOB, true).map(level -> level == 7).orElse(false));
+
+        check(failures, "job experience is written", complete(storage.setJobExp(identifier, JOB, 250)));
+        check(failures, "job experience is read", storage.getJobExp(identifier, JOB, true).map(exp -> exp == 250).orElse(false));
+
+        check(failures, "job notifications are written", complete(storage.setJobNotifications(identifier, false)));
+        check(failures, "job notifications are read", storage.getJobNotifications(identifier).map(enabled -> !enabled).orElse(false));
+
+        check(failures, "user option is written", complete(storage.setUserOption(identifier, "te-kit", "a")));
+        check(failures, "user option is overwritten", complete(storage.setUserOption(identifier, "te-kit", "b")));
+        check(failures, "user option is read", storage.getUserOption(identifier, "te-kit").map("b"::equals).orElse(false));
+    }
+
+    /**
+     * Measure the throughput of the most frequent storage operations on a pool of temporary unique accounts. Writes are
+     * counted once they are durable.
+     *
+     * @param accounts The number of accounts to spread the operations over
+     * @param operations The number of times each operation is run
+     * @return Map The operations per second, keyed by operation name
+     */
+    public Map<String, Double> benchmark(int accounts, int operations) {
+        Map<String, Double> results = new LinkedHashMap<>();
+        List<String> identifiers = new ArrayList<>(accounts);
+        String currencyName = balances.keySet().iterator().next();
+
+        try {
+            for (int i = 0; i < accounts; i++) {
+                identifiers.add(UUID.randomUUID().toString());
+            }
+
+            results.put("createAccount", measure(accounts, i -> storage.createAccount(identifiers.get(i), false, balances)));
+            results.put("hasAccount", measure(operations, i -> storage.hasAccount(identifiers.get(i % accounts), false)));
+            results.put("getBalance", measure(operations, i -> storage.getBalance(identifiers.get(i % accounts), false, currencyName)));
+            results.put("setBalance", measureWrites(operations,
+                    i -> storage.setBalance(identifiers.get(i % accounts), false, currencyName, BigDecimal.valueOf(i))));
+            results.put("getJobExp", measure(operations, i -> storage.getJobExp(identifiers.get(i % accounts), JOB, true)));
+            results.put("setJobExp", measureWrites(operations, i -> storage.setJobExp(identifiers.get(i % accounts), JOB, i)));
+        } finally {
+            for (String identifier : identifiers) {
+                storage.deleteAccount(identifier, false);
+            }
+        }
+
+        return results;
+    }
+
+    private double measure(int operations, IntConsumer operation) {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < operations; i++) {
+            operation.accept(i);
+        }
+
+        return perSecond(operations, System.nanoTime() - start);
+    }
+
+    private double measureWrites(int operations, WriteOperation operation) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(operations);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < operations; i++) {
+            futures.add(operation.apply(i));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        return perSecond(operations, System.nanoTime() - start);
+    }
+
+    private double perSecond(int operations, long nanos) {
+        return nanos > 0 ? operations * 1_000_000_000D / nanos : 0;
+    }
+
+    private void check(List<String> failures, String description, boolean passed) {
+        if (!passed) {
+            failures.add(description);
+        }
+    }
+
+    private boolean equal(Optional<BigDecimal> actual, BigDecimal expected) {
+        return actual.isPresent() && actual.get().compareTo(expected) == 0;
+    }
+
+    private boolean complete(CompletableFuture<Void> future) {
+        try {
+            future.join();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private interface WriteOperation {
+        CompletableFuture<Void> apply(int index);
+    }
+}
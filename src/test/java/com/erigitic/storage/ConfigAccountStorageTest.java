@@ -0,0 +1,164 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.storage;
+
+import com.erigitic.config.AccountRecords;
+import com.erigitic.config.AccountSnapshot;
+import com.erigitic.main.TestEconomy;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The sliced saves of the autosave and the snapshots read from the accounts.
+ */
+public class ConfigAccountStorageTest {
+
+    private static final String CURRENCY = "dollar";
+
+    private TestEconomy economy;
+    private ConfigAccountStorage storage;
+    private Map<String, BigDecimal> balances;
+
+    @Before
+    public void setUp() throws IOException {
+        economy = new TestEconomy().start();
+        storage = economy.getAccountManager().getConfigStorage().get();
+        balances = economy.getAccountManager().getStartingBalances();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        economy.stop();
+    }
+
+    @Test
+    public void slicedSaveWritesEveryAccount() throws IOException {
+        List<String> identifiers = createAccounts(250);
+        ConfigAccountStorage.SlicedSave save = storage.startSave().get();
+        int slices = 1;
+
+        while (!save.copySlice()) {
+            slices++;
+        }
+
+        save.write();
+
+        assertTrue(slices >= 3);
+
+        ConfigurationNode accountConfig = storage.getLoader().load();
+
+        for (String identifier : identifiers) {
+            assertFalse(identifier + " wasn't saved", accountConfig.getNode(identifier).isVirtual());
+        }
+    }
+
+    @Test
+    public void changeWhileCopyingRequestsNextSave() {
+        String identifier = createAccounts(1).get(0);
+        ConfigAccountStorage.SlicedSave save = storage.startSave().get();
+
+        assertFalse(storage.startSave().isPresent());
+
+        storage.setBalance(identifier, false, CURRENCY, new BigDecimal("5.00"));
+        save.copySlice();
+
+        assertTrue(storage.startSave().isPresent());
+    }
+
+    @Test
+    public void outdatedSaveDoesNotOverwriteNewerSave() throws IOException {
+        String identifier = createAccounts(1).get(0);
+        ConfigAccountStorage.SlicedSave outdated = storage.startSave().get();
+
+        while (!outdated.copySlice()) {
+            // Copy every account before the balance changes
+        }
+
+        storage.setBalance(identifier, false, CURRENCY, new BigDecimal("5.00"));
+        storage.save();
+        outdated.write();
+
+        assertEquals(new BigDecimal("5.00"), new BigDecimal(storage.getLoader().load().getNode(identifier, CURRENCY + "-balance").getString()));
+    }
+
+    @Test
+    public void jobNotificationsAreSavedByTheAutosave() {
+        String identifier = createAccounts(1).get(0);
+        storage.save();
+
+        storage.setJobNotifications(identifier, false);
+
+        assertTrue(storage.startSave().isPresent());
+    }
+
+    @Test
+    public void snapshotReadsAccountsAsTheyWereWhenOpened() {
+        AccountRecords records = economy.getAccountManager().getAccountRecords().get();
+        String identifier = createAccounts(1).get(0);
+        String created;
+
+        storage.setBalance(identifier, false, CURRENCY, new BigDecimal("5.00"));
+
+        try (AccountSnapshot snapshot = records.openSnapshot()) {
+            storage.setBalance(identifier, false, CURRENCY, new BigDecimal("7.00"));
+            storage.setBalance(identifier, false, CURRENCY, new BigDecimal("9.00"));
+            created = createAccounts(1).get(0);
+
+            assertEquals(new BigDecimal("5.00"), snapshot.get(identifier).get().getBalance(economy.getDefaultCurrency()).get());
+            assertFalse(snapshot.get(created).isPresent());
+        }
+
+        try (AccountSnapshot snapshot = records.openSnapshot()) {
+            assertEquals(new BigDecimal("9.00"), snapshot.get(identifier).get().getBalance(economy.getDefaultCurrency()).get());
+            assertTrue(snapshot.get(created).isPresent());
+        }
+    }
+
+    private List<String> createAccounts(int count) {
+        List<String> identifiers = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            String identifier = UUID.randomUUID().toString();
+
+            storage.createAccount(identifier, false, balances);
+            identifiers.add(identifier);
+        }
+
+        return identifiers;
+    }
+}
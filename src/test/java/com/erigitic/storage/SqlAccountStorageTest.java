@@ -0,0 +1,135 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.storage;
+
+import com.erigitic.sql.SqlDialect;
+import com.erigitic.sql.SqlManager;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the sql account storage against an in-memory H2 database in PostgreSQL mode.
+ */
+public class SqlAccountStorageTest {
+
+    private static final Map<String, BigDecimal> STARTING_BALANCES = Collections.singletonMap("dollar", new BigDecimal("10.00"));
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL");
+
+        // The in-memory database is dropped when its last connection is closed
+        keepAlive = dataSource.getConnection();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Test
+    public void createAccountAddsJobRowsOnce() throws SQLException {
+        SqlAccountStorage storage = createStorage();
+
+        assertTrue(storage.createAccount("player", false, STARTING_BALANCES));
+        assertFalse(storage.createAccount("player", false, STARTING_BALANCES));
+
+        assertEquals(1, count("levels", "player"));
+        assertEquals(1, count("experience", "player"));
+        assertEquals(Optional.of(1), storage.getJobLevel("player", "farmer", true));
+        assertEquals(Optional.of(0), storage.getJobExp("player", "farmer", true));
+    }
+
+    @Test
+    public void loadAddsPrimaryKeyToExistingTables() throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE accounts (uid varchar(60) NOT NULL, dollar_balance decimal(19,2) NOT NULL DEFAULT '10.00',"
+                    + "job varchar(50) NOT NULL DEFAULT 'Unemployed', job_notifications boolean NOT NULL DEFAULT TRUE, PRIMARY KEY (uid))");
+            statement.execute("CREATE TABLE levels (uid varchar(60), miner integer NOT NULL DEFAULT '1',"
+                    + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE)");
+            statement.execute("CREATE TABLE experience (uid varchar(60), miner integer NOT NULL DEFAULT '0',"
+                    + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE)");
+            statement.execute("INSERT INTO accounts (uid) VALUES ('player')");
+            statement.execute("INSERT INTO levels (uid, miner) VALUES ('player', 4)");
+            statement.execute("INSERT INTO experience (uid, miner) VALUES ('player', 30)");
+        }
+
+        SqlAccountStorage storage = createStorage();
+
+        assertTrue(hasPrimaryKey("LEVELS"));
+        assertTrue(hasPrimaryKey("EXPERIENCE"));
+        assertEquals(Optional.of(4), storage.getJobLevel("player", "miner", true));
+        assertEquals(Optional.of(30), storage.getJobExp("player", "miner", true));
+        assertEquals(Optional.of(1), storage.getJobLevel("player", "farmer", true));
+    }
+
+    private SqlAccountStorage createStorage() {
+        SqlManager sqlManager = new SqlManager(dataSource, SqlDialect.POSTGRESQL, 0, NOPLogger.NOP_LOGGER);
+        SqlAccountStorage storage = new SqlAccountStorage(sqlManager, null, STARTING_BALANCES, true, null, NOPLogger.NOP_LOGGER);
+
+        storage.load();
+
+        return storage;
+    }
+
+    private int count(String table, String identifier) throws SQLException {
+        try (
+                Statement statement = keepAlive.createStatement();
+                ResultSet set = statement.executeQuery("SELECT COUNT(*) FROM " + table + " WHERE uid = '" + identifier + "'")
+        ) {
+            set.next();
+
+            return set.getInt(1);
+        }
+    }
+
+    private boolean hasPrimaryKey(String table) throws SQLException {
+        try (ResultSet set = keepAlive.getMetaData().getPrimaryKeys(null, null, table)) {
+            return set.next();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.erigitic.util;
+
+import com.erigitic.AllocationBudget;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Allocation budget of filling in the values of a message, which is done for every job reward notification.
+ */
+public class MessageTemplateAllocationTest {
+
+    private final MessageManager.MessageTemplate template = new MessageManager.MessageTemplate("&a{money} and {exp} exp for {job}, {unknown}");
+
+    @Test
+    public void renderFillsInValues() {
+        assertEquals("&a$5.00 and 10 exp for miner, {unknown}", template.render(createValues()));
+    }
+
+    @Test
+    public void renderStaysWithinBudget() {
+        Map<String, String> values = createValues();
+
+        AllocationBudget.assertWithin("Message rendering", 512, () -> template.render(values));
+    }
+
+    private static Map<String, String> createValues() {
+        Map<String, String> values = new HashMap<>();
+        values.put("money", "$5.00");
+        values.put("exp", "10");
+        values.put("job", "miner");
+
+        return values;
+    }
+}